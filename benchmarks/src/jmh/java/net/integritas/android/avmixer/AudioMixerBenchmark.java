@@ -0,0 +1,112 @@
+package net.integritas.android.avmixer;
+
+import net.integritas.android.avmixer.codec.JvmMediaBackend;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ *  Whole audio mixing (AVAudioMixer.mixSamples()) on the JvmMediaBackend: WAV files decoded by
+ *  the decode workers, placed on the timeline, resampled when their rate differs from the mix
+ *  rate, mixed, limited and written to the pass-through encoder. One op mixes every track once.
+ * </p>
+ * <p>
+ *  The tracks take the listed sample rates in turn, so "48000,44100" resamples every other
+ *  track to 44100Hz. decodeThreads compares a single decode worker against several.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AudioMixerBenchmark {
+
+    @Param({"2", "8"})
+    public int trackCount;
+
+    @Param({"10", "60"})
+    public int seconds;
+
+    @Param({"1", "4"})
+    public int decodeThreads;
+
+    @Param({"48000", "48000,44100"})
+    public String sampleRates;
+
+    private File mDir;
+    private File[] mFiles;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        String[] rates = sampleRates.split(",");
+        mDir = SyntheticAudio.createTempDir("avmixer-bench");
+        mFiles = new File[trackCount];
+        for (int i = 0; i < trackCount; i++) {
+            mFiles[i] = SyntheticAudio.writeWav(mDir, "track" + i + ".wav",
+                    Integer.parseInt(rates[i % rates.length].trim()), 2, seconds, i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticAudio.delete(mDir);
+    }
+
+    @Benchmark
+    public int mixSamples() throws Exception {
+        AVMixerObject mix = new AVMixerObject("mix.mp4", mDir.getPath());
+        for (File file : mFiles) {
+            mix.addSoundComponent(new AVAudioMixerComponent(file, 0.5f, 0));
+        }
+
+        /* a backend per op, so the mixed containers are not kept around */
+        JvmMediaBackend backend = new JvmMediaBackend();
+        Listener listener = new Listener();
+        AVAudioMixer mixer = new AVAudioMixer(mix, listener);
+        mixer.setMediaBackend(backend);
+        mixer.setDecodeThreads(decodeThreads);
+        mixer.mixSamples();
+        if (listener.mError != null) {
+            throw new IllegalStateException("mixing failed", listener.mError);
+        }
+
+        return backend.getContainer(mix.getTempAudioFilePath()).getSampleCount(0);
+    }
+
+    private static class Listener implements IAVInternalListener {
+
+        volatile Throwable mError;
+
+        @Override
+        public void onVideoFinishedMixing() {
+        }
+
+        @Override
+        public void onAudioFinishedMixing() {
+        }
+
+        @Override
+        public void onMixFinished() {
+        }
+
+        @Override
+        public void onMixingError(Throwable t) {
+            mError = t;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package net.integritas.android.avmixer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ *  Zip round trip of AVMixerObjectParser: createBinaryFile() copies the visual components of a
+ *  mixer object and zips them, readBinaryFile() unzips them back. The components are random
+ *  bytes, which do not compress, like the media files they stand for.
+ * </p>
+ * <p>
+ *  The parser works on fixed directories of the external storage, which the benchmarks put
+ *  under the avmixer.storage system property, the temporary directory by default.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MixerObjectParserBenchmark {
+
+    @Param({"1", "8"})
+    public int fileCount;
+
+    @Param({"256", "4096"})
+    public int fileSizeKb;
+
+    private File mDir;
+    private AVMixerObject mMixObject;
+    private File mZip;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mDir = SyntheticAudio.createTempDir("avmixer-zip");
+        mMixObject = new AVMixerObject("mix.mp4", mDir.getPath());
+
+        Random random = new Random(fileCount);
+        byte[] data = new byte[fileSizeKb * 1024];
+        for (int i = 0; i < fileCount; i++) {
+            random.nextBytes(data);
+            File file = new File(mDir, "clip" + i + ".mp4");
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            mMixObject.addVideo(new AVVideoMixerComponent(file));
+        }
+
+        /* kept out of the parser directories, which createBinaryFile() cleans */
+        mZip = new File(mDir, "mix.zip");
+        copy(AVMixerObjectParser.createBinaryFile(mMixObject), mZip);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticAudio.delete(mDir);
+    }
+
+    @Benchmark
+    public File createBinaryFile() {
+        return AVMixerObjectParser.createBinaryFile(mMixObject);
+    }
+
+    @Benchmark
+    public AVMixerObject readBinaryFile() {
+        return AVMixerObjectParser.readBinaryFile(mZip);
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(to);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                int length;
+                while ((length = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, length);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
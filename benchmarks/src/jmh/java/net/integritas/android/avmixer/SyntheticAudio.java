@@ -0,0 +1,79 @@
+package net.integritas.android.avmixer;
+
+import net.integritas.android.avmixer.codec.WavExtractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * <p>
+ *  Synthetic PCM and media files for the benchmarks. The audio is seeded noise around -12dBFS,
+ *  so every run mixes the same samples and the mixes neither stay silent nor clip all along.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public final class SyntheticAudio {
+
+    private static final int LEVEL = 8192;
+
+    private SyntheticAudio() {
+    }
+
+    /**
+     * @return interleaved 16 bit samples of seeded noise
+     */
+    public static short[] noise(int frames, int channels, long seed) {
+        Random random = new Random(seed);
+        short[] samples = new short[frames * channels];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (random.nextInt(2 * LEVEL) - LEVEL);
+        }
+        return samples;
+    }
+
+    /**
+     * @return samples of seeded noise in the float scale the effects and the limiter take,
+     * multiplied by gain
+     */
+    public static float[] noise(int frames, int channels, long seed, float gain) {
+        short[] pcm = noise(frames, channels, seed);
+        float[] samples = new float[pcm.length];
+        for (int i = 0; i < pcm.length; i++) {
+            samples[i] = pcm[i] * gain;
+        }
+        return samples;
+    }
+
+    /**
+     * Writes seconds of noise as a 16 bit PCM WAV file, as read by the JvmMediaBackend
+     */
+    public static File writeWav(File dir, String name, int sampleRate, int channels,
+                                int seconds, long seed) throws IOException {
+        File file = new File(dir, name);
+        short[] samples = noise(sampleRate * seconds, channels, seed);
+        WavExtractor.write(file, sampleRate, channels, samples, 0, samples.length);
+        return file;
+    }
+
+    public static File createTempDir(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("could not create " + dir);
+        }
+        return dir;
+    }
+
+    public static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
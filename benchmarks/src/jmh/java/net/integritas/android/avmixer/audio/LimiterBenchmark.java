@@ -0,0 +1,64 @@
+package net.integritas.android.avmixer.audio;
+
+import net.integritas.android.avmixer.SyntheticAudio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ *  Look-ahead true-peak limiter over one stereo block of mixed samples, in nanoseconds per
+ *  sample. A gain of 1 stays under the default ceiling, a gain of 6 keeps the limiter reducing
+ *  the gain all along.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LimiterBenchmark {
+
+    private static final int CHANNELS = 2;
+    private static final int FRAMES = 1024;
+    private static final int SAMPLES = FRAMES * CHANNELS;
+    private static final int SAMPLE_RATE = 48000;
+
+    @Param({"1", "6"})
+    public float gain;
+
+    @Param({"1", "5"})
+    public float lookAheadMs;
+
+    private LookAheadLimiter mLimiter;
+    private float[] mIn;
+    private short[] mOut;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mLimiter = new LookAheadLimiter(LookAheadLimiter.DEFAULT_CEILING_DB, lookAheadMs,
+                LookAheadLimiter.DEFAULT_RELEASE_MS);
+        mLimiter.prepare(SAMPLE_RATE, CHANNELS);
+        mIn = SyntheticAudio.noise(FRAMES, CHANNELS, 0, gain);
+        mOut = new short[SAMPLES];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public short[] process() {
+        mLimiter.process(mIn, mOut, FRAMES);
+        return mOut;
+    }
+}
@@ -0,0 +1,59 @@
+package net.integritas.android.avmixer.audio;
+
+import net.integritas.android.avmixer.SyntheticAudio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ *  Streaming conversion of one stereo decoded chunk to the 48kHz mix rate, for each resampling
+ *  quality. Input samples per second on a core are ops/s times the chunk frames.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ResamplerBenchmark {
+
+    private static final int CHANNELS = 2;
+    private static final int OUTPUT_RATE = 48000;
+
+    @Param({"LOW", "MEDIUM", "HIGH"})
+    public PolyphaseResampler.Quality quality;
+
+    @Param({"44100", "22050"})
+    public int inputRate;
+
+    @Param({"1024", "4096"})
+    public int chunkFrames;
+
+    private PolyphaseResampler mResampler;
+    private short[] mIn;
+    private short[] mOut;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mResampler = new PolyphaseResampler(inputRate, OUTPUT_RATE, CHANNELS, quality);
+        mIn = SyntheticAudio.noise(chunkFrames, CHANNELS, 0);
+        mOut = new short[mResampler.getMaxOutputSamples(mIn.length)];
+    }
+
+    @Benchmark
+    public int process() {
+        return mResampler.process(mIn, 0, mIn.length, mOut, 0);
+    }
+}
@@ -0,0 +1,84 @@
+package net.integritas.android.avmixer.audio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ *  Bookkeeping done for every decoded chunk: placing the tracks delay and startAt on the
+ *  timeline (AudioTimeline) and deriving the presentation times from the sample count
+ *  (AudioClock), checked against the decoder timestamps.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TimelineBenchmark {
+
+    private static final int CHANNELS = 2;
+    private static final int SAMPLE_RATE = 44100;
+    private static final int MIX_SAMPLE_RATE = 48000;
+
+    @Param({"2", "8"})
+    public int trackCount;
+
+    @Param({"2048", "8192"})
+    public int chunkSamples;
+
+    private AudioTimeline mTimeline;
+    private AudioClock mClock;
+    private long mChunkUs;
+    private long mDecoderTimeUs;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mTimeline = new AudioTimeline(trackCount);
+        mTimeline.setMixSampleRate(MIX_SAMPLE_RATE);
+        for (int i = 0; i < trackCount; i++) {
+            mTimeline.setFormat(i, SAMPLE_RATE, CHANNELS);
+        }
+        mClock = new AudioClock(MIX_SAMPLE_RATE, CHANNELS);
+        mChunkUs = chunkSamples / CHANNELS * 1000000l / SAMPLE_RATE;
+    }
+
+    /**
+     * Places every track, then takes one decoded chunk of each through the timeline
+     */
+    @Benchmark
+    public int placeChunks() {
+        int samples = 0;
+        for (int i = 0; i < trackCount; i++) {
+            mTimeline.place(i, i * 250000l, i * 100000l);
+            long chunkTimeUs = i * 50000l;
+            if (mTimeline.isPacketNeeded(i, chunkTimeUs)) {
+                samples += chunkSamples - mTimeline.skip(i, chunkTimeUs, chunkSamples);
+                samples += mTimeline.consumeSilence(i, chunkSamples);
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Advances the mix clock by one chunk and compares it against a slightly late decoder
+     * timestamp
+     */
+    @Benchmark
+    public long presentationTime() {
+        long presentationTimeUs = mClock.advance(chunkSamples);
+        mDecoderTimeUs += mChunkUs + 1;
+        return presentationTimeUs + mClock.observe(mDecoderTimeUs);
+    }
+}
@@ -0,0 +1,111 @@
+package net.integritas.android.avmixer.codec;
+
+import net.integritas.android.avmixer.SyntheticAudio;
+import net.integritas.android.avmixer.audio.AudioClock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ *  Mixed windows written into the encoder input buffers (PcmEncoderInput), which replaced the
+ *  shortToByte() copy of the mixed samples. The encoder takes every buffer back as soon as it
+ *  is queued, so only the writes and the pump are measured.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PcmEncoderInputBenchmark {
+
+    private static final int CHANNELS = 2;
+
+    @Param({"512", "2048", "8192"})
+    public int windowSamples;
+
+    @Param({"4096", "16384"})
+    public int bufferSize;
+
+    private PcmEncoderInput mInput;
+    private short[] mWindow;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        CodecPump pump = new CodecPump();
+        DiscardingEncoder encoder = new DiscardingEncoder(4, bufferSize);
+        int id = pump.add(encoder);
+        mInput = new PcmEncoderInput(pump, id, encoder, new AudioClock(48000, CHANNELS));
+        mWindow = SyntheticAudio.noise(windowSamples / CHANNELS, CHANNELS, 0);
+    }
+
+    @Benchmark
+    public int write() {
+        return mInput.write(mWindow, 0, mWindow.length);
+    }
+
+    /**
+     * Synchronous encoder with direct input buffers, like MediaCodec ones, which are free again
+     * as soon as they are queued
+     */
+    private static final class DiscardingEncoder
+            implements CodecPump.Codec, PcmEncoderInput.Buffers {
+
+        private final ByteBuffer[] mBuffers;
+        private final int[] mFree;
+        private int mFreeCount;
+
+        DiscardingEncoder(int buffers, int capacity) {
+            mBuffers = new ByteBuffer[buffers];
+            mFree = new int[buffers];
+            for (int i = 0; i < buffers; i++) {
+                mBuffers[i] = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+                mFree[mFreeCount++] = i;
+            }
+        }
+
+        @Override
+        public boolean isAsync() {
+            return false;
+        }
+
+        @Override
+        public void setListener(CodecPump.Listener listener) {
+        }
+
+        @Override
+        public int dequeueInputBuffer(long timeoutUs) {
+            return mFreeCount > 0 ? mFree[--mFreeCount] : CodecPump.INFO_TRY_AGAIN_LATER;
+        }
+
+        @Override
+        public int dequeueOutputBuffer(CodecPump.OutputBuffer out, long timeoutUs) {
+            return CodecPump.INFO_TRY_AGAIN_LATER;
+        }
+
+        @Override
+        public ByteBuffer getInputBuffer(int index) {
+            return mBuffers[index];
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs,
+                                     int flags) {
+            mFree[mFreeCount++] = index;
+        }
+    }
+}
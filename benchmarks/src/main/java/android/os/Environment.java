@@ -0,0 +1,31 @@
+package android.os;
+
+import java.io.File;
+
+/**
+ * <p>
+ *  Plain JVM stand-in of the Android Environment, for the library code run by the benchmarks.
+ *  The public directories are kept under the avmixer.storage system property, the temporary
+ *  directory by default.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public final class Environment {
+
+    public static String DIRECTORY_DCIM = "DCIM";
+
+    private Environment() {
+    }
+
+    public static File getExternalStorageDirectory() {
+        return new File(System.getProperty("avmixer.storage",
+                System.getProperty("java.io.tmpdir")), "avmixer-storage");
+    }
+
+    public static File getExternalStoragePublicDirectory(String type) {
+        return new File(getExternalStorageDirectory(), type);
+    }
+}
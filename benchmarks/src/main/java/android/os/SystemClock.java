@@ -0,0 +1,24 @@
+package android.os;
+
+/**
+ * <p>
+ *  Plain JVM stand-in of the Android SystemClock, for the library code run by the benchmarks.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public final class SystemClock {
+
+    private SystemClock() {
+    }
+
+    public static long elapsedRealtime() {
+        return System.nanoTime() / 1000000l;
+    }
+
+    public static long uptimeMillis() {
+        return System.nanoTime() / 1000000l;
+    }
+}
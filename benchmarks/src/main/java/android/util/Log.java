@@ -0,0 +1,53 @@
+package android.util;
+
+/**
+ * <p>
+ *  Plain JVM stand-in of the Android Log, for the library code run by the benchmarks. Only
+ *  warnings and errors are printed, so logging does not weigh on the measurements.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public final class Log {
+
+    private Log() {
+    }
+
+    public static int v(String tag, String msg) {
+        return 0;
+    }
+
+    public static int d(String tag, String msg) {
+        return 0;
+    }
+
+    public static int i(String tag, String msg) {
+        return 0;
+    }
+
+    public static int w(String tag, String msg) {
+        return print(tag, msg, null);
+    }
+
+    public static int w(String tag, String msg, Throwable tr) {
+        return print(tag, msg, tr);
+    }
+
+    public static int e(String tag, String msg) {
+        return print(tag, msg, null);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return print(tag, msg, tr);
+    }
+
+    private static int print(String tag, String msg, Throwable tr) {
+        System.err.println(tag + ": " + msg);
+        if (tr != null) {
+            tr.printStackTrace();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,154 @@
+package net.integritas.android.avmixer;
+
+import net.integritas.android.avmixer.codec.CodecPump;
+import net.integritas.android.avmixer.codec.MediaBackend;
+import net.integritas.android.avmixer.util.Logger;
+
+import java.util.ArrayList;
+
+/**
+ * <p>
+ * Decode thread of the audio mixing. Drives the decoders of a set of tracks through its own
+ * {@link CodecPump}, sleeping whenever all of them are waiting for their decoder or
+ * for the mixing thread to free ring buffer space.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+class AVAudioDecodeWorker implements Runnable {
+
+    /**
+     * Longest wait for a decoder buffer, and number of consecutive waits without any decoder
+     * progress after which the remaining tracks are ended.
+     */
+    private static final long CODEC_WAIT_TIMEOUT_US = 10000;
+    private static final int CODEC_STALL_WAITS = 50;
+
+    private final CodecPump mPump;
+    private final ArrayList<AVAudioTrackDecoder> mTracks = new ArrayList<AVAudioTrackDecoder>();
+    private volatile Exception mException;
+    private volatile boolean mCancelled;
+    private Thread mThread;
+
+    AVAudioDecodeWorker(MediaBackend backend, boolean asyncCodecs) {
+        mPump = backend.createPump(asyncCodecs);
+    }
+
+    CodecPump getPump() {
+        return mPump;
+    }
+
+    void addTrack(AVAudioTrackDecoder track) {
+        mTracks.add(track);
+    }
+
+    void start(String name) {
+        mThread = new Thread(this, name);
+        mThread.setPriority(Thread.MAX_PRIORITY);
+        mThread.start();
+    }
+
+    void join() throws InterruptedException {
+        if (mThread != null) {
+            mThread.join();
+        }
+    }
+
+    /**
+     * Stops decoding and releases the tracks decoders. A worker that was never started
+     * releases them right away.
+     */
+    void cancel() {
+        mCancelled = true;
+        if (mThread == null) {
+            release();
+        } else {
+            mPump.wakeUp();
+        }
+    }
+
+    /**
+     * @return the exception which stopped the worker, if any
+     */
+    Exception getException() {
+        return mException;
+    }
+
+    @Override
+    public void run() {
+        CodecPump.OutputBuffer output = new CodecPump.OutputBuffer();
+        int noOutputCounter = 0;
+
+        try {
+            while (!mCancelled && !isFinished() && noOutputCounter < CODEC_STALL_WAITS) {
+                boolean progress = false;
+                for (int i = 0; i < mTracks.size(); i++) {
+                    AVAudioTrackDecoder track = mTracks.get(i);
+                    long startNs = System.nanoTime();
+                    if (track.step(output)) {
+                        track.addDecodeTime(System.nanoTime() - startNs);
+                        progress = true;
+                    }
+                }
+
+                if (progress) {
+                    noOutputCounter = 0;
+                } else {
+                    /* time spent waiting for a decoder is decoding time of its track, time
+                       spent waiting on the mixing thread is not */
+                    long startNs = System.nanoTime();
+                    boolean available = mPump.await(CODEC_WAIT_TIMEOUT_US);
+                    if (addWaitTime(System.nanoTime() - startNs) && !available) {
+                        /* waiting on the mixing thread is not a decoder stall */
+                        noOutputCounter++;
+                    }
+                }
+            }
+
+            Logger.LOGV("AVAudioMixer", "decode worker done, noOutputCounter is: "
+                    + noOutputCounter);
+        } catch (Exception e) {
+            mException = e;
+        } finally {
+            release();
+        }
+    }
+
+    private void release() {
+        for (int i = 0; i < mTracks.size(); i++) {
+            try {
+                mTracks.get(i).finish();
+            } catch (Exception e) {
+                Logger.LOGE("AVAudioMixer", "error releasing audio decoder: " + e);
+            }
+        }
+        mPump.release();
+    }
+
+    private boolean isFinished() {
+        for (int i = 0; i < mTracks.size(); i++) {
+            if (!mTracks.get(i).isOutputEOS()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a wait to the decoding time of the tracks waiting for their decoder
+     *
+     * @return whether any track is waiting for its decoder
+     */
+    private boolean addWaitTime(long timeNs) {
+        boolean waiting = false;
+        for (int i = 0; i < mTracks.size(); i++) {
+            if (mTracks.get(i).isWaitingForDecoder()) {
+                mTracks.get(i).addDecodeTime(timeNs);
+                waiting = true;
+            }
+        }
+        return waiting;
+    }
+}
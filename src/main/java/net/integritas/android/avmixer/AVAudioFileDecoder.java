@@ -0,0 +1,199 @@
+package net.integritas.android.avmixer;
+
+import android.util.Log;
+
+import net.integritas.android.avmixer.cache.PcmCache;
+import net.integritas.android.avmixer.codec.CodecPump;
+import net.integritas.android.avmixer.codec.MediaBackend;
+import net.integritas.android.avmixer.codec.TrackCodec;
+import net.integritas.android.avmixer.codec.TrackExtractor;
+import net.integritas.android.avmixer.codec.TrackFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * <p>
+ * Decodes a whole audio file on the calling thread, handing its samples to a {@link Sink}, for
+ * the analyses which need every sample of a file but not the mixing timeline (loudness,
+ * waveform). A file on the {@link PcmCache} is read from its cached samples instead, and a
+ * decoded file is stored on the PcmCache on the way, so the file is decoded only once.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+class AVAudioFileDecoder {
+
+    /**
+     * Longest wait for a decoder buffer, and number of consecutive waits without any decoder
+     * progress after which the decoder is taken as stalled.
+     */
+    private static final long CODEC_WAIT_TIMEOUT_US = 10000;
+    private static final int CODEC_STALL_WAITS = 500;
+
+    /**
+     * Receives the samples of the decoded file
+     */
+    interface Sink {
+
+        /**
+         * Called before the first samples, and whenever the decoded format changes
+         */
+        void onFormat(int sampleRate, int channelCount);
+
+        /**
+         * @param pcm     - interleaved samples, from their position. The position must not be
+         *                moved.
+         * @param samples - number of samples
+         */
+        void onSamples(ShortBuffer pcm, int samples);
+    }
+
+    private final MediaBackend mBackend;
+    private final PcmCache mCache;
+    private final boolean mAsyncCodecs;
+
+    /**
+     * @param backend     - backend the file is decoded on
+     * @param cache       - decoded PCM cache, or null
+     * @param asyncCodecs - whether the decoder runs in asynchronous mode
+     */
+    AVAudioFileDecoder(MediaBackend backend, PcmCache cache, boolean asyncCodecs) {
+        mBackend = backend;
+        mCache = cache;
+        mAsyncCodecs = asyncCodecs;
+    }
+
+    /**
+     * Hands every sample of a file to the sink
+     */
+    void decode(File file, Sink sink) throws Exception {
+        PcmCache.Entry entry = null;
+        if (mCache != null) {
+            try {
+                entry = mCache.get(file);
+            } catch (IOException e) {
+                Log.w("AVMixer", "audio cache lookup failed: " + e);
+            }
+        }
+
+        if (entry != null) {
+            ShortBuffer samples = entry.getSamples();
+            sink.onFormat(entry.getSampleRate(), entry.getChannelCount());
+            sink.onSamples(samples, samples.remaining());
+        } else {
+            decodeFile(file, sink);
+        }
+    }
+
+    private void decodeFile(File file, Sink sink) throws Exception {
+        long startNs = System.nanoTime();
+        TrackExtractor extractor = mBackend.createExtractor(file.getAbsolutePath());
+        CodecPump pump = mBackend.createPump(mAsyncCodecs);
+        TrackCodec decoder = null;
+        PcmCache.Writer cacheWriter = null;
+
+        try {
+            TrackFormat format = extractor.getTrackFormat(0);
+            int sampleRate = format.getInteger(TrackFormat.KEY_SAMPLE_RATE);
+            int channelCount = format.getInteger(TrackFormat.KEY_CHANNEL_COUNT);
+            sink.onFormat(sampleRate, channelCount);
+            extractor.selectTrack(0);
+
+            decoder = mBackend.createDecoder(pump, format.getString(TrackFormat.KEY_MIME));
+            decoder.configure(format, 0);
+            decoder.start();
+            int codecId = pump.add(decoder);
+
+            boolean cacheable = mCache != null;
+            boolean inputEOS = false;
+            CodecPump.OutputBuffer output = new CodecPump.OutputBuffer();
+            int stalls = 0;
+
+            while (true) {
+                boolean progress = false;
+
+                int inputBufferIndex = inputEOS ? -1 : pump.pollInput(codecId);
+                if (inputBufferIndex >= 0) {
+                    ByteBuffer buffer = decoder.getInputBuffer(inputBufferIndex);
+                    int sampleSize = extractor.readSampleData(buffer, 0);
+                    if (sampleSize < 0) {
+                        inputEOS = true;
+                        decoder.queueInputBuffer(inputBufferIndex, 0, 0, 0,
+                                CodecPump.BUFFER_FLAG_END_OF_STREAM);
+                    } else {
+                        decoder.queueInputBuffer(inputBufferIndex, 0, sampleSize,
+                                extractor.getSampleTime(), 0);
+                        extractor.advance();
+                    }
+                    progress = true;
+                }
+
+                if (pump.pollOutput(codecId, output)) {
+                    progress = true;
+                    if (output.isFormatChange()) {
+                        TrackFormat decodedFormat = decoder.getOutputFormat();
+                        sampleRate = decodedFormat.getInteger(TrackFormat.KEY_SAMPLE_RATE);
+                        channelCount = decodedFormat.getInteger(TrackFormat.KEY_CHANNEL_COUNT);
+                        sink.onFormat(sampleRate, channelCount);
+                        if (cacheWriter != null) {
+                            /* a cache entry holds a single format */
+                            cacheWriter.abort();
+                            cacheWriter = null;
+                            cacheable = false;
+                        }
+                        continue;
+                    }
+
+                    if (output.size > 0) {
+                        int samples = output.size / 2;
+                        ByteBuffer buffer = decoder.getOutputBuffer(output.index);
+                        buffer.position(output.offset);
+                        buffer.limit(output.offset + output.size);
+                        ShortBuffer pcm = buffer.asShortBuffer();
+
+                        sink.onSamples(pcm, samples);
+
+                        if (cacheable && cacheWriter == null) {
+                            cacheWriter = mCache.edit(file, sampleRate, channelCount);
+                        }
+                        if (cacheWriter != null) {
+                            cacheWriter.write(pcm, samples);
+                        }
+                        buffer.clear();
+                    }
+
+                    decoder.releaseOutputBuffer(output.index, false);
+                    if (output.isEndOfStream()) {
+                        break;
+                    }
+                }
+
+                if (progress) {
+                    stalls = 0;
+                } else if (!pump.await(CODEC_WAIT_TIMEOUT_US) && ++stalls >= CODEC_STALL_WAITS) {
+                    throw new IllegalStateException("audio decoder stalled decoding " + file);
+                }
+            }
+
+            if (cacheWriter != null) {
+                cacheWriter.commit((System.nanoTime() - startNs) / 1000000l);
+                cacheWriter = null;
+            }
+        } finally {
+            if (cacheWriter != null) {
+                cacheWriter.abort();
+            }
+            if (decoder != null) {
+                decoder.stop();
+                decoder.release();
+            }
+            pump.release();
+            extractor.release();
+        }
+    }
+}
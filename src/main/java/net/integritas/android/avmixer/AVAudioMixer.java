@@ -1,14 +1,29 @@
 package net.integritas.android.avmixer;
 
-import android.media.MediaCodec;
-import android.media.MediaExtractor;
-import android.media.MediaFormat;
-import android.media.MediaMuxer;
+import android.os.SystemClock;
 import android.util.Log;
 
+import net.integritas.android.avmixer.audio.AudioClock;
+import net.integritas.android.avmixer.audio.AudioEffectChain;
+import net.integritas.android.avmixer.audio.AudioTimeline;
+import net.integritas.android.avmixer.audio.ChannelMatrix;
+import net.integritas.android.avmixer.audio.GainEnvelope;
+import net.integritas.android.avmixer.audio.LookAheadLimiter;
+import net.integritas.android.avmixer.audio.PcmMixKernel;
+import net.integritas.android.avmixer.audio.PolyphaseResampler;
+import net.integritas.android.avmixer.audio.SidechainDucker;
+import net.integritas.android.avmixer.cache.LoudnessCache;
+import net.integritas.android.avmixer.cache.PcmCache;
+import net.integritas.android.avmixer.cache.PeakCache;
+import net.integritas.android.avmixer.codec.AndroidMediaBackend;
+import net.integritas.android.avmixer.codec.CodecPump;
+import net.integritas.android.avmixer.codec.MediaBackend;
+import net.integritas.android.avmixer.codec.PcmEncoderInput;
+import net.integritas.android.avmixer.codec.TrackCodec;
+import net.integritas.android.avmixer.codec.TrackFormat;
+import net.integritas.android.avmixer.codec.TrackMuxer;
 import net.integritas.android.avmixer.util.Logger;
 
-import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -20,7 +35,7 @@ import java.util.Arrays;
  *
  * @author AlexGP (alexandre.gomes@integritas.net)
  * @author Raphael Kohn (raphael.kohn@integritas.net)
- * @version 1.8
+ * @version 1.9
  * @since 1.0
  */
 class AVAudioMixer {
@@ -33,25 +48,111 @@ class AVAudioMixer {
     private static final int KEY_CHANNEL_COUNT = 2;
     private static final int COMPRESSED_AUDIO_FILE_BIT_RATE = 128000; // 128kbps
     private static final int SAMPLING_RATE = 48000;
-    private static final int CODEC_TIMEOUT_IN_MS = 5000;
     private static final boolean VERBOSE = false;
-    private static final int THREEGP2_SAMPLING_RATE = 8 * 1024;
+    private static final int THREEGP2_SAMPLING_RATE = 8000;
     private static final int THREEGP2_BIT_RATE = 8000;
     private static final int THREEGP2_CHANNEL = 1;
 
+    /**
+     * Longest wait of the mixing thread for decoded samples
+     */
+    private static final long DECODE_WAIT_TIMEOUT_MS = 10;
+
+    /**
+     * Scale between 16 bit PCM and the float samples the track effects work on
+     */
+    private static final float PCM_TO_FLOAT = 1.0f / 32768.0f;
+    private static final float FLOAT_TO_PCM = 32768.0f;
+
+    /**
+     * Longest wait for an encoder buffer, and number of consecutive waits without any encoder
+     * buffer after which the encoder is considered stalled.
+     */
+    private static final long CODEC_WAIT_TIMEOUT_US = 10000;
+    private static final int CODEC_STALL_WAITS = 500;
+
+    /**
+     * Highest gain the loudness normalization applies to a quiet track, in dB
+     */
+    private static final float MAX_NORMALIZATION_GAIN_DB = 20.0f;
+
     private int audioChunk;
     private AVMixerObject mMixObject;
     private IAVInternalListener mListener;
     private boolean mMixingOver;
     private Exception mException;
-    private ArrayList<short[]> mixedSoundBuffer = new ArrayList<short[]>();
-    private ArrayList<short[]>[] audioBuffers;
-    private ArrayList<Long> presentationArray = new ArrayList<Long>();
     private long lastPresentationTimeUsToMuxer;
     private float volumes[];
     private long[] audioDelays;
-    private int mBufferSize;
-    private short[] mStaticAudio;
+    private int mWindowFrames;
+
+    /* streaming state */
+    private AVAudioTrackDecoder[] mDecoders;
+    private AudioTimeline mTimeline;
+    private PolyphaseResampler.Quality mResampleQuality = PolyphaseResampler.Quality.MEDIUM;
+    private int mMixSampleRate;
+    private int mMixChannelCount;
+    private ChannelMatrix[] mChannelMatrices;
+    private short[][] mTrackWindows;
+    private short[][] mWindowData;
+    private int[] mWindowLengths;
+    private short[] mMixedWindow;
+    private short[] mWindowOutput;
+    private PcmMixKernel mMixKernel = PcmMixKernel.create(PcmMixKernel.Type.FLOAT);
+    private PcmMixKernel.Scratch mMixScratch = new PcmMixKernel.Scratch();
+
+    /* last stage of the mix, null to clip it. Its first output samples are its latency, which
+       is not encoded */
+    private LookAheadLimiter mLimiter;
+    private int mLimiterSkipSamples;
+    private AudioClock mMixClock;
+    private long mMixedFrames;
+
+    /* gain automation: envelopes of each track, relative to the track start, and of the whole
+       mix */
+    private GainEnvelope[][] mTrackEnvelopes;
+    private long[] mTrackStartUs;
+    private GainEnvelope mMasterEnvelope;
+    private float[] mWindowGains;
+    private float[][] mWindowEnvelopes;
+    private float[][] mEnvelopeGains;
+    private float[] mEnvelopeScratch;
+
+    /* effects of each track, null for a track without effects, and their float blocks */
+    private AudioEffectChain[] mEffects;
+    private float[][] mEffectBlocks;
+    private int[] mEffectChannels;
+
+    /* sidechain ducking: the voice tracks lower the bed tracks, null when there is no ducking */
+    private SidechainDucker mDucker;
+    private boolean[] mDuckVoices;
+    private boolean[] mDuckBeds;
+    private int[] mTrackChannels;
+    private float[] mDuckGains;
+
+    /* loudness normalization target, in LUFS, NaN for none */
+    private float mLoudnessTarget = Float.NaN;
+    private LoudnessCache mLoudnessCache;
+    private boolean mAsyncCodecs = true;
+    private int mDecodeThreads;
+
+    /* encoder state */
+    private MediaBackend mMediaBackend = new AndroidMediaBackend();
+    private CodecPump mEncoderPump;
+    private TrackCodec mEncoder;
+    private int mEncoderId = -1;
+    private PcmEncoderInput mEncoderInput;
+    private final CodecPump.OutputBuffer mEncoderOutput = new CodecPump.OutputBuffer();
+    private boolean mEncoderOutputEOS;
+    private TrackMuxer mMuxer;
+
+    /* bumped by the decode workers whenever a track has new samples */
+    private final Object mDecodeLock = new Object();
+    private long mDecodeEvents;
+    private long mAwaitedDecodeEvents;
+    private AVMixerMetrics mMetrics;
+    private PcmCache mCache;
+    private PeakCache mPeakCache;
 
 
     public AVAudioMixer(AVMixerObject mixObject, IAVInternalListener listener) {
@@ -61,7 +162,126 @@ class AVAudioMixer {
     }
 
     /**
-     * Mix the samples from AudioFiles in the AVMixerObject
+     * Sets the mix kernel variant used to sum the tracks. Must be called before mixSamples().
+     *
+     * @param type - kernel variant, FLOAT by default
+     */
+    void setMixKernel(PcmMixKernel.Type type) {
+        mMixKernel = PcmMixKernel.create(type);
+    }
+
+    /**
+     * Sets the limiter keeping the mix under its ceiling. Must be called before mixSamples().
+     *
+     * @param limiter - limiter, or null to clip the mix
+     */
+    void setLimiter(LookAheadLimiter limiter) {
+        mLimiter = limiter;
+    }
+
+    /**
+     * Sets the quality of the sample rate conversion applied to the tracks which sample rate
+     * differs from the mix sample rate. Must be called before mixSamples().
+     *
+     * @param quality - resampling quality, MEDIUM by default
+     */
+    void setResampleQuality(PolyphaseResampler.Quality quality) {
+        mResampleQuality = quality;
+    }
+
+    /**
+     * Sets the backend the tracks are decoded, encoded and muxed on. Must be called before
+     * mixSamples().
+     *
+     * @param mediaBackend - backend, the AndroidMediaBackend by default
+     */
+    void setMediaBackend(MediaBackend mediaBackend) {
+        mMediaBackend = mediaBackend;
+    }
+
+    /**
+     * Sets whether the decoders run in asynchronous mode when the API level allows it. Must be
+     * called before mixSamples().
+     */
+    void setAsyncCodecs(boolean asyncCodecs) {
+        mAsyncCodecs = asyncCodecs;
+    }
+
+    /**
+     * Sets how many threads decode the audio tracks. Must be called before mixSamples().
+     *
+     * @param decodeThreads - number of decode threads, 0 for one per track up to the number of
+     *                      available processors
+     */
+    void setDecodeThreads(int decodeThreads) {
+        mDecodeThreads = decodeThreads;
+    }
+
+    /**
+     * Sets the cache the decoded tracks are read from and written to. Must be called before
+     * mixSamples().
+     *
+     * @param cache - decoded PCM cache, or null to always decode the tracks
+     */
+    void setCache(PcmCache cache) {
+        mCache = cache;
+    }
+
+    /**
+     * Sets the cache the waveform of each track is stored on. Must be called before
+     * mixSamples().
+     *
+     * @param peakCache - waveform cache, or null
+     */
+    void setPeakCache(PeakCache peakCache) {
+        mPeakCache = peakCache;
+    }
+
+    /**
+     * Sets a gain envelope applied to the whole mix, on top of the tracks own envelopes. Must be
+     * called before mixSamples().
+     *
+     * @param envelope - envelope, with breakpoint times relative to the start of the mix
+     */
+    void setMasterEnvelope(GainEnvelope envelope) {
+        mMasterEnvelope = envelope;
+    }
+
+    /**
+     * Sets the sidechain ducking of the BED tracks under the VOICE tracks. Must be called before
+     * mixSamples().
+     *
+     * @param ducker - ducker, or null for no ducking
+     */
+    void setDucker(SidechainDucker ducker) {
+        mDucker = ducker;
+    }
+
+    /**
+     * Sets the loudness every track is normalized to before its volume is applied. Must be
+     * called before mixSamples().
+     *
+     * @param target - integrated loudness target, in LUFS, or Float.NaN for no normalization
+     * @param cache  - cache of the track measurements, or null to measure every track
+     */
+    void setLoudnessNormalization(float target, LoudnessCache cache) {
+        mLoudnessTarget = target;
+        mLoudnessCache = cache;
+    }
+
+    /**
+     * Sets where the audio mixing metrics are reported to
+     */
+    void setMetrics(AVMixerMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Mix the samples from AudioFiles in the AVMixerObject.
+     * <p/>
+     * The mixing is streamed: each track is decoded by a decode worker thread into its own
+     * bounded ring buffer and, as soon as every track has a full window of samples, the window
+     * is mixed and sent to the encoder. No track is ever fully held in memory.
      */
     public void mixSamples() throws Exception {
         Runnable r = new Runnable() {
@@ -71,12 +291,10 @@ class AVAudioMixer {
                 ArrayList<AVAudioMixerComponent> audioFiles = mMixObject.getAudioComponents();
                 int n_audioFiles = audioFiles.size();
 
-                MediaCodec[] decoders = new MediaCodec[n_audioFiles];
-                MediaExtractor[] extractors = new MediaExtractor[n_audioFiles];
-                MediaCodec.BufferInfo[] bufferInfos = new MediaCodec.BufferInfo[n_audioFiles];
-                boolean[] sawInputEOSs = new boolean[n_audioFiles];
-
-                short[][] shortArray = new short[n_audioFiles][];
+                mDecoders = new AVAudioTrackDecoder[n_audioFiles];
+                mChannelMatrices = new ChannelMatrix[n_audioFiles];
+                AVAudioDecodeWorker[] workers = new AVAudioDecodeWorker[0];
+                int startedDecoders = 0;
                 boolean[] outputEOS = new boolean[n_audioFiles];
 
                 /* reads the set audio delays */
@@ -85,312 +303,217 @@ class AVAudioMixer {
                     audioDelays[i] = audioFiles.get(i).getDelay();
                 }
 
-                /* prepare audio buffers */
-                audioBuffers = new ArrayList[n_audioFiles];
-                for (int i = 0; i < audioBuffers.length; i++) {
-                    audioBuffers[i] = new ArrayList<>();
+                /* places every track on the mixing timeline. The general audio delay set on
+                   the mixer object is only considered if no audio delay is set on any audio
+                   track individually */
+                boolean trackDelays = verifyAudioDelays(audioDelays) > 0;
+                mTimeline = new AudioTimeline(n_audioFiles);
+                mTrackStartUs = new long[n_audioFiles];
+                for (int i = 0; i < n_audioFiles; i++) {
+                    mTrackStartUs[i] = trackDelays ? audioDelays[i]
+                            : mMixObject.getAudioDelay();
+                    mTimeline.place(i, mTrackStartUs[i], audioFiles.get(i).getStartAt(),
+                            audioFiles.get(i).getEndAt());
                 }
 
+                AVAudioTrackDecoder.Listener decodeListener = new AVAudioTrackDecoder.Listener() {
+                    @Override
+                    public void onSamplesDecoded(int track) {
+                        synchronized (mDecodeLock) {
+                            ++mDecodeEvents;
+                            mDecodeLock.notifyAll();
+                        }
+                    }
+                };
+
                 String mime = "";
                 int sampleRate = 0;
-                MediaFormat format = null;
-                MediaFormat outputFormat = null;
-                MediaCodec encoder = null;
+                TrackFormat format = null;
+                TrackFormat outputFormat = null;
+                TrackCodec encoder = null;
 
                 try {
-                    MediaMuxer muxer = new MediaMuxer(mMixObject.getTempAudioFilePath(),
-                            MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+                    mMuxer = mMediaBackend.createMuxer(mMixObject.getTempAudioFilePath());
+                    mEncoderPump = mMediaBackend.createPump(mAsyncCodecs);
 
                     /* reads the set audio volume */
+                    mTrackEnvelopes = new GainEnvelope[n_audioFiles][];
+                    mEffects = new AudioEffectChain[n_audioFiles];
+                    mEffectBlocks = new float[n_audioFiles][0];
+                    mEffectChannels = new int[n_audioFiles];
+                    prepareDucking(audioFiles);
                     volumes = new float[n_audioFiles];
                     for (int i = 0; i < n_audioFiles; i++) {
                         volumes[i] += mMixObject.getAudioComponents().get(i).getVolume();
                     }
+                    normalizeLoudness(audioFiles);
 
-                    //Setup Decoder and Extractor
+                    //Setup Extractors
                     for (int i = 0; i < n_audioFiles; i++) {
-
-                        extractors[i] = new MediaExtractor();
-
-                        try {
-                            extractors[i].setDataSource(audioFiles.get(i)
-                                    .getComponentFile().getAbsolutePath());
-
-                        } catch (IOException e) {
-                            e.printStackTrace();
+                        mDecoders[i] = new AVAudioTrackDecoder(i, audioFiles.get(i), mTimeline,
+                                decodeListener, mMediaBackend, mCache);
+                        mDecoders[i].setPeakCache(mPeakCache);
+                        format = mDecoders[i].open();
+                        mTrackEnvelopes[i] = getEnvelopes(audioFiles.get(i), mDecoders[i]);
+                        if (!audioFiles.get(i).getEffects().isEmpty()) {
+                            mEffects[i] = audioFiles.get(i).getEffects();
                         }
-
-                        format = extractors[i].getTrackFormat(0);
-                        mime = format.getString(MediaFormat.KEY_MIME);
+                        mime = format.getString(TrackFormat.KEY_MIME);
                         if (!mime.equals(COMPRESSED_3GPP_AUDIO_FILE_MIME_TYPE)) {
                             sampleRate = (sampleRate > format.getInteger(
-                                    MediaFormat.KEY_SAMPLE_RATE) || sampleRate == 0)
-                                    ? format.getInteger(MediaFormat.KEY_SAMPLE_RATE)
+                                    TrackFormat.KEY_SAMPLE_RATE) || sampleRate == 0)
+                                    ? format.getInteger(TrackFormat.KEY_SAMPLE_RATE)
                                     : sampleRate;
                         }
-
-                        decoders[i] = MediaCodec.createDecoderByType(mime);
-                        decoders[i].configure(format, null, null, 0);
-                        decoders[i].start();
-                        extractors[i].selectTrack(0);
-                        bufferInfos[i] = new MediaCodec.BufferInfo();
                     }
 
                     if (n_audioFiles == 1
                             && !mime.equals(COMPRESSED_3GPP_AUDIO_FILE_MIME_TYPE)) {
-                        outputFormat = MediaFormat.createAudioFormat(
+                        outputFormat = TrackFormat.createAudioFormat(
                                 mime,
                                 sampleRate,
-                                format.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
-                        outputFormat.setInteger(MediaFormat.KEY_BIT_RATE,
+                                format.getInteger(TrackFormat.KEY_CHANNEL_COUNT));
+                        outputFormat.setInteger(TrackFormat.KEY_BIT_RATE,
                                 COMPRESSED_AUDIO_FILE_BIT_RATE);
 
-                        encoder = MediaCodec
-                                .createEncoderByType(mime);
+                        encoder = mMediaBackend.createEncoder(mEncoderPump, mime);
 
                         try {
-                            encoder.configure(outputFormat, null,
-                                    null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+                            encoder.configure(outputFormat, CodecPump.CONFIGURE_FLAG_ENCODE);
                         } catch (Throwable t) {
-                            outputFormat = MediaFormat.createAudioFormat(
+                            encoder.release();
+                            outputFormat = TrackFormat.createAudioFormat(
                                     COMPRESSED_AUDIO_FILE_MIME_TYPE, SAMPLING_RATE,
                                     KEY_CHANNEL_COUNT);
-                            outputFormat.setInteger(MediaFormat.KEY_BIT_RATE,
+                            outputFormat.setInteger(TrackFormat.KEY_BIT_RATE,
                                     COMPRESSED_AUDIO_FILE_BIT_RATE);
-                            encoder = MediaCodec
-                                    .createEncoderByType(mime);
-                            encoder.configure(outputFormat, null,
-                                    null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+                            encoder = mMediaBackend.createEncoder(mEncoderPump, mime);
+                            encoder.configure(outputFormat, CodecPump.CONFIGURE_FLAG_ENCODE);
                         }
                     } else if (n_audioFiles == 1
                             && mime.equals(COMPRESSED_3GPP_AUDIO_FILE_MIME_TYPE)) {
-                        outputFormat = MediaFormat.createAudioFormat(
+                        outputFormat = TrackFormat.createAudioFormat(
                                 COMPRESSED_3GPP_AUDIO_FILE_MIME_TYPE,
                                 THREEGP2_SAMPLING_RATE, THREEGP2_CHANNEL);
-                        outputFormat.setInteger(MediaFormat.KEY_BIT_RATE, THREEGP2_BIT_RATE);
+                        outputFormat.setInteger(TrackFormat.KEY_BIT_RATE, THREEGP2_BIT_RATE);
 
-                        encoder = MediaCodec
-                                .createEncoderByType(COMPRESSED_3GPP_AUDIO_FILE_MIME_TYPE);
-                        encoder.configure(outputFormat, null,
-                                null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+                        encoder = mMediaBackend.createEncoder(mEncoderPump,
+                                COMPRESSED_3GPP_AUDIO_FILE_MIME_TYPE);
+                        encoder.configure(outputFormat, CodecPump.CONFIGURE_FLAG_ENCODE);
                     } else {
-                        outputFormat = MediaFormat.createAudioFormat(
+                        outputFormat = TrackFormat.createAudioFormat(
                                 COMPRESSED_AUDIO_FILE_MIME_TYPE, sampleRate, KEY_CHANNEL_COUNT);
-                        outputFormat.setInteger(MediaFormat.KEY_BIT_RATE,
+                        outputFormat.setInteger(TrackFormat.KEY_BIT_RATE,
                                 COMPRESSED_AUDIO_FILE_BIT_RATE);
 
-                        encoder = MediaCodec
-                                .createEncoderByType(COMPRESSED_AUDIO_FILE_MIME_TYPE);
+                        encoder = mMediaBackend.createEncoder(mEncoderPump,
+                                COMPRESSED_AUDIO_FILE_MIME_TYPE);
                         try {
-                            encoder.configure(outputFormat, null,
-                                    null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+                            encoder.configure(outputFormat, CodecPump.CONFIGURE_FLAG_ENCODE);
                         } catch (Throwable t) {
-                            outputFormat = MediaFormat.createAudioFormat(
+                            encoder.release();
+                            outputFormat = TrackFormat.createAudioFormat(
                                     COMPRESSED_AUDIO_FILE_MIME_TYPE, SAMPLING_RATE,
                                     KEY_CHANNEL_COUNT);
-                            outputFormat.setInteger(MediaFormat.KEY_BIT_RATE,
+                            outputFormat.setInteger(TrackFormat.KEY_BIT_RATE,
                                     COMPRESSED_AUDIO_FILE_BIT_RATE);
-                            encoder = MediaCodec
-                                    .createEncoderByType(COMPRESSED_AUDIO_FILE_MIME_TYPE);
-                            encoder.configure(outputFormat, null,
-                                    null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+                            encoder = mMediaBackend.createEncoder(mEncoderPump,
+                                    COMPRESSED_AUDIO_FILE_MIME_TYPE);
+                            encoder.configure(outputFormat, CodecPump.CONFIGURE_FLAG_ENCODE);
                         }
                     }
 
+                    mEncoder = encoder;
+                    mEncoderId = mEncoderPump.add(encoder);
                     encoder.start();
 
-                    ByteBuffer[] codecInputBuffers3 = encoder.getInputBuffers();
-                    ByteBuffer[] codecOutputBuffers3 = encoder.getOutputBuffers();
-
-                    final long timeoutUs = 5000;
-                    int noOutputCounter = 0;
-                    long diff = 0;
-                    while (!isAudioProcessCompleted(outputEOS) && noOutputCounter < 50) {
-                        noOutputCounter++;
+                    /* every track is converted to the sample rate and channel layout the
+                       encoder was set with */
+                    mMixSampleRate = outputFormat.getInteger(TrackFormat.KEY_SAMPLE_RATE);
+                    mMixChannelCount = outputFormat.getInteger(TrackFormat.KEY_CHANNEL_COUNT);
+                    mTimeline.setMixSampleRate(mMixSampleRate);
+
+                    /* the mixed windows are written straight into the encoder input buffers,
+                       the presentation times following the mixed sample count */
+                    mMixClock = new AudioClock(mMixSampleRate, mMixChannelCount);
+                    mEncoderInput = new PcmEncoderInput(mEncoderPump, mEncoderId, encoder,
+                            mMixClock);
+
+                    /* spreads the tracks over the decode workers */
+                    workers = new AVAudioDecodeWorker[getDecodeThreadCount(n_audioFiles)];
+                    for (int w = 0; w < workers.length; w++) {
+                        workers[w] = new AVAudioDecodeWorker(mMediaBackend, mAsyncCodecs);
+                    }
+                    for (int i = 0; i < n_audioFiles; i++) {
+                        AVAudioDecodeWorker worker = workers[i % workers.length];
+                        mDecoders[i].start(worker.getPump(), mMixSampleRate, mMixChannelCount,
+                                mResampleQuality);
+                        worker.addTrack(mDecoders[i]);
+                        ++startedDecoders;
+                    }
 
-                        for (int i = 0; i < n_audioFiles; i++) {
-                            if (!sawInputEOSs[i]) {
-                                ByteBuffer[] codecInputBuffers = decoders[i].getInputBuffers();
-                                int inputBufferIndex = decoders[i].dequeueInputBuffer(timeoutUs);
-                                if (inputBufferIndex >= 0) {
-                                    ByteBuffer buffer = codecInputBuffers[inputBufferIndex];
-                                    int sampleSize = extractors[i].readSampleData(buffer, 0);
-                                    long presentationTimeUs = 0;
-                                    if (sampleSize < 0) {
-                                        sawInputEOSs[i] = true;
-                                        sampleSize = 0;
-                                    } else {
-                                        presentationTimeUs = extractors[i].getSampleTime();
-                                        Logger.LOGV("AudioMix", "audio file "
-                                                + i + " prestime: " + presentationTimeUs);
-                                    }
-                                    if (presentationTimeUs >= audioFiles.get(i).getStartAt()) {
-                                        decoders[i].queueInputBuffer(inputBufferIndex, 0, sampleSize,
-                                                presentationTimeUs,
-                                                sawInputEOSs[i]
-                                                        ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0);
-                                    } else {
-                                        decoders[i].queueInputBuffer(inputBufferIndex, 0, 0,
-                                                presentationTimeUs,
-                                                sawInputEOSs[i]
-                                                        ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0);
-                                        noOutputCounter = 0;
-                                    }
-
-                                    if (!sawInputEOSs[i]) {
-                                        extractors[i].advance();
-                                    }
-                                }
-                            }
-                        }
+                    long decodeStartMs = SystemClock.elapsedRealtime();
+                    for (int w = 0; w < workers.length; w++) {
+                        workers[w].start("AudioDecodeWorker-" + w);
+                    }
 
-                        long presentationTimeUsToMuxer = 0;
+                    /* mixes windows as the workers decode them, until every track is over */
+                    while (!isAudioProcessCompleted(outputEOS)) {
+                        checkWorkers(workers);
 
+                        /* the end flags are read before the ring buffers, so a track seen as
+                           over has all its samples on its ring buffer already */
                         for (int i = 0; i < n_audioFiles; i++) {
-
-                            ByteBuffer[] codecOutputBuffers = decoders[i].getOutputBuffers();
-                            int outputBufferIndex =
-                                    decoders[i].dequeueOutputBuffer(bufferInfos[i], timeoutUs);
-                            if (outputBufferIndex >= 0) {
-                                if (bufferInfos[i].size > 0) {
-                                    noOutputCounter = 0;
-
-                                    ByteBuffer buffer = codecOutputBuffers[outputBufferIndex];
-
-                                    if (mBufferSize == 0) {
-                                        mBufferSize = bufferInfos[i].size / 2;
-                                    }
-
-                                    shortArray[i] = new short[bufferInfos[i].size / 2];
-                                    audioBuffers[i].add(shortArray[i]);
-
-                                    buffer.rewind();
-                                    buffer.asShortBuffer().get(shortArray[i]);
-                                    buffer.clear();
-
-                                    if (presentationTimeUsToMuxer == 0) {
-                                        presentationTimeUsToMuxer
-                                                = bufferInfos[i].presentationTimeUs;
-                                    } else {
-                                        presentationTimeUsToMuxer
-                                                = Math.min(presentationTimeUsToMuxer,
-                                                bufferInfos[i].presentationTimeUs);
-                                    }
-
-                                    decoders[i].releaseOutputBuffer(outputBufferIndex, false);
-                                    if ((bufferInfos[i].flags
-                                            & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                                        outputEOS[i] = true;
-                                    }
-                                } else {
-                                    if (diff == 0) {
-                                        diff = calculatePresentationTimeOffset();
-                                    }
-                                    shortArray[i] = null;
-                                }
-                            } else {
-                                if (diff == 0) {
-                                    diff = calculatePresentationTimeOffset();
-                                }
-                                shortArray[i] = null;
-                            }
+                            outputEOS[i] = mDecoders[i].isOutputEOS();
                         }
 
-                        /* fill the presentation buffer array */
-                        if (presentationArray.size() == 0
-                                || (presentationArray.size() >= 0
-                                && presentationTimeUsToMuxer > 0)) {
-
-                            if (presentationArray.size() > 0) {
-                                if (presentationTimeUsToMuxer >
-                                        presentationArray.get(presentationArray.size() - 1)) {
-                                    if (diff != 0) {
-                                        presentationArray
-                                                .add(presentationArray
-                                                        .get(presentationArray.size() - 1) + diff);
-                                    } else {
-                                        presentationArray.add(presentationTimeUsToMuxer);
-                                    }
-                                }
-                            } else {
-                                presentationArray.add(presentationTimeUsToMuxer);
-                            }
+                        if (mWindowFrames == 0 && !prepareStreamingBuffers(n_audioFiles)) {
+                            awaitDecodedSamples();
+                            continue;
                         }
-                    }
-
-                    for (int i = 0; i < n_audioFiles; i++) {
-                        decoders[i].stop();
-                        decoders[i].release();
-                        decoders[i] = null;
-                        extractors[i].release();
-                        extractors[i] = null;
-                    }
 
-                     /* add static audio to a specific audio buffer if its has a delay set */
-                    for (int z = 0; z < audioDelays.length; z++) {
-
-                        long presTime = 0;
-                        int index = 0;
-                        while (audioDelays[z] > presTime) {
-                            if (mStaticAudio == null) {
-                                mStaticAudio = new short[mBufferSize];
-                                Arrays.fill(mStaticAudio, (short) 0);
-                            }
-                            audioBuffers[z].add(0, mStaticAudio);
-
-                            if (++index < presentationArray.size()) {
-                                presTime = presentationArray.get(index);
-                            } else {
-                                if (diff == 0) {
-                                    diff = calculatePresentationTimeOffset();
-                                }
-                                presTime += diff;
-                            }
+                        if (mixAvailableWindows(outputEOS) == 0) {
+                            awaitDecodedSamples();
                         }
                     }
 
-                    Logger.LOGV("AVAudioMixer", "------------------------------------------" +
-                            " noOutputCounter is: " + noOutputCounter);
-
-                    doAudioBuffersMixing();
-
-                    /* write audio data */
-                    int counter = 0;
-                    long multiplier = 1l;
-                    for (short[] shortData : mixedSoundBuffer) {
-                        if (shortData.length > 0) {
-                            byte[] data = shortToByte(shortData);
-                            ByteBuffer byteBuf = ByteBuffer.allocate(data.length);
-                            byteBuf.put(data);
-                            byteBuf.rewind();
-                            if (diff == 0) {
-                                diff = calculatePresentationTimeOffset();
-                            }
-                            long presTime = counter < presentationArray.size()
-                                    ? presentationArray.get(counter) :
-                                    presentationArray.get(presentationArray.size() - 1)
-                                            + (diff * multiplier);
-                            if (counter >= presentationArray.size()) {
-                                ++multiplier;
-                            }
-                            ++counter;
-                            Logger.LOGV("AVAudioMixer",
-                                    "counter on writing audio data is: " + counter);
-                            writeOnMuxer(encoder, codecInputBuffers3, codecOutputBuffers3, byteBuf,
-                                    muxer, presTime);
-                        }
+                    for (int w = 0; w < workers.length; w++) {
+                        workers[w].join();
+                    }
+                    checkWorkers(workers);
+                    reportDecodeMetrics(workers.length,
+                            SystemClock.elapsedRealtime() - decodeStartMs);
+
+                    /* flushes whatever is left on the ring buffers */
+                    if (mWindowFrames > 0) {
+                        boolean[] drained = new boolean[n_audioFiles];
+                        Arrays.fill(drained, true);
+                        mixAvailableWindows(drained);
+                        flushLimiter();
                     }
 
-                    encoder.release();
+                    finishEncoding();
+                    releaseEncoder();
 
-                    muxer.stop();
-                    muxer.release();
+                    mMuxer.stop();
+                    mMuxer.release();
 
                     mListener.onAudioFinishedMixing();
 
                 } catch (Exception t) {
                     mListener.onMixingError(t);
                 } finally {
+                    /* stops the workers left running by an error and releases the tracks
+                       not handed to any worker */
+                    for (int w = 0; w < workers.length; w++) {
+                        workers[w].cancel();
+                    }
+                    for (int i = startedDecoders; i < mDecoders.length; i++) {
+                        if (mDecoders[i] != null) {
+                            mDecoders[i].finish();
+                        }
+                    }
+                    releaseEncoder();
                     mMixingOver = true;
                 }
             }
@@ -409,246 +532,585 @@ class AVAudioMixer {
         }
     }
 
-    private long calculatePresentationTimeOffset() {
-        long diff = 0;
-        for (int i = presentationArray.size() - 1; i > 0; i--) {
-            if (presentationArray.get(i) != 0
-                    && presentationArray.get(i - 1) != 0
-                    && presentationArray.get(i)
-                    > presentationArray.get(i - 1)) {
-                long sub = presentationArray.get(i)
-                        - presentationArray.get(i - 1);
-                if (diff > 0 && Math.abs(diff - sub) <= (float) diff * 0.05) {
-                    break;
-                }
-                diff = sub;
-            }
+    /**
+     * Allocates the mixing windows once the first decoded chunk size is known. Track windows
+     * hold samples in the track own channel layout, the mixed window is in the mix layout.
+     *
+     * @return whether the buffers are ready
+     */
+    private boolean prepareStreamingBuffers(int n_audioFiles) {
+        for (int i = 0; i < n_audioFiles && mWindowFrames == 0; i++) {
+            mWindowFrames = mDecoders[i].getFirstChunkFrames();
+        }
+
+        if (mWindowFrames == 0) {
+            return false;
+        }
+
+        mTrackWindows = new short[n_audioFiles][];
+        mWindowData = new short[n_audioFiles][];
+        mWindowLengths = new int[n_audioFiles];
+        mMixedWindow = new short[mWindowFrames * mMixChannelCount];
+        mWindowGains = new float[n_audioFiles];
+        mWindowEnvelopes = new float[n_audioFiles][mWindowFrames];
+        mEnvelopeGains = new float[n_audioFiles][];
+        mEnvelopeScratch = new float[mWindowFrames];
+        if (mLimiter != null) {
+            mLimiter.prepare(mMixSampleRate, mMixChannelCount);
+            mLimiterSkipSamples = mLimiter.getLatencyFrames() * mMixChannelCount;
+        }
+        if (mDucker != null) {
+            mDucker.prepare(mMixSampleRate);
+            mTrackChannels = new int[n_audioFiles];
+            mDuckGains = new float[mWindowFrames];
+        }
+
+        for (int i = 0; i < n_audioFiles; i++) {
+            mTrackWindows[i] = new short[mWindowFrames * mDecoders[i].getChannelCount()];
         }
 
-        return diff;
+        return true;
     }
 
-    private void doAudioBuffersMixing() {
-        int totalBufferSize = 0;
-        for (int i = 0; i < audioBuffers.length; i++) {
-            if (totalBufferSize < audioBuffers[i].size()) {
-                totalBufferSize = audioBuffers[i].size();
+    /**
+     * Spreads the tracks over the requested number of decode threads, never more than one per
+     * track.
+     */
+    private int getDecodeThreadCount(int tracks) {
+        int threads = mDecodeThreads > 0 ? mDecodeThreads
+                : Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(threads, tracks));
+    }
+
+    /**
+     * Waits until a decode worker reports new samples
+     */
+    private void awaitDecodedSamples() throws InterruptedException {
+        synchronized (mDecodeLock) {
+            if (mDecodeEvents == mAwaitedDecodeEvents) {
+                mDecodeLock.wait(DECODE_WAIT_TIMEOUT_MS);
             }
+            mAwaitedDecodeEvents = mDecodeEvents;
         }
+    }
 
-        short[][] data = new short[audioBuffers.length][];
-        for (int j = 0; j < totalBufferSize; j++) {
-            for (int x = 0; x < audioBuffers.length; x++) {
-                if (j < audioBuffers[x].size()) {
-                    data[x] = audioBuffers[x].get(j);
-                } else {
-                    data[x] = null;
-                }
+    private void checkWorkers(AVAudioDecodeWorker[] workers) throws Exception {
+        for (int w = 0; w < workers.length; w++) {
+            if (workers[w].getException() != null) {
+                throw workers[w].getException();
             }
+        }
+    }
 
-            short[][] dataShortArray = verifyBufferData(data);
-            if (dataShortArray.length > 0) {
-                short[] shortArrayThree;
+    /**
+     * Mixes and encodes every window that can be built with the samples currently held on the
+     * ring buffers. A window is ready when each track either has enough samples to fill the
+     * part of the window not covered by its start delay, or has no more samples to decode.
+     *
+     * @return the number of windows sent to the encoder
+     */
+    private int mixAvailableWindows(boolean[] drained) throws InterruptedException {
+        int windows = 0;
+        while (isWindowReady(drained)) {
+            int length = mixWindow();
+            if (length > 0) {
+                encodeMixed(mWindowOutput, length);
+            }
+            ++windows;
+        }
 
-                /* checks if mixing is needed */
-                if (dataShortArray.length > 1 || dataShortArray.length == 1 && volumes[0] < 1.0f) {
-                    shortArrayThree = mix(dataShortArray, volumes);
-                } else {
-                    shortArrayThree = dataShortArray[0];
-                }
+        return windows;
+    }
 
-                mixedSoundBuffer.add(shortArrayThree);
+    /**
+     * Encodes mixed samples, leaving out the silence the limiter outputs first
+     */
+    private void encodeMixed(short[] samples, int length) throws InterruptedException {
+        int skip = Math.min(mLimiterSkipSamples, length);
+        mLimiterSkipSamples -= skip;
+        if (length > skip) {
+            encode(samples, skip, length - skip);
+        }
+    }
 
-                if (verifyAudioDelays(audioDelays) == 0) {
-                    /* considers the general audio delay set on the mixer object
-                       if no audio delay is set on any audio track individually  */
-                    if (j < presentationArray.size()) {
-                        if (presentationArray.get(j) < mMixObject.getAudioDelay()) {
-                            if (mStaticAudio == null) {
-                                mStaticAudio = new short[shortArrayThree.length];
-                                Arrays.fill(mStaticAudio, (short) 0);
-                            }
+    /**
+     * Encodes the last samples, still on the limiter delay line
+     */
+    private void flushLimiter() throws InterruptedException {
+        if (mLimiter == null) {
+            return;
+        }
 
-                            mixedSoundBuffer.add(0, mStaticAudio);
-                        }
-                    }
-                }
-            }
+        int frames = mLimiter.getLatencyFrames();
+        while (frames > 0) {
+            int chunk = Math.min(frames, mWindowFrames);
+            mLimiter.flush(mMixedWindow, chunk);
+            encodeMixed(mMixedWindow, chunk * mMixChannelCount);
+            frames -= chunk;
+        }
+
+        if (mMetrics != null) {
+            mMetrics.addAudioLimiter(mLimiter.getLatencyFrames() * 1000000l / mMixSampleRate,
+                    mLimiter.getMinGain(), mLimiter.getLimitedFrames());
         }
     }
 
-    private boolean isAudioProcessCompleted(boolean[] values) {
-        boolean result = false;
-        for (int i = 0; i < values.length; i++) {
-            if (values[i]) {
-                result = true;
-            } else {
-                result = false;
-                break;
+    private boolean isWindowReady(boolean[] drained) {
+        boolean pending = false;
+        for (int i = 0; i < mDecoders.length; i++) {
+            long silence = mTimeline.silence(i);
+            long needed = Math.max(0, mWindowFrames * mDecoders[i].getChannelCount() - silence);
+            if (mDecoders[i].available() >= needed) {
+                pending = true;
+            } else if (!drained[i]) {
+                mDecoders[i].reserve((int) needed);
+                return false;
+            } else if (silence > 0 || !mDecoders[i].isEmpty()) {
+                pending = true;
             }
         }
 
-        return result;
+        return pending;
     }
 
-    private short[][] verifyBufferData(short[][] samples) {
-        for (int i = 0; i < samples.length; i++) {
-            if (samples[i] == null) {
-                /* fills with static audio if a given audio sample is shorter */
-                if (mStaticAudio == null) {
-                    mStaticAudio = new short[mBufferSize];
-                    Arrays.fill(mStaticAudio, (short) 0);
-                }
+    /**
+     * Mixes the next window of every track into mWindowOutput, converting each track to the
+     * mix channel layout on the way
+     *
+     * @return the number of samples of the mixed window
+     */
+    private int mixWindow() {
+        int length = 0;
+        for (int i = 0; i < mDecoders.length; i++) {
+            mChannelMatrices[i] = mDecoders[i].getChannelMatrix();
+        }
 
-                samples[i] = mStaticAudio;
+        for (int i = 0; i < mDecoders.length; i++) {
+            int channels = mDecoders[i].getChannelCount();
+            int windowSamples = mWindowFrames * channels;
+            if (mTrackWindows[i].length < windowSamples) {
+                mTrackWindows[i] = new short[windowSamples];
             }
+
+            short[] window = mTrackWindows[i];
+            int silence = mTimeline.consumeSilence(i, windowSamples);
+            int span = silence;
+
+            if (mDecoders[i].isEmpty() && silence == 0) {
+                /* the track is over, it keeps the window length as static audio */
+                mWindowLengths[i] = 0;
+                span = windowSamples;
+            } else if (silence == windowSamples) {
+                /* the whole window is still on the track start delay */
+                mWindowLengths[i] = 0;
+            } else {
+                Arrays.fill(window, 0, silence, (short) 0);
+                span += mDecoders[i].read(window, silence, windowSamples - silence);
+                mWindowLengths[i] = span / channels;
+                applyEffects(i, window, mWindowLengths[i], channels);
+            }
+
+            mWindowData[i] = window;
+            length = Math.max(length, span / channels);
         }
 
-        return samples;
+        prepareWindowGains(length);
+        duckWindow(length);
+        mMixedFrames += length;
+
+        /* checks if mixing is needed. The limiter delay line needs every window */
+        boolean passthrough = mLimiter == null && mDecoders.length == 1
+                && mEnvelopeGains[0] == null
+                && mWindowGains[0] == 1.0f && mChannelMatrices[0].isIdentity();
+        if (passthrough) {
+            Arrays.fill(mWindowData[0], mWindowLengths[0] * mMixChannelCount,
+                    length * mMixChannelCount, (short) 0);
+            mWindowOutput = mWindowData[0];
+        } else {
+            mMixKernel.mix(mWindowData, mWindowLengths, mChannelMatrices, mWindowGains,
+                    mEnvelopeGains, mWindowData.length, mMixedWindow, length, mMixChannelCount,
+                    mMixScratch, mLimiter);
+            mWindowOutput = mMixedWindow;
+        }
+
+        return length * mMixChannelCount;
     }
 
-    private int verifyAudioDelays(long[] audioDelays) {
-        int setDelays = 0;
-        for (int i = 0; i < audioDelays.length; i++) {
-            if (audioDelays[i] > 0) {
-                ++setDelays;
-            }
+    /**
+     * Runs the track effects over its window, converting the samples to float and back
+     */
+    private void applyEffects(int track, short[] window, int frames, int channels) {
+        AudioEffectChain effects = mEffects[track];
+        if (effects == null) {
+            return;
         }
 
-        return setDelays;
+        int samples = frames * channels;
+        if (mEffectChannels[track] != channels) {
+            /* first window, or the track format changed */
+            effects.prepare(mMixSampleRate, channels);
+            mEffectChannels[track] = channels;
+        }
+        if (mEffectBlocks[track].length < samples) {
+            mEffectBlocks[track] = new float[mWindowFrames * channels];
+        }
+
+        float[] block = mEffectBlocks[track];
+        for (int s = 0; s < samples; s++) {
+            block[s] = window[s] * PCM_TO_FLOAT;
+        }
+
+        effects.process(block, frames, channels);
+
+        for (int s = 0; s < samples; s++) {
+            float value = block[s] * FLOAT_TO_PCM;
+            window[s] = (short) (value >= Short.MAX_VALUE ? Short.MAX_VALUE
+                    : (value <= Short.MIN_VALUE ? Short.MIN_VALUE : value));
+        }
     }
 
-    private boolean isSampleBufferReady(short[][] samples) {
-        boolean isReady = true;
-        for (int i = 0; i < samples.length; i++) {
-            if (samples[i] == null) {
-                isReady = false;
-                break;
-            }
+    /**
+     * Evaluates the track and mix envelopes over the next window. A track which gain is constant
+     * over the window only gets its gain set, otherwise it also gets the gain of each frame.
+     */
+    private void prepareWindowGains(int frames) {
+        if (frames == 0) {
+            return;
         }
 
-        return isReady;
+        long windowUs = mMixedFrames * 1000000l / mMixSampleRate;
+        long lastFrameUs = (frames - 1) * 1000000l / mMixSampleRate;
+
+        for (int i = 0; i < mDecoders.length; i++) {
+            long trackUs = windowUs - mTrackStartUs[i];
+            GainEnvelope[] envelopes = mTrackEnvelopes[i];
+
+            float gain = volumes[i];
+            boolean constant = true;
+            for (int e = 0; e < envelopes.length && constant; e++) {
+                float c = envelopes[e].getConstantGain(trackUs, trackUs + lastFrameUs);
+                constant = !Float.isNaN(c);
+                gain *= c;
+            }
+            if (mMasterEnvelope != null && constant) {
+                float c = mMasterEnvelope.getConstantGain(windowUs, windowUs + lastFrameUs);
+                constant = !Float.isNaN(c);
+                gain *= c;
+            }
+
+            if (constant) {
+                mWindowGains[i] = gain;
+                mEnvelopeGains[i] = null;
+                continue;
+            }
+
+            float[] gains = mWindowEnvelopes[i];
+            Arrays.fill(gains, 0, frames, 1.0f);
+            for (int e = 0; e < envelopes.length; e++) {
+                envelopes[e].multiply(gains, mEnvelopeScratch, trackUs, frames, mMixSampleRate);
+            }
+            if (mMasterEnvelope != null) {
+                mMasterEnvelope.multiply(gains, mEnvelopeScratch, windowUs, frames,
+                        mMixSampleRate);
+            }
+            mWindowGains[i] = volumes[i];
+            mEnvelopeGains[i] = gains;
+        }
     }
 
-    private byte[] shortToByte(short[] input) {
-        int short_index, byte_index;
-        int iterations = input.length;
+    /**
+     * Scales the track volumes so every track plays at the loudness target. The tracks not
+     * measured yet are measured first, in parallel.
+     */
+    private void normalizeLoudness(ArrayList<AVAudioMixerComponent> audioFiles)
+            throws Exception {
+        if (Float.isNaN(mLoudnessTarget)) {
+            return;
+        }
 
-        byte[] buffer = new byte[input.length * 2];
+        long startMs = SystemClock.elapsedRealtime();
+        AVLoudnessAnalyzer analyzer = new AVLoudnessAnalyzer(mMediaBackend, mLoudnessCache,
+                mCache, mAsyncCodecs);
+        float[] loudness = analyzer.analyze(audioFiles, getDecodeThreadCount(audioFiles.size()));
 
-        short_index = byte_index = 0;
+        for (int i = 0; i < audioFiles.size(); i++) {
+            if (Float.isInfinite(loudness[i])) {
+                /* silent, nothing to normalize */
+                continue;
+            }
 
-        for (/*NOP*/; short_index != iterations; /*NOP*/) {
-            buffer[byte_index] = (byte) (input[short_index] & 0x00FF);
-            buffer[byte_index + 1] = (byte) ((input[short_index] & 0xFF00) >> 8);
+            float gainDb = Math.min(mLoudnessTarget - loudness[i], MAX_NORMALIZATION_GAIN_DB);
+            volumes[i] *= (float) Math.pow(10, gainDb / 20.0);
+            Logger.LOGV("AVAudioMixer", "audio file " + i + " loudness " + loudness[i]
+                    + " LUFS, normalization gain " + gainDb + "dB");
+        }
 
-            ++short_index;
-            byte_index += 2;
+        if (mMetrics != null) {
+            mMetrics.addAudioLoudnessAnalysis(analyzer.getMeasuredFiles(),
+                    analyzer.getCacheHits(), SystemClock.elapsedRealtime() - startMs);
+        }
+    }
+
+    /**
+     * Reads the ducking role of each track. Ducking is only kept if there are both voice and
+     * bed tracks.
+     */
+    private void prepareDucking(ArrayList<AVAudioMixerComponent> audioFiles) {
+        if (mDucker == null) {
+            return;
+        }
+
+        mDuckVoices = new boolean[audioFiles.size()];
+        mDuckBeds = new boolean[audioFiles.size()];
+        boolean voices = false;
+        boolean beds = false;
+        for (int i = 0; i < audioFiles.size(); i++) {
+            AVAudioMixerComponent.DuckingRole role = audioFiles.get(i).getDuckingRole();
+            mDuckVoices[i] = role == AVAudioMixerComponent.DuckingRole.VOICE;
+            mDuckBeds[i] = role == AVAudioMixerComponent.DuckingRole.BED;
+            voices |= mDuckVoices[i];
+            beds |= mDuckBeds[i];
         }
 
-        return buffer;
+        if (!voices || !beds) {
+            Log.w("AVAudioMixer", "ducking needs voice and bed audio files, ignoring it");
+            mDucker = null;
+        }
     }
 
-    /*private static short[] mix(short[] buffer, short[] mixWith) {
-        final int length = Math.min(buffer.length, mixWith.length);
-        int mixed;
-        for (int i = 0; i < length; i++) {
-            mixed = (int) buffer[i] + (int) mixWith[i];
-            if (mixed > 32767) mixed = 32767;
-            if (mixed < -32768) mixed = -32768;
-            buffer[i] = (short) mixed;
+    /**
+     * Follows the level of the voice tracks over the window and applies the resulting ducking
+     * gain to the gain of each frame of the bed tracks
+     */
+    private void duckWindow(int frames) {
+        if (mDucker == null || frames == 0) {
+            return;
+        }
+
+        for (int i = 0; i < mDecoders.length; i++) {
+            mTrackChannels[i] = mDecoders[i].getChannelCount();
         }
-        return buffer;
-    }*/
+        /* the voice level is taken before the envelopes, with the volume only */
+        if (!mDucker.process(mWindowData, mWindowLengths, mTrackChannels, volumes, mDuckVoices,
+                mDecoders.length, mDuckGains, frames)) {
+            return;
+        }
+
+        for (int i = 0; i < mDecoders.length; i++) {
+            if (!mDuckBeds[i]) {
+                continue;
+            }
 
-    private static short[] mix(short[][] samples, float[] volumes) {
+            float[] gains = mEnvelopeGains[i];
+            if (gains == null) {
+                /* constant over the window until now */
+                gains = mWindowEnvelopes[i];
+                System.arraycopy(mDuckGains, 0, gains, 0, frames);
+                mEnvelopeGains[i] = gains;
+            } else {
+                for (int f = 0; f < frames; f++) {
+                    gains[f] *= mDuckGains[f];
+                }
+            }
+        }
+    }
 
-        int n_samples = samples.length;
-        float[] mixedSamplesf = new float[1];
-        short[] mixedSamples = new short[1];
+    /**
+     * @return the gain envelopes set on a track component, with times relative to the track start
+     */
+    private GainEnvelope[] getEnvelopes(AVAudioMixerComponent component,
+                                        AVAudioTrackDecoder decoder) {
+        ArrayList<GainEnvelope> envelopes = new ArrayList<GainEnvelope>();
+        if (component.getGainEnvelope() != null) {
+            envelopes.add(component.getGainEnvelope());
+        }
+        if (component.getFadeIn() > 0) {
+            envelopes.add(GainEnvelope.fadeIn(component.getFadeIn()));
+        }
+        if (component.getFadeOut() > 0) {
+            /* the fade out ends with the part of the track which is played */
+            long endUs = decoder.getDurationUs();
+            if (component.getEndAt() > 0) {
+                endUs = endUs > 0 ? Math.min(endUs, component.getEndAt()) : component.getEndAt();
+            }
+            long durationUs = endUs - component.getStartAt();
+            if (durationUs > 0) {
+                envelopes.add(GainEnvelope.fadeOut(
+                        Math.max(0, durationUs - component.getFadeOut()),
+                        Math.min(durationUs, component.getFadeOut())));
+            } else {
+                Log.w("AVAudioMixer", "audio file duration unknown, ignoring its fade out");
+            }
+        }
 
-        for (short x = 0; x < n_samples; x++) {
+        return envelopes.toArray(new GainEnvelope[envelopes.size()]);
+    }
 
-            float selectedVolume = volumes[x];
-            short[] sample = samples[x];
+    private void reportDecodeMetrics(int threads, long decodeTimeMs) {
+        long decodedSamples = 0;
+        for (int i = 0; i < mDecoders.length; i++) {
+            AudioClock clock = mDecoders[i].getClock();
+            decodedSamples += mDecoders[i].getDecodedSamples();
+
+            Logger.LOGV("AVAudioMixer", "audio file " + i + " decoder max queue depth: "
+                    + mDecoders[i].getMaxQueueDepth());
+            if (clock != null) {
+                Logger.LOGV("AVAudioMixer", "audio file " + i + " clock drift: last "
+                        + clock.getLastDriftUs() + "us, max " + clock.getMaxDriftUs() + "us");
+            }
 
-            if (mixedSamples.length < sample.length) {
-                mixedSamples = Arrays.copyOf(mixedSamples, sample.length);
-                mixedSamplesf = Arrays.copyOf(mixedSamplesf, sample.length);
+            if (mCache != null) {
+                Logger.LOGV("AVAudioMixer", "audio file " + i + " cache "
+                        + (mDecoders[i].isCacheHit() ? "hit, saved "
+                        + mDecoders[i].getCacheSavedTimeMs() + "ms" : "miss"));
             }
 
-            for (short i = 0; i < sample.length; i++) {
+            if (mMetrics != null) {
+                mMetrics.addDecoderQueueDepth(mDecoders[i].getMaxQueueDepth());
+                if (clock != null) {
+                    mMetrics.addAudioClockDrift(clock.getLastDriftUs(), clock.getMaxDriftUs());
+                }
+                if (mCache != null) {
+                    mMetrics.addAudioCacheLookup(mDecoders[i].isCacheHit(),
+                            mDecoders[i].getCacheSavedTimeMs(),
+                            mDecoders[i].getCacheEvictions());
+                }
+            }
+        }
 
-                float samplef = sample[i] / 32768.0f;
-                samplef *= selectedVolume;
-                mixedSamplesf[i] += samplef;
+        Logger.LOGV("AVAudioMixer", threads + " decode thread(s) decoded " + decodedSamples
+                + " samples in " + decodeTimeMs + "ms");
+        if (mMetrics != null) {
+            mMetrics.addAudioDecode(threads, decodedSamples, decodeTimeMs);
+        }
+    }
 
-                // hard clipping
-                if (mixedSamplesf[i] > 1.0f) mixedSamplesf[i] = 1.0f;
-                if (mixedSamplesf[i] < -1.0f) mixedSamplesf[i] = -1.0f;
+    private boolean isAudioProcessCompleted(boolean[] values) {
+        boolean result = false;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i]) {
+                result = true;
+            } else {
+                result = false;
+                break;
             }
         }
 
-        for (int j = 0; j < mixedSamplesf.length; j++) {
-            mixedSamples[j] = (short) (mixedSamplesf[j] * 32768.0f);
+        return result;
+    }
+
+    private int verifyAudioDelays(long[] audioDelays) {
+        int setDelays = 0;
+        for (int i = 0; i < audioDelays.length; i++) {
+            if (audioDelays[i] > 0) {
+                ++setDelays;
+            }
         }
 
-        return mixedSamples;
+        return setDelays;
     }
 
-    private void writeOnMuxer(MediaCodec codec, ByteBuffer[] codecInputBuffers,
-                              ByteBuffer[] codecOutputBuffers, ByteBuffer data, MediaMuxer mux,
-                              long presentationTimeUs) {
-        MediaCodec.BufferInfo outBuffInfo = new MediaCodec.BufferInfo();
-        MediaFormat outputFormat = null;
+    /**
+     * Writes mixed samples into the encoder input buffers, taking the encoded buffers out as
+     * they come. Only waits when the encoder has no input buffer free.
+     */
+    private void encode(short[] samples, int offset, int length) throws InterruptedException {
+        int written = 0;
+        int waits = 0;
+        while (true) {
+            written += mEncoderInput.write(samples, offset + written, length - written);
+            drainEncoder();
+            if (written == length) {
+                return;
+            }
 
-        int inputBufIndex = codec.dequeueInputBuffer(CODEC_TIMEOUT_IN_MS);
-        if (inputBufIndex >= 0) {
-            ByteBuffer dstBuf = codecInputBuffers[inputBufIndex];
-            dstBuf.clear();
+            if (mEncoderPump.await(CODEC_WAIT_TIMEOUT_US)) {
+                waits = 0;
+            } else if (++waits >= CODEC_STALL_WAITS) {
+                throw new IllegalStateException("audio encoder stalled");
+            }
+        }
+    }
+
+    /**
+     * Sends the end of stream to the encoder and writes its last buffers to the muxer
+     */
+    private void finishEncoding() throws InterruptedException {
+        mEncoderInput.flush();
+
+        boolean inputEOS = false;
+        int waits = 0;
+        while (!mEncoderOutputEOS) {
+            if (!inputEOS) {
+                inputEOS = mEncoderInput.signalEndOfStream();
+            }
+            drainEncoder();
+            if (mEncoderOutputEOS) {
+                break;
+            }
 
-            dstBuf.put(data);
-            codec.queueInputBuffer(inputBufIndex, 0, dstBuf.limit(), (long) presentationTimeUs, 0);
+            if (mEncoderPump.await(CODEC_WAIT_TIMEOUT_US)) {
+                waits = 0;
+            } else if (++waits >= CODEC_STALL_WAITS) {
+                Logger.LOGE("AVAudioMixer", "audio encoder did not reach its end of stream");
+                break;
+            }
         }
 
-        // Drain audio
-        int outputBufIndex = 0;
-        while (outputBufIndex != MediaCodec.INFO_TRY_AGAIN_LATER) {
+        Logger.LOGV("AVAudioMixer", "audio encoder took " + mEncoderInput.getQueuedBuffers()
+                + " input buffers");
+    }
+
+    /**
+     * Writes the encoded buffers available to the muxer
+     */
+    private void drainEncoder() {
+        while (mEncoderPump.pollOutput(mEncoderId, mEncoderOutput)) {
+            CodecPump.OutputBuffer output = mEncoderOutput;
+            if (output.isFormatChange()) {
+                TrackFormat outputFormat = mEncoder.getOutputFormat();
+                Logger.LOGV("AVAudioMixer", "Output format changed - " + outputFormat);
+                mMuxer.addTrack(outputFormat);
+                mMuxer.start();
+                continue;
+            }
 
-            outputBufIndex = codec.dequeueOutputBuffer(outBuffInfo, CODEC_TIMEOUT_IN_MS);
-            if (outputBufIndex >= 0) {
-                ByteBuffer encodedData = codecOutputBuffers[outputBufIndex];
-                encodedData.position(outBuffInfo.offset);
-                encodedData.limit(outBuffInfo.offset + outBuffInfo.size);
+            if ((output.flags & CodecPump.BUFFER_FLAG_CODEC_CONFIG) == 0 && output.size > 0) {
+                ByteBuffer encodedData = mEncoder.getOutputBuffer(output.index);
+                encodedData.position(output.offset);
+                encodedData.limit(output.offset + output.size);
 
-                if ((outBuffInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0 && outBuffInfo.size != 0) {
-                    codec.releaseOutputBuffer(outputBufIndex, false);
-                } else {
-                    outBuffInfo.presentationTimeUs = presentationTimeUs;
-                    if (lastPresentationTimeUsToMuxer <= outBuffInfo.presentationTimeUs) {
-                        mux.writeSampleData(0, encodedData, outBuffInfo);
-                        lastPresentationTimeUsToMuxer = outBuffInfo.presentationTimeUs;
-                    }
-                    ++audioChunk;
-                    if (VERBOSE)
-                        Log.d("AudioMix", "Audio chunk wrote: " + audioChunk + " - data size is: "
-                                + encodedData.remaining() + " - prestime: "
-                                + outBuffInfo.presentationTimeUs);
-                    codec.releaseOutputBuffer(outputBufIndex, false);
+                if (lastPresentationTimeUsToMuxer <= output.presentationTimeUs) {
+                    mMuxer.writeSampleData(0, encodedData, output);
+                    lastPresentationTimeUsToMuxer = output.presentationTimeUs;
                 }
-            } else if (outputBufIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                outputFormat = codec.getOutputFormat();
-                Logger.LOGE("test", "Output format changed - " + outputFormat);
-                mux.addTrack(outputFormat);
-                mux.start();
-            } else if (outputBufIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
-                Logger.LOGE("test", "Output buffers changed during encode!");
-            } else if (outputBufIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                // NO OP
-            } else {
-                Logger.LOGE("test", "Unknown return code from dequeueOutputBuffer - "
-                        + outputBufIndex);
+                ++audioChunk;
+                if (VERBOSE)
+                    Log.d("AudioMix", "Audio chunk wrote: " + audioChunk + " - data size is: "
+                            + output.size + " - prestime: " + output.presentationTimeUs);
+            }
+
+            mEncoder.releaseOutputBuffer(output.index, false);
+            if (output.isEndOfStream()) {
+                mEncoderOutputEOS = true;
+            }
+        }
+    }
+
+    private void releaseEncoder() {
+        if (mEncoder != null) {
+            mEncoderPump.remove(mEncoderId);
+            try {
+                mEncoder.stop();
+            } catch (Exception e) {
+                Logger.LOGE("AVAudioMixer", "error stopping audio encoder: " + e);
             }
+            mEncoder.release();
+            mEncoder = null;
+        }
+        if (mEncoderPump != null) {
+            mEncoderPump.release();
+            mEncoderPump = null;
         }
     }
-}
\ No newline at end of file
+}
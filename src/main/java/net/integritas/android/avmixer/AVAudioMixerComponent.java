@@ -1,5 +1,10 @@
 package net.integritas.android.avmixer;
 
+import net.integritas.android.avmixer.audio.AudioEffect;
+import net.integritas.android.avmixer.audio.AudioEffectChain;
+import net.integritas.android.avmixer.audio.ChannelMatrix;
+import net.integritas.android.avmixer.audio.GainEnvelope;
+
 import java.io.File;
 
 /**
@@ -10,17 +15,30 @@ import java.io.File;
  * @author AlexGP (alexandre.gomes@integritas.net)
  * @author Raphael Kohn (raphael.kohn@integritas.net)
  *
- * @version 1.2
+ * @version 1.9
  * @since 1.0
  */
 public class AVAudioMixerComponent extends AVMixerComponent {
 
+    /**
+     * Part played by an audio file on the automatic ducking: the BED audio files are lowered
+     * while the VOICE audio files are heard
+     */
+    public enum DuckingRole {NONE, VOICE, BED}
+
     private float volume;
     private final float DEFAULT_VOLUME = 1.0f;
     private final long PRES_TIME_MULTIPLIER = 1000l;
     private long startAt;
+    private long endAt;
 
     private long delay;
+    private ChannelMatrix channelMatrix;
+    private GainEnvelope gainEnvelope;
+    private long fadeIn;
+    private long fadeOut;
+    private final AudioEffectChain effects = new AudioEffectChain();
+    private DuckingRole duckingRole = DuckingRole.NONE;
 
     public AVAudioMixerComponent(File componentFile) {
         super(componentFile);
@@ -70,6 +88,23 @@ public class AVAudioMixerComponent extends AVMixerComponent {
         this.startAt = startAt * PRES_TIME_MULTIPLIER;
     }
 
+    public long getEndAt() {
+        return endAt;
+    }
+
+    /**
+     * <p>
+     * Sets the end point of the audio file, where it stops playing.
+     * The end value must be specified in milliseconds from the start of the audio file
+     * (e.g. 10000 for stopping after its 1st 10 seconds), 0 to play it to its end
+     * </p>
+     *
+     * @param endAt - miliseconds offset to stop the audio
+     */
+    public void setEndAt(long endAt) {
+        this.endAt = endAt * PRES_TIME_MULTIPLIER;
+    }
+
     public long getDelay() {
         return delay;
     }
@@ -86,4 +121,111 @@ public class AVAudioMixerComponent extends AVMixerComponent {
     public void setDelay(long delay) {
         this.delay = delay * PRES_TIME_MULTIPLIER;
     }
-}
\ No newline at end of file
+
+    public ChannelMatrix getChannelMatrix() {
+        return channelMatrix;
+    }
+
+    /**
+     * <p>
+     * Sets how the audio file channels are mapped to the mixed audio channels
+     * (e.g. to pan a mono voice-over to one side of a stereo mix). The matrix must map the
+     * audio file channel count to the mixed audio channel count, otherwise the default
+     * up/down-mix is used.
+     * </p>
+     *
+     * @param channelMatrix - channel matrix, or null for the default up/down-mix
+     */
+    public void setChannelMatrix(ChannelMatrix channelMatrix) {
+        this.channelMatrix = channelMatrix;
+    }
+
+    public GainEnvelope getGainEnvelope() {
+        return gainEnvelope;
+    }
+
+    /**
+     * <p>
+     * Sets a gain automation for the audio file, applied on top of its volume. The envelope
+     * breakpoint times are in microseconds from the moment the audio file starts playing in
+     * the mix (e.g. a breakpoint at 0 for the first played sample, after the delay and from
+     * the startAt offset).
+     * </p>
+     *
+     * @param gainEnvelope - gain envelope, or null for a constant gain
+     */
+    public void setGainEnvelope(GainEnvelope gainEnvelope) {
+        this.gainEnvelope = gainEnvelope;
+    }
+
+    public long getFadeIn() {
+        return fadeIn;
+    }
+
+    /**
+     * <p>
+     * Sets a fade in at the start of the audio file.
+     * The length must be specified in milliseconds(e.g. 2000 for a fade in over the
+     * 1st 2 seconds played)
+     * </p>
+     *
+     * @param fadeIn - fade in length, in milliseconds, 0 for none
+     */
+    public void setFadeIn(long fadeIn) {
+        this.fadeIn = fadeIn * PRES_TIME_MULTIPLIER;
+    }
+
+    public long getFadeOut() {
+        return fadeOut;
+    }
+
+    /**
+     * <p>
+     * Sets a fade out at the end of the audio file.
+     * The length must be specified in milliseconds(e.g. 2000 for a fade out over the
+     * last 2 seconds of the audio)
+     * </p>
+     *
+     * @param fadeOut - fade out length, in milliseconds, 0 for none
+     */
+    public void setFadeOut(long fadeOut) {
+        this.fadeOut = fadeOut * PRES_TIME_MULTIPLIER;
+    }
+
+    /**
+     * @return the chain of effects applied to the audio file, empty by default
+     */
+    public AudioEffectChain getEffects() {
+        return effects;
+    }
+
+    /**
+     * <p>
+     * Appends an effect (e.g. a ParametricEqualizer, a BiquadFilter.highPass() or a NoiseGate)
+     * to the effects applied to the audio file before it is mixed. Effects run in the order
+     * they were added, and keep state, so an effect instance must not be shared between audio
+     * files.
+     * </p>
+     *
+     * @param effect - effect to append
+     */
+    public void addEffect(AudioEffect effect) {
+        effects.add(effect);
+    }
+
+    public DuckingRole getDuckingRole() {
+        return duckingRole;
+    }
+
+    /**
+     * <p>
+     * Tags the audio file for the automatic ducking set with AVMixer.setAudioDucking(): a VOICE
+     * (e.g. a voice-over) lowers the BED audio files (e.g. background music) while it is heard.
+     * </p>
+     *
+     * @param duckingRole - VOICE, BED or NONE (default) to be left alone
+     */
+    public void setDuckingRole(DuckingRole duckingRole) {
+        this.duckingRole = duckingRole != null ? duckingRole : DuckingRole.NONE;
+    }
+}
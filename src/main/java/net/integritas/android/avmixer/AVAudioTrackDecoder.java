@@ -0,0 +1,740 @@
+package net.integritas.android.avmixer;
+
+import android.util.Log;
+
+import net.integritas.android.avmixer.audio.AudioClock;
+import net.integritas.android.avmixer.audio.AudioTimeline;
+import net.integritas.android.avmixer.audio.ChannelMatrix;
+import net.integritas.android.avmixer.audio.PeakPyramid;
+import net.integritas.android.avmixer.audio.PcmRingBuffer;
+import net.integritas.android.avmixer.audio.PolyphaseResampler;
+import net.integritas.android.avmixer.cache.PcmCache;
+import net.integritas.android.avmixer.cache.PeakCache;
+import net.integritas.android.avmixer.codec.CodecPump;
+import net.integritas.android.avmixer.codec.MediaBackend;
+import net.integritas.android.avmixer.codec.TrackCodec;
+import net.integritas.android.avmixer.codec.TrackExtractor;
+import net.integritas.android.avmixer.codec.TrackFormat;
+import net.integritas.android.avmixer.util.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * <p>
+ * Decodes one audio track of the mix. The track is decoded by an {@link AVAudioDecodeWorker}
+ * thread, dropped up to its startAt, converted to the mix sample rate and stored on a bounded
+ * ring buffer which the mixing thread reads from. The worker stops taking decoder output while
+ * the ring buffer is full, so the memory used by a track stays bounded whatever its length is.
+ * </p>
+ * <p>
+ * When a {@link PcmCache} is set, a track already on the cache is read from its mapped entry
+ * instead of being decoded, and a track decoded from its first packet is written to the cache
+ * as it goes.
+ * </p>
+ * <p>
+ * When a {@link PeakCache} is set, the waveform of a track read from its first sample is built
+ * on the way and stored there, unless the cache already has it.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+class AVAudioTrackDecoder {
+
+    /**
+     * Number of decoded chunks the ring buffer can hold
+     */
+    private static final int RING_BUFFER_CHUNKS = 8;
+
+    /**
+     * Number of frames read at once from a cache entry
+     */
+    private static final int CACHE_CHUNK_FRAMES = 1024;
+
+    /**
+     * Notified whenever a track has new samples or reached its end
+     */
+    interface Listener {
+        void onSamplesDecoded(int track);
+    }
+
+    private final int mTrack;
+    private final AVAudioMixerComponent mComponent;
+    private final AudioTimeline mTimeline;
+    private final Listener mListener;
+    private final MediaBackend mBackend;
+    private final PcmCache mCache;
+
+    /* worker thread state */
+    private TrackExtractor mExtractor;
+    private TrackCodec mDecoder;
+    private CodecPump mPump;
+    private int mCodecId = -1;
+    private PolyphaseResampler mResampler;
+    private PolyphaseResampler.Quality mResampleQuality;
+    private short[] mResampleBuffer = new short[0];
+    private AudioClock mClock;
+    private boolean mInputEOS;
+    private long mDecodedSamples;
+    private int mMixSampleRate;
+    private int mMixChannelCount;
+    private PcmCache.Entry mCacheEntry;
+    private ShortBuffer mCachedSamples;
+    private PcmCache.Writer mCacheWriter;
+    private boolean mCacheable;
+    private int mCacheEvictions;
+    private long mDecodeTimeNs;
+    private PeakCache mPeakCache;
+    private boolean mPeaking;
+    private PeakPyramid.Builder mPeakBuilder;
+
+    /* read by the mixing thread */
+    private volatile boolean mOutputEOS;
+    private volatile int mSampleRate;
+    private volatile int mChannelCount;
+    private volatile ChannelMatrix mChannelMatrix;
+    private volatile int mFirstChunkFrames;
+    private long mDurationUs = -1;
+
+    /* guarded by this */
+    private PcmRingBuffer mRingBuffer;
+    private int mMaxChunkSize;
+    private int mReservedSamples;
+
+    /**
+     * @param backend - backend the track is decoded on
+     * @param cache   - decoded PCM cache, or null to always decode the track
+     */
+    AVAudioTrackDecoder(int track, AVAudioMixerComponent component, AudioTimeline timeline,
+                        Listener listener, MediaBackend backend, PcmCache cache) {
+        mTrack = track;
+        mComponent = component;
+        mTimeline = timeline;
+        mListener = listener;
+        mBackend = backend;
+        mCache = cache;
+    }
+
+    /**
+     * Sets the cache the track waveform is stored on. Must be called before open().
+     *
+     * @param peakCache - waveform cache, or null
+     */
+    void setPeakCache(PeakCache peakCache) {
+        mPeakCache = peakCache;
+    }
+
+    /**
+     * Opens the track file, and looks it up on the cache
+     *
+     * @return the compressed track format
+     */
+    TrackFormat open() throws IOException {
+        mExtractor = mBackend.createExtractor(mComponent.getComponentFile().getAbsolutePath());
+
+        TrackFormat format = mExtractor.getTrackFormat(0);
+        mSampleRate = format.getInteger(TrackFormat.KEY_SAMPLE_RATE);
+        mChannelCount = format.getInteger(TrackFormat.KEY_CHANNEL_COUNT);
+
+        if (mCache != null) {
+            try {
+                mCacheEntry = mCache.get(mComponent.getComponentFile());
+            } catch (IOException e) {
+                Log.w("AVAudioMixer", "audio file " + mTrack + " cache lookup failed: " + e);
+            }
+        }
+        if (mPeakCache != null) {
+            try {
+                mPeaking = !mPeakCache.contains(mComponent.getComponentFile());
+            } catch (IOException e) {
+                Log.w("AVAudioMixer", "audio file " + mTrack + " waveform lookup failed: " + e);
+            }
+        }
+        if (format.containsKey(TrackFormat.KEY_DURATION)) {
+            mDurationUs = format.getLong(TrackFormat.KEY_DURATION);
+        }
+        if (mCacheEntry != null) {
+            mSampleRate = mCacheEntry.getSampleRate();
+            mChannelCount = mCacheEntry.getChannelCount();
+            mDurationUs = mCacheEntry.getSamples().remaining() / mChannelCount * 1000000l
+                    / mSampleRate;
+        }
+        mTimeline.setFormat(mTrack, mSampleRate, mChannelCount);
+
+        return format;
+    }
+
+    /**
+     * Creates and starts the track decoder. Must be called after open(), once the mix format
+     * is known.
+     *
+     * @param pump            - pump of the worker thread which will decode the track, created
+     *                        by the track backend
+     * @param mixSampleRate   - sample rate the track is converted to
+     * @param mixChannelCount - channel count of the mix
+     * @param resampleQuality - quality of the sample rate conversion
+     */
+    void start(CodecPump pump, int mixSampleRate, int mixChannelCount,
+               PolyphaseResampler.Quality resampleQuality) throws IOException {
+        TrackFormat format = mExtractor.getTrackFormat(0);
+
+        mMixSampleRate = mixSampleRate;
+        mMixChannelCount = mixChannelCount;
+        mResampleQuality = resampleQuality;
+        prepareResampler();
+        prepareChannelMatrix();
+
+        mPump = pump;
+        if (mCacheEntry != null) {
+            /* nothing to decode, the samples come from the cache */
+            mExtractor.release();
+            mExtractor = null;
+            mCachedSamples = mCacheEntry.getSamples();
+            seekCachedSamples();
+            return;
+        }
+
+        /* only a track decoded from its first packet makes a complete cache entry */
+        mCacheable = mCache != null;
+        mDecoder = mBackend.createDecoder(pump, format.getString(TrackFormat.KEY_MIME));
+        mDecoder.configure(format, 0);
+        mDecoder.start();
+        mCodecId = pump.add(mDecoder);
+        mExtractor.selectTrack(0);
+
+        /* the packets before the track startAt are not even read */
+        long seekTimeUs = mTimeline.getSeekTimeUs(mTrack);
+        if (seekTimeUs > 0) {
+            mExtractor.seekTo(seekTimeUs, TrackExtractor.SEEK_TO_PREVIOUS_SYNC);
+            mCacheable = false;
+            mPeaking = false;
+        }
+    }
+
+    /**
+     * Feeds the decoder and takes its output, as far as the ring buffer space allows. Called
+     * from the worker thread.
+     *
+     * @param output - reusable output buffer metadata
+     * @return whether any buffer was processed
+     */
+    boolean step(CodecPump.OutputBuffer output) {
+        if (mOutputEOS) {
+            return false;
+        }
+
+        if (mCachedSamples != null) {
+            return readCachedChunk();
+        }
+
+        boolean progress = false;
+        if (!mInputEOS && hasSpace()) {
+            int inputBufferIndex = mPump.pollInput(mCodecId);
+            if (inputBufferIndex >= 0) {
+                queueInput(inputBufferIndex);
+                progress = true;
+            }
+        }
+
+        if (hasSpace() && mPump.pollOutput(mCodecId, output)) {
+            takeOutput(output);
+            progress = true;
+        }
+
+        return progress;
+    }
+
+    /**
+     * @return whether the worker can take more decoder output for this track
+     */
+    boolean isWaitingForDecoder() {
+        return !mOutputEOS && hasSpace();
+    }
+
+    /**
+     * Adds to the time spent decoding the track, which is stored with its cache entry
+     */
+    void addDecodeTime(long timeNs) {
+        mDecodeTimeNs += timeNs;
+    }
+
+    /**
+     * Ends the track, e.g. when its decoder stalled or failed, and releases the decoder
+     */
+    void finish() {
+        if (mCacheWriter != null) {
+            /* the track did not reach its end, the entry would be incomplete */
+            mCacheWriter.abort();
+            mCacheWriter = null;
+        }
+        mPeakBuilder = null;
+        mPeaking = false;
+        if (mDecoder != null) {
+            if (mCodecId >= 0) {
+                mPump.remove(mCodecId);
+            }
+            mDecoder.stop();
+            mDecoder.release();
+            mDecoder = null;
+        }
+        if (mExtractor != null) {
+            mExtractor.release();
+            mExtractor = null;
+        }
+
+        if (!mOutputEOS) {
+            mOutputEOS = true;
+            mListener.onSamplesDecoded(mTrack);
+        }
+    }
+
+    /**
+     * @return whether the decoder delivered its last samples
+     */
+    boolean isOutputEOS() {
+        return mOutputEOS;
+    }
+
+    int getChannelCount() {
+        return mChannelCount;
+    }
+
+    int getSampleRate() {
+        return mSampleRate;
+    }
+
+    ChannelMatrix getChannelMatrix() {
+        return mChannelMatrix;
+    }
+
+    /**
+     * @return the number of frames of the first decoded chunk, 0 while nothing is decoded
+     */
+    int getFirstChunkFrames() {
+        return mFirstChunkFrames;
+    }
+
+    /**
+     * @return the track duration, in microseconds, or -1 if unknown
+     */
+    long getDurationUs() {
+        return mDurationUs;
+    }
+
+    AudioClock getClock() {
+        return mClock;
+    }
+
+    long getDecodedSamples() {
+        return mDecodedSamples;
+    }
+
+    int getMaxQueueDepth() {
+        return mCodecId >= 0 ? mPump.getMaxQueueDepth(mCodecId) : 0;
+    }
+
+    /**
+     * @return whether the track was read from the cache
+     */
+    boolean isCacheHit() {
+        return mCacheEntry != null;
+    }
+
+    /**
+     * @return the time, in milliseconds, the cached track took to decode when it was cached
+     */
+    long getCacheSavedTimeMs() {
+        return mCacheEntry != null ? mCacheEntry.getDecodeTimeMs() : 0;
+    }
+
+    /**
+     * @return the number of cache entries evicted to make room for this track
+     */
+    int getCacheEvictions() {
+        return mCacheEvictions;
+    }
+
+    /**
+     * Makes sure the ring buffer can hold the given number of samples on top of a decoded
+     * chunk, so a mixing window never waits on a full ring buffer.
+     */
+    void reserve(int samples) {
+        synchronized (this) {
+            if (samples <= mReservedSamples) {
+                return;
+            }
+
+            mReservedSamples = samples;
+            if (mRingBuffer != null) {
+                mRingBuffer.ensureCapacity(mReservedSamples + mMaxChunkSize);
+            }
+        }
+
+        /* the worker may be waiting for ring buffer space */
+        if (mPump != null) {
+            mPump.wakeUp();
+        }
+    }
+
+    synchronized int available() {
+        return mRingBuffer != null ? mRingBuffer.available() : 0;
+    }
+
+    synchronized boolean isEmpty() {
+        return mRingBuffer == null || mRingBuffer.isEmpty();
+    }
+
+    /**
+     * Reads decoded samples, in the track channel layout. Called from the mixing thread.
+     *
+     * @return the number of samples read
+     */
+    int read(short[] dst, int offset, int length) {
+        int read;
+        synchronized (this) {
+            read = mRingBuffer != null ? mRingBuffer.read(dst, offset, length) : 0;
+        }
+
+        /* the worker may be waiting for ring buffer space */
+        if (read > 0 && mPump != null) {
+            mPump.wakeUp();
+        }
+
+        return read;
+    }
+
+    private synchronized boolean hasSpace() {
+        return mRingBuffer == null || mRingBuffer.free() >= Math.max(mMaxChunkSize, 1);
+    }
+
+    private void queueInput(int inputBufferIndex) {
+        ByteBuffer buffer = mDecoder.getInputBuffer(inputBufferIndex);
+        int sampleSize = mExtractor.readSampleData(buffer, 0);
+        long presentationTimeUs = 0;
+        if (sampleSize < 0) {
+            mInputEOS = true;
+            sampleSize = 0;
+        } else {
+            presentationTimeUs = mExtractor.getSampleTime();
+            Logger.LOGV("AudioMix", "audio file " + mTrack + " prestime: "
+                    + presentationTimeUs);
+        }
+
+        /* packets before the track startAt are not decoded */
+        if (!mTimeline.isPacketNeeded(mTrack, presentationTimeUs)) {
+            sampleSize = 0;
+            mCacheable = false;
+            mPeaking = false;
+        }
+
+        /* nor the ones past its endAt, which end the track */
+        if (!mInputEOS && mTimeline.isPastEnd(mTrack, presentationTimeUs)) {
+            mInputEOS = true;
+            sampleSize = 0;
+            abortIncompleteTrack();
+        }
+
+        mDecoder.queueInputBuffer(inputBufferIndex, 0, sampleSize, presentationTimeUs,
+                mInputEOS ? CodecPump.BUFFER_FLAG_END_OF_STREAM : 0);
+
+        if (!mInputEOS) {
+            mExtractor.advance();
+        }
+    }
+
+    private void takeOutput(CodecPump.OutputBuffer output) {
+        if (output.isFormatChange()) {
+            TrackFormat decodedFormat = mDecoder.getOutputFormat();
+            mSampleRate = decodedFormat.getInteger(TrackFormat.KEY_SAMPLE_RATE);
+            mChannelCount = decodedFormat.getInteger(TrackFormat.KEY_CHANNEL_COUNT);
+            mTimeline.setFormat(mTrack, mSampleRate, mChannelCount);
+            prepareResampler();
+            prepareChannelMatrix();
+            if (mClock != null) {
+                mClock.setFormat(mSampleRate, mChannelCount);
+            }
+            if (mCacheWriter != null) {
+                /* a cache entry holds a single format */
+                mCacheWriter.abort();
+                mCacheWriter = null;
+                mCacheable = false;
+            }
+            if (mPeakBuilder != null) {
+                /* and so does a waveform */
+                mPeakBuilder = null;
+                mPeaking = false;
+            }
+            return;
+        }
+
+        if (output.size > 0) {
+            int samples = output.size / 2;
+
+            /* tracks the decoder timestamps against the sample count */
+            if (mClock == null) {
+                mClock = new AudioClock(mSampleRate, mChannelCount, output.presentationTimeUs);
+            } else {
+                mClock.observe(output.presentationTimeUs);
+            }
+            mClock.advance(samples);
+            mDecodedSamples += samples;
+
+            ByteBuffer buffer = mDecoder.getOutputBuffer(output.index);
+            buffer.position(output.offset);
+            buffer.limit(output.offset + output.size);
+            ShortBuffer pcm = buffer.asShortBuffer();
+
+            writeCacheChunk(pcm, samples);
+            writePeaks(pcm, samples);
+            writeDecodedChunk(pcm, samples, output.presentationTimeUs);
+            buffer.clear();
+        }
+
+        mDecoder.releaseOutputBuffer(output.index, false);
+        if (output.isEndOfStream()) {
+            flushResampler();
+            commitCacheEntry();
+            commitPeaks();
+            finish();
+        }
+    }
+
+    /**
+     * Moves the next chunk of the cache entry into the ring buffer
+     *
+     * @return whether a chunk was read
+     */
+    private boolean readCachedChunk() {
+        if (!hasSpace()) {
+            return false;
+        }
+
+        int samples = Math.min(mCachedSamples.remaining(), CACHE_CHUNK_FRAMES * mChannelCount);
+        if (samples > 0) {
+            if (mClock == null) {
+                mClock = new AudioClock(mSampleRate, mChannelCount, 0);
+            }
+            if (mTimeline.isPastEnd(mTrack, mClock.getPresentationTimeUs())) {
+                flushResampler();
+                finish();
+                return true;
+            }
+            long presentationTimeUs = mClock.advance(samples);
+            mDecodedSamples += samples;
+
+            writePeaks(mCachedSamples, samples);
+            writeDecodedChunk(mCachedSamples, samples, presentationTimeUs);
+            mCachedSamples.position(mCachedSamples.position() + samples);
+        }
+
+        if (!mCachedSamples.hasRemaining()) {
+            flushResampler();
+            commitPeaks();
+            finish();
+        }
+        return true;
+    }
+
+    /**
+     * Moves the cached samples, and the clock counting them, to the track startAt, instead of
+     * reading the samples before it
+     */
+    private void seekCachedSamples() {
+        long seekTimeUs = mTimeline.getSeekTimeUs(mTrack);
+        if (seekTimeUs <= 0) {
+            return;
+        }
+
+        long frames = Math.min(seekTimeUs * mSampleRate / 1000000l,
+                mCachedSamples.remaining() / mChannelCount);
+        mCachedSamples.position(mCachedSamples.position() + (int) frames * mChannelCount);
+        mClock = new AudioClock(mSampleRate, mChannelCount, frames * 1000000l / mSampleRate);
+        mPeaking = false;
+    }
+
+    /**
+     * Drops the cache entry and waveform of a track which is not decoded to its end
+     */
+    private void abortIncompleteTrack() {
+        if (mCacheWriter != null) {
+            mCacheWriter.abort();
+            mCacheWriter = null;
+        }
+        mCacheable = false;
+        mPeakBuilder = null;
+        mPeaking = false;
+    }
+
+    /**
+     * Appends a decoded chunk to the track cache entry, starting the entry on the first chunk
+     */
+    private void writeCacheChunk(ShortBuffer pcm, int samples) {
+        if (!mCacheable) {
+            return;
+        }
+
+        try {
+            if (mCacheWriter == null) {
+                mCacheWriter = mCache.edit(mComponent.getComponentFile(), mSampleRate,
+                        mChannelCount);
+            }
+            mCacheWriter.write(pcm, samples);
+        } catch (IOException e) {
+            Log.w("AVAudioMixer", "audio file " + mTrack + " could not be cached: " + e);
+            if (mCacheWriter != null) {
+                mCacheWriter.abort();
+                mCacheWriter = null;
+            }
+            mCacheable = false;
+        }
+    }
+
+    private void commitCacheEntry() {
+        if (mCacheWriter == null) {
+            return;
+        }
+
+        try {
+            mCacheEvictions += mCacheWriter.commit(mDecodeTimeNs / 1000000l);
+        } catch (IOException e) {
+            Log.w("AVAudioMixer", "audio file " + mTrack + " could not be cached: " + e);
+        }
+        mCacheWriter = null;
+    }
+
+    /**
+     * Adds a chunk to the track waveform, starting it on the first chunk
+     */
+    private void writePeaks(ShortBuffer pcm, int samples) {
+        if (!mPeaking) {
+            return;
+        }
+
+        if (mPeakBuilder == null) {
+            mPeakBuilder = new PeakPyramid.Builder(mSampleRate, mChannelCount);
+        }
+        mPeakBuilder.add(pcm, samples);
+    }
+
+    private void commitPeaks() {
+        if (mPeakBuilder == null) {
+            return;
+        }
+
+        try {
+            mPeakCache.put(mComponent.getComponentFile(), mPeakBuilder.build());
+        } catch (IOException e) {
+            Log.w("AVAudioMixer", "audio file " + mTrack + " waveform could not be cached: "
+                    + e);
+        }
+        mPeakBuilder = null;
+    }
+
+    /**
+     * Moves a decoded chunk into the ring buffer, dropping the samples before the track startAt
+     * and after its endAt, and converting it to the mix sample rate.
+     *
+     * @param pcm                - decoded samples, from their position. The position is not moved.
+     * @param samples            - number of decoded samples
+     * @param presentationTimeUs - presentation time of the first sample
+     */
+    private void writeDecodedChunk(ShortBuffer pcm, int samples, long presentationTimeUs) {
+        /* drops the samples before the track startAt, and the ones after its endAt */
+        int skip = mTimeline.skip(mTrack, presentationTimeUs, samples);
+        samples = Math.max(skip, mTimeline.end(mTrack, presentationTimeUs, samples));
+        if (samples <= skip) {
+            return;
+        }
+
+        pcm = pcm.duplicate();
+        pcm.position(pcm.position() + skip);
+
+        if (mResampler == null) {
+            synchronized (this) {
+                prepareRingBuffer(samples - skip);
+                mRingBuffer.write(pcm, samples - skip);
+            }
+        } else {
+            short[] resampled = resampleBuffer(mResampler.getMaxOutputSamples(samples - skip));
+            int count = mResampler.process(pcm, samples - skip, resampled, 0);
+            synchronized (this) {
+                prepareRingBuffer(count);
+                mRingBuffer.write(resampled, 0, count);
+            }
+        }
+
+        if (mFirstChunkFrames == 0) {
+            mFirstChunkFrames = samples / mChannelCount;
+        }
+        mListener.onSamplesDecoded(mTrack);
+    }
+
+    /**
+     * Pushes the last samples held by the sample rate converter into the ring buffer
+     */
+    private void flushResampler() {
+        if (mResampler == null) {
+            return;
+        }
+
+        short[] resampled = resampleBuffer(mResampler.getMaxOutputSamples(0));
+        int count = mResampler.flush(resampled, 0);
+        synchronized (this) {
+            prepareRingBuffer(count);
+            mRingBuffer.write(resampled, 0, count);
+        }
+    }
+
+    /* must hold the lock */
+    private void prepareRingBuffer(int samples) {
+        mMaxChunkSize = Math.max(mMaxChunkSize, samples);
+        if (mRingBuffer == null) {
+            mRingBuffer = new PcmRingBuffer(Math.max(mMaxChunkSize * RING_BUFFER_CHUNKS,
+                    mReservedSamples + mMaxChunkSize));
+        } else if (samples > mRingBuffer.free()) {
+            mRingBuffer.ensureCapacity(mRingBuffer.available() + samples);
+        }
+    }
+
+    private short[] resampleBuffer(int samples) {
+        if (mResampleBuffer.length < samples) {
+            mResampleBuffer = new short[samples];
+        }
+        return mResampleBuffer;
+    }
+
+    /**
+     * Creates the sample rate converter, if the track sample rate differs from the mix
+     * sample rate
+     */
+    private void prepareResampler() {
+        if (mSampleRate == mMixSampleRate) {
+            mResampler = null;
+        } else if (mResampler == null || mResampler.getInputRate() != mSampleRate
+                || mResampler.getChannelCount() != mChannelCount) {
+            mResampler = new PolyphaseResampler(mSampleRate, mMixSampleRate, mChannelCount,
+                    mResampleQuality);
+        }
+    }
+
+    /**
+     * Picks the matrix converting the track to the mix channel layout. The matrix set on the
+     * track component is used if it matches the track layout, otherwise the default up/down-mix
+     * is used.
+     */
+    private void prepareChannelMatrix() {
+        ChannelMatrix matrix = mComponent.getChannelMatrix();
+        if (matrix != null && (matrix.getInputChannels() != mChannelCount
+                || matrix.getOutputChannels() != mMixChannelCount)) {
+            Log.w("AVAudioMixer", "audio file " + mTrack + " channel matrix does not map "
+                    + mChannelCount + " to " + mMixChannelCount + " channel(s), ignoring it");
+            matrix = null;
+        }
+
+        mChannelMatrix = matrix != null ? matrix
+                : ChannelMatrix.create(mChannelCount, mMixChannelCount);
+    }
+}
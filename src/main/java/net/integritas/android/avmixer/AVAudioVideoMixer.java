@@ -1,11 +1,13 @@
 package net.integritas.android.avmixer;
 
-import android.media.MediaCodec;
-import android.media.MediaExtractor;
-import android.media.MediaFormat;
-import android.media.MediaMuxer;
 import android.util.Log;
 
+import net.integritas.android.avmixer.codec.AndroidMediaBackend;
+import net.integritas.android.avmixer.codec.CodecPump;
+import net.integritas.android.avmixer.codec.MediaBackend;
+import net.integritas.android.avmixer.codec.TrackExtractor;
+import net.integritas.android.avmixer.codec.TrackFormat;
+import net.integritas.android.avmixer.codec.TrackMuxer;
 import net.integritas.android.avmixer.util.Logger;
 
 import java.nio.ByteBuffer;
@@ -19,7 +21,7 @@ import java.util.HashMap;
  * @author AlexGP (alexandre.gomes@integritas.net)
  * @author Raphael Kohn (raphael.kohn@integritas.net)
  *
- * @version 1.4
+ * @version 1.9
  * @since 1.0
  */
 public class AVAudioVideoMixer {
@@ -34,6 +36,7 @@ public class AVAudioVideoMixer {
     private long mLastPresentationVideoTimestamp;
     private long mMuteVideoOffet;
     private final long PRES_TIME_MULTIPLIER = 1000l;
+    private MediaBackend mMediaBackend = new AndroidMediaBackend();
 
     public AVAudioVideoMixer(AVMixerObject mixObj, IAVInternalListener listener) {
         this.mMixObj = mixObj;
@@ -52,6 +55,16 @@ public class AVAudioVideoMixer {
         this.mMuteVideoOffet = muteVideoOffset * PRES_TIME_MULTIPLIER;
     }
 
+    /**
+     * Sets the backend the audio and video files are read and written on. Must be called
+     * before mixAudioAndVideo().
+     *
+     * @param mediaBackend - backend, the AndroidMediaBackend by default
+     */
+    void setMediaBackend(MediaBackend mediaBackend) {
+        mMediaBackend = mediaBackend;
+    }
+
     /**
      * Method for mixing the Audio generated from AVAudioMixer and AVVideoMixer
      *
@@ -66,21 +79,21 @@ public class AVAudioVideoMixer {
                     int videoTrackIndex = 0;
                     int audioTrackIndex = 1;
 
-                    MediaExtractor videoExtractor = new MediaExtractor();
-                    videoExtractor.setDataSource(mMixObj.getTempVideoFilePath());
+                    TrackExtractor videoExtractor =
+                            mMediaBackend.createExtractor(mMixObj.getTempVideoFilePath());
                     int trackCount = videoExtractor.getTrackCount();
 
-                    MediaExtractor audioExtractor = new MediaExtractor();
-                    audioExtractor.setDataSource(mMixObj.getTempAudioFilePath());
+                    TrackExtractor audioExtractor =
+                            mMediaBackend.createExtractor(mMixObj.getTempAudioFilePath());
 
                     // Set up MediaMuxer for the destination.
-                    MediaMuxer muxer = new MediaMuxer(mMixObj.getFilePathName(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+                    TrackMuxer muxer = mMediaBackend.createMuxer(mMixObj.getFilePathName());
                     // Set up the tracks.
                     HashMap<Integer, Integer> indexMap = new HashMap<Integer, Integer>(trackCount);
 
                     for (int i = 0; i < trackCount; i++) {
-                        MediaFormat format = videoExtractor.getTrackFormat(i);
-                        String mime = format.getString(MediaFormat.KEY_MIME);
+                        TrackFormat format = videoExtractor.getTrackFormat(i);
+                        String mime = format.getString(TrackFormat.KEY_MIME);
                         if (mime.startsWith("video/")) {
                             videoExtractor.selectTrack(i);
                             int dstIndex = muxer.addTrack(format);
@@ -91,8 +104,8 @@ public class AVAudioVideoMixer {
                     trackCount = audioExtractor.getTrackCount();
 
                     for (int i = 0; i < trackCount; i++) {
-                        MediaFormat format = audioExtractor.getTrackFormat(i);
-                        String mime = format.getString(MediaFormat.KEY_MIME);
+                        TrackFormat format = audioExtractor.getTrackFormat(i);
+                        String mime = format.getString(TrackFormat.KEY_MIME);
                         if (mime.startsWith("audio/")) {
                             audioExtractor.selectTrack(i);
                             int dstIndex = muxer.addTrack(format);
@@ -107,7 +120,7 @@ public class AVAudioVideoMixer {
                     int audioChunkCount = 0;
                     int offset = 100;
                     ByteBuffer dstBuf = ByteBuffer.allocate(bufferSize);
-                    MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+                    CodecPump.OutputBuffer bufferInfo = new CodecPump.OutputBuffer();
 
                     muxer.start();
 
@@ -123,7 +136,7 @@ public class AVAudioVideoMixer {
 
                             bufferInfo.presentationTimeUs = videoExtractor.getSampleTime();
                             mLastPresentationVideoTimestamp = bufferInfo.presentationTimeUs;
-                            bufferInfo.flags = MediaCodec.BUFFER_FLAG_KEY_FRAME;
+                            bufferInfo.flags = CodecPump.BUFFER_FLAG_KEY_FRAME;
                             muxer.writeSampleData(indexMap.get(videoTrackIndex), dstBuf,
                                     bufferInfo);
 
@@ -150,7 +163,7 @@ public class AVAudioVideoMixer {
                             bufferInfo.size = 0;
                         } else {
                             bufferInfo.presentationTimeUs = audioExtractor.getSampleTime();
-                            bufferInfo.flags = MediaCodec.BUFFER_FLAG_KEY_FRAME;
+                            bufferInfo.flags = CodecPump.BUFFER_FLAG_KEY_FRAME;
                             if (mAudioNVideoSync
                                     && bufferInfo.presentationTimeUs
                                     < (mLastPresentationVideoTimestamp - mMuteVideoOffet)) {
@@ -174,6 +187,8 @@ public class AVAudioVideoMixer {
 
                     muxer.stop();
                     muxer.release();
+                    videoExtractor.release();
+                    audioExtractor.release();
                     mMixingOver = true;
 
                     mListener.onMixFinished();
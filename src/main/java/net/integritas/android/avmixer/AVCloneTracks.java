@@ -1,12 +1,13 @@
 package net.integritas.android.avmixer;
 
-import android.media.MediaCodec;
-import android.media.MediaCodec.BufferInfo;
-import android.media.MediaExtractor;
-import android.media.MediaFormat;
-import android.media.MediaMuxer;
 import android.util.Log;
 
+import net.integritas.android.avmixer.codec.AndroidMediaBackend;
+import net.integritas.android.avmixer.codec.CodecPump;
+import net.integritas.android.avmixer.codec.MediaBackend;
+import net.integritas.android.avmixer.codec.TrackExtractor;
+import net.integritas.android.avmixer.codec.TrackFormat;
+import net.integritas.android.avmixer.codec.TrackMuxer;
 import net.integritas.android.avmixer.util.Logger;
 
 import java.io.IOException;
@@ -22,7 +23,7 @@ import java.util.HashMap;
  *
  * @author AlexGP (alexandre.gomes@integritas.net)
  *
- * @version 1.2
+ * @version 1.9
  * @since 1.0
  */
 public class AVCloneTracks {
@@ -46,6 +47,59 @@ public class AVCloneTracks {
                                   final EXTRACTION_TYPE extractionType,
                                   final VIDEO_RES_TYPE resType, final int startFrame,
                                   final int endFrame) throws IOException {
+        cloneTrack(new AndroidMediaBackend(), mixerObj, videoPath, outputFilenamePath, degrees,
+                extractionType, resType, startFrame, endFrame);
+    }
+
+    /**
+     * Clones a media file, reading and writing it on the given backend.
+     *
+     * @since 1.9
+     */
+    public static void cloneTrack(final MediaBackend backend, final AVMixerObject mixerObj,
+                                  final String videoPath, final String outputFilenamePath,
+                                  final int degrees, final EXTRACTION_TYPE extractionType,
+                                  final VIDEO_RES_TYPE resType, final int startFrame,
+                                  final int endFrame) throws IOException {
+        clone(backend, mixerObj, videoPath, outputFilenamePath, degrees, extractionType, resType,
+                startFrame, endFrame, 0, 0);
+    }
+
+    /**
+     * Clones the part of a media file between two times. The tracks are sought to the sync
+     * sample preceding the start time, so the samples before it are not read, and copied up to
+     * the first sample past the end time. The samples keep their sync flags, and are shifted
+     * so the first one copied starts at 0.
+     *
+     * @param startUs - time, in microseconds, of the source to start the copy from
+     * @param endUs   - time, in microseconds, of the source to end the copy at, 0 to copy it
+     *                to its end
+     * @return the time of the source, in microseconds, of the first sample copied, at or
+     * before startUs, or -1 if nothing was copied
+     * @since 1.9
+     */
+    public static long cloneTrackByTime(final MediaBackend backend, final String videoPath,
+                                        final String outputFilenamePath,
+                                        final EXTRACTION_TYPE extractionType, final long startUs,
+                                        final long endUs) throws IOException {
+        return clone(backend, null, videoPath, outputFilenamePath, -1, extractionType,
+                VIDEO_RES_TYPE.Res_Native, 0, -1, startUs, endUs);
+    }
+
+    /**
+     * Clones a media file, between two frames or, when a start or end time is set, between two
+     * times.
+     *
+     * @return the time, in microseconds, of the first sample copied, or -1
+     */
+    private static long clone(final MediaBackend backend, final AVMixerObject mixerObj,
+                              final String videoPath, final String outputFilenamePath,
+                              final int degrees, final EXTRACTION_TYPE extractionType,
+                              final VIDEO_RES_TYPE resType, final int startFrame,
+                              final int endFrame, final long startUs, final long endUs)
+            throws IOException {
+        final boolean byTime = startUs > 0 || endUs > 0;
+        final long[] firstSampleUs = {-1};
         processDone = false;
 
         // Set up MediaExtractor to read from the source.
@@ -55,51 +109,49 @@ public class AVCloneTracks {
                 try {
 
                     // Set up MediaMuxer for the destination.
-                    MediaMuxer muxer;
+                    TrackMuxer muxer;
                     if (mixerObj != null) {
-                        muxer = new MediaMuxer(mixerObj.getFileName(),
-                                MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+                        muxer = backend.createMuxer(mixerObj.getFileName());
                     } else {
-                        muxer = new MediaMuxer(outputFilenamePath,
-                                MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+                        muxer = backend.createMuxer(outputFilenamePath);
                     }
 
-                    MediaFormat format = null;
+                    TrackFormat format = null;
 
-                    MediaExtractor extractor = new MediaExtractor();
+                    TrackExtractor extractor;
                     HashMap<Integer, Integer> indexMap = new HashMap<Integer, Integer>();
 
                     if (mixerObj != null && mixerObj.getVideos() != null) {
-                        extractor.setDataSource(mixerObj.getVideos().get(0)
+                        extractor = backend.createExtractor(mixerObj.getVideos().get(0)
                                 .getComponentFile().getAbsolutePath());
                     } else {
-                        extractor.setDataSource(videoPath);
+                        extractor = backend.createExtractor(videoPath);
                     }
 
                     int trackCount = extractor.getTrackCount();
 
                     for (int i = 0; i < trackCount; i++) {
                         format = extractor.getTrackFormat(i);
-                        String mime = format.getString(MediaFormat.KEY_MIME);
+                        String mime = format.getString(TrackFormat.KEY_MIME);
                         if (extractionType == EXTRACTION_TYPE.VideoOnly) {
                             if (mime.startsWith("video/")) {
                                 extractor.selectTrack(i);
                                 if (resType == VIDEO_RES_TYPE.Res_360p) {
-                                    format.setInteger(MediaFormat.KEY_WIDTH, 640);
-                                    format.setInteger(MediaFormat.KEY_HEIGHT, 360);
-                                    format.setInteger(MediaFormat.KEY_BIT_RATE, 750);
+                                    format.setInteger(TrackFormat.KEY_WIDTH, 640);
+                                    format.setInteger(TrackFormat.KEY_HEIGHT, 360);
+                                    format.setInteger(TrackFormat.KEY_BIT_RATE, 750);
                                 } else if (resType == VIDEO_RES_TYPE.Res_480p) {
-                                    format.setInteger(MediaFormat.KEY_WIDTH, 854);
-                                    format.setInteger(MediaFormat.KEY_HEIGHT, 480);
-                                    format.setInteger(MediaFormat.KEY_BIT_RATE, 1000);
+                                    format.setInteger(TrackFormat.KEY_WIDTH, 854);
+                                    format.setInteger(TrackFormat.KEY_HEIGHT, 480);
+                                    format.setInteger(TrackFormat.KEY_BIT_RATE, 1000);
                                 } else if (resType == VIDEO_RES_TYPE.Res_720p) {
-                                    format.setInteger(MediaFormat.KEY_WIDTH, 1280);
-                                    format.setInteger(MediaFormat.KEY_HEIGHT, 720);
-                                    format.setInteger(MediaFormat.KEY_BIT_RATE, 4400);
+                                    format.setInteger(TrackFormat.KEY_WIDTH, 1280);
+                                    format.setInteger(TrackFormat.KEY_HEIGHT, 720);
+                                    format.setInteger(TrackFormat.KEY_BIT_RATE, 4400);
                                 } else if (resType == VIDEO_RES_TYPE.Res_1080p) {
-                                    format.setInteger(MediaFormat.KEY_WIDTH, 1920);
-                                    format.setInteger(MediaFormat.KEY_HEIGHT, 1080);
-                                    format.setInteger(MediaFormat.KEY_BIT_RATE,
+                                    format.setInteger(TrackFormat.KEY_WIDTH, 1920);
+                                    format.setInteger(TrackFormat.KEY_HEIGHT, 1080);
+                                    format.setInteger(TrackFormat.KEY_BIT_RATE,
                                             (int) (1920 * 1080 * 30 * 0.1));
                                 }
 
@@ -125,24 +177,40 @@ public class AVCloneTracks {
                     int frameCount = 0;
                     int offset = 100;
                     ByteBuffer dstBuf = ByteBuffer.allocate(bufferSize);
-                    BufferInfo bufferInfo = new BufferInfo();
+                    CodecPump.OutputBuffer bufferInfo = new CodecPump.OutputBuffer();
                     if (degrees >= 0) {
                         muxer.setOrientationHint(degrees);
                     }
 
                     muxer.start();
+                    if (startUs > 0) {
+                        extractor.seekTo(startUs, TrackExtractor.SEEK_TO_PREVIOUS_SYNC);
+                    }
                     while (!sawEOS) {
                         bufferInfo.offset = offset;
                         bufferInfo.size = extractor.readSampleData(dstBuf, offset);
-                        if (bufferInfo.size < 0) {
+                        if (bufferInfo.size < 0
+                                || (endUs > 0 && extractor.getSampleTime() > endUs)) {
                             Logger.LOGV(TAG, "saw input EOS.");
                             sawEOS = true;
                             bufferInfo.size = 0;
+                        } else if (byTime) {
+                            if (firstSampleUs[0] < 0) {
+                                firstSampleUs[0] = extractor.getSampleTime();
+                            }
+                            bufferInfo.presentationTimeUs =
+                                    extractor.getSampleTime() - firstSampleUs[0];
+                            bufferInfo.flags = (extractor.getSampleFlags()
+                                    & TrackExtractor.SAMPLE_FLAG_SYNC) != 0
+                                    ? CodecPump.BUFFER_FLAG_KEY_FRAME : 0;
+                            muxer.writeSampleData(indexMap.get(extractor.getSampleTrackIndex()),
+                                    dstBuf, bufferInfo);
+                            extractor.advance();
                         } else {
                             if (frameCount >= startFrame
                                     && (frameCount <= endFrame || endFrame == -1)) {
                                 bufferInfo.presentationTimeUs = extractor.getSampleTime();
-                                bufferInfo.flags = MediaCodec.BUFFER_FLAG_KEY_FRAME;
+                                bufferInfo.flags = CodecPump.BUFFER_FLAG_KEY_FRAME;
                                 int trackIndex = extractor.getSampleTrackIndex();
                                 muxer.writeSampleData(indexMap.get(trackIndex), dstBuf,
                                         bufferInfo);
@@ -160,6 +228,7 @@ public class AVCloneTracks {
                     }
                     muxer.stop();
                     muxer.release();
+                    extractor.release();
                 } catch (Throwable t) {
 
                 } finally {
@@ -175,5 +244,6 @@ public class AVCloneTracks {
         while (!processDone) {
             Thread.yield();
         }
+        return firstSampleUs[0];
     }
 }
\ No newline at end of file
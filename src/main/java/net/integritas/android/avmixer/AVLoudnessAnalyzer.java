@@ -0,0 +1,195 @@
+package net.integritas.android.avmixer;
+
+import android.util.Log;
+
+import net.integritas.android.avmixer.audio.LoudnessMeter;
+import net.integritas.android.avmixer.cache.LoudnessCache;
+import net.integritas.android.avmixer.cache.PcmCache;
+import net.integritas.android.avmixer.codec.MediaBackend;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ * Measures the integrated loudness of the audio files of a mix. Each file is measured once:
+ * the measurements are kept on a {@link LoudnessCache}, and the files not measured yet are
+ * measured in parallel, one per thread, as they are decoded.
+ * </p>
+ * <p>
+ * The files are read through an {@link AVAudioFileDecoder}: a file already on the
+ * {@link PcmCache} is measured from its cached samples, without decoding it, and a file decoded
+ * for the measurement is stored on the PcmCache on the way, so the mixing reads it from there
+ * instead of decoding it again.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+class AVLoudnessAnalyzer {
+
+    private final MediaBackend mBackend;
+    private final LoudnessCache mLoudnessCache;
+    private final PcmCache mPcmCache;
+    private final boolean mAsyncCodecs;
+
+    private int mCacheHits;
+    private int mMeasuredFiles;
+
+    /**
+     * @param backend       - backend the files are decoded on
+     * @param loudnessCache - cache of the measurements, or null to measure every file
+     * @param pcmCache      - decoded PCM cache, or null
+     * @param asyncCodecs   - whether the decoders run in asynchronous mode
+     */
+    AVLoudnessAnalyzer(MediaBackend backend, LoudnessCache loudnessCache, PcmCache pcmCache,
+                       boolean asyncCodecs) {
+        mBackend = backend;
+        mLoudnessCache = loudnessCache;
+        mPcmCache = pcmCache;
+        mAsyncCodecs = asyncCodecs;
+    }
+
+    /**
+     * Measures the audio files of the components
+     *
+     * @param threads - maximum number of files measured at once
+     * @return the integrated loudness of each component audio file, in LUFS, or
+     * Float.NEGATIVE_INFINITY for a silent file
+     */
+    float[] analyze(List<AVAudioMixerComponent> components, int threads) throws Exception {
+        float[] loudness = new float[components.size()];
+
+        /* files used by several components are measured once */
+        HashMap<File, Integer> measured = new HashMap<File, Integer>();
+        ArrayList<File> pending = new ArrayList<File>();
+        for (int i = 0; i < components.size(); i++) {
+            File file = components.get(i).getComponentFile();
+            loudness[i] = getCached(file);
+            if (Float.isNaN(loudness[i]) && !measured.containsKey(file)) {
+                measured.put(file, pending.size());
+                pending.add(file);
+            }
+        }
+
+        if (!pending.isEmpty()) {
+            float[] results = measure(pending, threads);
+            for (int i = 0; i < components.size(); i++) {
+                Integer index = measured.get(components.get(i).getComponentFile());
+                if (index != null) {
+                    loudness[i] = results[index];
+                }
+            }
+        }
+
+        return loudness;
+    }
+
+    /**
+     * @return the number of files found on the loudness cache
+     */
+    int getCacheHits() {
+        return mCacheHits;
+    }
+
+    /**
+     * @return the number of files measured
+     */
+    int getMeasuredFiles() {
+        return mMeasuredFiles;
+    }
+
+    private float getCached(File file) {
+        if (mLoudnessCache == null) {
+            return Float.NaN;
+        }
+
+        try {
+            float loudness = mLoudnessCache.get(file);
+            if (!Float.isNaN(loudness)) {
+                ++mCacheHits;
+            }
+            return loudness;
+        } catch (IOException e) {
+            Log.w("AVMixer", "loudness cache lookup failed: " + e);
+            return Float.NaN;
+        }
+    }
+
+    /* measures the files on a pool of threads */
+    private float[] measure(List<File> files, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(threads, files.size())));
+        try {
+            ArrayList<Future<Float>> futures = new ArrayList<Future<Float>>();
+            for (final File file : files) {
+                futures.add(executor.submit(new Callable<Float>() {
+                    @Override
+                    public Float call() throws Exception {
+                        return measure(file);
+                    }
+                }));
+            }
+
+            float[] results = new float[files.size()];
+            for (int i = 0; i < results.length; i++) {
+                try {
+                    results[i] = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+
+            mMeasuredFiles += files.size();
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /* measures one file, from the PCM cache or by decoding it */
+    private float measure(final File file) throws Exception {
+        final LoudnessMeter[] meter = new LoudnessMeter[1];
+        new AVAudioFileDecoder(mBackend, mPcmCache, mAsyncCodecs).decode(file,
+                new AVAudioFileDecoder.Sink() {
+                    private int mSampleRate;
+                    private int mChannelCount;
+
+                    @Override
+                    public void onFormat(int sampleRate, int channelCount) {
+                        if (meter[0] != null) {
+                            /* the rest of the file is measured on its own */
+                            Log.w("AVMixer", "audio format changed while measuring " + file);
+                            meter[0] = null;
+                        }
+                        mSampleRate = sampleRate;
+                        mChannelCount = channelCount;
+                    }
+
+                    @Override
+                    public void onSamples(ShortBuffer pcm, int samples) {
+                        if (meter[0] == null) {
+                            meter[0] = new LoudnessMeter(mSampleRate, mChannelCount);
+                        }
+                        meter[0].process(pcm);
+                    }
+                });
+
+        float loudness = meter[0] != null ? meter[0].getIntegratedLoudness()
+                : Float.NEGATIVE_INFINITY;
+        if (mLoudnessCache != null) {
+            mLoudnessCache.put(file, loudness);
+        }
+        return loudness;
+    }
+}
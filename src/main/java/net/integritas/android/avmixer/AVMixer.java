@@ -1,5 +1,18 @@
 package net.integritas.android.avmixer;
 
+import net.integritas.android.avmixer.audio.GainEnvelope;
+import net.integritas.android.avmixer.audio.LookAheadLimiter;
+import net.integritas.android.avmixer.audio.PcmMixKernel;
+import net.integritas.android.avmixer.audio.PolyphaseResampler;
+import net.integritas.android.avmixer.audio.SidechainDucker;
+import net.integritas.android.avmixer.cache.LoudnessCache;
+import net.integritas.android.avmixer.cache.PcmCache;
+import net.integritas.android.avmixer.cache.PeakCache;
+import net.integritas.android.avmixer.codec.AndroidMediaBackend;
+import net.integritas.android.avmixer.codec.MediaBackend;
+import net.integritas.android.avmixer.codec.TrackExtractor;
+import net.integritas.android.avmixer.codec.TrackFormat;
+
 import java.util.ArrayList;
 
 /**
@@ -13,7 +26,7 @@ import java.util.ArrayList;
  *
  * @author AlexGP (alexandre.gomes@integritas.net)
  * @author Raphael Kohn (raphael.kohn@integritas.net)
- * @version 1.4
+ * @version 1.9
  * @since 1.0
  */
 public class AVMixer implements IAVInternalListener {
@@ -37,6 +50,9 @@ public class AVMixer implements IAVInternalListener {
     private static int HD_HEIGHT = 720;
     private static int FULL_HD_WIDTH = 1920;
     private static int FULL_HD_HEIGHT = 1080;
+    private static final long PRES_TIME_MULTIPLIER = 1000l;
+    /* length of the fade out muting the end of the video */
+    private static final long MUTE_FADE_US = 100000l;
     private static double LOW_RES_BIT_RATE =
             LOW_RES_HEIGHT * LOW_RES_WIDTH * DEFAULT_FRAME_RATE * 0.1;
     private static double DEFAULT_PREVIEW_BIT_RATE =
@@ -50,7 +66,24 @@ public class AVMixer implements IAVInternalListener {
     IAVMixerListener mListener;
     boolean mAudioNVideoSync = true;
     long mMuteVideoOffset;
+    boolean mMuteVideoFaded;
     boolean mUseLandscapeOrientation;
+    PcmMixKernel.Type mAudioMixKernel = PcmMixKernel.Type.FLOAT;
+    PolyphaseResampler.Quality mAudioResampleQuality = PolyphaseResampler.Quality.MEDIUM;
+    boolean mAsyncCodecs = true;
+    boolean mVariableFrameRateImages = true;
+    int mVisualLookAhead = 1;
+    boolean mSmartRender;
+    long mVisualPrefetchMaxBytes;
+    int mAudioDecodeThreads;
+    PcmCache mAudioCache;
+    SidechainDucker mAudioDucker;
+    LookAheadLimiter mAudioLimiter = new LookAheadLimiter();
+    float mAudioLoudnessTarget = Float.NaN;
+    LoudnessCache mLoudnessCache;
+    PeakCache mWaveformCache;
+    MediaBackend mMediaBackend = new AndroidMediaBackend();
+    AVMixerMetrics mMetrics = new AVMixerMetrics();
 
     public enum VIDEO_RES_TYPE {Res_360p, Res_480p, Res_720p, Res_1080p}
 
@@ -126,6 +159,7 @@ public class AVMixer implements IAVInternalListener {
     public void mix(boolean isPreview) {
 
         try {
+            mMetrics = new AVMixerMetrics();
 
             mWidth = isPreview ? PREVIEW_WIDTH : FULL_HD_WIDTH;
             mHeight = isPreview ? PREVIEW_HEIGHT : FULL_HD_HEIGHT;
@@ -150,6 +184,8 @@ public class AVMixer implements IAVInternalListener {
     public void mix(VIDEO_RES_TYPE videoRes) {
 
         try {
+            mMetrics = new AVMixerMetrics();
+
             switch (videoRes) {
                 case Res_360p:
                     mWidth = LOW_RES_WIDTH;
@@ -197,6 +233,13 @@ public class AVMixer implements IAVInternalListener {
     private void mixVideo() {
         AVVideoMixer vm = new AVVideoMixer(mMixObj, mWidth, mHeight,
                 (int) mBitRate, mFrameRate, this, mUseLandscapeOrientation);
+        vm.setAsyncCodecs(mAsyncCodecs);
+        vm.setVariableFrameRate(mVariableFrameRateImages);
+        vm.setLookAhead(mVisualLookAhead);
+        vm.setSmartRender(mSmartRender);
+        vm.setPrefetchMaxBytes(mVisualPrefetchMaxBytes);
+        vm.setMetrics(mMetrics);
+        vm.setMediaBackend(mMediaBackend);
         vm.mixVideo();
     }
 
@@ -207,9 +250,24 @@ public class AVMixer implements IAVInternalListener {
         try {
 
             ArrayList<AVAudioMixerComponent> audios = mMixObj.getAudioComponents();
+            GainEnvelope muteEnvelope = audios.isEmpty() ? null : getMuteEnvelope();
+            mMuteVideoFaded = muteEnvelope != null;
 
-            if (needToMixAudio()) {
+            if (needToMixAudio() || muteEnvelope != null
+                    || !Float.isNaN(mAudioLoudnessTarget)) {
                 AVAudioMixer am = new AVAudioMixer(mMixObj, this);
+                am.setMasterEnvelope(muteEnvelope);
+                am.setMixKernel(mAudioMixKernel);
+                am.setResampleQuality(mAudioResampleQuality);
+                am.setAsyncCodecs(mAsyncCodecs);
+                am.setDecodeThreads(mAudioDecodeThreads);
+                am.setCache(mAudioCache);
+                am.setPeakCache(mWaveformCache);
+                am.setDucker(mAudioDucker);
+                am.setLimiter(mAudioLimiter);
+                am.setLoudnessNormalization(mAudioLoudnessTarget, mLoudnessCache);
+                am.setMediaBackend(mMediaBackend);
+                am.setMetrics(mMetrics);
                 am.mixSamples();
             } else if (audios.size() == 1 && mMixObj.getAudioDelay() <= 0) {
                 //Only one Audio and no need adding an audio start delay.
@@ -226,13 +284,47 @@ public class AVMixer implements IAVInternalListener {
         }
     }
 
+    /**
+     * Builds the fade out muting the audio over the last muteVideoOffset of the mixed video,
+     * so the audio does not end on a hard cut.
+     *
+     * @return the fade out envelope, or null if there is no mute offset or the video duration
+     * is unknown (the audio is then cut while mixing it with the video)
+     */
+    private GainEnvelope getMuteEnvelope() throws Exception {
+        if (!mAudioNVideoSync || mMuteVideoOffset <= 0) {
+            return null;
+        }
+
+        long videoDurationUs = -1;
+        TrackExtractor extractor = mMediaBackend.createExtractor(mMixObj.getTempVideoFilePath());
+        try {
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                TrackFormat format = extractor.getTrackFormat(i);
+                if (format.isVideo() && format.containsKey(TrackFormat.KEY_DURATION)) {
+                    videoDurationUs = format.getLong(TrackFormat.KEY_DURATION);
+                }
+            }
+        } finally {
+            extractor.release();
+        }
+
+        if (videoDurationUs <= 0) {
+            return null;
+        }
+
+        long muteUs = Math.max(0, videoDurationUs - mMuteVideoOffset * PRES_TIME_MULTIPLIER);
+        long fadeUs = Math.min(muteUs, MUTE_FADE_US);
+        return GainEnvelope.fadeOut(muteUs - fadeUs, fadeUs);
+    }
+
     private boolean needToMixAudio() {
         boolean doMixAudio = false;
         doMixAudio = mMixObj.getAudioComponents().size() > 1 || mMixObj.getAudioDelay() > 0;
 
         if (!doMixAudio) {
             for (AVAudioMixerComponent c : mMixObj.getAudioComponents()) {
-                doMixAudio = c.getStartAt() > 0 || c.getDelay() > 0;
+                doMixAudio = c.getStartAt() > 0 || c.getEndAt() > 0 || c.getDelay() > 0;
                 if (doMixAudio)
                     break;
             }
@@ -246,8 +338,10 @@ public class AVMixer implements IAVInternalListener {
      */
     private void mixAudioAndVideo() {
         try {
+            /* the mixed audio is already faded out where the video is muted */
             AVAudioVideoMixer avm = new AVAudioVideoMixer(mMixObj, this,
-                    mAudioNVideoSync, mMuteVideoOffset);
+                    mAudioNVideoSync, mMuteVideoFaded ? 0 : mMuteVideoOffset);
+            avm.setMediaBackend(mMediaBackend);
             avm.mixAudioAndVideo();
         } catch (Exception ex) {
             mMixObj.clearTempData();
@@ -273,7 +367,7 @@ public class AVMixer implements IAVInternalListener {
 
     @Override
     public void onMixingError(Throwable t) {
-        onMixingError(t);
+        mListener.onMixerError(t instanceof Exception ? (Exception) t : new Exception(t));
     }
 
     public boolean isAudioNVideoSynced() {
@@ -283,4 +377,240 @@ public class AVMixer implements IAVInternalListener {
     public void setSyncAudioNVideo(boolean mAudioNVideoSync) {
         this.mAudioNVideoSync = mAudioNVideoSync;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return the metrics collected during the last mixing process
+     */
+    public AVMixerMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    public PcmMixKernel.Type getAudioMixKernel() {
+        return mAudioMixKernel;
+    }
+
+    /**
+     * Sets the kernel used to sum the audio tracks. FLOAT is the default, FIXED_POINT avoids
+     * floating point operations on devices without a fast FPU.
+     *
+     * @param audioMixKernel - mix kernel variant
+     */
+    public void setAudioMixKernel(PcmMixKernel.Type audioMixKernel) {
+        this.mAudioMixKernel = audioMixKernel;
+    }
+
+    public boolean isAsyncCodecs() {
+        return mAsyncCodecs;
+    }
+
+    /**
+     * Sets whether the decoders run in asynchronous (callback) mode on API 21+. When disabled,
+     * or on older API levels, the decoders are polled.
+     *
+     * @param asyncCodecs - true by default
+     */
+    public void setAsyncCodecs(boolean asyncCodecs) {
+        this.mAsyncCodecs = asyncCodecs;
+    }
+
+    public boolean isVariableFrameRateImages() {
+        return mVariableFrameRateImages;
+    }
+
+    /**
+     * Sets whether images are encoded with a variable frame rate. An image is then encoded as a
+     * key frame followed by a couple of frames, each frame carrying its presentation time,
+     * instead of a frame every 200ms for its whole presentation time. The images are shown for
+     * the same time, for a fraction of the encoding time and output size.
+     *
+     * @param variableFrameRateImages - true by default
+     */
+    public void setVariableFrameRateImages(boolean variableFrameRateImages) {
+        this.mVariableFrameRateImages = variableFrameRateImages;
+    }
+
+    public boolean isSmartRender() {
+        return mSmartRender;
+    }
+
+    /**
+     * Sets whether video clips already matching the output are copied instead of being decoded
+     * and encoded again. A clip is copied when it is H.264 at the output size, without
+     * B-frames, and shares the SPS and PPS of the output encoder, e.g. clips recorded on the
+     * same device. The frames before the clip's first copyable key frame are still encoded,
+     * and so are the images. Needs API 19; the copied frames keep their original bit rate.
+     *
+     * @param smartRender - false by default
+     */
+    public void setSmartRender(boolean smartRender) {
+        this.mSmartRender = smartRender;
+    }
+
+    public int getVisualLookAhead() {
+        return mVisualLookAhead;
+    }
+
+    /**
+     * Sets how many images and videos are prepared on a background thread while the current
+     * one is rendered: images decoded, videos opened and their decoders created. The encoder
+     * then no longer waits for each component to be prepared.
+     *
+     * @param visualLookAhead - number of components prepared ahead, 1 by default, 0 to prepare
+     *                        each component when it is reached
+     */
+    public void setVisualLookAhead(int visualLookAhead) {
+        this.mVisualLookAhead = visualLookAhead;
+    }
+
+    public long getVisualPrefetchMaxBytes() {
+        return mVisualPrefetchMaxBytes;
+    }
+
+    /**
+     * Sets the most memory held by the images decoded ahead. An image is not decoded ahead
+     * while the images waiting to be rendered hold more, unless there are none.
+     *
+     * @param visualPrefetchMaxBytes - bytes, 0 (default) for the size of the biggest decoded
+     *                               image, four video frames, per look-ahead component
+     */
+    public void setVisualPrefetchMaxBytes(long visualPrefetchMaxBytes) {
+        this.mVisualPrefetchMaxBytes = visualPrefetchMaxBytes;
+    }
+
+    public int getAudioDecodeThreads() {
+        return mAudioDecodeThreads;
+    }
+
+    /**
+     * Sets how many threads decode the audio tracks. Tracks are spread over the threads, so
+     * more threads than audio tracks are never used.
+     *
+     * @param audioDecodeThreads - number of decode threads, 0 (default) for one per audio track
+     *                           up to the number of available processors
+     */
+    public void setAudioDecodeThreads(int audioDecodeThreads) {
+        this.mAudioDecodeThreads = audioDecodeThreads;
+    }
+
+    public PcmCache getAudioCache() {
+        return mAudioCache;
+    }
+
+    /**
+     * Sets a cache of decoded audio. Audio files found on the cache are not decoded again, and
+     * the other ones are cached as they are decoded. The same cache can be shared by several
+     * AVMixer instances.
+     *
+     * @param audioCache - decoded PCM cache, or null (default) to always decode the audio files
+     */
+    public void setAudioCache(PcmCache audioCache) {
+        this.mAudioCache = audioCache;
+    }
+
+    public PolyphaseResampler.Quality getAudioResampleQuality() {
+        return mAudioResampleQuality;
+    }
+
+    /**
+     * Sets the quality of the sample rate conversion applied to audio tracks which sample rate
+     * differs from the mixed audio sample rate.
+     *
+     * @param audioResampleQuality - LOW, MEDIUM (default) or HIGH
+     */
+    public void setAudioResampleQuality(PolyphaseResampler.Quality audioResampleQuality) {
+        this.mAudioResampleQuality = audioResampleQuality;
+    }
+
+    public SidechainDucker getAudioDucking() {
+        return mAudioDucker;
+    }
+
+    /**
+     * Sets the automatic ducking of the audio files tagged as DuckingRole.BED while the ones
+     * tagged as DuckingRole.VOICE are heard. The ducking follows the voice level as the audio is
+     * mixed, so it adds no pass over the audio files.
+     *
+     * @param audioDucker - ducker with the threshold, depth and timings to use (e.g.
+     *                    new SidechainDucker() for the defaults), or null (default) for no ducking
+     */
+    public void setAudioDucking(SidechainDucker audioDucker) {
+        this.mAudioDucker = audioDucker;
+    }
+
+    public float getAudioLoudnessTarget() {
+        return mAudioLoudnessTarget;
+    }
+
+    /**
+     * Normalizes every audio file to the same integrated loudness (EBU R128) before its volume
+     * is applied, so the volumes set on the audio files are relative to the target (e.g. -16
+     * for mobile playback, -23 for broadcast). The audio files are measured once, on parallel
+     * threads, and their measurement kept on the loudness cache if one is set.
+     *
+     * @param audioLoudnessTarget - target integrated loudness, in LUFS, or Float.NaN (default)
+     *                            for no normalization
+     */
+    public void setAudioLoudnessTarget(float audioLoudnessTarget) {
+        this.mAudioLoudnessTarget = audioLoudnessTarget;
+    }
+
+    public LoudnessCache getLoudnessCache() {
+        return mLoudnessCache;
+    }
+
+    /**
+     * Sets a cache of the audio files loudness, so the loudness normalization measures each
+     * audio file only once. The same cache can be shared by several AVMixer instances.
+     *
+     * @param loudnessCache - loudness cache, or null (default) to measure the audio files on
+     *                      every mix
+     */
+    public void setLoudnessCache(LoudnessCache loudnessCache) {
+        this.mLoudnessCache = loudnessCache;
+    }
+
+    public LookAheadLimiter getAudioLimiter() {
+        return mAudioLimiter;
+    }
+
+    /**
+     * Sets the limiter applied to the mixed audio, which keeps loud mixes under its ceiling
+     * instead of clipping them. A limiter with a -1dBTP ceiling and 5ms of look-ahead is set
+     * by default.
+     *
+     * @param audioLimiter - limiter, or null to clip the mixed audio
+     */
+    public void setAudioLimiter(LookAheadLimiter audioLimiter) {
+        this.mAudioLimiter = audioLimiter;
+    }
+
+    public PeakCache getWaveformCache() {
+        return mWaveformCache;
+    }
+
+    /**
+     * Sets a cache of the audio files waveforms. The waveform of each audio file mixed is built
+     * while it is decoded and stored on the cache, where an AVWaveformProbe gets it from without
+     * decoding the audio file again.
+     *
+     * @param waveformCache - waveform cache, or null (default) to build no waveform
+     */
+    public void setWaveformCache(PeakCache waveformCache) {
+        this.mWaveformCache = waveformCache;
+    }
+
+    public MediaBackend getMediaBackend() {
+        return mMediaBackend;
+    }
+
+    /**
+     * Sets the backend the audio is decoded, encoded and muxed on. The video is always mixed on
+     * the Android media framework.
+     *
+     * @param mediaBackend - backend, the AndroidMediaBackend by default. The JvmMediaBackend
+     *                     runs the audio mixing off the device, e.g. in unit tests.
+     */
+    public void setMediaBackend(MediaBackend mediaBackend) {
+        this.mMediaBackend = mediaBackend;
+    }
+}
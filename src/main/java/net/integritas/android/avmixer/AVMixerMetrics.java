@@ -0,0 +1,350 @@
+package net.integritas.android.avmixer;
+
+/**
+ * <p>
+ *  Class that holds the metrics collected during the last mixing process of an AVMixer.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class AVMixerMetrics {
+
+    private long audioClockMaxDriftUs;
+    private long audioClockLastDriftUs;
+    private int decoderMaxQueueDepth;
+    private int audioDecodeThreads;
+    private long audioDecodedSamples;
+    private long audioDecodeTimeMs;
+    private int audioCacheHits;
+    private int audioCacheMisses;
+    private int audioCacheEvictions;
+    private long audioCacheSavedTimeMs;
+    private int audioLoudnessMeasurements;
+    private int audioLoudnessCacheHits;
+    private long audioLoudnessAnalysisTimeMs;
+    private long audioLimiterLatencyUs;
+    private float audioLimiterMaxReductionDb;
+    private long audioLimitedFrames;
+    private int imagesPrepared;
+    private long imagePrepareTimeMs;
+    private long imageFrames;
+    private long imageFramesCpuTimeNs;
+    private int visualComponentsReady;
+    private long visualPrefetchWaitTimeMs;
+    private int videoDecoderReuses;
+    private int videoDecoderCreations;
+    private long videoDecoderSavedTimeMs;
+    private int videoClipsCopied;
+    private long videoFramesCopied;
+
+    /**
+     * @return the biggest difference, in microseconds, between the audio decoders timestamps
+     * and the timestamps derived from the decoded sample count
+     */
+    public synchronized long getAudioClockMaxDriftUs() {
+        return audioClockMaxDriftUs;
+    }
+
+    /**
+     * @return the difference, in microseconds, between the last audio decoder timestamp and
+     * the timestamp derived from the decoded sample count
+     */
+    public synchronized long getAudioClockLastDriftUs() {
+        return audioClockLastDriftUs;
+    }
+
+    /**
+     * @return the highest number of buffers a decoder had waiting to be taken by the mixing
+     * thread at once
+     */
+    public synchronized int getDecoderMaxQueueDepth() {
+        return decoderMaxQueueDepth;
+    }
+
+    /**
+     * @return the number of threads the audio tracks were decoded on
+     */
+    public synchronized int getAudioDecodeThreads() {
+        return audioDecodeThreads;
+    }
+
+    /**
+     * @return the number of PCM samples decoded from all the audio tracks
+     */
+    public synchronized long getAudioDecodedSamples() {
+        return audioDecodedSamples;
+    }
+
+    /**
+     * @return the time, in milliseconds, the audio decode threads ran for
+     */
+    public synchronized long getAudioDecodeTimeMs() {
+        return audioDecodeTimeMs;
+    }
+
+    /**
+     * @return the audio decoding throughput, in PCM samples per second
+     */
+    public synchronized long getAudioDecodeSamplesPerSecond() {
+        return audioDecodeTimeMs > 0 ? audioDecodedSamples * 1000l / audioDecodeTimeMs : 0;
+    }
+
+    /**
+     * @return the number of audio tracks read from the decoded PCM cache
+     */
+    public synchronized int getAudioCacheHits() {
+        return audioCacheHits;
+    }
+
+    /**
+     * @return the number of audio tracks the decoded PCM cache did not hold
+     */
+    public synchronized int getAudioCacheMisses() {
+        return audioCacheMisses;
+    }
+
+    /**
+     * @return the number of decoded PCM cache entries evicted to cache the audio tracks
+     */
+    public synchronized int getAudioCacheEvictions() {
+        return audioCacheEvictions;
+    }
+
+    /**
+     * @return the time, in milliseconds, the cached audio tracks took to decode when they were
+     * cached, i.e. the decoding time the cache hits saved
+     */
+    public synchronized long getAudioCacheSavedTimeMs() {
+        return audioCacheSavedTimeMs;
+    }
+
+    /**
+     * @return the number of audio files which loudness was measured for the normalization
+     */
+    public synchronized int getAudioLoudnessMeasurements() {
+        return audioLoudnessMeasurements;
+    }
+
+    /**
+     * @return the number of audio files which loudness was found on the loudness cache
+     */
+    public synchronized int getAudioLoudnessCacheHits() {
+        return audioLoudnessCacheHits;
+    }
+
+    /**
+     * @return the time, in milliseconds, the loudness analysis of the audio files took
+     */
+    public synchronized long getAudioLoudnessAnalysisTimeMs() {
+        return audioLoudnessAnalysisTimeMs;
+    }
+
+    /**
+     * @return the delay, in microseconds, the limiter look-ahead adds to the audio mixing
+     */
+    public synchronized long getAudioLimiterLatencyUs() {
+        return audioLimiterLatencyUs;
+    }
+
+    /**
+     * @return the biggest gain reduction, in dB, the limiter applied to the mixed audio
+     */
+    public synchronized float getAudioLimiterMaxReductionDb() {
+        return audioLimiterMaxReductionDb;
+    }
+
+    /**
+     * @return the number of mixed audio frames the limiter lowered
+     */
+    public synchronized long getAudioLimitedFrames() {
+        return audioLimitedFrames;
+    }
+
+    /**
+     * @return the number of images prepared to be drawn as video frames
+     */
+    public synchronized int getImagesPrepared() {
+        return imagesPrepared;
+    }
+
+    /**
+     * @return the time, in milliseconds, spent decoding, orienting and uploading the images
+     */
+    public synchronized long getImagePrepareTimeMs() {
+        return imagePrepareTimeMs;
+    }
+
+    /**
+     * @return the number of video frames drawn from images
+     */
+    public synchronized long getImageFrames() {
+        return imageFrames;
+    }
+
+    /**
+     * @return the average CPU time, in microseconds, the mixing thread spent on each video
+     * frame drawn from an image, from drawing it to handing it to the encoder
+     */
+    public synchronized long getImageFrameCpuTimeUs() {
+        return imageFrames > 0 ? imageFramesCpuTimeNs / imageFrames / 1000l : 0;
+    }
+
+    /**
+     * @return the number of visual components already prepared in the background when the
+     * video mixing reached them
+     */
+    public synchronized int getVisualComponentsReady() {
+        return visualComponentsReady;
+    }
+
+    /**
+     * @return the time, in milliseconds, the video mixing waited for visual components being
+     * prepared, with the encoder idle
+     */
+    public synchronized long getVisualPrefetchWaitTimeMs() {
+        return visualPrefetchWaitTimeMs;
+    }
+
+    /**
+     * @return the number of video decoders reused from a previous clip instead of being created
+     */
+    public synchronized int getVideoDecoderReuses() {
+        return videoDecoderReuses;
+    }
+
+    /**
+     * @return the number of video decoders created
+     */
+    public synchronized int getVideoDecoderCreations() {
+        return videoDecoderCreations;
+    }
+
+    /**
+     * @return the share of the video clips decoded by a reused decoder, from 0 to 1
+     */
+    public synchronized float getVideoDecoderReuseRate() {
+        int decoders = videoDecoderReuses + videoDecoderCreations;
+        return decoders > 0 ? videoDecoderReuses / (float) decoders : 0;
+    }
+
+    /**
+     * @return the time, in milliseconds, the reused video decoders saved on their creation
+     */
+    public synchronized long getVideoDecoderSavedTimeMs() {
+        return videoDecoderSavedTimeMs;
+    }
+
+    /**
+     * @return the number of video clips, or ends of video clips, copied to the output without
+     * being decoded and encoded again
+     */
+    public synchronized int getVideoClipsCopied() {
+        return videoClipsCopied;
+    }
+
+    /**
+     * @return the number of video frames copied to the output without being decoded and
+     * encoded again
+     */
+    public synchronized long getVideoFramesCopied() {
+        return videoFramesCopied;
+    }
+
+    synchronized void addImagePrepare(long prepareTimeMs) {
+        imagesPrepared++;
+        imagePrepareTimeMs += prepareTimeMs;
+    }
+
+    synchronized void addImageFrames(int frames, long cpuTimeNs) {
+        imageFrames += frames;
+        imageFramesCpuTimeNs += cpuTimeNs;
+    }
+
+    synchronized void addVisualPrefetch(int readyComponents, long waitTimeMs) {
+        visualComponentsReady += readyComponents;
+        visualPrefetchWaitTimeMs += waitTimeMs;
+    }
+
+    synchronized void addVideoDecoderPool(int reuses, int creations, long savedTimeMs) {
+        videoDecoderReuses += reuses;
+        videoDecoderCreations += creations;
+        videoDecoderSavedTimeMs += savedTimeMs;
+    }
+
+    synchronized void addVideoCopiedFrames(int frames) {
+        videoClipsCopied++;
+        videoFramesCopied += frames;
+    }
+
+    synchronized void addAudioLimiter(long latencyUs, float minGain, long limitedFrames) {
+        audioLimiterLatencyUs = latencyUs;
+        audioLimiterMaxReductionDb = Math.max(audioLimiterMaxReductionDb,
+                (float) (-20 * Math.log10(minGain)));
+        audioLimitedFrames += limitedFrames;
+    }
+
+    synchronized void addAudioLoudnessAnalysis(int measurements, int cacheHits,
+                                               long analysisTimeMs) {
+        audioLoudnessMeasurements += measurements;
+        audioLoudnessCacheHits += cacheHits;
+        audioLoudnessAnalysisTimeMs += analysisTimeMs;
+    }
+
+    synchronized void addAudioCacheLookup(boolean hit, long savedTimeMs, int evictions) {
+        if (hit) {
+            audioCacheHits++;
+        } else {
+            audioCacheMisses++;
+        }
+        audioCacheSavedTimeMs += savedTimeMs;
+        audioCacheEvictions += evictions;
+    }
+
+    synchronized void addAudioDecode(int threads, long decodedSamples, long decodeTimeMs) {
+        audioDecodeThreads = threads;
+        audioDecodedSamples += decodedSamples;
+        audioDecodeTimeMs += decodeTimeMs;
+    }
+
+    synchronized void addDecoderQueueDepth(int queueDepth) {
+        decoderMaxQueueDepth = Math.max(decoderMaxQueueDepth, queueDepth);
+    }
+
+    synchronized void addAudioClockDrift(long lastDriftUs, long maxDriftUs) {
+        audioClockLastDriftUs = lastDriftUs;
+        audioClockMaxDriftUs = Math.max(audioClockMaxDriftUs, maxDriftUs);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AVMixerMetrics{audioClockMaxDriftUs=" + audioClockMaxDriftUs
+                + ", audioClockLastDriftUs=" + audioClockLastDriftUs
+                + ", decoderMaxQueueDepth=" + decoderMaxQueueDepth
+                + ", audioDecodeThreads=" + audioDecodeThreads
+                + ", audioDecodedSamples=" + audioDecodedSamples
+                + ", audioDecodeTimeMs=" + audioDecodeTimeMs
+                + ", audioCacheHits=" + audioCacheHits
+                + ", audioCacheMisses=" + audioCacheMisses
+                + ", audioCacheEvictions=" + audioCacheEvictions
+                + ", audioCacheSavedTimeMs=" + audioCacheSavedTimeMs
+                + ", audioLoudnessMeasurements=" + audioLoudnessMeasurements
+                + ", audioLoudnessCacheHits=" + audioLoudnessCacheHits
+                + ", audioLoudnessAnalysisTimeMs=" + audioLoudnessAnalysisTimeMs
+                + ", audioLimiterLatencyUs=" + audioLimiterLatencyUs
+                + ", audioLimiterMaxReductionDb=" + audioLimiterMaxReductionDb
+                + ", audioLimitedFrames=" + audioLimitedFrames
+                + ", imagesPrepared=" + imagesPrepared
+                + ", imagePrepareTimeMs=" + imagePrepareTimeMs
+                + ", imageFrames=" + imageFrames
+                + ", imageFrameCpuTimeUs=" + getImageFrameCpuTimeUs()
+                + ", visualComponentsReady=" + visualComponentsReady
+                + ", visualPrefetchWaitTimeMs=" + visualPrefetchWaitTimeMs
+                + ", videoDecoderReuses=" + videoDecoderReuses
+                + ", videoDecoderCreations=" + videoDecoderCreations
+                + ", videoDecoderSavedTimeMs=" + videoDecoderSavedTimeMs
+                + ", videoClipsCopied=" + videoClipsCopied
+                + ", videoFramesCopied=" + videoFramesCopied + "}";
+    }
+}
@@ -97,6 +97,8 @@ public class AVMixerObjectParser {
                 while ((len = in.read(buf)) > 0) {
                     zip.write(buf, 0, len);
                 }
+                in.close();
+                zip.closeEntry();
             }
         }
 
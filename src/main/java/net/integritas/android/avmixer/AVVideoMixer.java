@@ -2,8 +2,6 @@ package net.integritas.android.avmixer;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
-import android.graphics.RectF;
 import android.graphics.SurfaceTexture;
 import android.media.ExifInterface;
 import android.media.MediaCodec;
@@ -11,13 +9,24 @@ import android.media.MediaCodecInfo;
 import android.media.MediaExtractor;
 import android.media.MediaFormat;
 import android.media.MediaMuxer;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Debug;
 import android.os.Environment;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Surface;
 
+import net.integritas.android.avmixer.codec.AndroidCodec;
+import net.integritas.android.avmixer.codec.AndroidCodecPump;
+import net.integritas.android.avmixer.codec.AndroidMediaBackend;
+import net.integritas.android.avmixer.codec.CodecPump;
+import net.integritas.android.avmixer.codec.DecoderPool;
+import net.integritas.android.avmixer.codec.MediaBackend;
 import net.integritas.android.avmixer.opengl.BitmapTextureRenderer;
 import net.integritas.android.avmixer.opengl.CodecInputSurface;
 import net.integritas.android.avmixer.opengl.TextureExternalOESRenderer;
+import net.integritas.android.avmixer.util.BitmapPool;
 import net.integritas.android.avmixer.util.Logger;
 
 import java.io.File;
@@ -32,7 +41,7 @@ import java.util.ArrayList;
  *
  * @author AlexGP (alexandre.gomes@integritas.net)
  * @author Raphael Kohn (raphael.kohn@integritas.net)
- * @version 1.3
+ * @version 1.9
  * @since 1.0
  */
 class AVVideoMixer implements SurfaceTexture.OnFrameAvailableListener {
@@ -42,11 +51,24 @@ class AVVideoMixer implements SurfaceTexture.OnFrameAvailableListener {
 
     // parameters for the encoder
     private static final long VIDEO_PRESENTATION_OFFSET = 400000l;
+    /* samples decoded past a clip endAt, for the frames before it stored after them */
+    private static final long END_AT_REORDER_US = 500000l;
     private static final String MIME_TYPE = "video/avc";    // H.264 Advanced Video Coding
     private static final int FRAME_RATE = 30;               // 15fps
     private static final int IFRAME_INTERVAL = 10;          // 10 seconds between I-frames
     private static final int IMAGES_FRAME_REPEATER = 5; // equivalent to 1 sec of pres. time
     private static final long IMAGES_FRAME_BASE_PRESENTATION_TIME = 200000l;
+    // on variable frame rate, frames of an image sent at its start, the first one a key frame
+    private static final int VFR_IMAGE_LEADING_FRAMES = 2;
+    // longest wait for a decoder buffer, and how many in a row end the decoding
+    private static final long CODEC_WAIT_TIMEOUT_US = 10000;
+    private static final int CODEC_STALL_WAITS = 150;
+    // most stopped video decoders kept for the next clips
+    private static final int MAX_IDLE_DECODERS = 2;
+    // longest wait for the encoder to output the frames drawn before copied samples
+    private static final long ENCODER_FLUSH_TIMEOUT_MS = 1000;
+    // GOPs of a clip checked for B-frames before its samples are copied
+    private static final int COPYABLE_CHECKED_GOPS = 2;
     private static long frameDuration;
     private static long videoOffset;
     AVMixerObject mMixObj;
@@ -57,7 +79,24 @@ class AVVideoMixer implements SurfaceTexture.OnFrameAvailableListener {
     private IAVInternalListener mListener;
     // encoder / muxer state
     private MediaCodec mEncoder;
-    private MediaCodec mVideoDecoder;
+    private AndroidCodecPump mPump;
+    private AndroidCodec mVideoDecoder;
+    private int mVideoDecoderId;
+    private DecoderPool<AndroidCodec> mDecoderPool;
+    private boolean mAsyncCodecs = true;
+    private AVMixerMetrics mMetrics = new AVMixerMetrics();
+    private MediaBackend mMediaBackend = new AndroidMediaBackend();
+    private boolean mVariableFrameRate;
+    private boolean mSmartRender;
+    private MediaFormat mEncoderFormat;
+    private MediaFormat mVideoFormat;
+    private boolean mVideoCopyable;
+    private int mSubmittedFrames;
+    private int mEncodedFrames;
+    private boolean mKeyFrameNeeded;
+    private long mCopiedEndUs = -1;
+    private ByteBuffer mCopyBuffer;
+    private long mLastFrameTimeUs = -1;
     private CodecInputSurface mInputSurface;
     private MediaMuxer mMuxer;
     private MediaExtractor mExtractor;
@@ -68,6 +107,10 @@ class AVVideoMixer implements SurfaceTexture.OnFrameAvailableListener {
     private Surface decoderSurface;
     private TextureExternalOESRenderer oesRenderer;
     private BitmapTextureRenderer bmpRenderer;
+    private BitmapPool mBitmapPool;
+    private AVVisualPrefetcher<PreparedComponent> mPrefetcher;
+    private int mLookAhead = 1;
+    private long mPrefetchMaxBytes;
     private Object frameSyncObj = new Object();
     private boolean mFrameAvailable;
     private MediaCodec.BufferInfo mBufferInfo;
@@ -97,6 +140,62 @@ class AVVideoMixer implements SurfaceTexture.OnFrameAvailableListener {
         this.mUseLandscapeOrientation = useLandscapeOrientation;
     }
 
+    /**
+     * Sets whether the video decoders run in asynchronous mode when the API level allows it
+     */
+    void setAsyncCodecs(boolean asyncCodecs) {
+        mAsyncCodecs = asyncCodecs;
+    }
+
+    /**
+     * Sets whether images are encoded with a variable frame rate: only the first frames and the
+     * last one of an image are encoded, each frame carrying its presentation time to the
+     * encoder, instead of a frame every IMAGES_FRAME_BASE_PRESENTATION_TIME.
+     */
+    void setVariableFrameRate(boolean variableFrameRate) {
+        mVariableFrameRate = variableFrameRate;
+    }
+
+    /**
+     * Sets whether the compressed samples of the video clips already matching the output
+     * format are copied to the output instead of being decoded and encoded again
+     */
+    void setSmartRender(boolean smartRender) {
+        mSmartRender = smartRender;
+    }
+
+    /**
+     * Sets how many visual components are prepared on a background thread past the one being
+     * rendered, 0 to prepare each component when it is reached
+     */
+    void setLookAhead(int lookAhead) {
+        mLookAhead = lookAhead;
+    }
+
+    /**
+     * Sets the most bytes held by the components prepared ahead, 0 for the room of the
+     * biggest decoded image per look-ahead component
+     */
+    void setPrefetchMaxBytes(long prefetchMaxBytes) {
+        mPrefetchMaxBytes = prefetchMaxBytes;
+    }
+
+    /**
+     * Sets where the image preparation and frame times are reported to
+     */
+    void setMetrics(AVMixerMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Sets the backend the original audio tracks of the videos are copied on
+     *
+     * @param mediaBackend - backend, the AndroidMediaBackend by default
+     */
+    void setMediaBackend(MediaBackend mediaBackend) {
+        mMediaBackend = mediaBackend;
+    }
+
     /**
      * Generates the presentation time for frame N, in nanoseconds.
      */
@@ -159,37 +258,36 @@ class AVVideoMixer implements SurfaceTexture.OnFrameAvailableListener {
                 try {
                     frameDuration = 0;
                     videoOffset = 0;
+                    mLastFrameTimeUs = -1;
+                    mEncoderFormat = null;
+                    mSubmittedFrames = 0;
+                    mEncodedFrames = 0;
+                    mKeyFrameNeeded = false;
+                    mCopiedEndUs = -1;
+                    mPump = new AndroidCodecPump(mAsyncCodecs);
+                    mDecoderPool = new DecoderPool<AndroidCodec>(MAX_IDLE_DECODERS);
                     prepareEncoder();
                     mInputSurface.makeCurrent();
 
                     mComponents = mMixObj.getVisualComponents();
 
                     bmpRenderer = new BitmapTextureRenderer();
-                    Bitmap scaledBitmap = null;
-                    Bitmap b = null;
+                    /* room for the biggest decoded image, four times the video frame */
+                    long imageBytes = 16l * mWidth * mHeight;
+                    mBitmapPool = new BitmapPool(imageBytes);
+                    mPrefetcher = new AVVisualPrefetcher<PreparedComponent>(mComponents,
+                            mPreparer, mLookAhead, mPrefetchMaxBytes > 0 ? mPrefetchMaxBytes
+                            : Math.max(1, mLookAhead) * imageBytes);
+                    mPrefetcher.start();
                     for (int i = 0; i < mComponents.size(); i++) {
+                        PreparedComponent prepared = mPrefetcher.take(i);
 
-                        if (b != null) {
-                            b.recycle();
-                        }
-
-                        b = null;
-
-                        if (scaledBitmap != null) {
-                            scaledBitmap.recycle();
-                        }
-
-                        scaledBitmap = null;
-
-                        BitmapFactory.Options options = new BitmapFactory.Options();
-                        b = BitmapFactory.decodeFile(mComponents.get(i)
-                                .getComponentFile().getAbsolutePath(), options);
-
-                        //If it is Bitmap... we have an Image as a Frame
-                        if (options.outWidth != -1 && options.outHeight != -1) {
-                            int presMultiplier = ((AVImageMixerComponent)
-                                    mComponents.get(i)).getPresentationTime();
-
+                        //If it is an image, it is repeated as frames
+                        if (mComponents.get(i) instanceof AVImageMixerComponent) {
+                            AVImageMixerComponent image =
+                                    (AVImageMixerComponent) mComponents.get(i);
+                            uploadImage(prepared);
+                            int presMultiplier = image.getPresentationTime();
 
                             /* checks if the video starts with a frame */
                             if (i == 0) {
@@ -200,24 +298,23 @@ class AVVideoMixer implements SurfaceTexture.OnFrameAvailableListener {
                                     && frameDuration == 0 && videoOffset == 0)
                                     ? (presMultiplier * IMAGES_FRAME_REPEATER) + 2
                                     : presMultiplier * IMAGES_FRAME_REPEATER;
+
+                            /* the image texture is ready, each frame is only drawn and sent */
+                            long frameCpuStartNs = Debug.threadCpuTimeNanos();
+                            int drawnFrames = 0;
                             for (int x = 0; x < frameRate; x++) {
-                                // This is an image file.
-                                Matrix m = new Matrix();
-                                m.setRectToRect(new RectF(0, 0, b.getWidth(), b.getHeight()),
-                                        new RectF(0, 0, mWidth, mHeight),
-                                        Matrix.ScaleToFit.CENTER);
-                                normalizeImageToLandscape(mComponents.get(i)
-                                        .getComponentFile().getAbsolutePath(), m);
-                                if (scaledBitmap == null) {
-                                    scaledBitmap = Bitmap.createBitmap(b, 0, 0, b.getWidth(),
-                                            b.getHeight(), m, true);
-
-                                    bmpRenderer.surfaceCreated(scaledBitmap);
+                                if (mVariableFrameRate && !isImageFrameEncoded(x, frameRate)) {
+                                    /* the image stays on screen until its next encoded frame */
+                                    mFrameIndex++;
+                                    continue;
                                 }
 
                                 frameDuration =
                                         computePresentationTimeNsec(mFrameIndex) + videoOffset;
                                 drainEncoder(false, frameDuration);
+                                if (mVariableFrameRate && x == 0) {
+                                    requestKeyFrame();
+                                }
 
                                 // Generate a new frame of input.
                                 bmpRenderer.drawFrame();
@@ -228,14 +325,13 @@ class AVVideoMixer implements SurfaceTexture.OnFrameAvailableListener {
                                 // buffer (which we can't do, since we're stuck here).  So long as we fully drain
                                 // the encoder before supplying additional input, the system guarantees that we
                                 // can supply another frame without blocking.
-
-                                Logger.LOGV(TAG, "sending frame " + i + 1
-                                        + " to encoder - frame time: " + frameDuration);
-                                mInputSurface.swapBuffers();
+                                swapFrame(frameDuration);
+                                drawnFrames++;
                             }
+                            mMetrics.addImageFrames(drawnFrames,
+                                    Debug.threadCpuTimeNanos() - frameCpuStartNs);
                         } else {
-                            prepareVideoDecoder(mComponents.get(i).getComponentFile()
-                                    .getAbsolutePath());
+                            startVideoDecoder(prepared);
 
                             if (mComponents.get(i) instanceof AVVideoMixerComponent) {
                                 processVideo((AVVideoMixerComponent) mComponents.get(i), i);
@@ -245,6 +341,9 @@ class AVVideoMixer implements SurfaceTexture.OnFrameAvailableListener {
                         }
                     }
 
+                    mMetrics.addVisualPrefetch(mPrefetcher.getReadyComponents(),
+                            mPrefetcher.getWaitTimeMs());
+
                     // send end-of-stream to encoder, and drain remaining output
                     drainEncoder(true, 0);
                     mListener.onVideoFinishedMixing();
@@ -262,7 +361,155 @@ class AVVideoMixer implements SurfaceTexture.OnFrameAvailableListener {
         t.start();
     }
 
-    private void normalizeImageToLandscape(String imgPath, Matrix m) {
+    /**
+     * @return whether a frame of an image is encoded on variable frame rate. The leading frames
+     * give the encoder a key frame and a frame to refine it, the last one holds the image
+     * until its end time.
+     */
+    private static boolean isImageFrameEncoded(int frame, int frames) {
+        return frame < VFR_IMAGE_LEADING_FRAMES || frame == frames - 1;
+    }
+
+    /**
+     * Asks the encoder for a key frame, so each image starts on a sync sample. Needs API 19,
+     * older encoders only place their periodic key frames.
+     */
+    private void requestKeyFrame() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            Bundle params = new Bundle();
+            params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+            mEncoder.setParameters(params);
+        }
+    }
+
+    /**
+     * Submits the frame drawn on the input surface to the encoder. On variable frame rate the
+     * frame carries its presentation time, kept strictly increasing, which the encoder passes
+     * on to the muxer.
+     */
+    private void swapFrame(long presentationTimeUs) {
+        if (mKeyFrameNeeded) {
+            /* the frame after copied samples starts a new GOP */
+            requestKeyFrame();
+            mKeyFrameNeeded = false;
+        }
+        if (mVariableFrameRate) {
+            long timeUs = Math.max(presentationTimeUs, mLastFrameTimeUs + 1);
+            mInputSurface.setPresentationTime(timeUs * 1000l);
+            mLastFrameTimeUs = timeUs;
+        }
+        mInputSurface.swapBuffers();
+        mSubmittedFrames++;
+    }
+
+    /**
+     * Prepares an image off the mixing thread: reads its orientation and decodes it,
+     * subsampled down to the video size, into a bitmap of the pool.
+     */
+    private PreparedComponent prepareImage(AVImageMixerComponent image) throws Exception {
+        long startMs = SystemClock.elapsedRealtime();
+        String imgPath = image.getComponentFile().getAbsolutePath();
+        PreparedComponent prepared = new PreparedComponent();
+        prepared.rotation = getImageRotation(imgPath);
+
+        prepared.bitmap = decodeImage(imgPath, prepared.rotation);
+        if (prepared.bitmap == null) {
+            throw new Exception("Invalid image component to process: " + imgPath);
+        }
+
+        prepared.prepareTimeMs = SystemClock.elapsedRealtime() - startMs;
+        return prepared;
+    }
+
+    /**
+     * Uploads a prepared image as the renderer texture, once before its frames are drawn. The
+     * bitmap goes back to the pool as soon as the texture holds the pixels.
+     */
+    private void uploadImage(PreparedComponent prepared) {
+        long startMs = SystemClock.elapsedRealtime();
+        try {
+            bmpRenderer.setRotation(prepared.rotation);
+            bmpRenderer.surfaceCreated(prepared.bitmap);
+        } finally {
+            mBitmapPool.put(prepared.bitmap);
+            prepared.bitmap = null;
+        }
+
+        mMetrics.addImagePrepare(prepared.prepareTimeMs + SystemClock.elapsedRealtime() - startMs);
+    }
+
+    /**
+     * Decodes an image with the biggest power of two subsampling keeping it at least as big as
+     * when fitted to the video size, so the decoded bitmap is never bigger than four times the
+     * video frame. The image is decoded into a pooled bitmap when one fits it.
+     *
+     * @param rotation - clockwise rotation the image is drawn with, in degrees
+     * @return the decoded image, or null if it can not be decoded
+     */
+    private Bitmap decodeImage(String imgPath, int rotation) {
+        BitmapFactory.Options options = decodeImageBounds(imgPath, rotation);
+        if (options == null) {
+            return null;
+        }
+
+        int sampleSize = options.inSampleSize;
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        /* before KitKat a bitmap can only be reused by a decode without subsampling */
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT || sampleSize == 1) {
+            options.inBitmap = mBitmapPool.get(
+                    (options.outWidth + sampleSize - 1) / sampleSize,
+                    (options.outHeight + sampleSize - 1) / sampleSize,
+                    Bitmap.Config.ARGB_8888);
+        }
+
+        Bitmap bitmap = null;
+        try {
+            bitmap = BitmapFactory.decodeFile(imgPath, options);
+        } catch (IllegalArgumentException ex) {
+            Logger.LOGV(TAG, "pooled bitmap not reusable for " + imgPath);
+        }
+
+        if (bitmap == null && options.inBitmap != null) {
+            mBitmapPool.put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeFile(imgPath, options);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Reads the size of an image and the subsampling it is decoded with
+     *
+     * @return the decoding options, holding the image size and its inSampleSize, or null if
+     * the image can not be decoded
+     */
+    private BitmapFactory.Options decodeImageBounds(String imgPath, int rotation) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(imgPath, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        boolean swapped = rotation == 90 || rotation == 270;
+        int width = swapped ? options.outHeight : options.outWidth;
+        int height = swapped ? options.outWidth : options.outHeight;
+        float scale = Math.min(mWidth / (float) width, mHeight / (float) height);
+        int sampleSize = 1;
+        while (sampleSize * 2 * scale <= 1f) {
+            sampleSize *= 2;
+        }
+
+        options.inSampleSize = sampleSize;
+        return options;
+    }
+
+    /**
+     * @return the clockwise rotation of an image from its EXIF data, in degrees, when the
+     * images are converted to landscape, or 0
+     */
+    private int getImageRotation(String imgPath) {
         try {
             if (mUseLandscapeOrientation) {
                 ExifInterface exif = new ExifInterface(imgPath);
@@ -271,24 +518,73 @@ class AVVideoMixer implements SurfaceTexture.OnFrameAvailableListener {
                         ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
 
                 if (r == ExifInterface.ORIENTATION_ROTATE_90) {
-                    m.postRotate(90);
+                    return 90;
                 } else if (r == ExifInterface.ORIENTATION_ROTATE_180) {
-                    m.postRotate(180);
+                    return 180;
                 } else if (r == ExifInterface.ORIENTATION_ROTATE_270) {
-                    m.postRotate(270);
+                    return 270;
                 }
             }
         } catch (IOException ex) {
-            Log.e("AVVideoMixer", "normalizeImageToLandscape() error", ex);
+            Log.e("AVVideoMixer", "getImageRotation() error", ex);
         }
+        return 0;
     }
 
-    private void prepareVideoDecoder(String videoFilenamePath) {
+    /**
+     * Prepares a video off the mixing thread: opens it, selects its video track and takes a
+     * decoder from the pool, or creates one. While a decoder of the same kind is still decoding
+     * the previous clip, the decoder is left to be taken once that clip is done. The decoder is
+     * configured on the mixing thread, as its output surface is shared with the video being
+     * rendered. A trimmed video is sought to the key frame before its startAt.
+     */
+    private PreparedComponent prepareVideo(AVVideoMixerComponent component) {
+        PreparedComponent prepared = new PreparedComponent();
+        try {
+            prepared.extractor = new MediaExtractor();
+            prepared.extractor.setDataSource(component.getComponentFile().getAbsolutePath());
+            int trackCount = prepared.extractor.getTrackCount();
+
+            for (int x = 0; x < trackCount; x++) {
+                MediaFormat format = prepared.extractor.getTrackFormat(x);
+                String mime = format.getString(MediaFormat.KEY_MIME);
+                if (mime.startsWith("video/")) {
+                    prepared.extractor.selectTrack(x);
+                    if (component.getStartAt() > 0) {
+                        prepared.extractor.seekTo(component.getStartAt(),
+                                MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+                    }
+                    prepared.format = format;
+                    prepared.copyable = mSmartRender && isCopyable(prepared.extractor, format,
+                            component.getStartAt(), component.getEndAt());
+                    prepared.decoderKey = DecoderPool.getKey(mime,
+                            format.getInteger(MediaFormat.KEY_WIDTH),
+                            format.getInteger(MediaFormat.KEY_HEIGHT));
+                    boolean create;
+                    synchronized (mDecoderPool) {
+                        prepared.decoder = mDecoderPool.take(prepared.decoderKey);
+                        create = prepared.decoder == null
+                                && !mDecoderPool.isInUse(prepared.decoderKey);
+                    }
+                    if (create) {
+                        prepared.decoder = createVideoDecoder(prepared);
+                    }
+                    break;
+                }
+            }
+        } catch (Throwable t) {
+            Logger.LOGE("AVVideoMixer", "error preparing video decoder!");
+        }
+        return prepared;
+    }
+
+    private void startVideoDecoder(PreparedComponent prepared) {
         try {
             mFrameIndex = 0;
-            mExtractor = new MediaExtractor();
-            mExtractor.setDataSource(videoFilenamePath);
-            int trackCount = mExtractor.getTrackCount();
+            if (mExtractor != null) {
+                mExtractor.release();
+            }
+            mExtractor = prepared.extractor;
 
             if (decoderSurface == null) {
                 oesRenderer = new TextureExternalOESRenderer();
@@ -298,28 +594,197 @@ class AVVideoMixer implements SurfaceTexture.OnFrameAvailableListener {
                 decoderTexture.setOnFrameAvailableListener(AVVideoMixer.this);
             }
 
-            for (int x = 0; x < trackCount; x++) {
-                MediaFormat format = mExtractor.getTrackFormat(x);
-                String mime = format.getString(MediaFormat.KEY_MIME);
-                if (mime.startsWith("video/")) {
-                    mExtractor.selectTrack(x);
-                    mVideoDecoder = MediaCodec.createDecoderByType(mime);
-                    mVideoDecoder.configure(format, decoderSurface, null, 0);
-                    break;
-                }
+            if (mVideoDecoder != null) {
+                /* the previous clip stopped before its end of stream */
+                mPump.remove(mVideoDecoderId);
+                mDecoderPool.discard(mVideoDecoder);
+                mVideoDecoder = null;
             }
 
+            mVideoFormat = prepared.format;
+            mVideoCopyable = prepared.copyable;
+            mVideoDecoder = prepared.decoder;
+            if (mVideoDecoder == null && prepared.decoderKey != null) {
+                mVideoDecoder = mDecoderPool.take(prepared.decoderKey);
+                if (mVideoDecoder == null) {
+                    mVideoDecoder = createVideoDecoder(prepared);
+                }
+            }
+            prepared.decoder = null;
+            mVideoDecoder.configure(prepared.format, decoderSurface, 0);
             mVideoDecoder.start();
+            mVideoDecoderId = mPump.add(mVideoDecoder);
         } catch (Throwable t) {
             Logger.LOGE("AVVideoMixer", "error preparing video decoder!");
         }
     }
 
+    /**
+     * @return whether the compressed samples of a clip may be copied to the output: H.264 at
+     * the output size, with its samples stored in presentation order, i.e. without B-frames.
+     * Only the first COPYABLE_CHECKED_GOPS GOPs from the extractor position, up to the clip
+     * endAt, are checked, as an encoder keeps its frame types along a stream. The extractor
+     * is left at the key frame before the clip startAt.
+     */
+    private boolean isCopyable(MediaExtractor extractor, MediaFormat format, long startAtUs,
+                               long endAtUs) {
+        if (!MIME_TYPE.equals(format.getString(MediaFormat.KEY_MIME))
+                || format.getInteger(MediaFormat.KEY_WIDTH) != mWidth
+                || format.getInteger(MediaFormat.KEY_HEIGHT) != mHeight
+                || !format.containsKey("csd-0") || !format.containsKey("csd-1")) {
+            return false;
+        }
+
+        boolean ordered = true;
+        long lastUs = -1;
+        int gops = 0;
+        do {
+            long timeUs = extractor.getSampleTime();
+            if (timeUs < 0 || (endAtUs > 0 && timeUs > endAtUs)) {
+                break;
+            }
+            if ((extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0
+                    && ++gops > COPYABLE_CHECKED_GOPS) {
+                break;
+            }
+            if (timeUs <= lastUs) {
+                ordered = false;
+                break;
+            }
+            lastUs = timeUs;
+        } while (extractor.advance());
+
+        extractor.seekTo(startAtUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        return ordered;
+    }
+
+    /**
+     * @return whether the clip being decoded can be copied from its current sample on: the
+     * sample starts a GOP, and the encoder output, whose format the muxer track has, shares
+     * the clip SPS and PPS, so the copied samples decode along the encoded ones. The frame
+     * after the copied samples must be a key frame, which needs API 19. The samples before
+     * the clip startAt are always decoded, as they are not shown.
+     */
+    private boolean canCopySamples(long startAtUs) {
+        return mVideoCopyable && mMuxerStarted
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                && mExtractor.getSampleTime() >= startAtUs
+                && (mExtractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0
+                && isSameCodecData("csd-0") && isSameCodecData("csd-1");
+    }
+
+    private boolean isSameCodecData(String key) {
+        ByteBuffer encoder = mEncoderFormat.getByteBuffer(key);
+        ByteBuffer video = mVideoFormat.getByteBuffer(key);
+        return encoder != null && video != null && encoder.equals(video);
+    }
+
+    /**
+     * Copies the compressed samples of the clip being decoded, from the extractor position to
+     * its end or endAt, straight to the muxer, once the encoder has output the frames drawn
+     * before.
+     *
+     * @param currentOffset   - offset of the clip on the output timeline, in microseconds
+     * @param lastFrameTimeUs - presentation time of the last frame drawn, in microseconds
+     * @param startAtUs       - clip time, in microseconds, drawn at the clip offset
+     * @param endAtUs         - clip time, in microseconds, of the last sample copied, 0 for
+     *                        the clip end
+     */
+    private void copySamples(long currentOffset, long lastFrameTimeUs, long startAtUs,
+                             long endAtUs) {
+        if (!flushEncoder(lastFrameTimeUs)) {
+            Log.w(TAG, "encoder frames still pending before the copied samples are dropped");
+        }
+
+        int size = mVideoFormat.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)
+                ? mVideoFormat.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE)
+                : mWidth * mHeight * 3 / 2;
+        if (mCopyBuffer == null || mCopyBuffer.capacity() < size) {
+            mCopyBuffer = ByteBuffer.allocateDirect(size);
+        }
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        long lastUs = Math.max(lastFrameTimeUs, mLastFrameTimeUs);
+        int frames = 0;
+
+        int sampleSize;
+        while ((sampleSize = readCopiedSample()) >= 0
+                && (endAtUs <= 0 || mExtractor.getSampleTime() <= endAtUs)) {
+            long timeUs = Math.max(mExtractor.getSampleTime() - startAtUs + currentOffset,
+                    lastUs + 1);
+            info.set(0, sampleSize, timeUs,
+                    (mExtractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0
+                            ? MediaCodec.BUFFER_FLAG_SYNC_FRAME : 0);
+            mMuxer.writeSampleData(mTrackIndex, mCopyBuffer, info);
+            lastUs = timeUs;
+            frames++;
+            mExtractor.advance();
+        }
+
+        videoOffset = lastUs;
+        mLastFrameTimeUs = lastUs;
+        mCopiedEndUs = lastUs;
+        mKeyFrameNeeded = true;
+        mMetrics.addVideoCopiedFrames(frames);
+    }
+
+    /**
+     * Reads the current sample of the clip being copied into the copy buffer, which is grown
+     * when the sample does not fit, as KEY_MAX_INPUT_SIZE is only a hint of the container.
+     *
+     * @return the sample size, or -1 at the end of the clip
+     */
+    private int readCopiedSample() {
+        while (true) {
+            try {
+                return mExtractor.readSampleData(mCopyBuffer, 0);
+            } catch (IllegalArgumentException e) {
+                /* no compressed frame is larger than its RGBA pixels */
+                if (mCopyBuffer.capacity() >= mWidth * mHeight * 4) {
+                    throw e;
+                }
+                mCopyBuffer = ByteBuffer.allocateDirect(Math.min(mCopyBuffer.capacity() * 2,
+                        mWidth * mHeight * 4));
+            }
+        }
+    }
+
+    /**
+     * Drains the encoder until it has output every frame submitted to it
+     *
+     * @return false if the encoder still holds frames after ENCODER_FLUSH_TIMEOUT_MS
+     */
+    private boolean flushEncoder(long time) {
+        long deadlineMs = SystemClock.elapsedRealtime() + ENCODER_FLUSH_TIMEOUT_MS;
+        while (mEncodedFrames < mSubmittedFrames) {
+            if (SystemClock.elapsedRealtime() > deadlineMs) {
+                return false;
+            }
+            drainEncoder(false, time);
+        }
+        return true;
+    }
+
+    /**
+     * Creates a video decoder and adds it to the pool
+     */
+    private AndroidCodec createVideoDecoder(PreparedComponent prepared) throws IOException {
+        long startMs = SystemClock.elapsedRealtime();
+        AndroidCodec decoder = mPump.createDecoderByType(
+                prepared.format.getString(MediaFormat.KEY_MIME));
+        mDecoderPool.add(prepared.decoderKey, decoder,
+                SystemClock.elapsedRealtime() - startMs);
+        return decoder;
+    }
+
     /**
      * Releases encoder resources.  May be called after partial / failed initialization.
      */
     private void releaseAll() {
         Logger.LOGV(TAG, "releasing encoder objects");
+        if (mPrefetcher != null) {
+            mPrefetcher.release();
+            mPrefetcher = null;
+        }
         if (mEncoder != null) {
             mEncoder.stop();
             mEncoder.release();
@@ -337,15 +802,34 @@ class AVVideoMixer implements SurfaceTexture.OnFrameAvailableListener {
         }
 
         if (mVideoDecoder != null) {
+            mPump.remove(mVideoDecoderId);
             mVideoDecoder.stop();
-            mVideoDecoder.release();
+            mDecoderPool.discard(mVideoDecoder);
             mVideoDecoder = null;
         }
+        if (mDecoderPool != null) {
+            mMetrics.addVideoDecoderPool(mDecoderPool.getReuses(),
+                    mDecoderPool.getCreations(), mDecoderPool.getSavedTimeMs());
+            mDecoderPool.release();
+            mDecoderPool = null;
+        }
+        if (mPump != null) {
+            mPump.release();
+            mPump = null;
+        }
+        if (mExtractor != null) {
+            mExtractor.release();
+            mExtractor = null;
+        }
         if (mMuxer != null) {
             mMuxer.stop();
             mMuxer.release();
             mMuxer = null;
         }
+        if (mBitmapPool != null) {
+            mBitmapPool.clear();
+            mBitmapPool = null;
+        }
     }
 
     /**
@@ -386,6 +870,7 @@ class AVVideoMixer implements SurfaceTexture.OnFrameAvailableListener {
                 Logger.LOGV(TAG, "encoder output format changed: " + newFormat);
 
                 // now that we have the Magic Goodies, start the muxer
+                mEncoderFormat = newFormat;
                 mTrackIndex = mMuxer.addTrack(newFormat);
                 mMuxer.start();
                 mMuxerStarted = true;
@@ -411,12 +896,19 @@ class AVVideoMixer implements SurfaceTexture.OnFrameAvailableListener {
                     if (!mMuxerStarted) {
                         throw new RuntimeException("muxer hasn't started");
                     }
+                    mEncodedFrames++;
 
                     // adjust the ByteBuffer values to match BufferInfo (not needed?)
                     encodedData.position(mBufferInfo.offset);
                     encodedData.limit(mBufferInfo.offset + mBufferInfo.size);
 
-                    if (!endOfStream && time > 0) {
+                    if (mVariableFrameRate) {
+                        /* the frames carry their own presentation time. Frames left in the
+                           encoder past a flush timeout would land before copied samples. */
+                        if (mBufferInfo.presentationTimeUs > mCopiedEndUs) {
+                            mMuxer.writeSampleData(mTrackIndex, encodedData, mBufferInfo);
+                        }
+                    } else if (!endOfStream && time > 0) {
                         mBufferInfo.presentationTimeUs = time;
 
                         Logger.LOGV("EncodeDecode", "pres time on muxer is: "
@@ -444,14 +936,16 @@ class AVVideoMixer implements SurfaceTexture.OnFrameAvailableListener {
      * Extract all frames from the Video, render then on a Surface with OpenGL and
      * feed the Encoder with frame data, through an InputSurface.
      */
-    private void processVideo(AVVideoMixerComponent videoComp, int index) {
+    private void processVideo(AVVideoMixerComponent videoComp, int index) throws Exception {
         try {
             long presentationTime = 0;
-            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
-            final long timeoutUs = 10000;
+            CodecPump.OutputBuffer output = new CodecPump.OutputBuffer();
             boolean sawInputEOS = false;
             boolean sawOutputEOS = false;
+            boolean copySamples = false;
             int noOutputCounter = 0;
+            long startAtUs = videoComp.getStartAt();
+            long endAtUs = videoComp.getEndAt() > startAtUs ? videoComp.getEndAt() : 0;
 
             long currentOffset = frameDuration > videoOffset ? frameDuration : videoOffset;
 
@@ -464,42 +958,58 @@ class AVVideoMixer implements SurfaceTexture.OnFrameAvailableListener {
 
                 String outputFilepathName = f.getAbsolutePath() + File.separator
                         + String.format(originalAudioFilename, index);
-                AVCloneTracks.cloneTrack(null, videoComp.getComponentFile().getAbsolutePath(),
-                        outputFilepathName, 0, AVCloneTracks.EXTRACTION_TYPE.AudioOnly,
-                        AVCloneTracks.VIDEO_RES_TYPE.Res_Native, -1, -1);
+                /* only the trimmed part of the audio track is copied, from the sync sample
+                   before the video startAt, whose distance to it is then skipped */
+                long firstSampleUs = AVCloneTracks.cloneTrackByTime(mMediaBackend,
+                        videoComp.getComponentFile().getAbsolutePath(), outputFilepathName,
+                        AVCloneTracks.EXTRACTION_TYPE.AudioOnly, startAtUs, endAtUs);
+                long audioStartAtUs = Math.max(0, startAtUs - Math.max(0, firstSampleUs));
 
                 AVAudioMixerComponent audio;
                 if (mStartWithFrame) {
                     audio =
-                            new AVAudioMixerComponent(new File(outputFilepathName), 1, 0,
+                            new AVAudioMixerComponent(new File(outputFilepathName), 1,
+                                    audioStartAtUs / 1000l,
                                     ((currentOffset - VIDEO_PRESENTATION_OFFSET) / 1000l));
                     videoComp.setStartFrame(currentOffset - VIDEO_PRESENTATION_OFFSET);
                 } else {
                     audio =
-                            new AVAudioMixerComponent(new File(outputFilepathName), 1, 0,
-                                    (currentOffset / 1000l));
+                            new AVAudioMixerComponent(new File(outputFilepathName), 1,
+                                    audioStartAtUs / 1000l, (currentOffset / 1000l));
                     videoComp.setStartFrame(currentOffset);
                 }
+                if (endAtUs > 0) {
+                    audio.setEndAt((audioStartAtUs + endAtUs - startAtUs) / 1000l);
+                }
 
                 mMixObj.addSoundComponent(audio);
             }
 
 
-            ByteBuffer[] codecInputBuffers = mVideoDecoder.getInputBuffers();
-
             int videoFrameCount = 0;
             int counter = 0;
 
-            while (!sawOutputEOS && noOutputCounter < 150) {
-                noOutputCounter++;
+            while (!sawOutputEOS && noOutputCounter < CODEC_STALL_WAITS) {
+                boolean progress = false;
                 long presentationTimeUs = 0;
                 if (!sawInputEOS) {
                     int sampleSize = 0;
-                    int inputBufferIndex = mVideoDecoder.dequeueInputBuffer(timeoutUs);
+                    int inputBufferIndex = mPump.pollInput(mVideoDecoderId);
                     if (inputBufferIndex >= 0) {
-                        ByteBuffer buffer = codecInputBuffers[inputBufferIndex];
+                        progress = true;
+                        ByteBuffer buffer = mVideoDecoder.getInputBuffer(inputBufferIndex);
                         if (!sawInputEOS) {
-                            sampleSize = mExtractor.readSampleData(buffer, 0);
+                            if (canCopySamples(startAtUs)) {
+                                /* the decoder ends here, the rest of the clip is copied */
+                                copySamples = true;
+                                sampleSize = -1;
+                            } else if (endAtUs > 0
+                                    && mExtractor.getSampleTime() > endAtUs + END_AT_REORDER_US) {
+                                /* the samples past the clip endAt are not decoded */
+                                sampleSize = -1;
+                            } else {
+                                sampleSize = mExtractor.readSampleData(buffer, 0);
+                            }
                         }
 
                         if (sampleSize < 0) {
@@ -519,46 +1029,70 @@ class AVVideoMixer implements SurfaceTexture.OnFrameAvailableListener {
                     }
                 }
 
-                int outputBufferIndex = mVideoDecoder.dequeueOutputBuffer(info, timeoutUs);
-                if (outputBufferIndex >= 0) {
-                    if (info.size > 0) {
-                        noOutputCounter = 0;
-
-                        if (presentationTime == 0
-                                || (presentationTime > 0
-                                && presentationTime < info.presentationTimeUs + currentOffset)) {
-
-                            presentationTime = info.presentationTimeUs + currentOffset;
-
-                            //Releases the buffer so the data on the Decoder can pass to the OpenGL buffer.
-                            //Awaits the OpenGL processing and then, draw the texture on the InputSurface.
-                            mVideoDecoder.releaseOutputBuffer(outputBufferIndex, true);
-                            awaitNewImage();
-                            drainEncoder(false, presentationTime);
-                            oesRenderer.drawFrame(decoderTexture, false);
-                            mInputSurface.swapBuffers();
-                            videoFrameCount++;
-
-                            Logger.LOGV("EncodeDecode", "Video current frame is: "
-                                    + videoFrameCount + " timnestamp: " + info.presentationTimeUs);
-                        }
+                if (mPump.pollOutput(mVideoDecoderId, output)) {
+                    if (output.isFormatChange()) {
+                        MediaFormat newFormat = mVideoDecoder.getOutputMediaFormat();
+                        Logger.LOGV("D/Decoder", "Decoder output format change: " + newFormat);
                     } else {
-                        mVideoDecoder.releaseOutputBuffer(outputBufferIndex, false);
-                    }
-                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                        sawOutputEOS = true;
-                        mVideoDecoder.stop();
-                        mVideoDecoder.release();
-                        mVideoDecoder = null;
-                        videoOffset = presentationTime;
+                        if (output.size > 0) {
+                            progress = true;
+
+                            /* the frames decoded from the key frame before the clip startAt,
+                               and the ones after its endAt, are not shown */
+                            boolean trimmed = output.presentationTimeUs < startAtUs
+                                    || (endAtUs > 0 && output.presentationTimeUs > endAtUs);
+                            long frameTimeUs = output.presentationTimeUs - startAtUs
+                                    + currentOffset;
+                            if (!trimmed && (presentationTime == 0
+                                    || (presentationTime > 0
+                                    && presentationTime < frameTimeUs))) {
+
+                                presentationTime = frameTimeUs;
+
+                                //Releases the buffer so the data on the Decoder can pass to the OpenGL buffer.
+                                //Awaits the OpenGL processing and then, draw the texture on the InputSurface.
+                                mVideoDecoder.releaseOutputBuffer(output.index, true);
+                                awaitNewImage();
+                                drainEncoder(false, presentationTime);
+                                oesRenderer.drawFrame(decoderTexture, false);
+                                swapFrame(presentationTime);
+                                videoFrameCount++;
+
+                                Logger.LOGV("EncodeDecode", "Video current frame is: "
+                                        + videoFrameCount + " timnestamp: " + output.presentationTimeUs);
+                            } else {
+                                mVideoDecoder.releaseOutputBuffer(output.index, false);
+                            }
+                        } else {
+                            mVideoDecoder.releaseOutputBuffer(output.index, false);
+                        }
+                        if (output.isEndOfStream()) {
+                            sawOutputEOS = true;
+                            Logger.LOGV(TAG, "video decoder max queue depth: "
+                                    + mPump.getMaxQueueDepth(mVideoDecoderId));
+                            mPump.remove(mVideoDecoderId);
+                            mVideoDecoder.stop();
+                            /* the next clips of the same kind configure it again */
+                            mDecoderPool.giveBack(mVideoDecoder);
+                            mVideoDecoder = null;
+                            videoOffset = presentationTime;
+                        }
                     }
-                } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                    MediaFormat newFormat = mVideoDecoder.getOutputFormat();
-                    Logger.LOGV("D/Decoder", "Decoder output format change: " + newFormat);
+                }
+
+                if (progress) {
+                    noOutputCounter = 0;
+                } else if (!sawOutputEOS && !mPump.await(CODEC_WAIT_TIMEOUT_US)) {
+                    noOutputCounter++;
                 }
             }
+
+            if (copySamples && sawOutputEOS) {
+                copySamples(currentOffset, presentationTime, startAtUs, endAtUs);
+            }
         } catch (Throwable t) {
-            t.printStackTrace();
+            /* reported, rather than going on with the clip cut short */
+            throw new Exception("error processing video " + index, t);
         }
     }
 
@@ -607,4 +1141,65 @@ class AVVideoMixer implements SurfaceTexture.OnFrameAvailableListener {
         // Latch the data.
         decoderTexture.updateTexImage();
     }
-}
\ No newline at end of file
+
+    /* prepares the visual components on the prefetch thread */
+    private final AVVisualPrefetcher.Preparer<PreparedComponent> mPreparer =
+            new AVVisualPrefetcher.Preparer<PreparedComponent>() {
+                @Override
+                public long estimateBytes(AVMixerComponent component) {
+                    if (!(component instanceof AVImageMixerComponent)) {
+                        return 0;
+                    }
+
+                    String imgPath = component.getComponentFile().getAbsolutePath();
+                    BitmapFactory.Options options =
+                            decodeImageBounds(imgPath, getImageRotation(imgPath));
+                    if (options == null) {
+                        return 0;
+                    }
+                    long width = (options.outWidth + options.inSampleSize - 1)
+                            / options.inSampleSize;
+                    long height = (options.outHeight + options.inSampleSize - 1)
+                            / options.inSampleSize;
+                    return width * height * BitmapPool.getBytesPerPixel(Bitmap.Config.ARGB_8888);
+                }
+
+                @Override
+                public PreparedComponent prepare(AVMixerComponent component) throws Exception {
+                    if (component instanceof AVImageMixerComponent) {
+                        return prepareImage((AVImageMixerComponent) component);
+                    } else if (component instanceof AVVideoMixerComponent) {
+                        return prepareVideo((AVVideoMixerComponent) component);
+                    }
+                    throw new Exception("Invalid video component to process!");
+                }
+
+                @Override
+                public void discard(PreparedComponent prepared) {
+                    if (prepared.bitmap != null) {
+                        mBitmapPool.put(prepared.bitmap);
+                    }
+                    if (prepared.extractor != null) {
+                        prepared.extractor.release();
+                    }
+                    if (prepared.decoder != null) {
+                        mDecoderPool.giveBack(prepared.decoder);
+                    }
+                }
+            };
+
+    /**
+     * Visual component prepared ahead of its rendering: the decoded image, or the opened video
+     * and its decoder
+     */
+    private static class PreparedComponent {
+        Bitmap bitmap;
+        int rotation;
+        long prepareTimeMs;
+        MediaExtractor extractor;
+        MediaFormat format;
+        boolean copyable;
+        String decoderKey;
+        AndroidCodec decoder;
+    }
+}
@@ -10,13 +10,16 @@ import java.io.File;
  * @author AlexGP (alexandre.gomes@integritas.net)
  * @author Raphael Kohn (raphael.kohn@integritas.net)
  *
- * @version 1.2
+ * @version 1.9
  * @since 1.0
  */
 public class AVVideoMixerComponent extends AVMixerComponent {
 
+    private final long PRES_TIME_MULTIPLIER = 1000l;
     private float volume;
     private double startFrame;
+    private long startAt;
+    private long endAt;
 
     /* boolean to consider the video's audio track during the mixing process */
     private boolean mConsiderOriginalAudio;
@@ -60,18 +63,52 @@ public class AVVideoMixerComponent extends AVMixerComponent {
 
     /**
      * <p>
-     * Sets the starting offset of the video file.
-     *
-     * The starting frame value must be specified in milliseconds(e.g. 3000 for starting
-     * after the 1st 3 seconds of the audio)
+     * Sets where the video file starts on the mixed video, in microseconds. It is set by the
+     * AVVideoMixer when the video's audio track is processed, to place it along the video;
+     * use setStartAt() to trim the video file.
      * </p>
      *
-     * @param startFrame - miliseconds offset to start the audio
+     * @param startFrame - microseconds offset of the video on the mixed video
      */
     public void setStartFrame(double startFrame) {
         this.startFrame = startFrame;
     }
 
+    public long getStartAt() {
+        return startAt;
+    }
+
+    /**
+     * <p>
+     * Sets the in point of the video file, where it starts playing.
+     * The starting value must be specified in milliseconds(e.g. 3000 for starting
+     * after the 1st 3 seconds of the video). The video is sought to the key frame before it,
+     * and the frames between the key frame and the in point are decoded but not shown.
+     * </p>
+     *
+     * @param startAt - miliseconds offset to start the video
+     */
+    public void setStartAt(long startAt) {
+        this.startAt = startAt * PRES_TIME_MULTIPLIER;
+    }
+
+    public long getEndAt() {
+        return endAt;
+    }
+
+    /**
+     * <p>
+     * Sets the out point of the video file, where it stops playing.
+     * The end value must be specified in milliseconds from the start of the video file
+     * (e.g. 13000 for stopping after its 1st 13 seconds), 0 to play it to its end
+     * </p>
+     *
+     * @param endAt - miliseconds offset to stop the video
+     */
+    public void setEndAt(long endAt) {
+        this.endAt = endAt * PRES_TIME_MULTIPLIER;
+    }
+
     public boolean isOriginalAudioProcessed() {
         return mConsiderOriginalAudio;
     }
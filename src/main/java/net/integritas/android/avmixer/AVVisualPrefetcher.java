@@ -0,0 +1,190 @@
+package net.integritas.android.avmixer;
+
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Prepares the visual components of a mix ahead of the mixing thread, on a background thread,
+ * so the next component is ready, e.g. its image decoded or its video opened, when the current
+ * one has been rendered.
+ * </p>
+ * <p>
+ * Up to a look-ahead number of components are prepared past the one being rendered, one after
+ * the other and in mix order. A component holds an estimated number of bytes from the moment
+ * it is prepared until it is taken; a component waits to be prepared while the components
+ * already prepared hold more than the memory cap, unless none is held. With no look-ahead
+ * every component is prepared on the mixing thread when it is taken.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+class AVVisualPrefetcher<T> {
+
+    /**
+     * Prepares the components for the mixing thread
+     */
+    interface Preparer<T> {
+
+        /**
+         * @return the bytes a component holds once prepared, until it is taken
+         */
+        long estimateBytes(AVMixerComponent component) throws Exception;
+
+        T prepare(AVMixerComponent component) throws Exception;
+
+        /**
+         * Releases a prepared component which will not be taken
+         */
+        void discard(T prepared);
+    }
+
+    private static final long RELEASE_TIMEOUT_MS = 5000;
+
+    private final List<AVMixerComponent> mComponents;
+    private final Preparer<T> mPreparer;
+    private final int mLookAhead;
+    private final long mMaxBytes;
+    private final Future<T>[] mFutures;
+    private final long[] mBytes;
+    private ExecutorService mExecutor;
+    private long mHeldBytes;
+    private boolean mReleased;
+    private long mWaitTimeMs;
+    private int mReadyComponents;
+
+    /**
+     * @param lookAhead - number of components prepared past the one being rendered
+     * @param maxBytes  - most bytes held by the prepared components not taken yet
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    AVVisualPrefetcher(List<AVMixerComponent> components, Preparer<T> preparer, int lookAhead,
+                       long maxBytes) {
+        mComponents = components;
+        mPreparer = preparer;
+        mLookAhead = Math.max(0, lookAhead);
+        mMaxBytes = maxBytes;
+        mFutures = new Future[components.size()];
+        mBytes = new long[components.size()];
+    }
+
+    /**
+     * Starts preparing the first components
+     */
+    void start() {
+        if (mLookAhead > 0) {
+            mExecutor = Executors.newSingleThreadExecutor();
+            for (int i = 0; i <= mLookAhead && i < mComponents.size(); i++) {
+                submit(i);
+            }
+        }
+    }
+
+    /**
+     * Takes a prepared component, waiting for it if it is not ready yet, and starts preparing
+     * the component the look-ahead past it. Components are taken in mix order.
+     */
+    T take(int index) throws Exception {
+        if (mExecutor == null) {
+            return mPreparer.prepare(mComponents.get(index));
+        }
+
+        Future<T> future = mFutures[index];
+        mFutures[index] = null;
+        if (future.isDone()) {
+            ++mReadyComponents;
+        }
+
+        long startMs = System.currentTimeMillis();
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            mWaitTimeMs += System.currentTimeMillis() - startMs;
+            synchronized (this) {
+                mHeldBytes -= mBytes[index];
+                mBytes[index] = 0;
+                notifyAll();
+            }
+            if (index + mLookAhead + 1 < mComponents.size()) {
+                submit(index + mLookAhead + 1);
+            }
+        }
+    }
+
+    /**
+     * @return the time, in milliseconds, the mixing thread waited for components being prepared
+     */
+    long getWaitTimeMs() {
+        return mWaitTimeMs;
+    }
+
+    /**
+     * @return the number of components already prepared when they were taken
+     */
+    int getReadyComponents() {
+        return mReadyComponents;
+    }
+
+    /**
+     * Stops the preparation and discards the components prepared and not taken
+     */
+    void release() {
+        synchronized (this) {
+            mReleased = true;
+            notifyAll();
+        }
+        if (mExecutor == null) {
+            return;
+        }
+
+        mExecutor.shutdownNow();
+        try {
+            mExecutor.awaitTermination(RELEASE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (int i = 0; i < mFutures.length; i++) {
+            if (mFutures[i] != null && mFutures[i].isDone() && !mFutures[i].isCancelled()) {
+                try {
+                    mPreparer.discard(mFutures[i].get());
+                } catch (Exception e) {
+                    Log.w("AVMixer", "prepared component not discarded: " + e);
+                }
+            }
+            mFutures[i] = null;
+        }
+        mExecutor = null;
+    }
+
+    private void submit(final int index) {
+        mFutures[index] = mExecutor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                AVMixerComponent component = mComponents.get(index);
+                hold(index, mPreparer.estimateBytes(component));
+                return mPreparer.prepare(component);
+            }
+        });
+    }
+
+    /* waits for the prepared components to leave room for the bytes of a component */
+    private synchronized void hold(int index, long bytes) throws InterruptedException {
+        while (!mReleased && mHeldBytes > 0 && mHeldBytes + bytes > mMaxBytes) {
+            wait();
+        }
+        mHeldBytes += bytes;
+        mBytes[index] = bytes;
+    }
+}
@@ -0,0 +1,134 @@
+package net.integritas.android.avmixer;
+
+import android.util.Log;
+
+import net.integritas.android.avmixer.audio.PeakPyramid;
+import net.integritas.android.avmixer.cache.PcmCache;
+import net.integritas.android.avmixer.cache.PeakCache;
+import net.integritas.android.avmixer.codec.AndroidMediaBackend;
+import net.integritas.android.avmixer.codec.MediaBackend;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+
+/**
+ * <p>
+ * Gets the waveform overview of an audio file, e.g. to draw it on an editor. The waveform is
+ * read from the {@link PeakCache} when it is there, which needs no decoding. An AVMixer with
+ * the same PeakCache set stores there the waveform of every audio file it mixes.
+ * </p>
+ * <p>
+ * Otherwise the waveform is built from the samples of the file on the {@link PcmCache}, or by
+ * decoding the file, and stored on the PeakCache for the next time. Building a waveform blocks,
+ * so it must not be done on the main thread.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class AVWaveformProbe {
+
+    private final PeakCache mPeakCache;
+    private PcmCache mPcmCache;
+    private boolean mAsyncCodecs = true;
+    private MediaBackend mMediaBackend = new AndroidMediaBackend();
+
+    /**
+     * @param peakCache - cache of the waveforms, or null to build every waveform
+     */
+    public AVWaveformProbe(PeakCache peakCache) {
+        mPeakCache = peakCache;
+    }
+
+    public PeakCache getPeakCache() {
+        return mPeakCache;
+    }
+
+    public PcmCache getPcmCache() {
+        return mPcmCache;
+    }
+
+    /**
+     * Sets a cache of decoded audio, which the files are read from instead of being decoded,
+     * and which the decoded files are stored on.
+     *
+     * @param pcmCache - decoded PCM cache, or null (default)
+     */
+    public void setPcmCache(PcmCache pcmCache) {
+        mPcmCache = pcmCache;
+    }
+
+    public boolean isAsyncCodecs() {
+        return mAsyncCodecs;
+    }
+
+    /**
+     * Sets whether the audio decoder runs in asynchronous mode. Only applies on Lollipop
+     * (API 21) and later.
+     *
+     * @param asyncCodecs - true (default) to use the asynchronous mode when available
+     */
+    public void setAsyncCodecs(boolean asyncCodecs) {
+        mAsyncCodecs = asyncCodecs;
+    }
+
+    public MediaBackend getMediaBackend() {
+        return mMediaBackend;
+    }
+
+    /**
+     * Sets the backend the audio files are decoded on
+     *
+     * @param mediaBackend - backend, the AndroidMediaBackend by default
+     */
+    public void setMediaBackend(MediaBackend mediaBackend) {
+        mMediaBackend = mediaBackend;
+    }
+
+    /**
+     * @param audioFile - audio file
+     * @return the waveform of the audio file
+     */
+    public PeakPyramid getWaveform(File audioFile) throws Exception {
+        if (mPeakCache != null) {
+            try {
+                PeakPyramid peaks = mPeakCache.get(audioFile);
+                if (peaks != null) {
+                    return peaks;
+                }
+            } catch (IOException e) {
+                Log.w("AVMixer", "waveform cache lookup failed: " + e);
+            }
+        }
+
+        final PeakPyramid.Builder[] builder = new PeakPyramid.Builder[1];
+        new AVAudioFileDecoder(mMediaBackend, mPcmCache, mAsyncCodecs).decode(audioFile,
+                new AVAudioFileDecoder.Sink() {
+                    @Override
+                    public void onFormat(int sampleRate, int channelCount) {
+                        /* the decoder reports its actual format before the first samples */
+                        if (builder[0] == null || builder[0].getSampleRate() != sampleRate
+                                || builder[0].getChannelCount() != channelCount) {
+                            builder[0] = new PeakPyramid.Builder(sampleRate, channelCount);
+                        }
+                    }
+
+                    @Override
+                    public void onSamples(ShortBuffer pcm, int samples) {
+                        builder[0].add(pcm, samples);
+                    }
+                });
+
+        PeakPyramid peaks = builder[0].build();
+        if (mPeakCache != null) {
+            try {
+                mPeakCache.put(audioFile, peaks);
+            } catch (IOException e) {
+                Log.w("AVMixer", "waveform could not be cached: " + e);
+            }
+        }
+        return peaks;
+    }
+}
@@ -0,0 +1,115 @@
+package net.integritas.android.avmixer.audio;
+
+/**
+ * <p>
+ *  Audio clock driven by a running sample count. The presentation time of any sample is
+ *  computed from the total number of frames since the clock start, the sample rate and the
+ *  channel count, so there is no per-chunk rounding that could accumulate into drift.
+ * </p>
+ * <p>
+ *  The clock can also be compared against externally observed timestamps (e.g. the decoder
+ *  output presentation times) to report how far they drift from the sample count.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class AudioClock {
+
+    private int mSampleRate;
+    private int mChannelCount;
+    private long mStartTimeUs;
+    private long mFrames;
+
+    private long mLastDriftUs;
+    private long mMaxDriftUs;
+    private int mObservations;
+
+    public AudioClock(int sampleRate, int channelCount) {
+        this(sampleRate, channelCount, 0);
+    }
+
+    public AudioClock(int sampleRate, int channelCount, long startTimeUs) {
+        if (sampleRate <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException("invalid audio clock format: " + sampleRate
+                    + "Hz " + channelCount + " channel(s)");
+        }
+
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mStartTimeUs = startTimeUs;
+    }
+
+    /**
+     * @return the presentation time, in microseconds, of the next sample
+     */
+    public long getPresentationTimeUs() {
+        return mStartTimeUs + mFrames * 1000000l / mSampleRate;
+    }
+
+    /**
+     * Advances the clock by a block of samples
+     *
+     * @param samples - number of interleaved samples (frames * channels) of the block
+     * @return the presentation time, in microseconds, of the first sample of the block
+     */
+    public long advance(int samples) {
+        long presentationTimeUs = getPresentationTimeUs();
+        mFrames += samples / mChannelCount;
+
+        return presentationTimeUs;
+    }
+
+    /**
+     * Changes the clock format. The clock is rebased on its current time, so the samples
+     * already counted keep their presentation times.
+     */
+    public void setFormat(int sampleRate, int channelCount) {
+        if (sampleRate == mSampleRate && channelCount == mChannelCount) {
+            return;
+        }
+
+        mStartTimeUs = getPresentationTimeUs();
+        mFrames = 0;
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+    }
+
+    /**
+     * Compares an externally observed timestamp for the next sample against the clock
+     *
+     * @param observedTimeUs - timestamp reported for the next sample, e.g. by a decoder
+     * @return the drift, in microseconds, of the observed timestamp
+     */
+    public long observe(long observedTimeUs) {
+        mLastDriftUs = observedTimeUs - getPresentationTimeUs();
+        mMaxDriftUs = Math.max(mMaxDriftUs, Math.abs(mLastDriftUs));
+        ++mObservations;
+
+        return mLastDriftUs;
+    }
+
+    public long getLastDriftUs() {
+        return mLastDriftUs;
+    }
+
+    /**
+     * @return the biggest absolute drift observed, in microseconds
+     */
+    public long getMaxDriftUs() {
+        return mMaxDriftUs;
+    }
+
+    public int getObservations() {
+        return mObservations;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+}
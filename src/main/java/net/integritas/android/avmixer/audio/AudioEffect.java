@@ -0,0 +1,41 @@
+package net.integritas.android.avmixer.audio;
+
+/**
+ * <p>
+ *  Audio effect applied to a track while it is mixed. Samples are interleaved floats, full
+ *  scale being [-1.0f, 1.0f], and are processed in place one block at a time.
+ * </p>
+ * <p>
+ *  {@link #prepare(int, int)} is called before the first block and whenever the stream format
+ *  changes; it is the only place an effect may allocate. {@link #process(float[], int, int)}
+ *  runs on the mixing thread for every block and must not allocate.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public interface AudioEffect {
+
+    /**
+     * Sets up the effect for a stream format, clearing its state
+     *
+     * @param sampleRate   - sample rate of the blocks to come
+     * @param channelCount - channel count of the blocks to come
+     */
+    void prepare(int sampleRate, int channelCount);
+
+    /**
+     * Processes a block in place
+     *
+     * @param block    - interleaved samples
+     * @param frames   - number of frames of the block
+     * @param channels - channel count of the block, as set on prepare()
+     */
+    void process(float[] block, int frames, int channels);
+
+    /**
+     * Clears the effect state (filter memories, gate level...), keeping its settings
+     */
+    void reset();
+}
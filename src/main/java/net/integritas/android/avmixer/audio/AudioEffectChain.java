@@ -0,0 +1,74 @@
+package net.integritas.android.avmixer.audio;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ *  Runs a list of {@link AudioEffect} one after the other on the same block. The chain is an
+ *  effect itself, so chains can be nested.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public final class AudioEffectChain implements AudioEffect {
+
+    private final ArrayList<AudioEffect> mEffects = new ArrayList<AudioEffect>();
+    private AudioEffect[] mRunning = new AudioEffect[0];
+
+    /**
+     * Appends an effect to the chain
+     *
+     * @return this chain
+     */
+    public AudioEffectChain add(AudioEffect effect) {
+        if (effect == null) {
+            throw new IllegalArgumentException("null effect");
+        }
+        mEffects.add(effect);
+        return this;
+    }
+
+    public boolean remove(AudioEffect effect) {
+        return mEffects.remove(effect);
+    }
+
+    public void clear() {
+        mEffects.clear();
+    }
+
+    public List<AudioEffect> getEffects() {
+        return mEffects;
+    }
+
+    public boolean isEmpty() {
+        return mEffects.isEmpty();
+    }
+
+    /**
+     * Prepares every effect. The effects are fixed from here until the next prepare().
+     */
+    @Override
+    public void prepare(int sampleRate, int channelCount) {
+        mRunning = mEffects.toArray(new AudioEffect[mEffects.size()]);
+        for (AudioEffect effect : mRunning) {
+            effect.prepare(sampleRate, channelCount);
+        }
+    }
+
+    @Override
+    public void process(float[] block, int frames, int channels) {
+        for (int i = 0; i < mRunning.length; i++) {
+            mRunning[i].process(block, frames, channels);
+        }
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < mRunning.length; i++) {
+            mRunning[i].reset();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package net.integritas.android.avmixer.audio;
+
+/**
+ * <p>
+ *  Places each audio track on the mixing timeline with sample accuracy. A track start delay
+ *  becomes a number of leading silence samples which is never materialized in a buffer, it is
+ *  only counted down while the mixing windows are built. A track start offset (startAt) becomes
+ *  a number of decoded samples to drop from the head of the first decoded chunks, and a track
+ *  end point (endAt) the number of samples of the last decoded chunk which are kept.
+ * </p>
+ * <p>
+ *  Start offsets are kept in samples (frames * channels) of the track's own decoded format,
+ *  while start delays are counted in frames at the mix sample rate, as they are consumed after
+ *  the track is resampled. The remaining delay is only turned into samples with the channel
+ *  count the track has when it is consumed, so a decoder which reports a channel count other
+ *  than its container's (e.g. HE-AAC with parametric stereo) keeps its delay, and both are
+ *  always aligned to a whole frame, so the channel interleaving is preserved.
+ * </p>
+ * <p>
+ *  The timeline is shared by the decode threads, which skip the head of the tracks, and the
+ *  mixing thread, which consumes the leading silence, so all its methods are synchronized.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class AudioTimeline {
+
+    /**
+     * Compressed packets starting up to this amount of time before a track startAt are still
+     * decoded, so the sample at startAt can be found inside a decoded chunk.
+     */
+    public static final long START_AT_PREROLL_US = 100000l;
+
+    private final long[] mDelaysUs;
+    private final long[] mStartAtsUs;
+    private final long[] mEndAtsUs;
+    private final int[] mSampleRates;
+    private final int[] mChannelCounts;
+    private int mMixSampleRate;
+
+    /* remaining leading silence in frames, -1 while not computed yet */
+    private final long[] mSilenceFrames;
+
+    public AudioTimeline(int trackCount) {
+        mDelaysUs = new long[trackCount];
+        mStartAtsUs = new long[trackCount];
+        mEndAtsUs = new long[trackCount];
+        mSampleRates = new int[trackCount];
+        mChannelCounts = new int[trackCount];
+        mSilenceFrames = new long[trackCount];
+    }
+
+    /**
+     * Places a track on the timeline
+     *
+     * @param track     - track index
+     * @param delayUs   - time, in microseconds, of silence before the track starts playing
+     * @param startAtUs - time, in microseconds, of the track to skip before playing it
+     */
+    public synchronized void place(int track, long delayUs, long startAtUs) {
+        place(track, delayUs, startAtUs, 0);
+    }
+
+    /**
+     * Places a track on the timeline, played up to an end point
+     *
+     * @param track     - track index
+     * @param delayUs   - time, in microseconds, of silence before the track starts playing
+     * @param startAtUs - time, in microseconds, of the track to skip before playing it
+     * @param endAtUs   - time, in microseconds, of the track where it stops playing, 0 to play
+     *                  it to its end
+     */
+    public synchronized void place(int track, long delayUs, long startAtUs, long endAtUs) {
+        mDelaysUs[track] = Math.max(0, delayUs);
+        mStartAtsUs[track] = Math.max(0, startAtUs);
+        mEndAtsUs[track] = endAtUs > mStartAtsUs[track] ? endAtUs : 0;
+        mSilenceFrames[track] = -1;
+    }
+
+    /**
+     * Sets the decoded format of a track. Must be called before the track is mixed and again
+     * whenever the decoder reports a new output format.
+     */
+    public synchronized void setFormat(int track, int sampleRate, int channelCount) {
+        mSampleRates[track] = sampleRate;
+        mChannelCounts[track] = channelCount;
+    }
+
+    /**
+     * Sets the sample rate the tracks are mixed at. Until it is set, start delays are counted
+     * at each track own sample rate.
+     */
+    public synchronized void setMixSampleRate(int sampleRate) {
+        mMixSampleRate = sampleRate;
+    }
+
+    /**
+     * @return whether a compressed packet with the given presentation time has to be decoded
+     */
+    public synchronized boolean isPacketNeeded(int track, long presentationTimeUs) {
+        return presentationTimeUs + START_AT_PREROLL_US >= mStartAtsUs[track];
+    }
+
+    /**
+     * @return the time, in microseconds, the track file can be sought to before it is decoded,
+     * so the packets before its startAt are not even read
+     */
+    public synchronized long getSeekTimeUs(int track) {
+        return Math.max(0, mStartAtsUs[track] - START_AT_PREROLL_US);
+    }
+
+    /**
+     * @return whether a compressed packet, or decoded chunk, with the given presentation time
+     * starts at or past the track endAt, so the track has ended
+     */
+    public synchronized boolean isPastEnd(int track, long presentationTimeUs) {
+        return mEndAtsUs[track] > 0 && presentationTimeUs >= mEndAtsUs[track];
+    }
+
+    /**
+     * Number of samples of a decoded chunk before the track endAt
+     *
+     * @param track              - track index
+     * @param presentationTimeUs - presentation time of the decoded chunk
+     * @param samples            - number of samples in the decoded chunk
+     * @return the number of samples to keep from the head of the chunk, from 0 to samples
+     */
+    public synchronized int end(int track, long presentationTimeUs, int samples) {
+        if (mEndAtsUs[track] <= 0) {
+            return samples;
+        }
+
+        long toKeepUs = mEndAtsUs[track] - presentationTimeUs;
+        if (toKeepUs <= 0) {
+            return 0;
+        }
+
+        long frames = toKeepUs * mSampleRates[track] / 1000000l;
+        return (int) Math.min(samples, frames * mChannelCounts[track]);
+    }
+
+    /**
+     * Number of samples to drop from the head of a decoded chunk so the track starts exactly
+     * at its startAt offset.
+     *
+     * @param track              - track index
+     * @param presentationTimeUs - presentation time of the decoded chunk
+     * @param samples            - number of samples in the decoded chunk
+     * @return the number of samples to skip, from 0 to samples
+     */
+    public synchronized int skip(int track, long presentationTimeUs, int samples) {
+        long toSkipUs = mStartAtsUs[track] - presentationTimeUs;
+        if (toSkipUs <= 0) {
+            return 0;
+        }
+
+        long frames = (toSkipUs * mSampleRates[track] + 999999l) / 1000000l;
+        return (int) Math.min(samples, frames * mChannelCounts[track]);
+    }
+
+    /**
+     * @return the leading silence samples the track still has to play
+     */
+    public synchronized long silence(int track) {
+        return silenceFrames(track) * mChannelCounts[track];
+    }
+
+    /**
+     * Consumes up to maxSamples of the track leading silence, in whole frames
+     *
+     * @return the number of silence samples consumed
+     */
+    public synchronized int consumeSilence(int track, int maxSamples) {
+        int channels = Math.max(1, mChannelCounts[track]);
+        long consumed = Math.min(silenceFrames(track), maxSamples / channels);
+        mSilenceFrames[track] -= consumed;
+
+        return (int) consumed * mChannelCounts[track];
+    }
+
+    private long silenceFrames(int track) {
+        if (mSilenceFrames[track] < 0) {
+            int sampleRate = mMixSampleRate > 0 ? mMixSampleRate : mSampleRates[track];
+            mSilenceFrames[track] = mDelaysUs[track] * sampleRate / 1000000l;
+        }
+
+        return mSilenceFrames[track];
+    }
+}
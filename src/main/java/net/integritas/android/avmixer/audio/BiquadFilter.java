@@ -0,0 +1,182 @@
+package net.integritas.android.avmixer.audio;
+
+/**
+ * <p>
+ *  Second order IIR filter, with the coefficients of the RBJ audio EQ cookbook. Each channel is
+ *  filtered independently, in transposed direct form II.
+ * </p>
+ * <p>
+ *  Use the factories for the usual shapes: {@link #highPass(float)} to remove rumble and
+ *  handling noise, {@link #peaking(float, float, float)} and the shelves for equalization.
+ *  Several filters can be cascaded in a {@link ParametricEqualizer}.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class BiquadFilter implements AudioEffect {
+
+    public enum Type {LOW_PASS, HIGH_PASS, PEAKING, LOW_SHELF, HIGH_SHELF}
+
+    /* Butterworth response for the pass filters */
+    public static final float DEFAULT_Q = 0.70710677f;
+
+    /* states below this are flushed to zero, so silence does not end up in denormals */
+    private static final float DENORMAL = 1e-15f;
+
+    private final Type mType;
+    private final float mFrequency;
+    private final float mQ;
+    private final float mGainDb;
+
+    private float mB0, mB1, mB2, mA1, mA2;
+    private float[] mZ1 = new float[0];
+    private float[] mZ2 = new float[0];
+
+    /**
+     * @param type      - filter shape
+     * @param frequency - cutoff or center frequency, in Hz
+     * @param q         - quality factor, the higher the narrower
+     * @param gainDb    - gain of the peaking and shelf filters, in dB. Ignored by the pass
+     *                  filters.
+     */
+    public BiquadFilter(Type type, float frequency, float q, float gainDb) {
+        if (frequency <= 0 || q <= 0) {
+            throw new IllegalArgumentException("invalid filter: " + frequency + "Hz, Q " + q);
+        }
+
+        mType = type;
+        mFrequency = frequency;
+        mQ = q;
+        mGainDb = gainDb;
+    }
+
+    public static BiquadFilter highPass(float frequency) {
+        return new BiquadFilter(Type.HIGH_PASS, frequency, DEFAULT_Q, 0);
+    }
+
+    public static BiquadFilter lowPass(float frequency) {
+        return new BiquadFilter(Type.LOW_PASS, frequency, DEFAULT_Q, 0);
+    }
+
+    public static BiquadFilter peaking(float frequency, float q, float gainDb) {
+        return new BiquadFilter(Type.PEAKING, frequency, q, gainDb);
+    }
+
+    public static BiquadFilter lowShelf(float frequency, float gainDb) {
+        return new BiquadFilter(Type.LOW_SHELF, frequency, DEFAULT_Q, gainDb);
+    }
+
+    public static BiquadFilter highShelf(float frequency, float gainDb) {
+        return new BiquadFilter(Type.HIGH_SHELF, frequency, DEFAULT_Q, gainDb);
+    }
+
+    public Type getType() {
+        return mType;
+    }
+
+    public float getFrequency() {
+        return mFrequency;
+    }
+
+    public float getQ() {
+        return mQ;
+    }
+
+    public float getGainDb() {
+        return mGainDb;
+    }
+
+    @Override
+    public void prepare(int sampleRate, int channelCount) {
+        /* keeps the frequency below Nyquist */
+        double w0 = 2 * Math.PI * Math.min(mFrequency, sampleRate * 0.49) / sampleRate;
+        double cos = Math.cos(w0);
+        double alpha = Math.sin(w0) / (2 * mQ);
+        double a = Math.pow(10, mGainDb / 40.0);
+        double sqrtA2Alpha = 2 * Math.sqrt(a) * alpha;
+
+        double b0, b1, b2, a0, a1, a2;
+        switch (mType) {
+            case LOW_PASS:
+                b0 = (1 - cos) / 2;
+                b1 = 1 - cos;
+                b2 = (1 - cos) / 2;
+                a0 = 1 + alpha;
+                a1 = -2 * cos;
+                a2 = 1 - alpha;
+                break;
+            case HIGH_PASS:
+                b0 = (1 + cos) / 2;
+                b1 = -(1 + cos);
+                b2 = (1 + cos) / 2;
+                a0 = 1 + alpha;
+                a1 = -2 * cos;
+                a2 = 1 - alpha;
+                break;
+            case PEAKING:
+                b0 = 1 + alpha * a;
+                b1 = -2 * cos;
+                b2 = 1 - alpha * a;
+                a0 = 1 + alpha / a;
+                a1 = -2 * cos;
+                a2 = 1 - alpha / a;
+                break;
+            case LOW_SHELF:
+                b0 = a * ((a + 1) - (a - 1) * cos + sqrtA2Alpha);
+                b1 = 2 * a * ((a - 1) - (a + 1) * cos);
+                b2 = a * ((a + 1) - (a - 1) * cos - sqrtA2Alpha);
+                a0 = (a + 1) + (a - 1) * cos + sqrtA2Alpha;
+                a1 = -2 * ((a - 1) + (a + 1) * cos);
+                a2 = (a + 1) + (a - 1) * cos - sqrtA2Alpha;
+                break;
+            case HIGH_SHELF:
+            default:
+                b0 = a * ((a + 1) + (a - 1) * cos + sqrtA2Alpha);
+                b1 = -2 * a * ((a - 1) + (a + 1) * cos);
+                b2 = a * ((a + 1) + (a - 1) * cos - sqrtA2Alpha);
+                a0 = (a + 1) - (a - 1) * cos + sqrtA2Alpha;
+                a1 = 2 * ((a - 1) - (a + 1) * cos);
+                a2 = (a + 1) - (a - 1) * cos - sqrtA2Alpha;
+                break;
+        }
+
+        mB0 = (float) (b0 / a0);
+        mB1 = (float) (b1 / a0);
+        mB2 = (float) (b2 / a0);
+        mA1 = (float) (a1 / a0);
+        mA2 = (float) (a2 / a0);
+
+        mZ1 = new float[channelCount];
+        mZ2 = new float[channelCount];
+    }
+
+    @Override
+    public void process(float[] block, int frames, int channels) {
+        float b0 = mB0, b1 = mB1, b2 = mB2, a1 = mA1, a2 = mA2;
+
+        for (int c = 0; c < channels; c++) {
+            float z1 = mZ1[c];
+            float z2 = mZ2[c];
+            int end = frames * channels;
+            for (int i = c; i < end; i += channels) {
+                float x = block[i];
+                float y = b0 * x + z1;
+                z1 = b1 * x - a1 * y + z2;
+                z2 = b2 * x - a2 * y;
+                block[i] = y;
+            }
+            mZ1[c] = Math.abs(z1) < DENORMAL ? 0.0f : z1;
+            mZ2[c] = Math.abs(z2) < DENORMAL ? 0.0f : z2;
+        }
+    }
+
+    @Override
+    public void reset() {
+        for (int c = 0; c < mZ1.length; c++) {
+            mZ1[c] = 0.0f;
+            mZ2[c] = 0.0f;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package net.integritas.android.avmixer.audio;
+
+/**
+ * <p>
+ *  Maps the channels of a PCM stream to another channel layout. Each output channel is a
+ *  weighted sum of the input channels, with the weights kept row-major (one row per output
+ *  channel). The matrix is applied by {@link PcmMixKernel} in the same pass as the track gain,
+ *  so converting a track to the mix layout costs no extra copy of its samples.
+ * </p>
+ * <p>
+ *  {@link #create(int, int)} builds the default mapping: mono is copied to every output
+ *  channel, a stereo or wider stream going to mono is averaged, and for other layouts the
+ *  common channels are kept while the remaining ones are repeated or folded in at -3 dB.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public final class ChannelMatrix {
+
+    /* -3 dB, used when an input channel is folded into an output channel already in use */
+    private static final float FOLD_GAIN = 0.70710677f;
+
+    private final int mInputChannels;
+    private final int mOutputChannels;
+    final float[] mCoefficients;
+
+    /**
+     * Creates a silent matrix. Use {@link #set(int, int, float)} to route the channels.
+     */
+    public ChannelMatrix(int inputChannels, int outputChannels) {
+        if (inputChannels <= 0 || outputChannels <= 0) {
+            throw new IllegalArgumentException("invalid channel matrix: " + inputChannels
+                    + " -> " + outputChannels + " channel(s)");
+        }
+
+        mInputChannels = inputChannels;
+        mOutputChannels = outputChannels;
+        mCoefficients = new float[inputChannels * outputChannels];
+    }
+
+    public static ChannelMatrix identity(int channels) {
+        ChannelMatrix matrix = new ChannelMatrix(channels, channels);
+        for (int c = 0; c < channels; c++) {
+            matrix.set(c, c, 1.0f);
+        }
+        return matrix;
+    }
+
+    /**
+     * Creates the default up/down-mix matrix between two channel layouts
+     */
+    public static ChannelMatrix create(int inputChannels, int outputChannels) {
+        if (inputChannels == outputChannels) {
+            return identity(inputChannels);
+        }
+
+        ChannelMatrix matrix = new ChannelMatrix(inputChannels, outputChannels);
+        if (inputChannels == 1) {
+            for (int o = 0; o < outputChannels; o++) {
+                matrix.set(o, 0, 1.0f);
+            }
+        } else if (outputChannels == 1) {
+            for (int i = 0; i < inputChannels; i++) {
+                matrix.set(0, i, 1.0f / inputChannels);
+            }
+        } else if (outputChannels > inputChannels) {
+            for (int o = 0; o < outputChannels; o++) {
+                matrix.set(o, o % inputChannels, 1.0f);
+            }
+        } else {
+            for (int i = 0; i < inputChannels; i++) {
+                matrix.set(i % outputChannels, i, i < outputChannels ? 1.0f : FOLD_GAIN);
+            }
+        }
+
+        return matrix;
+    }
+
+    /**
+     * Sets how much of an input channel goes into an output channel
+     *
+     * @return this matrix
+     */
+    public ChannelMatrix set(int output, int input, float gain) {
+        mCoefficients[index(output, input)] = gain;
+        return this;
+    }
+
+    public float get(int output, int input) {
+        return mCoefficients[index(output, input)];
+    }
+
+    public int getInputChannels() {
+        return mInputChannels;
+    }
+
+    public int getOutputChannels() {
+        return mOutputChannels;
+    }
+
+    /**
+     * @return whether the matrix leaves every channel untouched
+     */
+    public boolean isIdentity() {
+        if (mInputChannels != mOutputChannels) {
+            return false;
+        }
+
+        for (int o = 0; o < mOutputChannels; o++) {
+            for (int i = 0; i < mInputChannels; i++) {
+                if (mCoefficients[o * mInputChannels + i] != (o == i ? 1.0f : 0.0f)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private int index(int output, int input) {
+        if (output < 0 || output >= mOutputChannels || input < 0 || input >= mInputChannels) {
+            throw new IndexOutOfBoundsException("channel " + input + " -> " + output
+                    + " out of a " + mInputChannels + " -> " + mOutputChannels + " matrix");
+        }
+        return output * mInputChannels + input;
+    }
+}
@@ -0,0 +1,222 @@
+package net.integritas.android.avmixer.audio;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ *  Piecewise linear gain automation: a list of breakpoints (time, gain) with the gain ramping
+ *  linearly from one breakpoint to the next. Before the first breakpoint the gain is the first
+ *  breakpoint gain, after the last one it is the last breakpoint gain, and an envelope without
+ *  breakpoints keeps the gain at 1.0f. Two breakpoints at the same time make a step.
+ * </p>
+ * <p>
+ *  Envelopes are evaluated once per mixing block: {@link #fill(float[], long, int, int)} writes
+ *  the gain of every frame of the block, one linear run per segment, and
+ *  {@link #getConstantGain(long, long)} tells when the block needs no per-frame gain at all.
+ *  {@link PcmMixKernel} then applies the per-frame gains inside its accumulation loop.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public final class GainEnvelope {
+
+    private long[] mTimes = new long[4];
+    private float[] mGains = new float[4];
+    private int mCount;
+
+    /**
+     * Creates an envelope without breakpoints, which keeps the gain at 1.0f
+     */
+    public GainEnvelope() {
+    }
+
+    /**
+     * Creates an envelope ramping up from silence
+     *
+     * @param durationUs - length of the ramp, in microseconds
+     */
+    public static GainEnvelope fadeIn(long durationUs) {
+        return new GainEnvelope().add(0, 0.0f).add(durationUs, 1.0f);
+    }
+
+    /**
+     * Creates an envelope ramping down to silence
+     *
+     * @param startUs    - start of the ramp, in microseconds
+     * @param durationUs - length of the ramp, in microseconds
+     */
+    public static GainEnvelope fadeOut(long startUs, long durationUs) {
+        return new GainEnvelope().add(startUs, 1.0f).add(startUs + durationUs, 0.0f);
+    }
+
+    /**
+     * Adds a breakpoint. A breakpoint added at the time of an existing one is placed after it.
+     *
+     * @param timeUs - breakpoint time, in microseconds
+     * @param gain   - gain at the breakpoint, 1.0f keeps the level untouched
+     * @return this envelope
+     */
+    public GainEnvelope add(long timeUs, float gain) {
+        if (gain < 0.0f) {
+            throw new IllegalArgumentException("invalid gain: " + gain);
+        }
+
+        if (mCount == mTimes.length) {
+            mTimes = Arrays.copyOf(mTimes, mCount * 2);
+            mGains = Arrays.copyOf(mGains, mCount * 2);
+        }
+
+        int i = upperBound(timeUs);
+        System.arraycopy(mTimes, i, mTimes, i + 1, mCount - i);
+        System.arraycopy(mGains, i, mGains, i + 1, mCount - i);
+        mTimes[i] = timeUs;
+        mGains[i] = gain;
+        ++mCount;
+
+        return this;
+    }
+
+    public int getBreakpointCount() {
+        return mCount;
+    }
+
+    public long getBreakpointTimeUs(int index) {
+        return mTimes[index];
+    }
+
+    public float getBreakpointGain(int index) {
+        return mGains[index];
+    }
+
+    /**
+     * @return the gain at the given time
+     */
+    public float getGain(long timeUs) {
+        if (mCount == 0) {
+            return 1.0f;
+        }
+
+        int next = upperBound(timeUs);
+        if (next == 0) {
+            return mGains[0];
+        }
+        if (next == mCount) {
+            return mGains[mCount - 1];
+        }
+
+        int prev = next - 1;
+        return mGains[prev] + (mGains[next] - mGains[prev])
+                * (float) (timeUs - mTimes[prev]) / (float) (mTimes[next] - mTimes[prev]);
+    }
+
+    /**
+     * @return the gain over the given time range if it is constant, Float.NaN otherwise
+     */
+    public float getConstantGain(long startUs, long endUs) {
+        float gain = getGain(startUs);
+        if (getGain(endUs) != gain) {
+            return Float.NaN;
+        }
+
+        for (int i = upperBound(startUs); i < mCount && mTimes[i] < endUs; i++) {
+            if (mGains[i] != gain) {
+                return Float.NaN;
+            }
+        }
+
+        return gain;
+    }
+
+    /**
+     * Writes the gain of each frame of a block
+     *
+     * @param gains      - destination of the gains, one per frame
+     * @param startUs    - time of the first frame, in microseconds
+     * @param frames     - number of frames of the block
+     * @param sampleRate - sample rate of the block
+     */
+    public void fill(float[] gains, long startUs, int frames, int sampleRate) {
+        if (mCount == 0) {
+            Arrays.fill(gains, 0, frames, 1.0f);
+            return;
+        }
+
+        double usPerFrame = 1000000.0 / sampleRate;
+        int next = upperBound(startUs);
+        int f = 0;
+
+        /* one run per segment the block crosses: constant before the first and after the last
+           breakpoint, linear in between */
+        while (f < frames) {
+            int end = next == mCount ? frames : (int) Math.min(frames,
+                    Math.ceil((mTimes[next] - startUs) / usPerFrame));
+
+            if (end > f) {
+                if (next == 0 || next == mCount) {
+                    Arrays.fill(gains, f, end, mGains[next == 0 ? 0 : mCount - 1]);
+                } else {
+                    int prev = next - 1;
+                    double slope = (mGains[next] - mGains[prev])
+                            / (double) (mTimes[next] - mTimes[prev]);
+                    double gain = mGains[prev]
+                            + slope * (startUs + f * usPerFrame - mTimes[prev]);
+                    double step = slope * usPerFrame;
+                    for (int i = f; i < end; i++) {
+                        gains[i] = (float) gain;
+                        gain += step;
+                    }
+                }
+                f = end;
+            }
+
+            ++next;
+        }
+    }
+
+    /**
+     * Multiplies the gain of each frame of a block by this envelope
+     *
+     * @param gains      - gains to multiply, one per frame
+     * @param scratch    - array of at least frames elements, overwritten
+     * @param startUs    - time of the first frame, in microseconds
+     * @param frames     - number of frames of the block
+     * @param sampleRate - sample rate of the block
+     */
+    public void multiply(float[] gains, float[] scratch, long startUs, int frames,
+                         int sampleRate) {
+        float constant = getConstantGain(startUs,
+                startUs + (long) ((frames - 1) * 1000000.0 / sampleRate));
+        if (constant == 1.0f) {
+            return;
+        }
+
+        if (!Float.isNaN(constant)) {
+            for (int i = 0; i < frames; i++) {
+                gains[i] *= constant;
+            }
+            return;
+        }
+
+        fill(scratch, startUs, frames, sampleRate);
+        for (int i = 0; i < frames; i++) {
+            gains[i] *= scratch[i];
+        }
+    }
+
+    /* index of the first breakpoint after the given time */
+    private int upperBound(long timeUs) {
+        int low = 0;
+        int high = mCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mTimes[mid] <= timeUs) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
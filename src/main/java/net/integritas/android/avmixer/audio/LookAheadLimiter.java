@@ -0,0 +1,348 @@
+package net.integritas.android.avmixer.audio;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ *  Look-ahead true-peak limiter, the last stage of the mix. It keeps the mixed audio under a
+ *  ceiling by lowering its gain smoothly before each peak, instead of clipping the peaks.
+ * </p>
+ * <p>
+ *  The samples go through a delay line, while the peak of each frame, including the peaks
+ *  between samples (estimated by 4x oversampling), is pushed on a sliding window which maximum
+ *  is tracked in O(1) amortized time. The gain needed by that maximum is averaged over the
+ *  look-ahead time, so the gain goes down on a ramp that ends exactly when the peak leaves
+ *  the delay line, then recovers over the release time.
+ * </p>
+ * <p>
+ *  The output is delayed by {@link #getLatencyFrames()}: the first frames out of the limiter
+ *  are silence, and the last frames in are pushed out by {@link #flush(short[], int)}. The
+ *  delay line and the sliding window are allocated by prepare(), processing does not allocate.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class LookAheadLimiter {
+
+    public static final float DEFAULT_CEILING_DB = -1.0f;
+    public static final float DEFAULT_LOOK_AHEAD_MS = 5.0f;
+    public static final float DEFAULT_RELEASE_MS = 80.0f;
+
+    /* 4x oversampling of the peak detection, with 8 taps per phase */
+    private static final int OVERSAMPLING = 4;
+    private static final int TAPS = 8;
+    private static final float[][] PHASES = createPhases();
+
+    private final float mCeilingDb;
+    private final float mLookAheadMs;
+    private final float mReleaseMs;
+
+    private int mChannels;
+    private float mCeiling;
+    private float mReleaseCoefficient;
+    private int mLookAheadFrames;
+    private int mLatencyFrames;
+
+    /* delay line of the samples, interleaved */
+    private float[] mDelay = new float[0];
+    private int mDelayPosition;
+
+    /* last samples of each channel for the oversampling, a ring per channel written twice so
+       the last TAPS samples are always contiguous */
+    private float[] mHistory = new float[0];
+    private int mHistoryPosition;
+
+    /* sliding window maximum of the frame peaks: a monotonic deque of (peak, frame) */
+    private float[] mWindowPeaks = new float[0];
+    private long[] mWindowFrames = new long[0];
+    private int mWindowHead;
+    private int mWindowSize;
+    private int mWindowLength;
+
+    /* moving average of the held gain over the look-ahead */
+    private float[] mHeldGains = new float[0];
+    private int mHeldPosition;
+    private double mHeldSum;
+
+    private long mFrame;
+    private float mGain;
+    private float mMinGain;
+    private long mLimitedFrames;
+
+    /**
+     * Creates a limiter with the default settings
+     */
+    public LookAheadLimiter() {
+        this(DEFAULT_CEILING_DB, DEFAULT_LOOK_AHEAD_MS, DEFAULT_RELEASE_MS);
+    }
+
+    /**
+     * @param ceilingDb   - highest true peak of the output, in dBTP
+     * @param lookAheadMs - time over which the gain goes down before a peak, in milliseconds.
+     *                    Also the latency of the limiter.
+     * @param releaseMs   - time the gain takes to recover after a peak, in milliseconds
+     */
+    public LookAheadLimiter(float ceilingDb, float lookAheadMs, float releaseMs) {
+        if (ceilingDb > 0 || lookAheadMs <= 0) {
+            throw new IllegalArgumentException("invalid limiter: ceiling " + ceilingDb
+                    + "dB, look-ahead " + lookAheadMs + "ms");
+        }
+
+        mCeilingDb = ceilingDb;
+        mLookAheadMs = lookAheadMs;
+        mReleaseMs = releaseMs;
+    }
+
+    public float getCeilingDb() {
+        return mCeilingDb;
+    }
+
+    public float getLookAheadMs() {
+        return mLookAheadMs;
+    }
+
+    public float getReleaseMs() {
+        return mReleaseMs;
+    }
+
+    /**
+     * Sets the limiter up for a format and clears its state. Must be called before the first
+     * block.
+     */
+    public void prepare(int sampleRate, int channels) {
+        mChannels = channels;
+        mCeiling = (float) Math.pow(10, mCeilingDb / 20.0) * Short.MAX_VALUE;
+        mReleaseCoefficient = mReleaseMs <= 0 ? 1.0f
+                : (float) (1.0 - Math.exp(-1000.0 / (mReleaseMs * sampleRate)));
+        mLookAheadFrames = Math.max(1, Math.round(mLookAheadMs * sampleRate / 1000.0f));
+
+        /* the oversampled peaks lag TAPS / 2 frames behind, the window covers them too */
+        mWindowLength = mLookAheadFrames + TAPS / 2;
+        mLatencyFrames = mWindowLength - 1;
+
+        mDelay = new float[mLatencyFrames * channels];
+        mHistory = new float[2 * TAPS * channels];
+        mWindowPeaks = new float[mWindowLength];
+        mWindowFrames = new long[mWindowLength];
+        mHeldGains = new float[mLookAheadFrames];
+        reset();
+    }
+
+    /**
+     * Clears the limiter state, keeping its format
+     */
+    public void reset() {
+        Arrays.fill(mDelay, 0.0f);
+        Arrays.fill(mHistory, 0.0f);
+        Arrays.fill(mHeldGains, 1.0f);
+        mDelayPosition = 0;
+        mHistoryPosition = 0;
+        mWindowHead = 0;
+        mWindowSize = 0;
+        mHeldPosition = 0;
+        mHeldSum = mLookAheadFrames;
+        mFrame = 0;
+        mGain = 1.0f;
+        mMinGain = 1.0f;
+        mLimitedFrames = 0;
+    }
+
+    /**
+     * @return the number of frames the output is delayed by
+     */
+    public int getLatencyFrames() {
+        return mLatencyFrames;
+    }
+
+    /**
+     * @return the lowest gain applied since prepare()
+     */
+    public float getMinGain() {
+        return mMinGain;
+    }
+
+    /**
+     * @return the number of frames output with a gain under 1 since prepare()
+     */
+    public long getLimitedFrames() {
+        return mLimitedFrames;
+    }
+
+    /**
+     * Limits a block of mixed samples
+     *
+     * @param in     - interleaved samples, in the 16 bit PCM scale but not clipped
+     * @param out    - destination of the limited samples, delayed by the limiter latency
+     * @param frames - number of frames to process
+     */
+    public void process(float[] in, short[] out, int frames) {
+        int channels = mChannels;
+        for (int f = 0, s = 0; f < frames; f++, s += channels) {
+            float peak = 0.0f;
+            for (int c = 0; c < channels; c++) {
+                peak = Math.max(peak, detect(c, in[s + c]));
+            }
+            float gain = nextGain(peak);
+            for (int c = 0; c < channels; c++) {
+                out[s + c] = delay(in[s + c], gain);
+            }
+            advance();
+        }
+    }
+
+    /**
+     * Limits a block of mixed samples
+     *
+     * @param in     - interleaved samples, in the 16 bit PCM scale but not clipped
+     * @param out    - destination of the limited samples, delayed by the limiter latency
+     * @param frames - number of frames to process
+     */
+    public void process(int[] in, short[] out, int frames) {
+        int channels = mChannels;
+        for (int f = 0, s = 0; f < frames; f++, s += channels) {
+            float peak = 0.0f;
+            for (int c = 0; c < channels; c++) {
+                peak = Math.max(peak, detect(c, in[s + c]));
+            }
+            float gain = nextGain(peak);
+            for (int c = 0; c < channels; c++) {
+                out[s + c] = delay(in[s + c], gain);
+            }
+            advance();
+        }
+    }
+
+    /**
+     * Pushes the samples left on the delay line out, by processing silence
+     *
+     * @param out    - destination of the limited samples
+     * @param frames - number of frames to output, usually getLatencyFrames()
+     */
+    public void flush(short[] out, int frames) {
+        int channels = mChannels;
+        for (int f = 0, s = 0; f < frames; f++, s += channels) {
+            float peak = 0.0f;
+            for (int c = 0; c < channels; c++) {
+                peak = Math.max(peak, detect(c, 0.0f));
+            }
+            float gain = nextGain(peak);
+            for (int c = 0; c < channels; c++) {
+                out[s + c] = delay(0.0f, gain);
+            }
+            advance();
+        }
+    }
+
+    /* returns the true peak of a channel around its last samples */
+    private float detect(int channel, float sample) {
+        float[] history = mHistory;
+        int base = channel * 2 * TAPS + mHistoryPosition;
+        history[base] = sample;
+        history[base + TAPS] = sample;
+
+        /* oldest to newest sample */
+        int oldest = base + 1;
+        float peak = Math.abs(sample);
+        for (int p = 0; p < PHASES.length; p++) {
+            float[] phase = PHASES[p];
+            float value = 0.0f;
+            for (int t = 0; t < TAPS; t++) {
+                value += history[oldest + t] * phase[t];
+            }
+            peak = Math.max(peak, Math.abs(value));
+        }
+        return peak;
+    }
+
+    /* pushes the frame peak on the sliding window and returns the gain of the delayed frame */
+    private float nextGain(float peak) {
+        /* drops the peak leaving the window, then the peaks smaller than the new one, which
+           can no longer be the maximum */
+        int length = mWindowLength;
+        if (mWindowSize > 0 && mWindowFrames[mWindowHead] <= mFrame - length) {
+            mWindowHead = (mWindowHead + 1) % length;
+            --mWindowSize;
+        }
+        while (mWindowSize > 0
+                && mWindowPeaks[(mWindowHead + mWindowSize - 1) % length] <= peak) {
+            --mWindowSize;
+        }
+        int tail = (mWindowHead + mWindowSize) % length;
+        mWindowPeaks[tail] = peak;
+        mWindowFrames[tail] = mFrame;
+        ++mWindowSize;
+
+        float maxPeak = mWindowPeaks[mWindowHead];
+        float held = maxPeak > mCeiling ? mCeiling / maxPeak : 1.0f;
+
+        mHeldSum += held - mHeldGains[mHeldPosition];
+        mHeldGains[mHeldPosition] = held;
+        if (++mHeldPosition == mHeldGains.length) {
+            mHeldPosition = 0;
+            /* no drift from the running sum */
+            double sum = 0.0;
+            for (int i = 0; i < mHeldGains.length; i++) {
+                sum += mHeldGains[i];
+            }
+            mHeldSum = sum;
+        }
+
+        float target = (float) Math.min(1.0, mHeldSum / mHeldGains.length);
+        if (target < mGain) {
+            mGain = target;
+        } else {
+            mGain += (target - mGain) * mReleaseCoefficient;
+        }
+
+        if (mGain < 1.0f) {
+            ++mLimitedFrames;
+            mMinGain = Math.min(mMinGain, mGain);
+        }
+        return mGain;
+    }
+
+    /* swaps a sample through the delay line, returning the delayed one with the gain */
+    private short delay(float sample, float gain) {
+        float delayed = mDelay[mDelayPosition];
+        mDelay[mDelayPosition++] = sample;
+
+        /* safety net only, the gain keeps the samples under the ceiling */
+        float value = delayed * gain;
+        if (value > Short.MAX_VALUE) return Short.MAX_VALUE;
+        if (value < Short.MIN_VALUE) return Short.MIN_VALUE;
+        return (short) value;
+    }
+
+    private void advance() {
+        if (mDelayPosition == mDelay.length) {
+            mDelayPosition = 0;
+        }
+        mHistoryPosition = (mHistoryPosition + 1) & (TAPS - 1);
+        ++mFrame;
+    }
+
+    /**
+     * Hann windowed sinc interpolators at 1/4, 2/4 and 3/4 between the two middle taps
+     */
+    private static float[][] createPhases() {
+        float[][] phases = new float[OVERSAMPLING - 1][TAPS];
+        for (int p = 1; p < OVERSAMPLING; p++) {
+            double fraction = (double) p / OVERSAMPLING;
+            double sum = 0.0;
+            for (int t = 0; t < TAPS; t++) {
+                /* distance from the interpolated point to the tap */
+                double x = t - (TAPS / 2 - 1) - fraction;
+                double sinc = Math.sin(Math.PI * x) / (Math.PI * x);
+                double window = 0.5 + 0.5 * Math.cos(Math.PI * x / (TAPS / 2));
+                phases[p - 1][t] = (float) (sinc * window);
+                sum += sinc * window;
+            }
+            for (int t = 0; t < TAPS; t++) {
+                phases[p - 1][t] /= sum;
+            }
+        }
+        return phases;
+    }
+}
@@ -0,0 +1,215 @@
+package net.integritas.android.avmixer.audio;
+
+import java.nio.ShortBuffer;
+
+/**
+ * <p>
+ *  Integrated loudness meter, as specified by ITU-R BS.1770 and EBU R128. The samples are
+ *  K-weighted, their mean square is taken over 400ms blocks overlapping by 75%, and the
+ *  integrated loudness is the mean of the blocks left after the absolute gate (-70 LUFS) and
+ *  the relative gate (10 LU under the loudness of the blocks over the absolute gate).
+ * </p>
+ * <p>
+ *  The meter is fed as the audio is decoded. The blocks over the absolute gate are kept in a
+ *  fixed histogram of 0.1 LU bins, from -70 to +30 LUFS, holding the energy sum and count of
+ *  their blocks, so its memory does not grow with the length of the audio. Only the blocks
+ *  of the bin the relative gate falls in are gated together, on their mean energy.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class LoudnessMeter {
+
+    private static final double ABSOLUTE_GATE_LUFS = -70.0;
+    private static final double RELATIVE_GATE_LU = -10.0;
+    private static final double BLOCK_SECONDS = 0.4;
+    private static final int BLOCK_STEPS = 4;
+    private static final double HISTOGRAM_STEP_LU = 0.1;
+    private static final int HISTOGRAM_BINS = 1000;
+
+    /* K-weighting, as derived for any sample rate by the BS.1770 reference filters */
+    private static final double SHELF_FREQUENCY = 1681.974450955533;
+    private static final double SHELF_GAIN_DB = 3.999843853973347;
+    private static final double SHELF_Q = 0.7071752369554196;
+    private static final double HIGH_PASS_FREQUENCY = 38.13547087602444;
+    private static final double HIGH_PASS_Q = 0.5003270373238773;
+
+    private static final double PCM_TO_DOUBLE = 1.0 / 32768.0;
+
+    private final int mChannelCount;
+    private final double[] mWeights;
+
+    private final double mSb0, mSb1, mSb2, mSa1, mSa2;
+    private final double mHa1, mHa2;
+    private final double[] mShelfZ1, mShelfZ2, mHighPassZ1, mHighPassZ2;
+
+    /* energy of the current step, and of the last steps making up a block */
+    private final int mStepFrames;
+    private int mStepPosition;
+    private double mStepEnergy;
+    private final double[] mSteps = new double[BLOCK_STEPS];
+    private int mStepCount;
+
+    /* mean square sum and count of the gating blocks over the absolute gate, by loudness */
+    private final double mAbsoluteGate = toEnergy(ABSOLUTE_GATE_LUFS);
+    private final double[] mBinEnergies = new double[HISTOGRAM_BINS];
+    private final int[] mBinCounts = new int[HISTOGRAM_BINS];
+    private int mBlockCount;
+
+    /**
+     * @param sampleRate   - sample rate of the measured audio
+     * @param channelCount - channel count of the measured audio. Audio with 6 channels is
+     *                     taken as 5.1: its LFE channel is left out and the surround channels
+     *                     are weighted by +1.5dB.
+     */
+    public LoudnessMeter(int sampleRate, int channelCount) {
+        if (sampleRate <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException("invalid format: " + sampleRate + "Hz, "
+                    + channelCount + " channels");
+        }
+
+        mChannelCount = channelCount;
+        mWeights = new double[channelCount];
+        for (int c = 0; c < channelCount; c++) {
+            mWeights[c] = 1.0;
+        }
+        if (channelCount == 6) {
+            mWeights[3] = 0.0;
+            mWeights[4] = 1.41;
+            mWeights[5] = 1.41;
+        }
+
+        double k = Math.tan(Math.PI * SHELF_FREQUENCY / sampleRate);
+        double vh = Math.pow(10.0, SHELF_GAIN_DB / 20.0);
+        double vb = Math.pow(vh, 0.4996667741545416);
+        double a0 = 1.0 + k / SHELF_Q + k * k;
+        mSb0 = (vh + vb * k / SHELF_Q + k * k) / a0;
+        mSb1 = 2.0 * (k * k - vh) / a0;
+        mSb2 = (vh - vb * k / SHELF_Q + k * k) / a0;
+        mSa1 = 2.0 * (k * k - 1.0) / a0;
+        mSa2 = (1.0 - k / SHELF_Q + k * k) / a0;
+
+        k = Math.tan(Math.PI * HIGH_PASS_FREQUENCY / sampleRate);
+        a0 = 1.0 + k / HIGH_PASS_Q + k * k;
+        mHa1 = 2.0 * (k * k - 1.0) / a0;
+        mHa2 = (1.0 - k / HIGH_PASS_Q + k * k) / a0;
+
+        mShelfZ1 = new double[channelCount];
+        mShelfZ2 = new double[channelCount];
+        mHighPassZ1 = new double[channelCount];
+        mHighPassZ2 = new double[channelCount];
+
+        mStepFrames = (int) Math.round(sampleRate * BLOCK_SECONDS / BLOCK_STEPS);
+    }
+
+    /**
+     * Measures interleaved PCM samples
+     *
+     * @param samples - samples, read from their position up to their limit, which are left
+     *                unchanged
+     */
+    public void process(ShortBuffer samples) {
+        int position = samples.position();
+        int frames = samples.remaining() / mChannelCount;
+
+        for (int f = 0; f < frames; f++) {
+            double energy = 0.0;
+            for (int c = 0, s = position + f * mChannelCount; c < mChannelCount; c++, s++) {
+                double x = samples.get(s) * PCM_TO_DOUBLE;
+
+                /* shelf then high pass, in transposed direct form II */
+                double y = mSb0 * x + mShelfZ1[c];
+                mShelfZ1[c] = mSb1 * x - mSa1 * y + mShelfZ2[c];
+                mShelfZ2[c] = mSb2 * x - mSa2 * y;
+
+                double z = y + mHighPassZ1[c];
+                mHighPassZ1[c] = -2.0 * y - mHa1 * z + mHighPassZ2[c];
+                mHighPassZ2[c] = y - mHa2 * z;
+
+                energy += mWeights[c] * z * z;
+            }
+
+            mStepEnergy += energy;
+            if (++mStepPosition == mStepFrames) {
+                endStep();
+            }
+        }
+    }
+
+    /**
+     * Measures interleaved PCM samples
+     */
+    public void process(short[] samples, int offset, int length) {
+        process(ShortBuffer.wrap(samples, offset, length));
+    }
+
+    /**
+     * @return the integrated loudness of the audio measured so far, in LUFS, or
+     * Float.NEGATIVE_INFINITY if it is silent or shorter than a gating block
+     */
+    public float getIntegratedLoudness() {
+        double sum = 0.0;
+        int count = 0;
+        for (int b = 0; b < HISTOGRAM_BINS; b++) {
+            sum += mBinEnergies[b];
+            count += mBinCounts[b];
+        }
+        if (count == 0) {
+            return Float.NEGATIVE_INFINITY;
+        }
+
+        double gate = toEnergy(toLoudness(sum / count) + RELATIVE_GATE_LU);
+        sum = 0.0;
+        count = 0;
+        for (int b = 0; b < HISTOGRAM_BINS; b++) {
+            if (mBinCounts[b] > 0 && mBinEnergies[b] / mBinCounts[b] > gate) {
+                sum += mBinEnergies[b];
+                count += mBinCounts[b];
+            }
+        }
+
+        return count > 0 ? (float) toLoudness(sum / count) : Float.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * @return the number of 400ms gating blocks measured
+     */
+    public int getBlockCount() {
+        return mBlockCount;
+    }
+
+    private void endStep() {
+        System.arraycopy(mSteps, 1, mSteps, 0, BLOCK_STEPS - 1);
+        mSteps[BLOCK_STEPS - 1] = mStepEnergy;
+        mStepEnergy = 0.0;
+        mStepPosition = 0;
+
+        if (++mStepCount < BLOCK_STEPS) {
+            return;
+        }
+
+        double energy = 0.0;
+        for (int s = 0; s < BLOCK_STEPS; s++) {
+            energy += mSteps[s];
+        }
+
+        energy /= mStepFrames * BLOCK_STEPS;
+        ++mBlockCount;
+        if (energy > mAbsoluteGate) {
+            int bin = (int) ((toLoudness(energy) - ABSOLUTE_GATE_LUFS) / HISTOGRAM_STEP_LU);
+            bin = Math.max(0, Math.min(HISTOGRAM_BINS - 1, bin));
+            mBinEnergies[bin] += energy;
+            ++mBinCounts[bin];
+        }
+    }
+
+    private static double toLoudness(double energy) {
+        return -0.691 + 10.0 * Math.log10(energy);
+    }
+
+    private static double toEnergy(double loudness) {
+        return Math.pow(10.0, (loudness + 0.691) / 10.0);
+    }
+}
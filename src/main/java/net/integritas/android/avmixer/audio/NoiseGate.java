@@ -0,0 +1,125 @@
+package net.integritas.android.avmixer.audio;
+
+/**
+ * <p>
+ *  Noise gate: attenuates the track while its level stays below a threshold, e.g. to silence
+ *  the background hiss of a voice-over between sentences. The level is the peak of all the
+ *  channels, so the channels are gated together.
+ * </p>
+ * <p>
+ *  The gate opens as soon as the level reaches the threshold, ramping up over the attack time,
+ *  stays open for the hold time after the level falls below it, then closes over the release
+ *  time down to the floor gain.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class NoiseGate implements AudioEffect {
+
+    public static final float DEFAULT_ATTACK_MS = 1.0f;
+    public static final float DEFAULT_HOLD_MS = 50.0f;
+    public static final float DEFAULT_RELEASE_MS = 100.0f;
+    public static final float DEFAULT_FLOOR_DB = -80.0f;
+
+    private final float mThreshold;
+    private final float mAttackMs;
+    private final float mHoldMs;
+    private final float mReleaseMs;
+    private final float mFloor;
+
+    private float mAttackCoefficient;
+    private float mReleaseCoefficient;
+    private int mHoldFrames;
+
+    private float mGain;
+    private int mHoldCounter;
+
+    /**
+     * Creates a gate with the default timings and floor
+     *
+     * @param thresholdDb - level under which the gate closes, in dBFS
+     */
+    public NoiseGate(float thresholdDb) {
+        this(thresholdDb, DEFAULT_ATTACK_MS, DEFAULT_HOLD_MS, DEFAULT_RELEASE_MS,
+                DEFAULT_FLOOR_DB);
+    }
+
+    /**
+     * @param thresholdDb - level under which the gate closes, in dBFS
+     * @param attackMs    - time the gate takes to open, in milliseconds
+     * @param holdMs      - time the gate stays open once the level fell below the threshold,
+     *                    in milliseconds
+     * @param releaseMs   - time the gate takes to close, in milliseconds
+     * @param floorDb     - gain of the closed gate, in dB
+     */
+    public NoiseGate(float thresholdDb, float attackMs, float holdMs, float releaseMs,
+                     float floorDb) {
+        mThreshold = dbToGain(thresholdDb);
+        mAttackMs = attackMs;
+        mHoldMs = holdMs;
+        mReleaseMs = releaseMs;
+        mFloor = dbToGain(floorDb);
+        mGain = mFloor;
+    }
+
+    @Override
+    public void prepare(int sampleRate, int channelCount) {
+        mAttackCoefficient = coefficient(mAttackMs, sampleRate);
+        mReleaseCoefficient = coefficient(mReleaseMs, sampleRate);
+        mHoldFrames = (int) (mHoldMs * sampleRate / 1000);
+        reset();
+    }
+
+    @Override
+    public void process(float[] block, int frames, int channels) {
+        float gain = mGain;
+        int holdCounter = mHoldCounter;
+
+        for (int f = 0, s = 0; f < frames; f++, s += channels) {
+            float level = 0.0f;
+            for (int c = 0; c < channels; c++) {
+                level = Math.max(level, Math.abs(block[s + c]));
+            }
+
+            if (level >= mThreshold) {
+                holdCounter = mHoldFrames + 1;
+            } else if (holdCounter > 0) {
+                --holdCounter;
+            }
+
+            /* one pole ramp to the open or closed gain */
+            if (holdCounter > 0) {
+                gain += (1.0f - gain) * mAttackCoefficient;
+            } else {
+                gain += (mFloor - gain) * mReleaseCoefficient;
+            }
+
+            for (int c = 0; c < channels; c++) {
+                block[s + c] *= gain;
+            }
+        }
+
+        mGain = gain;
+        mHoldCounter = holdCounter;
+    }
+
+    @Override
+    public void reset() {
+        mGain = mFloor;
+        mHoldCounter = 0;
+    }
+
+    /* coefficient of a one pole ramp reaching ~63% of its target after the given time */
+    private static float coefficient(float timeMs, int sampleRate) {
+        if (timeMs <= 0) {
+            return 1.0f;
+        }
+        return (float) (1.0 - Math.exp(-1000.0 / (timeMs * sampleRate)));
+    }
+
+    private static float dbToGain(float db) {
+        return (float) Math.pow(10, db / 20.0);
+    }
+}
@@ -0,0 +1,68 @@
+package net.integritas.android.avmixer.audio;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ *  Parametric equalizer: a cascade of {@link BiquadFilter} bands, e.g. a low shelf, a few
+ *  peaking bands and a high shelf.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class ParametricEqualizer implements AudioEffect {
+
+    private final ArrayList<BiquadFilter> mBands = new ArrayList<BiquadFilter>();
+    private BiquadFilter[] mRunning = new BiquadFilter[0];
+
+    /**
+     * Adds a band to the equalizer
+     *
+     * @return this equalizer
+     */
+    public ParametricEqualizer addBand(BiquadFilter band) {
+        mBands.add(band);
+        return this;
+    }
+
+    /**
+     * Adds a peaking band to the equalizer
+     *
+     * @param frequency - center frequency, in Hz
+     * @param q         - quality factor, the higher the narrower
+     * @param gainDb    - band gain, in dB
+     * @return this equalizer
+     */
+    public ParametricEqualizer addBand(float frequency, float q, float gainDb) {
+        return addBand(BiquadFilter.peaking(frequency, q, gainDb));
+    }
+
+    public List<BiquadFilter> getBands() {
+        return mBands;
+    }
+
+    @Override
+    public void prepare(int sampleRate, int channelCount) {
+        mRunning = mBands.toArray(new BiquadFilter[mBands.size()]);
+        for (BiquadFilter band : mRunning) {
+            band.prepare(sampleRate, channelCount);
+        }
+    }
+
+    @Override
+    public void process(float[] block, int frames, int channels) {
+        for (int i = 0; i < mRunning.length; i++) {
+            mRunning[i].process(block, frames, channels);
+        }
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < mRunning.length; i++) {
+            mRunning[i].reset();
+        }
+    }
+}
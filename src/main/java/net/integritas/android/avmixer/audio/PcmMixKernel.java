@@ -0,0 +1,478 @@
+package net.integritas.android.avmixer.audio;
+
+/**
+ * <p>
+ *  Mixes 16 bit PCM tracks into one output buffer. All tracks are accumulated, with their gains
+ *  applied, into a single accumulator and clipped once at the end, so a sample is only
+ *  distorted if the final mix overflows. The accumulator lives in a caller-owned {@link Scratch}
+ *  and the output buffer is provided by the caller, so mixing does not allocate in the
+ *  steady state.
+ * </p>
+ * <p>
+ *  Tracks with a channel layout different from the output are converted by their
+ *  {@link ChannelMatrix} inside the same accumulation loop, with the track gain folded into the
+ *  matrix coefficients.
+ * </p>
+ * <p>
+ *  Tracks may also carry a per-frame gain, e.g. a {@link GainEnvelope} evaluated for the block,
+ *  which is applied in the same accumulation loop on top of the track gain.
+ * </p>
+ * <p>
+ *  When a {@link LookAheadLimiter} is given, the accumulator goes through it instead of being
+ *  clipped, so an overflowing mix is brought under the limiter ceiling without distortion.
+ * </p>
+ * <p>
+ *  Three variants are available:
+ *  <ul>
+ *      <li>{@link Type#FLOAT} - float accumulator and gains. The default one.</li>
+ *      <li>{@link Type#FIXED_POINT} - int accumulator and Q14 gains, no floating point
+ *      operation inside the loop. For ARM devices without a fast FPU.</li>
+ *      <li>{@link Type#SCALAR} - reference implementation, mixing one sample at a time across
+ *      all tracks.</li>
+ *  </ul>
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public abstract class PcmMixKernel {
+
+    public enum Type {SCALAR, FIXED_POINT, FLOAT}
+
+    /**
+     * Creates a mix kernel of the given type
+     *
+     * @param type - kernel variant
+     * @return a stateless kernel, which can be shared between mixers
+     */
+    public static PcmMixKernel create(Type type) {
+        switch (type) {
+            case SCALAR:
+                return new ScalarMixKernel();
+            case FIXED_POINT:
+                return new FixedPointMixKernel();
+            case FLOAT:
+            default:
+                return new FloatMixKernel();
+        }
+    }
+
+    /**
+     * Mixes the tracks into out. All tracks and out must have the same channel layout.
+     *
+     * @param tracks     - PCM samples of each track
+     * @param lengths    - number of valid samples on each track. A track shorter than length is
+     *                   considered silent after its last sample
+     * @param gains      - gain of each track, 1.0f keeps the track level untouched
+     * @param trackCount - number of tracks to mix
+     * @param out        - destination of the mixed samples
+     * @param length     - number of samples to write on out
+     * @param scratch    - caller-owned accumulator
+     */
+    public void mix(short[][] tracks, int[] lengths, float[] gains, int trackCount,
+                    short[] out, int length, Scratch scratch) {
+        mix(tracks, lengths, null, gains, trackCount, out, length, 1, scratch);
+    }
+
+    /**
+     * Mixes the tracks into out, converting each track to the output channel layout with its
+     * channel matrix while its gain is applied.
+     *
+     * @param tracks     - interleaved PCM samples of each track
+     * @param frames     - number of valid frames on each track. A track shorter than length is
+     *                   considered silent after its last frame
+     * @param matrices   - channel matrix of each track, to the output layout. A null array or
+     *                   a null entry means the track already has the output layout
+     * @param gains      - gain of each track, 1.0f keeps the track level untouched
+     * @param trackCount - number of tracks to mix
+     * @param out        - destination of the mixed samples
+     * @param length     - number of frames to write on out
+     * @param channels   - channel count of out
+     * @param scratch    - caller-owned accumulator
+     */
+    public void mix(short[][] tracks, int[] frames, ChannelMatrix[] matrices, float[] gains,
+                    int trackCount, short[] out, int length, int channels, Scratch scratch) {
+        mix(tracks, frames, matrices, gains, null, trackCount, out, length, channels, scratch);
+    }
+
+    /**
+     * Mixes the tracks into out, converting each track to the output channel layout with its
+     * channel matrix while its gain and per-frame gains are applied.
+     *
+     * @param tracks     - interleaved PCM samples of each track
+     * @param frames     - number of valid frames on each track. A track shorter than length is
+     *                   considered silent after its last frame
+     * @param matrices   - channel matrix of each track, to the output layout. A null array or
+     *                   a null entry means the track already has the output layout
+     * @param gains      - gain of each track, 1.0f keeps the track level untouched
+     * @param envelopes  - gain of each frame of each track, applied on top of the track gain. A
+     *                   null array or a null entry means the track has a constant gain
+     * @param trackCount - number of tracks to mix
+     * @param out        - destination of the mixed samples
+     * @param length     - number of frames to write on out
+     * @param channels   - channel count of out
+     * @param scratch    - caller-owned accumulator
+     */
+    public void mix(short[][] tracks, int[] frames, ChannelMatrix[] matrices, float[] gains,
+                    float[][] envelopes, int trackCount, short[] out, int length, int channels,
+                    Scratch scratch) {
+        mix(tracks, frames, matrices, gains, envelopes, trackCount, out, length, channels,
+                scratch, null);
+    }
+
+    /**
+     * Mixes the tracks into out, converting each track to the output channel layout with its
+     * channel matrix while its gain and per-frame gains are applied, and limiting the mix.
+     *
+     * @param tracks     - interleaved PCM samples of each track
+     * @param frames     - number of valid frames on each track. A track shorter than length is
+     *                   considered silent after its last frame
+     * @param matrices   - channel matrix of each track, to the output layout. A null array or
+     *                   a null entry means the track already has the output layout
+     * @param gains      - gain of each track, 1.0f keeps the track level untouched
+     * @param envelopes  - gain of each frame of each track, applied on top of the track gain. A
+     *                   null array or a null entry means the track has a constant gain
+     * @param trackCount - number of tracks to mix
+     * @param out        - destination of the mixed samples, delayed by the limiter latency
+     * @param length     - number of frames to write on out
+     * @param channels   - channel count of out
+     * @param scratch    - caller-owned accumulator
+     * @param limiter    - limiter prepared for the output layout, or null to clip the mix
+     */
+    public abstract void mix(short[][] tracks, int[] frames, ChannelMatrix[] matrices,
+                             float[] gains, float[][] envelopes, int trackCount, short[] out,
+                             int length, int channels, Scratch scratch,
+                             LookAheadLimiter limiter);
+
+    static short clip(int value) {
+        if (value > Short.MAX_VALUE) return Short.MAX_VALUE;
+        if (value < Short.MIN_VALUE) return Short.MIN_VALUE;
+        return (short) value;
+    }
+
+    static short clip(float value) {
+        if (value > Short.MAX_VALUE) return Short.MAX_VALUE;
+        if (value < Short.MIN_VALUE) return Short.MIN_VALUE;
+        return (short) value;
+    }
+
+    static float[] envelope(float[][] envelopes, int track) {
+        return envelopes != null ? envelopes[track] : null;
+    }
+
+    static ChannelMatrix matrix(ChannelMatrix[] matrices, int track) {
+        if (matrices == null || matrices[track] == null || matrices[track].isIdentity()) {
+            return null;
+        }
+        return matrices[track];
+    }
+
+    /**
+     * Accumulators used by the kernels. Grows on demand, so after the first window it is
+     * reused without any further allocation.
+     */
+    public static final class Scratch {
+
+        private int[] mIntAccumulator = new int[0];
+        private float[] mFloatAccumulator = new float[0];
+        private int[] mIntCoefficients = new int[0];
+        private float[] mFloatCoefficients = new float[0];
+        private int[] mIntEnvelope = new int[0];
+
+        public Scratch() {
+        }
+
+        int[] intAccumulator(int length) {
+            if (mIntAccumulator.length < length) {
+                mIntAccumulator = new int[length];
+            }
+            return mIntAccumulator;
+        }
+
+        float[] floatAccumulator(int length) {
+            if (mFloatAccumulator.length < length) {
+                mFloatAccumulator = new float[length];
+            }
+            return mFloatAccumulator;
+        }
+
+        /**
+         * @return the matrix coefficients with the track gain already applied
+         */
+        float[] floatCoefficients(ChannelMatrix matrix, float gain) {
+            float[] coefficients = matrix.mCoefficients;
+            if (mFloatCoefficients.length < coefficients.length) {
+                mFloatCoefficients = new float[coefficients.length];
+            }
+            for (int i = 0; i < coefficients.length; i++) {
+                mFloatCoefficients[i] = coefficients[i] * gain;
+            }
+            return mFloatCoefficients;
+        }
+
+        /**
+         * @return the per-frame gains with the track gain already applied, in Q14
+         */
+        int[] intEnvelope(float[] envelope, float gain, int frames) {
+            if (mIntEnvelope.length < frames) {
+                mIntEnvelope = new int[frames];
+            }
+            for (int f = 0; f < frames; f++) {
+                mIntEnvelope[f] = FixedPointMixKernel.toFixedPoint(envelope[f] * gain);
+            }
+            return mIntEnvelope;
+        }
+
+        /**
+         * @return the matrix coefficients with the track gain already applied, in Q14
+         */
+        int[] intCoefficients(ChannelMatrix matrix, float gain) {
+            float[] coefficients = matrix.mCoefficients;
+            if (mIntCoefficients.length < coefficients.length) {
+                mIntCoefficients = new int[coefficients.length];
+            }
+            for (int i = 0; i < coefficients.length; i++) {
+                mIntCoefficients[i] = FixedPointMixKernel.toFixedPoint(coefficients[i] * gain);
+            }
+            return mIntCoefficients;
+        }
+    }
+
+    private static final class FloatMixKernel extends PcmMixKernel {
+
+        @Override
+        public void mix(short[][] tracks, int[] frames, ChannelMatrix[] matrices, float[] gains,
+                        float[][] envelopes, int trackCount, short[] out, int length,
+                        int channels, Scratch scratch, LookAheadLimiter limiter) {
+            int samples = length * channels;
+            float[] acc = scratch.floatAccumulator(samples);
+            for (int i = 0; i < samples; i++) {
+                acc[i] = 0.0f;
+            }
+
+            for (int x = 0; x < trackCount; x++) {
+                short[] track = tracks[x];
+                int n = Math.min(frames[x], length);
+                ChannelMatrix matrix = matrix(matrices, x);
+                float[] envelope = envelope(envelopes, x);
+
+                if (envelope != null) {
+                    mixEnvelope(track, n, matrix, gains[x], envelope, acc, channels, scratch);
+                } else if (matrix == null) {
+                    float gain = gains[x];
+                    n *= channels;
+                    for (int i = 0; i < n; i++) {
+                        acc[i] += track[i] * gain;
+                    }
+                } else if (matrix.getInputChannels() == 1) {
+                    float[] c = scratch.floatCoefficients(matrix, gains[x]);
+                    for (int f = 0, o = 0; f < n; f++) {
+                        float sample = track[f];
+                        for (int k = 0; k < channels; k++) {
+                            acc[o++] += sample * c[k];
+                        }
+                    }
+                } else {
+                    float[] c = scratch.floatCoefficients(matrix, gains[x]);
+                    int in = matrix.getInputChannels();
+                    for (int f = 0, s = 0, o = 0; f < n; f++, s += in) {
+                        for (int k = 0, row = 0; k < channels; k++, row += in) {
+                            float sum = 0.0f;
+                            for (int j = 0; j < in; j++) {
+                                sum += track[s + j] * c[row + j];
+                            }
+                            acc[o++] += sum;
+                        }
+                    }
+                }
+            }
+
+            if (limiter != null) {
+                limiter.process(acc, out, length);
+                return;
+            }
+
+            // hard clipping, once
+            for (int i = 0; i < samples; i++) {
+                out[i] = clip(acc[i]);
+            }
+        }
+
+        private static void mixEnvelope(short[] track, int n, ChannelMatrix matrix, float gain,
+                                        float[] envelope, float[] acc, int channels,
+                                        Scratch scratch) {
+            if (matrix == null) {
+                for (int f = 0, o = 0; f < n; f++) {
+                    float g = gain * envelope[f];
+                    for (int k = 0; k < channels; k++, o++) {
+                        acc[o] += track[o] * g;
+                    }
+                }
+            } else {
+                float[] c = scratch.floatCoefficients(matrix, gain);
+                int in = matrix.getInputChannels();
+                for (int f = 0, s = 0, o = 0; f < n; f++, s += in) {
+                    float g = envelope[f];
+                    for (int k = 0, row = 0; k < channels; k++, row += in) {
+                        float sum = 0.0f;
+                        for (int j = 0; j < in; j++) {
+                            sum += track[s + j] * c[row + j];
+                        }
+                        acc[o++] += sum * g;
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class FixedPointMixKernel extends PcmMixKernel {
+
+        /* Q14 gains, multiplied in a long so gains above 4.0, e.g. a loudness normalization
+           gain, are not clamped. Up to 256.0, the int accumulator holds 256 full scale tracks */
+        private static final int GAIN_SHIFT = 14;
+        private static final int MAX_GAIN = 256 << GAIN_SHIFT;
+        private static final long ROUNDING = 1 << (GAIN_SHIFT - 1);
+
+        @Override
+        public void mix(short[][] tracks, int[] frames, ChannelMatrix[] matrices, float[] gains,
+                        float[][] envelopes, int trackCount, short[] out, int length,
+                        int channels, Scratch scratch, LookAheadLimiter limiter) {
+            int samples = length * channels;
+            int[] acc = scratch.intAccumulator(samples);
+            for (int i = 0; i < samples; i++) {
+                acc[i] = 0;
+            }
+
+            for (int x = 0; x < trackCount; x++) {
+                short[] track = tracks[x];
+                int n = Math.min(frames[x], length);
+                ChannelMatrix matrix = matrix(matrices, x);
+                float[] envelope = envelope(envelopes, x);
+
+                if (envelope != null) {
+                    mixEnvelope(track, n, matrix, gains[x], envelope, acc, channels, scratch);
+                } else if (matrix == null) {
+                    int gain = toFixedPoint(gains[x]);
+                    n *= channels;
+                    if (gain == 1 << GAIN_SHIFT) {
+                        for (int i = 0; i < n; i++) {
+                            acc[i] += track[i];
+                        }
+                    } else {
+                        for (int i = 0; i < n; i++) {
+                            acc[i] += scale(track[i], gain);
+                        }
+                    }
+                } else {
+                    int[] c = scratch.intCoefficients(matrix, gains[x]);
+                    int in = matrix.getInputChannels();
+                    for (int f = 0, s = 0, o = 0; f < n; f++, s += in) {
+                        for (int k = 0, row = 0; k < channels; k++, row += in) {
+                            int sum = 0;
+                            for (int j = 0; j < in; j++) {
+                                sum += scale(track[s + j], c[row + j]);
+                            }
+                            acc[o++] += sum;
+                        }
+                    }
+                }
+            }
+
+            if (limiter != null) {
+                limiter.process(acc, out, length);
+                return;
+            }
+
+            // hard clipping, once
+            for (int i = 0; i < samples; i++) {
+                out[i] = clip(acc[i]);
+            }
+        }
+
+        private static void mixEnvelope(short[] track, int n, ChannelMatrix matrix, float gain,
+                                        float[] envelope, int[] acc, int channels,
+                                        Scratch scratch) {
+            int[] e = scratch.intEnvelope(envelope, gain, n);
+            if (matrix == null) {
+                for (int f = 0, o = 0; f < n; f++) {
+                    int g = e[f];
+                    for (int k = 0; k < channels; k++, o++) {
+                        acc[o] += scale(track[o], g);
+                    }
+                }
+            } else {
+                int[] c = scratch.intCoefficients(matrix, 1.0f);
+                int in = matrix.getInputChannels();
+                for (int f = 0, s = 0, o = 0; f < n; f++, s += in) {
+                    int g = e[f];
+                    for (int k = 0, row = 0; k < channels; k++, row += in) {
+                        int sum = 0;
+                        for (int j = 0; j < in; j++) {
+                            sum += scale(track[s + j], c[row + j]);
+                        }
+                        acc[o++] += scale(sum, g);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return value * gain, rounded to the nearest integer so the mix has no DC bias
+         */
+        private static int scale(int value, int gain) {
+            return (int) ((value * (long) gain + ROUNDING) >> GAIN_SHIFT);
+        }
+
+        /* signed, as channel matrix coefficients may flip the phase */
+        static int toFixedPoint(float gain) {
+            int fixed = Math.round(gain * (1 << GAIN_SHIFT));
+            if (fixed < -MAX_GAIN) return -MAX_GAIN;
+            if (fixed > MAX_GAIN) return MAX_GAIN;
+            return fixed;
+        }
+    }
+
+    private static final class ScalarMixKernel extends PcmMixKernel {
+
+        @Override
+        public void mix(short[][] tracks, int[] frames, ChannelMatrix[] matrices, float[] gains,
+                        float[][] envelopes, int trackCount, short[] out, int length,
+                        int channels, Scratch scratch, LookAheadLimiter limiter) {
+            int[] mixed = limiter != null ? scratch.intAccumulator(length * channels) : null;
+            for (int f = 0; f < length; f++) {
+                for (int k = 0; k < channels; k++) {
+                    int acc = 0;
+                    for (int x = 0; x < trackCount; x++) {
+                        if (f >= frames[x]) {
+                            continue;
+                        }
+
+                        float[] envelope = envelope(envelopes, x);
+                        float gain = envelope != null ? gains[x] * envelope[f] : gains[x];
+                        ChannelMatrix matrix = matrix(matrices, x);
+                        if (matrix == null) {
+                            acc += (int) (tracks[x][f * channels + k] * gain);
+                        } else {
+                            int in = matrix.getInputChannels();
+                            for (int j = 0; j < in; j++) {
+                                acc += (int) (tracks[x][f * in + j] * matrix.get(k, j) * gain);
+                            }
+                        }
+                    }
+
+                    if (mixed != null) {
+                        mixed[f * channels + k] = acc;
+                    } else {
+                        // hard clipping, once
+                        out[f * channels + k] = clip(acc);
+                    }
+                }
+            }
+
+            if (mixed != null) {
+                limiter.process(mixed, out, length);
+            }
+        }
+    }
+}
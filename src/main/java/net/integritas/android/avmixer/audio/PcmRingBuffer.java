@@ -0,0 +1,148 @@
+package net.integritas.android.avmixer.audio;
+
+import java.nio.ShortBuffer;
+
+/**
+ * <p>
+ *  Fixed-size ring buffer of 16 bit PCM samples. Used by the streaming audio mixer to hold
+ *  the decoded samples of a single track until they are consumed by the mixing window, so
+ *  the memory used by a track depends on the buffer capacity and not on the track length.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class PcmRingBuffer {
+
+    private short[] mBuffer;
+    private int mReadPos;
+    private int mAvailable;
+
+    /**
+     * Creates a ring buffer able to hold up to capacity samples
+     *
+     * @param capacity - number of samples (not frames) the buffer can hold
+     */
+    public PcmRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("invalid ring buffer capacity: " + capacity);
+        }
+
+        mBuffer = new short[capacity];
+    }
+
+    public int capacity() {
+        return mBuffer.length;
+    }
+
+    /**
+     * @return number of samples ready to be read
+     */
+    public int available() {
+        return mAvailable;
+    }
+
+    /**
+     * @return number of samples that can still be written without overwriting unread data
+     */
+    public int free() {
+        return mBuffer.length - mAvailable;
+    }
+
+    public boolean isEmpty() {
+        return mAvailable == 0;
+    }
+
+    /**
+     * Grows the buffer, keeping the unread samples, if it is smaller than the given capacity.
+     * Only expected to happen when a decoder outputs a chunk bigger than any previous one.
+     *
+     * @param capacity - minimum capacity in samples
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity <= mBuffer.length) {
+            return;
+        }
+
+        short[] buffer = new short[capacity];
+        int count = mAvailable;
+        read(buffer, 0, count);
+        mBuffer = buffer;
+        mReadPos = 0;
+        mAvailable = count;
+    }
+
+    /**
+     * Copies count samples from the source buffer, usually a decoder output buffer view,
+     * into the ring buffer.
+     *
+     * @param src   - samples source, its position is advanced by count
+     * @param count - number of samples to copy
+     */
+    public void write(ShortBuffer src, int count) {
+        if (count > free()) {
+            throw new IllegalStateException("ring buffer overflow: " + count
+                    + " samples written with " + free() + " free");
+        }
+
+        int writePos = (mReadPos + mAvailable) % mBuffer.length;
+        int first = Math.min(count, mBuffer.length - writePos);
+        src.get(mBuffer, writePos, first);
+        if (count > first) {
+            src.get(mBuffer, 0, count - first);
+        }
+
+        mAvailable += count;
+    }
+
+    /**
+     * Copies count samples from the source array into the ring buffer.
+     *
+     * @param src    - samples source
+     * @param offset - first sample to copy from src
+     * @param count  - number of samples to copy
+     */
+    public void write(short[] src, int offset, int count) {
+        if (count > free()) {
+            throw new IllegalStateException("ring buffer overflow: " + count
+                    + " samples written with " + free() + " free");
+        }
+
+        int writePos = (mReadPos + mAvailable) % mBuffer.length;
+        int first = Math.min(count, mBuffer.length - writePos);
+        System.arraycopy(src, offset, mBuffer, writePos, first);
+        if (count > first) {
+            System.arraycopy(src, offset + first, mBuffer, 0, count - first);
+        }
+
+        mAvailable += count;
+    }
+
+    /**
+     * Moves up to count samples from the ring buffer into the destination array.
+     *
+     * @param dst    - destination array
+     * @param offset - first position to fill in dst
+     * @param count  - maximum number of samples to read
+     * @return the number of samples actually read
+     */
+    public int read(short[] dst, int offset, int count) {
+        int toRead = Math.min(count, mAvailable);
+        int first = Math.min(toRead, mBuffer.length - mReadPos);
+        System.arraycopy(mBuffer, mReadPos, dst, offset, first);
+        if (toRead > first) {
+            System.arraycopy(mBuffer, 0, dst, offset + first, toRead - first);
+        }
+
+        mReadPos = (mReadPos + toRead) % mBuffer.length;
+        mAvailable -= toRead;
+
+        return toRead;
+    }
+
+    public void clear() {
+        mReadPos = 0;
+        mAvailable = 0;
+    }
+}
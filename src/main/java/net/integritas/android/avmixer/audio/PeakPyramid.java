@@ -0,0 +1,297 @@
+package net.integritas.android.avmixer.audio;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>
+ *  Waveform overview of an audio file: the minimum and maximum sample of every block of
+ *  {@link #BASE_FRAMES} frames, all channels together, plus coarser levels each merging two
+ *  blocks of the level below, down to a single block. A waveform of any width is drawn from
+ *  the coarsest level which still has enough blocks, so drawing does not depend on the audio
+ *  length.
+ * </p>
+ * <p>
+ *  Only the finest level is stored by {@link #writeTo(OutputStream)}, the coarser ones are
+ *  rebuilt when reading it back.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public final class PeakPyramid {
+
+    /**
+     * Number of frames of each block of the finest level
+     */
+    public static final int BASE_FRAMES = 256;
+
+    private static final int MAGIC = 0x504B5331; // "PKS1"
+
+    private final int mSampleRate;
+    private final int mChannelCount;
+    private final long mFrameCount;
+
+    /* min and max of each block, per level */
+    private final short[][] mMins;
+    private final short[][] mMaxs;
+
+    private PeakPyramid(int sampleRate, int channelCount, long frameCount, short[] mins,
+                        short[] maxs) {
+        mSampleRate = sampleRate;
+        mChannelCount = channelCount;
+        mFrameCount = frameCount;
+
+        int levels = 1;
+        for (int count = mins.length; count > 1; count = (count + 1) / 2) {
+            ++levels;
+        }
+
+        mMins = new short[levels][];
+        mMaxs = new short[levels][];
+        mMins[0] = mins;
+        mMaxs[0] = maxs;
+        for (int l = 1; l < levels; l++) {
+            short[] finerMins = mMins[l - 1];
+            short[] finerMaxs = mMaxs[l - 1];
+            int count = (finerMins.length + 1) / 2;
+            mMins[l] = new short[count];
+            mMaxs[l] = new short[count];
+            for (int i = 0; i < count; i++) {
+                int a = 2 * i;
+                int b = Math.min(a + 1, finerMins.length - 1);
+                mMins[l][i] = (short) Math.min(finerMins[a], finerMins[b]);
+                mMaxs[l][i] = (short) Math.max(finerMaxs[a], finerMaxs[b]);
+            }
+        }
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    /**
+     * @return the number of frames of the audio file
+     */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    public int getLevelCount() {
+        return mMins.length;
+    }
+
+    /**
+     * @return the number of frames of each block of a level
+     */
+    public long getFramesPerPeak(int level) {
+        return (long) BASE_FRAMES << level;
+    }
+
+    /**
+     * @return the number of blocks of a level
+     */
+    public int getPeakCount(int level) {
+        return mMins[level].length;
+    }
+
+    public short getMin(int level, int index) {
+        return mMins[level][index];
+    }
+
+    public short getMax(int level, int index) {
+        return mMaxs[level][index];
+    }
+
+    /**
+     * Computes the waveform of a part of the audio file, e.g. one peak per pixel
+     *
+     * @param startFrame - first frame of the part
+     * @param endFrame   - frame after the last one of the part
+     * @param mins       - destination of the minimum sample of each peak
+     * @param maxs       - destination of the maximum sample of each peak
+     * @param count      - number of peaks to compute
+     */
+    public void getPeaks(long startFrame, long endFrame, short[] mins, short[] maxs,
+                         int count) {
+        double framesPerPeak = (double) (endFrame - startFrame) / count;
+
+        /* coarsest level with blocks no longer than a peak */
+        int level = 0;
+        while (level + 1 < mMins.length && getFramesPerPeak(level + 1) <= framesPerPeak) {
+            ++level;
+        }
+        long blockFrames = getFramesPerPeak(level);
+        short[] levelMins = mMins[level];
+        short[] levelMaxs = mMaxs[level];
+
+        for (int p = 0; p < count; p++) {
+            long from = startFrame + (long) (p * framesPerPeak);
+            long to = startFrame + (long) ((p + 1) * framesPerPeak);
+            int first = (int) Math.max(0, from / blockFrames);
+            int last = (int) Math.min(levelMins.length - 1,
+                    Math.max(first, (to - 1) / blockFrames));
+
+            short min = 0;
+            short max = 0;
+            if (first < levelMins.length && from < mFrameCount && to > 0) {
+                min = Short.MAX_VALUE;
+                max = Short.MIN_VALUE;
+                for (int b = first; b <= last; b++) {
+                    min = (short) Math.min(min, levelMins[b]);
+                    max = (short) Math.max(max, levelMaxs[b]);
+                }
+            }
+            mins[p] = min;
+            maxs[p] = max;
+        }
+    }
+
+    /**
+     * Writes the finest level, in a compact binary form
+     */
+    public void writeTo(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(mSampleRate);
+        out.writeInt(mChannelCount);
+        out.writeLong(mFrameCount);
+
+        short[] mins = mMins[0];
+        short[] maxs = mMaxs[0];
+        out.writeInt(mins.length);
+        byte[] buffer = new byte[mins.length * 4];
+        for (int i = 0, b = 0; i < mins.length; i++) {
+            buffer[b++] = (byte) (mins[i] >> 8);
+            buffer[b++] = (byte) mins[i];
+            buffer[b++] = (byte) (maxs[i] >> 8);
+            buffer[b++] = (byte) maxs[i];
+        }
+        out.write(buffer);
+        out.flush();
+    }
+
+    /**
+     * Reads a waveform written by writeTo()
+     */
+    public static PeakPyramid readFrom(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a waveform");
+        }
+        int sampleRate = in.readInt();
+        int channelCount = in.readInt();
+        long frameCount = in.readLong();
+        int count = in.readInt();
+        if (count < 0 || count != (frameCount + BASE_FRAMES - 1) / BASE_FRAMES) {
+            throw new IOException("corrupted waveform");
+        }
+
+        byte[] buffer = new byte[count * 4];
+        in.readFully(buffer);
+        short[] mins = new short[count];
+        short[] maxs = new short[count];
+        for (int i = 0, b = 0; i < count; i++, b += 4) {
+            mins[i] = (short) ((buffer[b] << 8) | (buffer[b + 1] & 0xFF));
+            maxs[i] = (short) ((buffer[b + 2] << 8) | (buffer[b + 3] & 0xFF));
+        }
+
+        return new PeakPyramid(sampleRate, channelCount, frameCount, mins, maxs);
+    }
+
+    /**
+     * Builds a waveform from the samples of an audio file, as they are decoded
+     */
+    public static final class Builder {
+
+        private final int mSampleRate;
+        private final int mChannelCount;
+        private long mFrameCount;
+
+        private short[] mMins = new short[1024];
+        private short[] mMaxs = new short[1024];
+        private int mCount;
+
+        /* state of the block being filled */
+        private int mBlockSamples;
+        private short mMin = Short.MAX_VALUE;
+        private short mMax = Short.MIN_VALUE;
+
+        public Builder(int sampleRate, int channelCount) {
+            mSampleRate = sampleRate;
+            mChannelCount = channelCount;
+        }
+
+        public int getSampleRate() {
+            return mSampleRate;
+        }
+
+        public int getChannelCount() {
+            return mChannelCount;
+        }
+
+        /**
+         * Adds interleaved samples
+         *
+         * @param samples - samples, from their position. The position is not moved.
+         * @param count   - number of samples to add
+         */
+        public void add(ShortBuffer samples, int count) {
+            int blockSamples = BASE_FRAMES * mChannelCount;
+            int position = samples.position();
+            short min = mMin;
+            short max = mMax;
+
+            for (int s = 0; s < count; s++) {
+                short sample = samples.get(position + s);
+                if (sample < min) min = sample;
+                if (sample > max) max = sample;
+
+                if (++mBlockSamples == blockSamples) {
+                    endBlock(min, max);
+                    min = Short.MAX_VALUE;
+                    max = Short.MIN_VALUE;
+                }
+            }
+
+            mMin = min;
+            mMax = max;
+            mFrameCount += count / mChannelCount;
+        }
+
+        /**
+         * @return the waveform of the samples added so far
+         */
+        public PeakPyramid build() {
+            short[] mins = Arrays.copyOf(mMins, mCount + (mBlockSamples > 0 ? 1 : 0));
+            short[] maxs = Arrays.copyOf(mMaxs, mins.length);
+            if (mBlockSamples > 0) {
+                /* the last block is partial */
+                mins[mCount] = mMin;
+                maxs[mCount] = mMax;
+            }
+            return new PeakPyramid(mSampleRate, mChannelCount, mFrameCount, mins, maxs);
+        }
+
+        private void endBlock(short min, short max) {
+            if (mCount == mMins.length) {
+                mMins = Arrays.copyOf(mMins, mCount * 2);
+                mMaxs = Arrays.copyOf(mMaxs, mCount * 2);
+            }
+            mMins[mCount] = min;
+            mMaxs[mCount] = max;
+            ++mCount;
+            mBlockSamples = 0;
+        }
+    }
+}
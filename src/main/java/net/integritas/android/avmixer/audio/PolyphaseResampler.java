@@ -0,0 +1,260 @@
+package net.integritas.android.avmixer.audio;
+
+import java.nio.ShortBuffer;
+
+/**
+ * <p>
+ *  Streaming sample rate converter for interleaved 16 bit PCM. The conversion ratio is reduced
+ *  to L/M (output rate / input rate) and every output frame is computed from a windowed sinc
+ *  filter phase picked from a table precomputed on construction, so the per sample work is
+ *  only a short dot product.
+ * </p>
+ * <p>
+ *  Input is processed block by block, keeping the filter history between blocks. The internal
+ *  buffer only grows when a block bigger than any previous one is processed, so the steady
+ *  state does not allocate.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class PolyphaseResampler {
+
+    /**
+     * Conversion quality. Higher qualities use longer filters and more filter phases.
+     */
+    public enum Quality {
+        LOW(8, 32), MEDIUM(16, 128), HIGH(32, 256);
+
+        final int taps;
+        final int phases;
+
+        Quality(int taps, int phases) {
+            this.taps = taps;
+            this.phases = phases;
+        }
+    }
+
+    /* keeps the filter cutoff a bit below Nyquist to leave room for the transition band */
+    private static final double ROLLOFF = 0.92;
+
+    private final int mInputRate;
+    private final int mOutputRate;
+    private final int mChannelCount;
+    private final int mTaps;
+    private final int mPhases;
+
+    /* L / M: output frames are taken every M / L input frames */
+    private final int mUp;
+    private final int mDown;
+
+    /* mPhases * mTaps coefficients, one row per filter phase */
+    private final float[] mFilter;
+
+    /* interleaved input history plus the current block */
+    private short[] mBuffer;
+    private int mBufferedFrames;
+
+    /* position of the next output frame on mBuffer, in 1 / mUp input frames */
+    private long mPosition;
+
+    public PolyphaseResampler(int inputRate, int outputRate, int channelCount, Quality quality) {
+        if (inputRate <= 0 || outputRate <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException("invalid resampler format: " + inputRate + "Hz -> "
+                    + outputRate + "Hz, " + channelCount + " channel(s)");
+        }
+
+        int gcd = gcd(inputRate, outputRate);
+
+        mInputRate = inputRate;
+        mOutputRate = outputRate;
+        mChannelCount = channelCount;
+        mTaps = quality.taps;
+        mUp = outputRate / gcd;
+        mDown = inputRate / gcd;
+        mPhases = Math.min(mUp, quality.phases);
+        mFilter = createFilter(mTaps, mPhases, Math.min(1.0, (double) mUp / mDown) * ROLLOFF);
+
+        mBuffer = new short[mTaps * 2 * channelCount];
+        reset();
+    }
+
+    public int getInputRate() {
+        return mInputRate;
+    }
+
+    public int getOutputRate() {
+        return mOutputRate;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    /**
+     * Drops the filter history, so the next block is processed as the start of a new stream
+     */
+    public void reset() {
+        /* half a filter of silence, so the first output frame is centered on the first input */
+        mBufferedFrames = mTaps / 2 - 1;
+        for (int i = 0; i < mBufferedFrames * mChannelCount; i++) {
+            mBuffer[i] = 0;
+        }
+        mPosition = 0;
+    }
+
+    /**
+     * @return the maximum number of samples process() can write for the given input samples
+     */
+    public int getMaxOutputSamples(int inputSamples) {
+        long frames = (long) (inputSamples / mChannelCount + mTaps) * mUp / mDown + 1;
+        return (int) frames * mChannelCount;
+    }
+
+    /**
+     * Resamples a block of interleaved samples
+     *
+     * @param in        - input samples, its position is advanced by inSamples
+     * @param inSamples - number of input samples (frames * channels)
+     * @param out       - destination, must hold at least getMaxOutputSamples(inSamples)
+     * @param outOffset - first position to fill in out
+     * @return the number of samples written to out
+     */
+    public int process(ShortBuffer in, int inSamples, short[] out, int outOffset) {
+        int frames = inSamples / mChannelCount;
+        ensureBufferFrames(mBufferedFrames + frames);
+        in.get(mBuffer, mBufferedFrames * mChannelCount, frames * mChannelCount);
+        mBufferedFrames += frames;
+
+        return filter(out, outOffset);
+    }
+
+    /**
+     * Resamples a block of interleaved samples
+     *
+     * @see #process(ShortBuffer, int, short[], int)
+     */
+    public int process(short[] in, int inOffset, int inSamples, short[] out, int outOffset) {
+        int frames = inSamples / mChannelCount;
+        ensureBufferFrames(mBufferedFrames + frames);
+        System.arraycopy(in, inOffset, mBuffer, mBufferedFrames * mChannelCount,
+                frames * mChannelCount);
+        mBufferedFrames += frames;
+
+        return filter(out, outOffset);
+    }
+
+    /**
+     * Pushes the last input frames through the filter at the end of the stream
+     *
+     * @param out       - destination, must hold at least getMaxOutputSamples(0)
+     * @param outOffset - first position to fill in out
+     * @return the number of samples written to out
+     */
+    public int flush(short[] out, int outOffset) {
+        int tail = mTaps / 2;
+        ensureBufferFrames(mBufferedFrames + tail);
+        for (int i = mBufferedFrames * mChannelCount; i < (mBufferedFrames + tail) * mChannelCount; i++) {
+            mBuffer[i] = 0;
+        }
+        mBufferedFrames += tail;
+
+        int written = filter(out, outOffset);
+        reset();
+
+        return written;
+    }
+
+    private int filter(short[] out, int outOffset) {
+        final int channels = mChannelCount;
+        final int taps = mTaps;
+        final short[] buffer = mBuffer;
+        final float[] filter = mFilter;
+
+        int o = outOffset;
+        long position = mPosition;
+        int base = (int) (position / mUp);
+
+        while (base + taps <= mBufferedFrames) {
+            int phase = (int) ((position % mUp) * mPhases / mUp);
+            int coefficients = phase * taps;
+
+            for (int c = 0; c < channels; c++) {
+                float acc = 0.0f;
+                int s = base * channels + c;
+                for (int k = 0; k < taps; k++) {
+                    acc += buffer[s] * filter[coefficients + k];
+                    s += channels;
+                }
+
+                out[o++] = PcmMixKernel.clip(acc);
+            }
+
+            position += mDown;
+            base = (int) (position / mUp);
+        }
+
+        /* discards the frames no later output frame depends on */
+        int consumed = Math.min(base, mBufferedFrames);
+        if (consumed > 0) {
+            System.arraycopy(buffer, consumed * channels, buffer, 0,
+                    (mBufferedFrames - consumed) * channels);
+            mBufferedFrames -= consumed;
+            position -= (long) consumed * mUp;
+        }
+        mPosition = position;
+
+        return o - outOffset;
+    }
+
+    private void ensureBufferFrames(int frames) {
+        if (frames * mChannelCount > mBuffer.length) {
+            short[] buffer = new short[frames * mChannelCount];
+            System.arraycopy(mBuffer, 0, buffer, 0, mBufferedFrames * mChannelCount);
+            mBuffer = buffer;
+        }
+    }
+
+    /**
+     * Builds the Blackman windowed sinc filter table. Each phase row is normalized to unity
+     * gain so a constant signal keeps its level whatever the phase is.
+     */
+    private static float[] createFilter(int taps, int phases, double cutoff) {
+        float[] filter = new float[taps * phases];
+        double halfLength = taps / 2.0;
+
+        for (int p = 0; p < phases; p++) {
+            double fraction = (double) p / phases;
+            double sum = 0;
+
+            for (int k = 0; k < taps; k++) {
+                double d = (k - (taps / 2 - 1)) - fraction;
+                double x = Math.PI * cutoff * d;
+                double sinc = d == 0 ? 1.0 : Math.sin(x) / x;
+                double w = Math.abs(d) >= halfLength ? 0.0
+                        : 0.42 + 0.5 * Math.cos(Math.PI * d / halfLength)
+                        + 0.08 * Math.cos(2 * Math.PI * d / halfLength);
+                double h = cutoff * sinc * w;
+
+                filter[p * taps + k] = (float) h;
+                sum += h;
+            }
+
+            for (int k = 0; k < taps; k++) {
+                filter[p * taps + k] /= sum;
+            }
+        }
+
+        return filter;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
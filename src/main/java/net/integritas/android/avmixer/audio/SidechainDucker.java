@@ -0,0 +1,175 @@
+package net.integritas.android.avmixer.audio;
+
+/**
+ * <p>
+ *  Sidechain ducking: lowers the level of the bed tracks (e.g. background music) while the
+ *  voice tracks (e.g. a voice-over) are active, so the voice stays intelligible without any
+ *  hand-tuned volume.
+ * </p>
+ * <p>
+ *  The voice level, the peak of all the voice tracks, is followed by an envelope follower.
+ *  While it is above the threshold the bed gain ramps down to the ducking depth over the attack
+ *  time; once the voice has been quiet for the hold time it ramps back up over the release
+ *  time. The ducker works block by block on the windows being mixed, producing the bed gain of
+ *  each frame, so no analysis pass over the tracks is needed.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class SidechainDucker {
+
+    public static final float DEFAULT_THRESHOLD_DB = -40.0f;
+    public static final float DEFAULT_DEPTH_DB = -12.0f;
+    public static final float DEFAULT_ATTACK_MS = 50.0f;
+    public static final float DEFAULT_HOLD_MS = 250.0f;
+    public static final float DEFAULT_RELEASE_MS = 500.0f;
+
+    /* envelope follower of the voice level */
+    private static final float DETECTOR_ATTACK_MS = 1.0f;
+    private static final float DETECTOR_RELEASE_MS = 50.0f;
+
+    private final float mThreshold;
+    private final float mDepth;
+    private final float mAttackMs;
+    private final float mHoldMs;
+    private final float mReleaseMs;
+
+    private float mAttackCoefficient;
+    private float mReleaseCoefficient;
+    private float mDetectorAttack;
+    private float mDetectorRelease;
+    private int mHoldFrames;
+
+    private float mLevel;
+    private float mGain = 1.0f;
+    private int mHoldCounter;
+    private float mMinGain = 1.0f;
+
+    /**
+     * Creates a ducker with the default settings
+     */
+    public SidechainDucker() {
+        this(DEFAULT_THRESHOLD_DB, DEFAULT_DEPTH_DB, DEFAULT_ATTACK_MS, DEFAULT_HOLD_MS,
+                DEFAULT_RELEASE_MS);
+    }
+
+    /**
+     * @param thresholdDb - voice level above which the bed is ducked, in dBFS
+     * @param depthDb     - gain of the ducked bed, in dB (e.g. -12)
+     * @param attackMs    - time the bed takes to duck, in milliseconds
+     * @param holdMs      - time the bed stays ducked once the voice is quiet, in milliseconds
+     * @param releaseMs   - time the bed takes to come back, in milliseconds
+     */
+    public SidechainDucker(float thresholdDb, float depthDb, float attackMs, float holdMs,
+                           float releaseMs) {
+        if (depthDb > 0) {
+            throw new IllegalArgumentException("invalid ducking depth: " + depthDb + "dB");
+        }
+
+        mThreshold = (float) Math.pow(10, thresholdDb / 20.0) * Short.MAX_VALUE;
+        mDepth = (float) Math.pow(10, depthDb / 20.0);
+        mAttackMs = attackMs;
+        mHoldMs = holdMs;
+        mReleaseMs = releaseMs;
+    }
+
+    /**
+     * Sets the ducker up for a sample rate and clears its state. Must be called before the
+     * first block.
+     */
+    public void prepare(int sampleRate) {
+        mAttackCoefficient = coefficient(mAttackMs, sampleRate);
+        mReleaseCoefficient = coefficient(mReleaseMs, sampleRate);
+        mDetectorAttack = coefficient(DETECTOR_ATTACK_MS, sampleRate);
+        mDetectorRelease = coefficient(DETECTOR_RELEASE_MS, sampleRate);
+        mHoldFrames = (int) (mHoldMs * sampleRate / 1000);
+
+        mLevel = 0.0f;
+        mGain = 1.0f;
+        mHoldCounter = 0;
+        mMinGain = 1.0f;
+    }
+
+    /**
+     * Computes the bed gain of each frame of a block from the voice tracks of the block
+     *
+     * @param tracks     - interleaved PCM samples of each track
+     * @param frames     - number of valid frames on each track
+     * @param channels   - channel count of each track
+     * @param gains      - gain of each track, applied to the voice level
+     * @param voices     - whether each track is a voice track
+     * @param trackCount - number of tracks
+     * @param out        - destination of the bed gain of each frame
+     * @param length     - number of frames of the block
+     * @return whether the bed is ducked anywhere in the block. If not, out only holds 1.0f
+     * and the bed needs no per-frame gain.
+     */
+    public boolean process(short[][] tracks, int[] frames, int[] channels, float[] gains,
+                           boolean[] voices, int trackCount, float[] out, int length) {
+        float level = mLevel;
+        float gain = mGain;
+        int holdCounter = mHoldCounter;
+        boolean ducked = gain < 1.0f;
+
+        for (int f = 0; f < length; f++) {
+            /* peak of the voice tracks on this frame */
+            float peak = 0.0f;
+            for (int x = 0; x < trackCount; x++) {
+                if (voices[x] && f < frames[x]) {
+                    short[] track = tracks[x];
+                    int in = channels[x];
+                    for (int c = 0, s = f * in; c < in; c++, s++) {
+                        peak = Math.max(peak, Math.abs(track[s] * gains[x]));
+                    }
+                }
+            }
+
+            level += (peak - level) * (peak > level ? mDetectorAttack : mDetectorRelease);
+            if (level >= mThreshold) {
+                holdCounter = mHoldFrames + 1;
+            } else if (holdCounter > 0) {
+                --holdCounter;
+            }
+
+            if (holdCounter > 0) {
+                gain += (mDepth - gain) * mAttackCoefficient;
+            } else {
+                gain += (1.0f - gain) * mReleaseCoefficient;
+            }
+
+            out[f] = gain;
+            ducked |= gain < 1.0f;
+        }
+
+        /* settles back to unity, so an idle ducker costs nothing. The float ramp stalls a bit
+           under 1.0f, once its step is under half an ulp of the gain */
+        if (holdCounter == 0 && (gain > 0.9999f
+                || gain + (1.0f - gain) * mReleaseCoefficient == gain)) {
+            gain = 1.0f;
+        }
+
+        mLevel = level;
+        mGain = gain;
+        mHoldCounter = holdCounter;
+        mMinGain = Math.min(mMinGain, gain);
+
+        return ducked;
+    }
+
+    /**
+     * @return the lowest bed gain applied since prepare()
+     */
+    public float getMinGain() {
+        return mMinGain;
+    }
+
+    /* coefficient of a one pole ramp reaching ~63% of its target after the given time */
+    private static float coefficient(float timeMs, int sampleRate) {
+        if (timeMs <= 0) {
+            return 1.0f;
+        }
+        return (float) (1.0 - Math.exp(-1000.0 / (timeMs * sampleRate)));
+    }
+}
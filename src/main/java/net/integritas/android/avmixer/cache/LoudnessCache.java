@@ -0,0 +1,182 @@
+package net.integritas.android.avmixer.cache;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * <p>
+ *  Cache of the loudness measured on audio files, so each file is only analysed once. Entries
+ *  are keyed by the file identity, like the {@link PcmCache} entries, and kept in memory. When
+ *  the cache has a directory they are also stored there, one small file per audio file, so
+ *  they survive the process.
+ * </p>
+ * <p>
+ *  A cache instance can be shared by several mixers, and used from several threads.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class LoudnessCache {
+
+    private static final String ENTRY_SUFFIX = ".lufs";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x4C554631; // "LUF1"
+
+    private final File mDirectory;
+    private boolean mContentHashing;
+
+    /* key -> integrated loudness */
+    private final HashMap<String, Float> mEntries = new HashMap<String, Float>();
+
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * Creates a cache only kept in memory
+     */
+    public LoudnessCache() {
+        this(null);
+    }
+
+    /**
+     * Opens a cache on a directory, picking up the entries already there
+     *
+     * @param directory - directory holding the cache files, created if needed, or null to
+     *                  only keep the entries in memory
+     */
+    public LoudnessCache(File directory) {
+        mDirectory = directory;
+        if (directory != null) {
+            directory.mkdirs();
+        }
+    }
+
+    /**
+     * Sets whether the file content is hashed into the entry keys. Makes the cache safe against
+     * files replaced with the same size and modification time, at the cost of reading each file
+     * once per lookup.
+     */
+    public synchronized void setContentHashing(boolean contentHashing) {
+        mContentHashing = contentHashing;
+    }
+
+    public synchronized boolean isContentHashing() {
+        return mContentHashing;
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Looks a file up on the cache
+     *
+     * @return the integrated loudness of the file, in LUFS, or Float.NaN if the cache has none
+     */
+    public float get(File source) throws IOException {
+        String key = SourceKey.of(source, isContentHashing());
+
+        Float loudness;
+        synchronized (this) {
+            loudness = mEntries.get(key);
+        }
+        if (loudness == null && mDirectory != null) {
+            loudness = read(new File(mDirectory, key + ENTRY_SUFFIX));
+        }
+
+        synchronized (this) {
+            if (loudness == null) {
+                ++mMissCount;
+                return Float.NaN;
+            }
+
+            ++mHitCount;
+            mEntries.put(key, loudness);
+            return loudness;
+        }
+    }
+
+    /**
+     * Stores the loudness measured on a file
+     *
+     * @param source    - measured file
+     * @param loudness  - integrated loudness of the file, in LUFS
+     */
+    public void put(File source, float loudness) throws IOException {
+        if (Float.isNaN(loudness)) {
+            throw new IllegalArgumentException("invalid loudness");
+        }
+
+        String key = SourceKey.of(source, isContentHashing());
+        synchronized (this) {
+            mEntries.put(key, loudness);
+        }
+
+        if (mDirectory != null) {
+            File file = new File(mDirectory, key + ENTRY_SUFFIX);
+            File tempFile = new File(mDirectory, key + "." + Thread.currentThread().getId()
+                    + TEMP_SUFFIX);
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(tempFile));
+            try {
+                out.writeInt(MAGIC);
+                out.writeFloat(loudness);
+            } finally {
+                out.close();
+            }
+
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+                throw new IOException("could not store loudness entry " + file);
+            }
+        }
+    }
+
+    /**
+     * Removes every entry from the cache
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+
+        File[] files = mDirectory != null ? mDirectory.listFiles() : null;
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(ENTRY_SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /* reads a stored entry, null if there is none or it is not valid */
+    private static Float read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                return in.readInt() == MAGIC ? in.readFloat() : null;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
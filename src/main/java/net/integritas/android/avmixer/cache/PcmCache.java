@@ -0,0 +1,425 @@
+package net.integritas.android.avmixer.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ *  Persistent cache of decoded PCM audio. Each entry holds the whole decoded content of an audio
+ *  file, in the decoder output format, and is keyed by the file identity: its path, size and
+ *  last modification time, plus optionally a hash of its content. Entries are read through
+ *  memory-mapped files, so a hit costs no decoding and no copy into the Java heap.
+ * </p>
+ * <p>
+ *  The cache is bounded in size: when a new entry makes it bigger than its maximum size, the
+ *  least recently used entries are evicted. The recency of the entries is kept on the files
+ *  last modification time, so it survives the process.
+ * </p>
+ * <p>
+ *  A cache instance can be shared by several mixers, and used from several threads.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class PcmCache {
+
+    private static final String ENTRY_SUFFIX = ".pcm";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x50434D31; // "PCM1"
+    private static final int HEADER_SIZE = 32;
+    private static final int WRITE_BUFFER_SIZE = 16 * 1024;
+
+    private final File mDirectory;
+    private final long mMaxSize;
+    private boolean mContentHashing;
+
+    /* entry file name -> size, in access order */
+    private final LinkedHashMap<String, Long> mEntries =
+            new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long mSize;
+    private int mTempFiles;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+    private long mSavedDecodeTimeMs;
+
+    /**
+     * Opens a cache on a directory, picking up the entries already there
+     *
+     * @param directory - directory holding the cache files, created if needed
+     * @param maxSize   - maximum size, in bytes, of all the cache files together
+     */
+    public PcmCache(File directory, long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("invalid cache size: " + maxSize);
+        }
+
+        mDirectory = directory;
+        mMaxSize = maxSize;
+        directory.mkdirs();
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                /* left behind by an interrupted decoding */
+                file.delete();
+            } else if (file.getName().endsWith(ENTRY_SUFFIX)) {
+                mEntries.put(file.getName(), file.length());
+                mSize += file.length();
+            }
+        }
+        trim();
+    }
+
+    /**
+     * Sets whether the file content is hashed into the entry keys. Makes the cache safe against
+     * files replaced with the same size and modification time, at the cost of reading each file
+     * once per lookup.
+     */
+    public synchronized void setContentHashing(boolean contentHashing) {
+        mContentHashing = contentHashing;
+    }
+
+    public synchronized boolean isContentHashing() {
+        return mContentHashing;
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * @return the size, in bytes, of all the cache entries
+     */
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * @return the decoding time, in milliseconds, the cache hits saved
+     */
+    public synchronized long getSavedDecodeTimeMs() {
+        return mSavedDecodeTimeMs;
+    }
+
+    /**
+     * @return the key identifying the current content of a file on the cache
+     */
+    public String getKey(File source) throws IOException {
+        return SourceKey.of(source, isContentHashing());
+    }
+
+    /**
+     * Looks a file up on the cache
+     *
+     * @return the cached decoded content of the file, or null if the cache has none
+     */
+    public Entry get(File source) throws IOException {
+        String name = getKey(source) + ENTRY_SUFFIX;
+
+        synchronized (this) {
+            if (mEntries.get(name) == null) {
+                ++mMissCount;
+                return null;
+            }
+        }
+
+        File file = new File(mDirectory, name);
+        Entry entry = null;
+        try {
+            entry = Entry.map(file);
+        } catch (IOException e) {
+            /* evicted meanwhile, or not readable */
+        }
+
+        synchronized (this) {
+            if (entry == null) {
+                remove(name);
+                ++mMissCount;
+                return null;
+            }
+
+            ++mHitCount;
+            mSavedDecodeTimeMs += entry.getDecodeTimeMs();
+        }
+
+        file.setLastModified(System.currentTimeMillis());
+        return entry;
+    }
+
+    /**
+     * Starts a new entry for a file. The entry only becomes visible once committed.
+     *
+     * @param source       - file the decoded content comes from
+     * @param sampleRate   - sample rate of the decoded content
+     * @param channelCount - channel count of the decoded content
+     */
+    public Writer edit(File source, int sampleRate, int channelCount) throws IOException {
+        String key = getKey(source);
+        int tempFile;
+        synchronized (this) {
+            tempFile = ++mTempFiles;
+        }
+
+        return new Writer(key + ENTRY_SUFFIX,
+                new File(mDirectory, key + "." + tempFile + TEMP_SUFFIX), sampleRate,
+                channelCount);
+    }
+
+    /**
+     * Removes every entry from the cache
+     */
+    public synchronized void clear() {
+        for (String name : new ArrayList<String>(mEntries.keySet())) {
+            remove(name);
+        }
+    }
+
+    private synchronized int commit(String name, File tempFile) throws IOException {
+        File file = new File(mDirectory, name);
+        if (mEntries.containsKey(name)) {
+            /* the same file was decoded twice at once */
+            tempFile.delete();
+            return 0;
+        }
+
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("could not commit cache entry " + file);
+        }
+
+        mEntries.put(name, file.length());
+        mSize += file.length();
+
+        return trim();
+    }
+
+    /* evicts the least recently used entries until the cache fits its maximum size */
+    private synchronized int trim() {
+        int evicted = 0;
+        Iterator<Map.Entry<String, Long>> it = mEntries.entrySet().iterator();
+        while (mSize > mMaxSize && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            it.remove();
+            mSize -= eldest.getValue();
+            new File(mDirectory, eldest.getKey()).delete();
+            ++evicted;
+        }
+
+        mEvictionCount += evicted;
+        return evicted;
+    }
+
+    private synchronized void remove(String name) {
+        Long size = mEntries.remove(name);
+        if (size != null) {
+            mSize -= size;
+        }
+        new File(mDirectory, name).delete();
+    }
+
+    /**
+     * Decoded content of a cached file
+     */
+    public static final class Entry {
+
+        private final int mSampleRate;
+        private final int mChannelCount;
+        private final long mDecodeTimeMs;
+        private final ShortBuffer mSamples;
+
+        private Entry(int sampleRate, int channelCount, long decodeTimeMs, ShortBuffer samples) {
+            mSampleRate = sampleRate;
+            mChannelCount = channelCount;
+            mDecodeTimeMs = decodeTimeMs;
+            mSamples = samples;
+        }
+
+        static Entry map(File file) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size());
+                mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+                if (mapped.remaining() < HEADER_SIZE || mapped.getInt(0) != MAGIC) {
+                    throw new IOException("invalid cache entry " + file);
+                }
+
+                int sampleRate = mapped.getInt(4);
+                int channelCount = mapped.getInt(8);
+                long sampleCount = mapped.getLong(16);
+                long decodeTimeMs = mapped.getLong(24);
+                if (HEADER_SIZE + sampleCount * 2 != channel.size()) {
+                    throw new IOException("truncated cache entry " + file);
+                }
+
+                mapped.position(HEADER_SIZE);
+                return new Entry(sampleRate, channelCount, decodeTimeMs,
+                        mapped.slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer());
+            } finally {
+                /* the mapping stays valid after the file is closed */
+                raf.close();
+            }
+        }
+
+        public int getSampleRate() {
+            return mSampleRate;
+        }
+
+        public int getChannelCount() {
+            return mChannelCount;
+        }
+
+        /**
+         * @return the time, in milliseconds, the content took to decode
+         */
+        public long getDecodeTimeMs() {
+            return mDecodeTimeMs;
+        }
+
+        /**
+         * @return the interleaved decoded samples. Each call returns an independent view.
+         */
+        public ShortBuffer getSamples() {
+            return mSamples.duplicate();
+        }
+    }
+
+    /**
+     * Writes a new cache entry
+     */
+    public final class Writer {
+
+        private final String mName;
+        private final File mTempFile;
+        private final int mSampleRate;
+        private final int mChannelCount;
+        private final RandomAccessFile mFile;
+        private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        private long mSampleCount;
+
+        private Writer(String name, File tempFile, int sampleRate, int channelCount)
+                throws IOException {
+            mName = name;
+            mTempFile = tempFile;
+            mSampleRate = sampleRate;
+            mChannelCount = channelCount;
+            mFile = new RandomAccessFile(tempFile, "rw");
+            mFile.setLength(0);
+            mFile.seek(HEADER_SIZE);
+        }
+
+        /**
+         * Appends decoded samples to the entry
+         *
+         * @param samples - interleaved samples, from their position. The position is not moved.
+         * @param count   - number of samples to append
+         */
+        public void write(ShortBuffer samples, int count) throws IOException {
+            ShortBuffer src = samples.duplicate();
+            FileChannel channel = mFile.getChannel();
+            int end = src.position() + count;
+
+            while (src.position() < end) {
+                int n = Math.min(end - src.position(), WRITE_BUFFER_SIZE / 2);
+                mBuffer.clear();
+                for (int i = 0; i < n; i++) {
+                    mBuffer.putShort(src.get());
+                }
+                mBuffer.flip();
+                while (mBuffer.hasRemaining()) {
+                    channel.write(mBuffer);
+                }
+            }
+
+            mSampleCount += count;
+        }
+
+        /**
+         * Makes the entry visible on the cache, evicting older entries if needed
+         *
+         * @param decodeTimeMs - time, in milliseconds, the content took to decode
+         * @return the number of entries evicted
+         */
+        public int commit(long decodeTimeMs) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC);
+            header.putInt(mSampleRate);
+            header.putInt(mChannelCount);
+            header.putInt(0);
+            header.putLong(mSampleCount);
+            header.putLong(decodeTimeMs);
+            header.flip();
+
+            try {
+                FileChannel channel = mFile.getChannel();
+                channel.position(0);
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+            } finally {
+                mFile.close();
+            }
+
+            return PcmCache.this.commit(mName, mTempFile);
+        }
+
+        /**
+         * Drops the entry
+         */
+        public void abort() {
+            try {
+                mFile.close();
+            } catch (IOException e) {
+                /* nothing to do, the file is deleted anyway */
+            }
+            mTempFile.delete();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package net.integritas.android.avmixer.cache;
+
+import net.integritas.android.avmixer.audio.PeakPyramid;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <p>
+ *  Persistent cache of the waveform overviews ({@link PeakPyramid}) of audio files, keyed by the
+ *  file identity like the {@link PcmCache} entries. Each waveform is stored in its own small
+ *  binary file, usually next to the PcmCache entries, so reading a cached waveform costs a
+ *  file read and no decoding.
+ * </p>
+ * <p>
+ *  A cache instance can be shared by several mixers, and used from several threads.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class PeakCache {
+
+    private static final String ENTRY_SUFFIX = ".peaks";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final File mDirectory;
+    private boolean mContentHashing;
+
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * @param directory - directory holding the cache files, created if needed. May be the
+     *                  directory of a PcmCache.
+     */
+    public PeakCache(File directory) {
+        mDirectory = directory;
+        directory.mkdirs();
+    }
+
+    /**
+     * Sets whether the file content is hashed into the entry keys. Makes the cache safe against
+     * files replaced with the same size and modification time, at the cost of reading each file
+     * once per lookup.
+     */
+    public synchronized void setContentHashing(boolean contentHashing) {
+        mContentHashing = contentHashing;
+    }
+
+    public synchronized boolean isContentHashing() {
+        return mContentHashing;
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return whether the cache holds the waveform of a file, without reading it
+     */
+    public boolean contains(File source) throws IOException {
+        return getEntryFile(source).isFile();
+    }
+
+    /**
+     * Looks a file up on the cache
+     *
+     * @return the waveform of the file, or null if the cache has none
+     */
+    public PeakPyramid get(File source) throws IOException {
+        File file = getEntryFile(source);
+        PeakPyramid peaks = null;
+        if (file.isFile()) {
+            try {
+                InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+                try {
+                    peaks = PeakPyramid.readFrom(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                /* corrupted or removed meanwhile */
+                file.delete();
+            }
+        }
+
+        synchronized (this) {
+            if (peaks == null) {
+                ++mMissCount;
+            } else {
+                ++mHitCount;
+            }
+        }
+        return peaks;
+    }
+
+    /**
+     * Stores the waveform of a file
+     */
+    public void put(File source, PeakPyramid peaks) throws IOException {
+        File file = getEntryFile(source);
+        File tempFile = new File(mDirectory, file.getName() + "."
+                + Thread.currentThread().getId() + TEMP_SUFFIX);
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE);
+        try {
+            peaks.writeTo(out);
+        } finally {
+            out.close();
+        }
+
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("could not store waveform " + file);
+        }
+    }
+
+    /**
+     * Removes every entry from the cache
+     */
+    public synchronized void clear() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(ENTRY_SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private File getEntryFile(File source) throws IOException {
+        return new File(mDirectory, SourceKey.of(source, isContentHashing()) + ENTRY_SUFFIX);
+    }
+}
@@ -0,0 +1,64 @@
+package net.integritas.android.avmixer.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * <p>
+ *  Key identifying the current content of a source file on the caches: a hash of its path,
+ *  size and last modification time, plus optionally of its content.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+final class SourceKey {
+
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    private SourceKey() {
+    }
+
+    /**
+     * @param source         - source file
+     * @param contentHashing - whether the file content is hashed into the key
+     * @return the key of the file, in hexadecimal
+     */
+    static String of(File source, boolean contentHashing) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update((source.getAbsolutePath() + "|" + source.length() + "|"
+                    + source.lastModified()).getBytes("UTF-8"));
+
+            if (contentHashing) {
+                FileInputStream in = new FileInputStream(source);
+                try {
+                    byte[] buffer = new byte[HASH_BUFFER_SIZE];
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        digest.update(buffer, 0, read);
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+
+            return toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-1 not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,179 @@
+package net.integritas.android.avmixer.codec;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.view.Surface;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ *  Adapts a MediaCodec to the {@link CodecPump}. In asynchronous mode the codec buffers are
+ *  reported through MediaCodec.Callback (API 21+); in synchronous mode they are dequeued by the
+ *  pump. Buffer contents are accessed through this class, which picks the right MediaCodec
+ *  call for the mode in use.
+ * </p>
+ * <p>
+ *  Instances are created by {@link AndroidCodecPump}, as asynchronous codecs have to be created
+ *  on the pump callback thread. This is the {@link TrackCodec} of the
+ *  {@link AndroidMediaBackend}.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class AndroidCodec implements TrackCodec {
+
+    private final MediaCodec mCodec;
+    private final boolean mAsync;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+    private volatile CodecPump.Listener mListener;
+    private MediaCodec.Callback mCallback;
+
+    /* synchronous mode buffers */
+    private ByteBuffer[] mInputBuffers;
+    private ByteBuffer[] mOutputBuffers;
+
+    AndroidCodec(MediaCodec codec, boolean async) {
+        mCodec = codec;
+        mAsync = async;
+
+        if (async) {
+            mCallback = new MediaCodec.Callback() {
+                @Override
+                public void onInputBufferAvailable(MediaCodec codec, int index) {
+                    CodecPump.Listener listener = mListener;
+                    if (listener != null) {
+                        listener.onInputBufferAvailable(index);
+                    }
+                }
+
+                @Override
+                public void onOutputBufferAvailable(MediaCodec codec, int index,
+                                                    MediaCodec.BufferInfo info) {
+                    CodecPump.Listener listener = mListener;
+                    if (listener != null) {
+                        listener.onOutputBufferAvailable(index, info.offset, info.size,
+                                info.presentationTimeUs, info.flags);
+                    }
+                }
+
+                @Override
+                public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+                    CodecPump.Listener listener = mListener;
+                    if (listener != null) {
+                        listener.onError(e);
+                    }
+                }
+
+                @Override
+                public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+                    CodecPump.Listener listener = mListener;
+                    if (listener != null) {
+                        listener.onOutputFormatChanged();
+                    }
+                }
+            };
+            /* must be set before configure() */
+            codec.setCallback(mCallback);
+        }
+    }
+
+    public MediaCodec getCodec() {
+        return mCodec;
+    }
+
+    @Override
+    public boolean isAsync() {
+        return mAsync;
+    }
+
+    @Override
+    public void setListener(CodecPump.Listener listener) {
+        mListener = listener;
+    }
+
+    public void configure(MediaFormat format, Surface surface, int flags) {
+        mCodec.configure(format, surface, null, flags);
+    }
+
+    @Override
+    public void configure(TrackFormat format, int flags) {
+        mCodec.configure(AndroidMediaBackend.toMediaFormat(format), null, null, flags);
+    }
+
+    @Override
+    public void start() {
+        mCodec.start();
+        if (!mAsync) {
+            mInputBuffers = mCodec.getInputBuffers();
+            mOutputBuffers = mCodec.getOutputBuffers();
+        }
+    }
+
+    @Override
+    public int dequeueInputBuffer(long timeoutUs) {
+        return mCodec.dequeueInputBuffer(timeoutUs);
+    }
+
+    @Override
+    public int dequeueOutputBuffer(CodecPump.OutputBuffer out, long timeoutUs) {
+        int index = mCodec.dequeueOutputBuffer(mBufferInfo, timeoutUs);
+        if (index >= 0) {
+            out.set(index, mBufferInfo.offset, mBufferInfo.size,
+                    mBufferInfo.presentationTimeUs, mBufferInfo.flags);
+        } else if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+            mOutputBuffers = mCodec.getOutputBuffers();
+        }
+
+        return index;
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        return mAsync ? mCodec.getInputBuffer(index) : mInputBuffers[index];
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        return mAsync ? mCodec.getOutputBuffer(index) : mOutputBuffers[index];
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs,
+                                 int flags) {
+        mCodec.queueInputBuffer(index, offset, size, presentationTimeUs, flags);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, boolean render) {
+        mCodec.releaseOutputBuffer(index, render);
+    }
+
+    @Override
+    public TrackFormat getOutputFormat() {
+        return AndroidMediaBackend.toTrackFormat(mCodec.getOutputFormat());
+    }
+
+    public MediaFormat getOutputMediaFormat() {
+        return mCodec.getOutputFormat();
+    }
+
+    /**
+     * Stops the codec, which can then be configured again, e.g. for the next clip
+     */
+    @Override
+    public void stop() {
+        mCodec.stop();
+        if (mAsync) {
+            /* set again for the next configure(), stopped codecs may drop it */
+            mCodec.setCallback(mCallback);
+        }
+    }
+
+    @Override
+    public void release() {
+        mCodec.release();
+    }
+}
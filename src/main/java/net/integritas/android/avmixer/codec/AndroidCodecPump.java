@@ -0,0 +1,108 @@
+package net.integritas.android.avmixer.codec;
+
+import android.media.MediaCodec;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * <p>
+ *  {@link CodecPump} for MediaCodec instances. On API 21+ the codecs run in asynchronous mode:
+ *  they are created on a callback thread owned by the pump, so MediaCodec delivers their
+ *  callbacks there and the mixing thread is only woken up when a buffer is available. On older
+ *  API levels, or when asynchronous mode is disabled, the codecs are polled.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class AndroidCodecPump extends CodecPump {
+
+    private final boolean mAsync;
+    private HandlerThread mCallbackThread;
+    private Handler mCallbackHandler;
+
+    /**
+     * @param useAsync - whether codecs should run in asynchronous mode when the API level
+     *                 allows it
+     */
+    public AndroidCodecPump(boolean useAsync) {
+        mAsync = useAsync && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    public boolean isAsync() {
+        return mAsync;
+    }
+
+    public AndroidCodec createDecoderByType(String mime) throws IOException {
+        return create(mime, false);
+    }
+
+    public AndroidCodec createEncoderByType(String mime) throws IOException {
+        return create(mime, true);
+    }
+
+    /**
+     * Releases the pump and its callback thread. The codecs must be released by the caller.
+     */
+    @Override
+    public void release() {
+        super.release();
+        if (mCallbackThread != null) {
+            mCallbackThread.quit();
+            mCallbackThread = null;
+            mCallbackHandler = null;
+        }
+    }
+
+    private AndroidCodec create(final String mime, final boolean encoder) throws IOException {
+        if (!mAsync) {
+            return new AndroidCodec(encoder ? MediaCodec.createEncoderByType(mime)
+                    : MediaCodec.createDecoderByType(mime), false);
+        }
+
+        /* a MediaCodec posts its callbacks to the looper of the thread it was created on */
+        final MediaCodec[] codec = new MediaCodec[1];
+        final IOException[] error = new IOException[1];
+        final CountDownLatch created = new CountDownLatch(1);
+        callbackHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    codec[0] = encoder ? MediaCodec.createEncoderByType(mime)
+                            : MediaCodec.createDecoderByType(mime);
+                } catch (IOException e) {
+                    error[0] = e;
+                } finally {
+                    created.countDown();
+                }
+            }
+        });
+
+        try {
+            created.await();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted while creating codec " + mime);
+        }
+
+        if (error[0] != null) {
+            throw error[0];
+        }
+
+        return new AndroidCodec(codec[0], true);
+    }
+
+    private synchronized Handler callbackHandler() {
+        if (mCallbackHandler == null) {
+            mCallbackThread = new HandlerThread("CodecPump");
+            mCallbackThread.start();
+            mCallbackHandler = new Handler(mCallbackThread.getLooper());
+        }
+        return mCallbackHandler;
+    }
+}
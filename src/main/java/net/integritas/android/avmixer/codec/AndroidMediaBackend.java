@@ -0,0 +1,104 @@
+package net.integritas.android.avmixer.codec;
+
+import android.media.MediaFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * <p>
+ *  {@link MediaBackend} on the Android media framework: MediaCodec codecs driven by an
+ *  {@link AndroidCodecPump}, MediaExtractor and MediaMuxer.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class AndroidMediaBackend implements MediaBackend {
+
+    /* integer values copied from a MediaFormat, the other values stay on the MediaFormat */
+    private static final String[] INTEGER_KEYS = {
+            TrackFormat.KEY_SAMPLE_RATE, TrackFormat.KEY_CHANNEL_COUNT, TrackFormat.KEY_BIT_RATE,
+            TrackFormat.KEY_MAX_INPUT_SIZE, TrackFormat.KEY_WIDTH, TrackFormat.KEY_HEIGHT,
+            TrackFormat.KEY_COLOR_FORMAT, TrackFormat.KEY_FRAME_RATE,
+            TrackFormat.KEY_I_FRAME_INTERVAL, TrackFormat.KEY_ROTATION};
+
+    /**
+     * @return an {@link AndroidCodecPump}
+     */
+    @Override
+    public CodecPump createPump(boolean async) {
+        return new AndroidCodecPump(async);
+    }
+
+    @Override
+    public TrackCodec createDecoder(CodecPump pump, String mime) throws IOException {
+        return ((AndroidCodecPump) pump).createDecoderByType(mime);
+    }
+
+    @Override
+    public TrackCodec createEncoder(CodecPump pump, String mime) throws IOException {
+        return ((AndroidCodecPump) pump).createEncoderByType(mime);
+    }
+
+    @Override
+    public TrackExtractor createExtractor(String path) throws IOException {
+        return new AndroidTrackExtractor(path);
+    }
+
+    @Override
+    public TrackMuxer createMuxer(String path) throws IOException {
+        return new AndroidTrackMuxer(path);
+    }
+
+    /**
+     * Reads a MediaFormat, which the TrackFormat keeps
+     */
+    static TrackFormat toTrackFormat(MediaFormat mediaFormat) {
+        TrackFormat format = new TrackFormat();
+        format.setPlatformFormat(mediaFormat);
+
+        if (mediaFormat.containsKey(MediaFormat.KEY_MIME)) {
+            format.setString(TrackFormat.KEY_MIME, mediaFormat.getString(MediaFormat.KEY_MIME));
+        }
+        if (mediaFormat.containsKey(MediaFormat.KEY_DURATION)) {
+            format.setLong(TrackFormat.KEY_DURATION, mediaFormat.getLong(MediaFormat.KEY_DURATION));
+        }
+        for (String key : INTEGER_KEYS) {
+            if (mediaFormat.containsKey(key)) {
+                try {
+                    format.setInteger(key, mediaFormat.getInteger(key));
+                } catch (ClassCastException e) {
+                    /* e.g. a float frame rate, left on the MediaFormat */
+                }
+            }
+        }
+
+        return format;
+    }
+
+    /**
+     * Writes a TrackFormat on the MediaFormat it was read from, or on a new one
+     */
+    static MediaFormat toMediaFormat(TrackFormat format) {
+        MediaFormat mediaFormat = format.getPlatformFormat() instanceof MediaFormat
+                ? (MediaFormat) format.getPlatformFormat() : new MediaFormat();
+
+        for (Map.Entry<String, Object> entry : format.getValues().entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Integer) {
+                mediaFormat.setInteger(entry.getKey(), (Integer) value);
+            } else if (value instanceof Long) {
+                mediaFormat.setLong(entry.getKey(), (Long) value);
+            } else if (value instanceof String) {
+                mediaFormat.setString(entry.getKey(), (String) value);
+            } else if (value instanceof ByteBuffer) {
+                mediaFormat.setByteBuffer(entry.getKey(), (ByteBuffer) value);
+            }
+        }
+
+        return mediaFormat;
+    }
+}
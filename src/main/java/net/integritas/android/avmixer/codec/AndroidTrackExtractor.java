@@ -0,0 +1,88 @@
+package net.integritas.android.avmixer.codec;
+
+import android.media.MediaExtractor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ *  {@link TrackExtractor} on a MediaExtractor
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class AndroidTrackExtractor implements TrackExtractor {
+
+    private final MediaExtractor mExtractor = new MediaExtractor();
+
+    AndroidTrackExtractor(String path) throws IOException {
+        try {
+            mExtractor.setDataSource(path);
+        } catch (IOException e) {
+            mExtractor.release();
+            throw e;
+        }
+    }
+
+    public MediaExtractor getExtractor() {
+        return mExtractor;
+    }
+
+    @Override
+    public int getTrackCount() {
+        return mExtractor.getTrackCount();
+    }
+
+    @Override
+    public TrackFormat getTrackFormat(int track) {
+        return AndroidMediaBackend.toTrackFormat(mExtractor.getTrackFormat(track));
+    }
+
+    @Override
+    public void selectTrack(int track) {
+        mExtractor.selectTrack(track);
+    }
+
+    @Override
+    public void unselectTrack(int track) {
+        mExtractor.unselectTrack(track);
+    }
+
+    @Override
+    public int readSampleData(ByteBuffer buffer, int offset) {
+        return mExtractor.readSampleData(buffer, offset);
+    }
+
+    @Override
+    public long getSampleTime() {
+        return mExtractor.getSampleTime();
+    }
+
+    @Override
+    public int getSampleTrackIndex() {
+        return mExtractor.getSampleTrackIndex();
+    }
+
+    @Override
+    public int getSampleFlags() {
+        return mExtractor.getSampleFlags();
+    }
+
+    @Override
+    public boolean advance() {
+        return mExtractor.advance();
+    }
+
+    @Override
+    public void seekTo(long timeUs, int mode) {
+        mExtractor.seekTo(timeUs, mode);
+    }
+
+    @Override
+    public void release() {
+        mExtractor.release();
+    }
+}
@@ -0,0 +1,61 @@
+package net.integritas.android.avmixer.codec;
+
+import android.media.MediaCodec;
+import android.media.MediaMuxer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ *  {@link TrackMuxer} on a MediaMuxer writing an MPEG-4 file
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class AndroidTrackMuxer implements TrackMuxer {
+
+    private final MediaMuxer mMuxer;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+
+    AndroidTrackMuxer(String path) throws IOException {
+        mMuxer = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+    }
+
+    public MediaMuxer getMuxer() {
+        return mMuxer;
+    }
+
+    @Override
+    public int addTrack(TrackFormat format) {
+        return mMuxer.addTrack(AndroidMediaBackend.toMediaFormat(format));
+    }
+
+    @Override
+    public void setOrientationHint(int degrees) {
+        mMuxer.setOrientationHint(degrees);
+    }
+
+    @Override
+    public void start() {
+        mMuxer.start();
+    }
+
+    @Override
+    public void writeSampleData(int track, ByteBuffer data, CodecPump.OutputBuffer info) {
+        mBufferInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+        mMuxer.writeSampleData(track, data, mBufferInfo);
+    }
+
+    @Override
+    public void stop() {
+        mMuxer.stop();
+    }
+
+    @Override
+    public void release() {
+        mMuxer.release();
+    }
+}
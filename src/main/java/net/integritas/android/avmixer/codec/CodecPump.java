@@ -0,0 +1,418 @@
+package net.integritas.android.avmixer.codec;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * <p>
+ *  Collects the buffers made available by a set of codecs, so a single thread can drive all of
+ *  them without blocking on each one in turn. Codecs running in asynchronous mode push their
+ *  buffers to the pump from their callback thread; codecs running in synchronous mode are
+ *  swept with non-blocking dequeues. Either way, the driving thread takes the buffers with
+ *  {@link #pollInput(int)} / {@link #pollOutput(int, OutputBuffer)} and sleeps in
+ *  {@link #await(long)} until a codec has something new.
+ * </p>
+ * <p>
+ *  The pump only deals with buffer indexes and output metadata, it never touches the buffer
+ *  contents, so it does not depend on the Android framework and can be driven by a fake
+ *  {@link Codec} on the JVM.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class CodecPump {
+
+    /* same values as the MediaCodec INFO_* constants */
+    public static final int INFO_TRY_AGAIN_LATER = -1;
+    public static final int INFO_OUTPUT_FORMAT_CHANGED = -2;
+    public static final int INFO_OUTPUT_BUFFERS_CHANGED = -3;
+
+    /* same values as the MediaCodec BUFFER_FLAG_* constants */
+    public static final int BUFFER_FLAG_KEY_FRAME = 1;
+    public static final int BUFFER_FLAG_CODEC_CONFIG = 2;
+    public static final int BUFFER_FLAG_END_OF_STREAM = 4;
+
+    /* same value as MediaCodec.CONFIGURE_FLAG_ENCODE */
+    public static final int CONFIGURE_FLAG_ENCODE = 1;
+
+    /* shortest sleep between two sweeps of the synchronous codecs */
+    private static final long MIN_POLL_INTERVAL_US = 1000;
+
+    /**
+     * Codec driven by the pump
+     */
+    public interface Codec {
+
+        /**
+         * @return whether the codec reports its buffers through the listener. Synchronous codecs
+         * are dequeued by the pump instead.
+         */
+        boolean isAsync();
+
+        /**
+         * Sets where an asynchronous codec reports its buffers to
+         */
+        void setListener(Listener listener);
+
+        /**
+         * @return an input buffer index, or INFO_TRY_AGAIN_LATER
+         */
+        int dequeueInputBuffer(long timeoutUs);
+
+        /**
+         * @return an output buffer index, with its metadata set on out, or one of the INFO_*
+         * constants
+         */
+        int dequeueOutputBuffer(OutputBuffer out, long timeoutUs);
+    }
+
+    /**
+     * Receives the buffers of an asynchronous codec. May be called from any thread.
+     */
+    public interface Listener {
+
+        void onInputBufferAvailable(int index);
+
+        void onOutputBufferAvailable(int index, int offset, int size, long presentationTimeUs,
+                                     int flags);
+
+        void onOutputFormatChanged();
+
+        void onError(Exception e);
+    }
+
+    /**
+     * Output buffer metadata. An index of INFO_OUTPUT_FORMAT_CHANGED means the codec output
+     * format changed at this point of the stream.
+     */
+    public static final class OutputBuffer {
+
+        public int index;
+        public int offset;
+        public int size;
+        public long presentationTimeUs;
+        public int flags;
+
+        public OutputBuffer set(int index, int offset, int size, long presentationTimeUs,
+                                int flags) {
+            this.index = index;
+            this.offset = offset;
+            this.size = size;
+            this.presentationTimeUs = presentationTimeUs;
+            this.flags = flags;
+            return this;
+        }
+
+        public boolean isEndOfStream() {
+            return (flags & BUFFER_FLAG_END_OF_STREAM) != 0;
+        }
+
+        public boolean isFormatChange() {
+            return index == INFO_OUTPUT_FORMAT_CHANGED;
+        }
+    }
+
+    private final Object mLock = new Object();
+    /* endpoints are never removed from the list, so codec ids stay valid */
+    private final ArrayList<Endpoint> mEndpoints = new ArrayList<Endpoint>();
+    private final ArrayDeque<OutputBuffer> mFreeOutputs = new ArrayDeque<OutputBuffer>();
+
+    /* bumped on every buffer made available, so await() can tell new events from old ones */
+    private long mEvents;
+    private long mAwaitedEvents;
+    private Exception mError;
+
+    /**
+     * Adds a codec to the pump. The codec must be started right after, and its buffers are
+     * only taken through the pump from then on.
+     *
+     * @return the codec id on the pump
+     */
+    public int add(Codec codec) {
+        synchronized (mLock) {
+            final int id = mEndpoints.size();
+            Endpoint endpoint = new Endpoint(codec);
+            mEndpoints.add(endpoint);
+
+            if (codec.isAsync()) {
+                codec.setListener(new Listener() {
+                    @Override
+                    public void onInputBufferAvailable(int index) {
+                        synchronized (mLock) {
+                            Endpoint endpoint = mEndpoints.get(id);
+                            if (!endpoint.mRemoved) {
+                                endpoint.mInputs.addLast(index);
+                                signal();
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void onOutputBufferAvailable(int index, int offset, int size,
+                                                        long presentationTimeUs, int flags) {
+                        synchronized (mLock) {
+                            Endpoint endpoint = mEndpoints.get(id);
+                            if (!endpoint.mRemoved) {
+                                endpoint.mOutputs.addLast(obtainOutput()
+                                        .set(index, offset, size, presentationTimeUs, flags));
+                                signal();
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void onOutputFormatChanged() {
+                        synchronized (mLock) {
+                            Endpoint endpoint = mEndpoints.get(id);
+                            if (!endpoint.mRemoved) {
+                                endpoint.mOutputs.addLast(obtainOutput()
+                                        .set(INFO_OUTPUT_FORMAT_CHANGED, 0, 0, 0, 0));
+                                signal();
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        synchronized (mLock) {
+                            mError = e;
+                            signal();
+                        }
+                    }
+                });
+            }
+
+            return id;
+        }
+    }
+
+    /**
+     * Stops taking buffers from a codec. Must be called before the codec is stopped or
+     * released, as synchronous codecs are dequeued by the pump. Buffers still queued on the
+     * pump are dropped.
+     */
+    public void remove(int codec) {
+        synchronized (mLock) {
+            Endpoint endpoint = mEndpoints.get(codec);
+            endpoint.mRemoved = true;
+            endpoint.mInputs.clear();
+            while (!endpoint.mOutputs.isEmpty()) {
+                mFreeOutputs.addLast(endpoint.mOutputs.removeFirst());
+            }
+        }
+    }
+
+    /**
+     * @return the index of an input buffer of the codec ready to be filled, or
+     * INFO_TRY_AGAIN_LATER if there is none
+     */
+    public int pollInput(int codec) {
+        synchronized (mLock) {
+            checkError();
+
+            Endpoint endpoint = mEndpoints.get(codec);
+            if (endpoint.mInputs.isEmpty() && !endpoint.mCodec.isAsync() && !endpoint.mRemoved) {
+                sweepInput(endpoint);
+            }
+
+            return endpoint.mInputs.isEmpty() ? INFO_TRY_AGAIN_LATER
+                    : endpoint.mInputs.removeFirst();
+        }
+    }
+
+    /**
+     * Takes the next output buffer of the codec
+     *
+     * @param codec - codec id
+     * @param out   - where the output buffer metadata is copied to
+     * @return whether an output buffer (or a format change) was taken
+     */
+    public boolean pollOutput(int codec, OutputBuffer out) {
+        synchronized (mLock) {
+            checkError();
+
+            Endpoint endpoint = mEndpoints.get(codec);
+            if (endpoint.mOutputs.isEmpty() && !endpoint.mCodec.isAsync() && !endpoint.mRemoved) {
+                sweepOutput(endpoint);
+            }
+
+            if (endpoint.mOutputs.isEmpty()) {
+                return false;
+            }
+
+            OutputBuffer output = endpoint.mOutputs.removeFirst();
+            out.set(output.index, output.offset, output.size, output.presentationTimeUs,
+                    output.flags);
+            mFreeOutputs.addLast(output);
+            return true;
+        }
+    }
+
+    /**
+     * Blocks until any codec makes a new buffer available, or the timeout expires. Buffers
+     * already available but not taken do not wake it up, so a caller which cannot take them
+     * yet does not spin.
+     *
+     * @return whether new buffers are available
+     */
+    public boolean await(long timeoutUs) throws InterruptedException {
+        long deadlineNs = System.nanoTime() + timeoutUs * 1000l;
+        long intervalUs = MIN_POLL_INTERVAL_US;
+
+        synchronized (mLock) {
+            while (true) {
+                checkError();
+                sweep();
+                if (mEvents != mAwaitedEvents) {
+                    mAwaitedEvents = mEvents;
+                    return true;
+                }
+
+                long remainingUs = (deadlineNs - System.nanoTime()) / 1000l;
+                if (remainingUs <= 0) {
+                    return false;
+                }
+
+                /* asynchronous codecs wake us up, synchronous ones are swept again after a
+                   growing interval */
+                long waitUs = hasSyncCodecs() ? Math.min(remainingUs, intervalUs) : remainingUs;
+                mLock.wait(Math.max(1, (waitUs + 999) / 1000l));
+                intervalUs = Math.min(intervalUs * 2, timeoutUs);
+            }
+        }
+    }
+
+    /**
+     * Wakes up a thread blocked in await(), e.g. when the reason it could not take the
+     * available buffers is gone.
+     */
+    public void wakeUp() {
+        synchronized (mLock) {
+            ++mEvents;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * @return the number of input buffers of the codec available and not taken yet
+     */
+    public int getInputQueueDepth(int codec) {
+        synchronized (mLock) {
+            return mEndpoints.get(codec).mInputs.size();
+        }
+    }
+
+    /**
+     * @return the number of output buffers of the codec available and not taken yet
+     */
+    public int getOutputQueueDepth(int codec) {
+        synchronized (mLock) {
+            return mEndpoints.get(codec).mOutputs.size();
+        }
+    }
+
+    /**
+     * @return the highest number of buffers, input and output, the codec had waiting on the
+     * pump at once
+     */
+    public int getMaxQueueDepth(int codec) {
+        synchronized (mLock) {
+            return mEndpoints.get(codec).mMaxDepth;
+        }
+    }
+
+    public int getCodecCount() {
+        synchronized (mLock) {
+            return mEndpoints.size();
+        }
+    }
+
+    /**
+     * Releases the resources held by the pump. The codecs are not released.
+     */
+    public void release() {
+        synchronized (mLock) {
+            for (int i = 0; i < mEndpoints.size(); i++) {
+                remove(i);
+            }
+        }
+    }
+
+    private void sweep() {
+        for (int i = 0; i < mEndpoints.size(); i++) {
+            Endpoint endpoint = mEndpoints.get(i);
+            if (!endpoint.mCodec.isAsync() && !endpoint.mRemoved) {
+                sweepInput(endpoint);
+                sweepOutput(endpoint);
+            }
+        }
+    }
+
+    private void sweepInput(Endpoint endpoint) {
+        int index = endpoint.mCodec.dequeueInputBuffer(0);
+        if (index >= 0) {
+            endpoint.mInputs.addLast(index);
+            signal();
+        }
+    }
+
+    private void sweepOutput(Endpoint endpoint) {
+        OutputBuffer output = obtainOutput();
+        int index;
+        do {
+            index = endpoint.mCodec.dequeueOutputBuffer(output, 0);
+        } while (index == INFO_OUTPUT_BUFFERS_CHANGED);
+
+        if (index >= 0 || index == INFO_OUTPUT_FORMAT_CHANGED) {
+            output.index = index;
+            endpoint.mOutputs.addLast(output);
+            signal();
+        } else {
+            mFreeOutputs.addLast(output);
+        }
+    }
+
+    private boolean hasSyncCodecs() {
+        for (int i = 0; i < mEndpoints.size(); i++) {
+            if (!mEndpoints.get(i).mCodec.isAsync() && !mEndpoints.get(i).mRemoved) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private OutputBuffer obtainOutput() {
+        return mFreeOutputs.isEmpty() ? new OutputBuffer() : mFreeOutputs.removeFirst();
+    }
+
+    private void signal() {
+        ++mEvents;
+        for (int i = 0; i < mEndpoints.size(); i++) {
+            Endpoint endpoint = mEndpoints.get(i);
+            endpoint.mMaxDepth = Math.max(endpoint.mMaxDepth,
+                    endpoint.mInputs.size() + endpoint.mOutputs.size());
+        }
+        mLock.notifyAll();
+    }
+
+    private void checkError() {
+        if (mError != null) {
+            throw new IllegalStateException("codec failed", mError);
+        }
+    }
+
+    private static final class Endpoint {
+
+        final Codec mCodec;
+        final ArrayDeque<Integer> mInputs = new ArrayDeque<Integer>();
+        final ArrayDeque<OutputBuffer> mOutputs = new ArrayDeque<OutputBuffer>();
+        int mMaxDepth;
+        boolean mRemoved;
+
+        Endpoint(Codec codec) {
+            mCodec = codec;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package net.integritas.android.avmixer.codec;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * <p>
+ *  Pool of decoders kept across the clips of a job, so consecutive clips of a compatible
+ *  format reuse a decoder instead of creating one each, which costs from tens to hundreds of
+ *  milliseconds on many devices.
+ * </p>
+ * <p>
+ *  Decoders are kept by MIME type and resolution class. A decoder taken from the pool, or
+ *  created and added to it, is in use until it is given back, stopped, to be configured again
+ *  for the next clip, or discarded. Past a maximum number of idle decoders, the ones given
+ *  back the longest ago are released.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class DecoderPool<C extends TrackCodec> {
+
+    /* upper bounds of the resolution classes, on the longest side of the frame */
+    private static final int[] RESOLUTION_CLASSES = {640, 1280, 1920};
+
+    private final int mMaxIdle;
+    private final HashMap<String, ArrayDeque<C>> mIdle = new HashMap<String, ArrayDeque<C>>();
+    private final ArrayDeque<C> mIdleOrder = new ArrayDeque<C>();
+    private final IdentityHashMap<C, String> mKeys = new IdentityHashMap<C, String>();
+    private final IdentityHashMap<C, Boolean> mInUse = new IdentityHashMap<C, Boolean>();
+    private int mReuses;
+    private int mCreations;
+    private long mCreationTimeMs;
+
+    /**
+     * @param maxIdle - most decoders kept idle
+     */
+    public DecoderPool(int maxIdle) {
+        mMaxIdle = maxIdle;
+    }
+
+    /**
+     * @return the pool key of a format: its MIME type and resolution class
+     */
+    public static String getKey(String mime, int width, int height) {
+        int longest = Math.max(width, height);
+        int resolutionClass = 0;
+        while (resolutionClass < RESOLUTION_CLASSES.length
+                && longest > RESOLUTION_CLASSES[resolutionClass]) {
+            resolutionClass++;
+        }
+        return mime + "/" + resolutionClass;
+    }
+
+    /**
+     * Takes an idle decoder of the key, which is in use from then on
+     *
+     * @return the decoder, stopped, or null if there is none
+     */
+    public synchronized C take(String key) {
+        ArrayDeque<C> decoders = mIdle.get(key);
+        if (decoders == null || decoders.isEmpty()) {
+            return null;
+        }
+
+        C decoder = decoders.removeFirst();
+        mIdleOrder.remove(decoder);
+        mInUse.put(decoder, Boolean.TRUE);
+        ++mReuses;
+        return decoder;
+    }
+
+    /**
+     * @return whether a decoder of the key is in use, so it will be idle once given back
+     */
+    public synchronized boolean isInUse(String key) {
+        for (C decoder : mInUse.keySet()) {
+            if (key.equals(mKeys.get(decoder))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds a decoder just created, in use until it is given back or discarded
+     *
+     * @param creationTimeMs - time the decoder took to be created, in milliseconds
+     */
+    public synchronized void add(String key, C decoder, long creationTimeMs) {
+        mKeys.put(decoder, key);
+        mInUse.put(decoder, Boolean.TRUE);
+        ++mCreations;
+        mCreationTimeMs += creationTimeMs;
+    }
+
+    /**
+     * Gives back a decoder in use. The decoder must be stopped, or never started.
+     */
+    public synchronized void giveBack(C decoder) {
+        if (mInUse.remove(decoder) == null) {
+            return;
+        }
+
+        String key = mKeys.get(decoder);
+        ArrayDeque<C> decoders = mIdle.get(key);
+        if (decoders == null) {
+            decoders = new ArrayDeque<C>();
+            mIdle.put(key, decoders);
+        }
+        decoders.addFirst(decoder);
+        mIdleOrder.addLast(decoder);
+
+        while (mIdleOrder.size() > mMaxIdle) {
+            C oldest = mIdleOrder.removeFirst();
+            mIdle.get(mKeys.get(oldest)).remove(oldest);
+            mKeys.remove(oldest);
+            oldest.release();
+        }
+    }
+
+    /**
+     * Releases a decoder in use which can not be reused, e.g. after an error
+     */
+    public synchronized void discard(C decoder) {
+        mInUse.remove(decoder);
+        mKeys.remove(decoder);
+        decoder.release();
+    }
+
+    /**
+     * Releases the idle decoders. The decoders in use are released by their users.
+     */
+    public synchronized void release() {
+        for (C decoder : mIdleOrder) {
+            decoder.release();
+        }
+        for (Iterator<Map.Entry<C, String>> i = mKeys.entrySet().iterator(); i.hasNext(); ) {
+            if (!mInUse.containsKey(i.next().getKey())) {
+                i.remove();
+            }
+        }
+        mIdle.clear();
+        mIdleOrder.clear();
+    }
+
+    /**
+     * @return the number of decoders taken from the pool instead of being created
+     */
+    public synchronized int getReuses() {
+        return mReuses;
+    }
+
+    /**
+     * @return the number of decoders created
+     */
+    public synchronized int getCreations() {
+        return mCreations;
+    }
+
+    /**
+     * @return the creation time, in milliseconds, the reused decoders saved, from the average
+     * time the created ones took
+     */
+    public synchronized long getSavedTimeMs() {
+        return mCreations > 0 ? mReuses * mCreationTimeMs / mCreations : 0;
+    }
+}
@@ -0,0 +1,90 @@
+package net.integritas.android.avmixer.codec;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * <p>
+ *  {@link MediaBackend} running on a plain JVM, without the Android media framework, so the
+ *  audio mixing can be run end to end in unit tests and benchmarks:
+ * </p>
+ * <ul>
+ *  <li>audio files are 16 bit PCM WAV files, read by a {@link WavExtractor}</li>
+ *  <li>audio is decoded and encoded by a pass-through {@link PcmCodec}, so every encoded track
+ *  holds PCM whatever encoder was asked for</li>
+ *  <li>the files written by the mixers are {@link MemoryContainer}s, kept by the backend under
+ *  their path, where the extractors of the backend read them back from</li>
+ * </ul>
+ * <p>
+ *  Video tracks can not be encoded or decoded, but a MemoryContainer holding video samples can
+ *  be put on the backend ({@link #putContainer(String, MemoryContainer)}) for the mixers which
+ *  only copy the video samples.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class JvmMediaBackend implements MediaBackend {
+
+    private final HashMap<String, MemoryContainer> mContainers =
+            new HashMap<String, MemoryContainer>();
+
+    /**
+     * @return a CodecPump, which always drives its codecs in synchronous mode
+     */
+    @Override
+    public CodecPump createPump(boolean async) {
+        return new CodecPump();
+    }
+
+    @Override
+    public TrackCodec createDecoder(CodecPump pump, String mime) throws IOException {
+        if (!TrackFormat.MIMETYPE_AUDIO_RAW.equals(mime)) {
+            throw new IOException("no " + mime + " decoder on the JVM");
+        }
+        return new PcmCodec();
+    }
+
+    @Override
+    public TrackCodec createEncoder(CodecPump pump, String mime) throws IOException {
+        if (mime == null || !mime.startsWith("audio/")) {
+            throw new IOException("no " + mime + " encoder on the JVM");
+        }
+        return new PcmCodec();
+    }
+
+    /**
+     * Opens the MemoryContainer written at the path, or the WAV file at the path
+     */
+    @Override
+    public TrackExtractor createExtractor(String path) throws IOException {
+        MemoryContainer container = getContainer(path);
+        return container != null ? container.newExtractor() : new WavExtractor(new File(path));
+    }
+
+    /**
+     * Creates a MemoryContainer at the path, replacing any container already there
+     */
+    @Override
+    public TrackMuxer createMuxer(String path) throws IOException {
+        MemoryContainer container = new MemoryContainer();
+        putContainer(path, container);
+        return container.newMuxer();
+    }
+
+    /**
+     * @return the container written at the path, or null
+     */
+    public synchronized MemoryContainer getContainer(String path) {
+        return mContainers.get(path);
+    }
+
+    /**
+     * Puts a container at the path, where the extractors of the backend read it from
+     */
+    public synchronized void putContainer(String path, MemoryContainer container) {
+        mContainers.put(path, container);
+    }
+}
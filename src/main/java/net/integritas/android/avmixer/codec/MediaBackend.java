@@ -0,0 +1,43 @@
+package net.integritas.android.avmixer.codec;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ *  Creates the codecs, extractors and muxers the audio mixing runs on. The mixers run on the
+ *  {@link AndroidMediaBackend} by default; the {@link JvmMediaBackend} runs them on a plain JVM,
+ *  e.g. in unit tests and benchmarks, with PCM audio in WAV files.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public interface MediaBackend {
+
+    /**
+     * @param async - whether the codecs added to the pump should run in asynchronous mode, when
+     *              the backend supports it
+     */
+    CodecPump createPump(boolean async);
+
+    /**
+     * @param pump - pump the decoder will be added to, created by this backend
+     */
+    TrackCodec createDecoder(CodecPump pump, String mime) throws IOException;
+
+    /**
+     * @param pump - pump the encoder will be added to, created by this backend
+     */
+    TrackCodec createEncoder(CodecPump pump, String mime) throws IOException;
+
+    /**
+     * Opens a media file
+     */
+    TrackExtractor createExtractor(String path) throws IOException;
+
+    /**
+     * Creates an MPEG-4 media file
+     */
+    TrackMuxer createMuxer(String path) throws IOException;
+}
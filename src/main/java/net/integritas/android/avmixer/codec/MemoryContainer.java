@@ -0,0 +1,325 @@
+package net.integritas.android.avmixer.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+
+/**
+ * <p>
+ *  Media file held in memory: the format and the encoded samples of each track. Standing in for
+ *  MPEG-4 files on the {@link JvmMediaBackend}, it is written through a {@link TrackMuxer}
+ *  ({@link #newMuxer()}) and read back through a {@link TrackExtractor}
+ *  ({@link #newExtractor()}), which returns the samples of the selected tracks in presentation
+ *  order.
+ * </p>
+ * <p>
+ *  Every sample of an audio track is a sync sample; a video sample is one when it was written
+ *  with CodecPump.BUFFER_FLAG_KEY_FRAME.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class MemoryContainer {
+
+    /**
+     * Encoded sample of a track
+     */
+    public static final class Sample {
+
+        private final byte[] mData;
+        private final long mPresentationTimeUs;
+        private final int mFlags;
+
+        public Sample(byte[] data, long presentationTimeUs, int flags) {
+            mData = data;
+            mPresentationTimeUs = presentationTimeUs;
+            mFlags = flags;
+        }
+
+        public byte[] getData() {
+            return mData;
+        }
+
+        public long getPresentationTimeUs() {
+            return mPresentationTimeUs;
+        }
+
+        public int getFlags() {
+            return mFlags;
+        }
+    }
+
+    private final ArrayList<TrackFormat> mFormats = new ArrayList<TrackFormat>();
+    private final ArrayList<ArrayList<Sample>> mSamples = new ArrayList<ArrayList<Sample>>();
+    private int mOrientationHint;
+
+    /**
+     * @return the index of the new track
+     */
+    public synchronized int addTrack(TrackFormat format) {
+        mFormats.add(new TrackFormat(format));
+        mSamples.add(new ArrayList<Sample>());
+        return mFormats.size() - 1;
+    }
+
+    public synchronized void addSample(int track, Sample sample) {
+        mSamples.get(track).add(sample);
+    }
+
+    public synchronized int getTrackCount() {
+        return mFormats.size();
+    }
+
+    public synchronized TrackFormat getTrackFormat(int track) {
+        return new TrackFormat(mFormats.get(track));
+    }
+
+    public synchronized int getSampleCount(int track) {
+        return mSamples.get(track).size();
+    }
+
+    public synchronized Sample getSample(int track, int index) {
+        return mSamples.get(track).get(index);
+    }
+
+    public synchronized int getOrientationHint() {
+        return mOrientationHint;
+    }
+
+    /**
+     * @return the samples of a track holding 16 bit PCM, e.g. encoded by a {@link PcmCodec}, as
+     * one array of interleaved samples
+     */
+    public synchronized short[] getPcmSamples(int track) {
+        int bytes = 0;
+        for (Sample sample : mSamples.get(track)) {
+            bytes += sample.mData.length;
+        }
+
+        short[] pcm = new short[bytes / 2];
+        int position = 0;
+        for (Sample sample : mSamples.get(track)) {
+            ShortBuffer samples = ByteBuffer.wrap(sample.mData).order(ByteOrder.nativeOrder())
+                    .asShortBuffer();
+            int count = samples.remaining();
+            samples.get(pcm, position, count);
+            position += count;
+        }
+        return pcm;
+    }
+
+    /**
+     * @return a muxer adding the tracks and samples it is given to this container
+     */
+    public TrackMuxer newMuxer() {
+        return new Muxer();
+    }
+
+    /**
+     * @return an extractor of the tracks of this container
+     */
+    public TrackExtractor newExtractor() {
+        return new Extractor();
+    }
+
+    private synchronized boolean isSync(int track, int index) {
+        return mFormats.get(track).isAudio()
+                || (mSamples.get(track).get(index).mFlags & CodecPump.BUFFER_FLAG_KEY_FRAME) != 0;
+    }
+
+    private synchronized void setOrientationHint(int degrees) {
+        mOrientationHint = degrees;
+    }
+
+    private class Muxer implements TrackMuxer {
+
+        private boolean mStarted;
+        private boolean mStopped;
+
+        @Override
+        public int addTrack(TrackFormat format) {
+            if (mStarted) {
+                throw new IllegalStateException("muxer already started");
+            }
+            return MemoryContainer.this.addTrack(format);
+        }
+
+        @Override
+        public void setOrientationHint(int degrees) {
+            MemoryContainer.this.setOrientationHint(degrees);
+        }
+
+        @Override
+        public void start() {
+            if (getTrackCount() == 0) {
+                throw new IllegalStateException("muxer has no track");
+            }
+            mStarted = true;
+        }
+
+        @Override
+        public void writeSampleData(int track, ByteBuffer data, CodecPump.OutputBuffer info) {
+            if (!mStarted || mStopped) {
+                throw new IllegalStateException("muxer not started");
+            }
+
+            ByteBuffer source = data.duplicate();
+            source.limit(info.offset + info.size);
+            source.position(info.offset);
+            byte[] bytes = new byte[info.size];
+            source.get(bytes);
+            addSample(track, new Sample(bytes, info.presentationTimeUs, info.flags));
+        }
+
+        @Override
+        public void stop() {
+            if (!mStarted) {
+                throw new IllegalStateException("muxer not started");
+            }
+            mStopped = true;
+        }
+
+        @Override
+        public void release() {
+            mStopped = true;
+        }
+    }
+
+    private class Extractor implements TrackExtractor {
+
+        /* next sample of each track, and whether each track is selected */
+        private int[] mPositions = new int[MemoryContainer.this.getTrackCount()];
+        private boolean[] mSelected = new boolean[mPositions.length];
+
+        /* track of the current sample, -1 at the end */
+        private int mTrack = -1;
+
+        @Override
+        public int getTrackCount() {
+            return mPositions.length;
+        }
+
+        @Override
+        public TrackFormat getTrackFormat(int track) {
+            return MemoryContainer.this.getTrackFormat(track);
+        }
+
+        @Override
+        public void selectTrack(int track) {
+            mSelected[track] = true;
+            pickTrack();
+        }
+
+        @Override
+        public void unselectTrack(int track) {
+            mSelected[track] = false;
+            pickTrack();
+        }
+
+        @Override
+        public int readSampleData(ByteBuffer buffer, int offset) {
+            if (mTrack < 0) {
+                return -1;
+            }
+
+            byte[] data = getSample(mTrack, mPositions[mTrack]).mData;
+            ByteBuffer destination = buffer.duplicate();
+            destination.position(offset);
+            destination.put(data);
+            return data.length;
+        }
+
+        @Override
+        public long getSampleTime() {
+            return mTrack >= 0 ? getSample(mTrack, mPositions[mTrack]).mPresentationTimeUs : -1;
+        }
+
+        @Override
+        public int getSampleTrackIndex() {
+            return mTrack;
+        }
+
+        @Override
+        public int getSampleFlags() {
+            return mTrack >= 0 && isSync(mTrack, mPositions[mTrack]) ? SAMPLE_FLAG_SYNC : 0;
+        }
+
+        @Override
+        public boolean advance() {
+            if (mTrack < 0) {
+                return false;
+            }
+
+            ++mPositions[mTrack];
+            pickTrack();
+            return mTrack >= 0;
+        }
+
+        @Override
+        public void seekTo(long timeUs, int mode) {
+            for (int t = 0; t < mPositions.length; t++) {
+                if (mSelected[t]) {
+                    mPositions[t] = findSync(t, timeUs, mode);
+                }
+            }
+            pickTrack();
+        }
+
+        @Override
+        public void release() {
+            mTrack = -1;
+            mSelected = new boolean[mPositions.length];
+        }
+
+        /**
+         * @return the sync sample of a track at or around the given time
+         */
+        private int findSync(int track, long timeUs, int mode) {
+            int count = getSampleCount(track);
+            int previous = -1;
+            int next = count;
+            for (int i = 0; i < count; i++) {
+                if (!isSync(track, i)) {
+                    continue;
+                }
+                if (getSample(track, i).mPresentationTimeUs <= timeUs) {
+                    previous = i;
+                } else {
+                    next = i;
+                    break;
+                }
+            }
+
+            if (mode == SEEK_TO_NEXT_SYNC) {
+                return previous >= 0 && getSample(track, previous).mPresentationTimeUs == timeUs
+                        ? previous : next;
+            } else if (mode == SEEK_TO_CLOSEST_SYNC && next < count) {
+                if (previous < 0 || getSample(track, next).mPresentationTimeUs - timeUs
+                        < timeUs - getSample(track, previous).mPresentationTimeUs) {
+                    return next;
+                }
+            }
+            return previous >= 0 ? previous : next;
+        }
+
+        /**
+         * Makes the earliest pending sample of the selected tracks the current one
+         */
+        private void pickTrack() {
+            mTrack = -1;
+            long earliestUs = Long.MAX_VALUE;
+            for (int t = 0; t < mPositions.length; t++) {
+                if (mSelected[t] && mPositions[t] < getSampleCount(t)) {
+                    long timeUs = getSample(t, mPositions[t]).mPresentationTimeUs;
+                    if (timeUs < earliestUs) {
+                        earliestUs = timeUs;
+                        mTrack = t;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package net.integritas.android.avmixer.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+/**
+ * <p>
+ *  Pass-through {@link TrackCodec} of 16 bit PCM, standing in for the audio decoders and
+ *  encoders of the {@link JvmMediaBackend}. Every queued input buffer comes out unchanged as an
+ *  output buffer, after the output format is reported, like a MediaCodec in synchronous mode
+ *  would.
+ * </p>
+ * <p>
+ *  Decoding expects 16 bit PCM input, as read from a WAV file. Encoding takes the PCM samples of
+ *  any audio format and outputs them as they are, so the encoded track holds PCM whatever mime
+ *  type the encoder was created for.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class PcmCodec implements TrackCodec {
+
+    private static final int BUFFER_COUNT = 4;
+    private static final int MIN_BUFFER_SIZE = 64 * 1024;
+
+    private TrackFormat mOutputFormat;
+    private ByteBuffer[] mInputBuffers = new ByteBuffer[0];
+    private ByteBuffer[] mOutputBuffers = new ByteBuffer[0];
+
+    /* the output buffer of a queued input buffer has the same index */
+    private final ArrayDeque<Integer> mFreeBuffers = new ArrayDeque<Integer>();
+    private final ArrayDeque<CodecPump.OutputBuffer> mPendingOutputs =
+            new ArrayDeque<CodecPump.OutputBuffer>();
+    private boolean mFormatReported;
+
+    @Override
+    public boolean isAsync() {
+        return false;
+    }
+
+    @Override
+    public void setListener(CodecPump.Listener listener) {
+        /* synchronous only */
+    }
+
+    @Override
+    public synchronized void configure(TrackFormat format, int flags) {
+        mOutputFormat = TrackFormat.createAudioFormat(TrackFormat.MIMETYPE_AUDIO_RAW,
+                format.getInteger(TrackFormat.KEY_SAMPLE_RATE),
+                format.getInteger(TrackFormat.KEY_CHANNEL_COUNT));
+
+        int bufferSize = Math.max(MIN_BUFFER_SIZE,
+                format.getInteger(TrackFormat.KEY_MAX_INPUT_SIZE, 0));
+        mInputBuffers = new ByteBuffer[BUFFER_COUNT];
+        mOutputBuffers = new ByteBuffer[BUFFER_COUNT];
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            mInputBuffers[i] = ByteBuffer.allocate(bufferSize).order(ByteOrder.nativeOrder());
+            mOutputBuffers[i] = ByteBuffer.allocate(bufferSize).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        mFreeBuffers.clear();
+        mPendingOutputs.clear();
+        for (int i = 0; i < mInputBuffers.length; i++) {
+            mFreeBuffers.add(i);
+        }
+        mFormatReported = false;
+    }
+
+    @Override
+    public synchronized int dequeueInputBuffer(long timeoutUs) {
+        Integer index = mFreeBuffers.poll();
+        return index != null ? index : CodecPump.INFO_TRY_AGAIN_LATER;
+    }
+
+    @Override
+    public synchronized int dequeueOutputBuffer(CodecPump.OutputBuffer out, long timeoutUs) {
+        if (mPendingOutputs.isEmpty()) {
+            return CodecPump.INFO_TRY_AGAIN_LATER;
+        }
+
+        if (!mFormatReported) {
+            mFormatReported = true;
+            return CodecPump.INFO_OUTPUT_FORMAT_CHANGED;
+        }
+
+        CodecPump.OutputBuffer output = mPendingOutputs.poll();
+        out.set(output.index, output.offset, output.size, output.presentationTimeUs,
+                output.flags);
+        return output.index;
+    }
+
+    @Override
+    public synchronized ByteBuffer getInputBuffer(int index) {
+        return mInputBuffers[index];
+    }
+
+    @Override
+    public synchronized ByteBuffer getOutputBuffer(int index) {
+        return mOutputBuffers[index];
+    }
+
+    @Override
+    public synchronized void queueInputBuffer(int index, int offset, int size,
+                                              long presentationTimeUs, int flags) {
+        ByteBuffer input = mInputBuffers[index].duplicate();
+        input.limit(offset + size);
+        input.position(offset);
+
+        ByteBuffer output = mOutputBuffers[index];
+        output.clear();
+        output.put(input);
+        output.clear();
+
+        mPendingOutputs.add(new CodecPump.OutputBuffer().set(index, 0, size,
+                presentationTimeUs, flags));
+    }
+
+    @Override
+    public synchronized void releaseOutputBuffer(int index, boolean render) {
+        mFreeBuffers.add(index);
+    }
+
+    @Override
+    public synchronized TrackFormat getOutputFormat() {
+        return new TrackFormat(mOutputFormat);
+    }
+
+    @Override
+    public synchronized void stop() {
+        mFreeBuffers.clear();
+        mPendingOutputs.clear();
+    }
+
+    @Override
+    public synchronized void release() {
+        stop();
+        mInputBuffers = new ByteBuffer[0];
+        mOutputBuffers = new ByteBuffer[0];
+    }
+}
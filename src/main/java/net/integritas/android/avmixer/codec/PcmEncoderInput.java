@@ -0,0 +1,171 @@
+package net.integritas.android.avmixer.codec;
+
+import net.integritas.android.avmixer.audio.AudioClock;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * <p>
+ *  Writes interleaved PCM samples straight into the input buffers of an encoder driven by a
+ *  {@link CodecPump}. Samples are put through a native-order ShortBuffer view of each input
+ *  buffer, created once per buffer, so feeding the encoder needs no intermediate array and
+ *  allocates nothing once every buffer has been seen.
+ * </p>
+ * <p>
+ *  Input buffers are filled up to a whole number of frames before being queued, and a new one
+ *  is taken as soon as the pump has one, without waiting for the encoder output: as many
+ *  buffers as the encoder offers can be in flight at once. Presentation times are taken from
+ *  the sample count through an {@link AudioClock}.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class PcmEncoderInput {
+
+    /**
+     * Input side of the encoder
+     */
+    public interface Buffers {
+
+        ByteBuffer getInputBuffer(int index);
+
+        void queueInputBuffer(int index, int offset, int size, long presentationTimeUs,
+                              int flags);
+    }
+
+    private final CodecPump mPump;
+    private final int mCodecId;
+    private final Buffers mBuffers;
+    private final AudioClock mClock;
+    private final int mChannelCount;
+
+    /* views of the encoder input buffers, by buffer index */
+    private ByteBuffer[] mSources = new ByteBuffer[0];
+    private ShortBuffer[] mViews = new ShortBuffer[0];
+
+    /* input buffer being filled */
+    private int mIndex = -1;
+    private ShortBuffer mView;
+    private long mPresentationTimeUs;
+    private int mQueuedBuffers;
+
+    /**
+     * @param pump     - pump the encoder was added to
+     * @param codecId  - encoder id on the pump
+     * @param buffers  - encoder input buffers
+     * @param clock    - clock of the encoded stream, advanced by the samples written
+     */
+    public PcmEncoderInput(CodecPump pump, int codecId, Buffers buffers, AudioClock clock) {
+        mPump = pump;
+        mCodecId = codecId;
+        mBuffers = buffers;
+        mClock = clock;
+        mChannelCount = clock.getChannelCount();
+    }
+
+    /**
+     * Writes samples into the encoder input buffers, as far as the encoder has buffers
+     * available. Never blocks.
+     *
+     * @return the number of samples written, a whole number of frames
+     */
+    public int write(short[] samples, int offset, int length) {
+        int written = 0;
+        while (written < length) {
+            if (mView == null && !dequeue()) {
+                break;
+            }
+
+            int count = Math.min(length - written, mView.remaining());
+            mView.put(samples, offset + written, count);
+            mClock.advance(count);
+            written += count;
+
+            if (!mView.hasRemaining()) {
+                queue(0);
+            }
+        }
+
+        return written;
+    }
+
+    /**
+     * Queues the input buffer being filled, if any, even if it is not full
+     */
+    public void flush() {
+        if (mView != null && mView.position() > 0) {
+            queue(0);
+        }
+    }
+
+    /**
+     * Queues the input buffer being filled, or an empty one, flagged as the end of the stream
+     *
+     * @return whether it was queued, false if the encoder has no input buffer available
+     */
+    public boolean signalEndOfStream() {
+        if (mView == null && !dequeue()) {
+            return false;
+        }
+
+        queue(CodecPump.BUFFER_FLAG_END_OF_STREAM);
+        return true;
+    }
+
+    /**
+     * @return the number of input buffers queued to the encoder
+     */
+    public int getQueuedBuffers() {
+        return mQueuedBuffers;
+    }
+
+    private boolean dequeue() {
+        int index = mPump.pollInput(mCodecId);
+        if (index < 0) {
+            return false;
+        }
+
+        ShortBuffer view = view(index, mBuffers.getInputBuffer(index));
+        view.clear();
+        /* a buffer only holds whole frames */
+        view.limit(view.capacity() / mChannelCount * mChannelCount);
+
+        mIndex = index;
+        mView = view;
+        mPresentationTimeUs = mClock.getPresentationTimeUs();
+        return true;
+    }
+
+    private void queue(int flags) {
+        mBuffers.queueInputBuffer(mIndex, 0, mView.position() * 2, mPresentationTimeUs, flags);
+        ++mQueuedBuffers;
+        mIndex = -1;
+        mView = null;
+    }
+
+    /**
+     * @return the view of an input buffer, created the first time the buffer is seen
+     */
+    private ShortBuffer view(int index, ByteBuffer buffer) {
+        if (index >= mViews.length) {
+            ByteBuffer[] sources = new ByteBuffer[index + 1];
+            ShortBuffer[] views = new ShortBuffer[index + 1];
+            System.arraycopy(mSources, 0, sources, 0, mSources.length);
+            System.arraycopy(mViews, 0, views, 0, mViews.length);
+            mSources = sources;
+            mViews = views;
+        }
+
+        if (mSources[index] != buffer) {
+            buffer.clear();
+            mSources[index] = buffer;
+            mViews[index] = buffer.order(ByteOrder.nativeOrder()).asShortBuffer();
+        }
+
+        return mViews[index];
+    }
+}
@@ -0,0 +1,38 @@
+package net.integritas.android.avmixer.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ *  Decoder or encoder of a media track, with the buffer model of MediaCodec: input buffers are
+ *  taken and queued, output buffers are taken and released, both through the
+ *  {@link CodecPump} the codec was added to. Created by a {@link MediaBackend}.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public interface TrackCodec extends CodecPump.Codec, PcmEncoderInput.Buffers {
+
+    /**
+     * @param format - format of the decoder input, or of the encoder output
+     * @param flags  - CodecPump.CONFIGURE_FLAG_ENCODE for an encoder, 0 for a decoder
+     */
+    void configure(TrackFormat format, int flags);
+
+    void start();
+
+    ByteBuffer getOutputBuffer(int index);
+
+    void releaseOutputBuffer(int index, boolean render);
+
+    /**
+     * @return the format of the codec output, valid once the codec reported it
+     */
+    TrackFormat getOutputFormat();
+
+    void stop();
+
+    void release();
+}
@@ -0,0 +1,69 @@
+package net.integritas.android.avmixer.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ *  Reads the encoded samples of the tracks of a media file, with the semantics of
+ *  MediaExtractor: the samples of the selected tracks are read one at a time, in decoding
+ *  order. Created by a {@link MediaBackend}.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public interface TrackExtractor {
+
+    /* same values as the MediaExtractor constants */
+    int SEEK_TO_PREVIOUS_SYNC = 0;
+    int SEEK_TO_NEXT_SYNC = 1;
+    int SEEK_TO_CLOSEST_SYNC = 2;
+    int SAMPLE_FLAG_SYNC = 1;
+
+    int getTrackCount();
+
+    TrackFormat getTrackFormat(int track);
+
+    void selectTrack(int track);
+
+    void unselectTrack(int track);
+
+    /**
+     * Reads the current sample
+     *
+     * @param buffer - destination of the sample
+     * @param offset - where the sample is written on the buffer
+     * @return the sample size, or -1 if there are no more samples
+     */
+    int readSampleData(ByteBuffer buffer, int offset);
+
+    /**
+     * @return the presentation time of the current sample, in microseconds, or -1 if there are
+     * no more samples
+     */
+    long getSampleTime();
+
+    /**
+     * @return the track of the current sample, or -1 if there are no more samples
+     */
+    int getSampleTrackIndex();
+
+    int getSampleFlags();
+
+    /**
+     * Moves to the next sample
+     *
+     * @return false if there are no more samples
+     */
+    boolean advance();
+
+    /**
+     * Moves the selected tracks to a sync sample around the given time
+     *
+     * @param mode - one of the SEEK_TO_* constants
+     */
+    void seekTo(long timeUs, int mode);
+
+    void release();
+}
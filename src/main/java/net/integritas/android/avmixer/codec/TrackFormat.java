@@ -0,0 +1,159 @@
+package net.integritas.android.avmixer.codec;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ *  Format of a media track, as a set of typed values under the same keys as MediaFormat. Used by
+ *  the {@link MediaBackend} interfaces in place of MediaFormat, which only exists on a device.
+ * </p>
+ * <p>
+ *  A format read from an Android extractor or codec keeps the MediaFormat it was read from, so
+ *  the values not copied here (e.g. the codec specific data) are not lost when the format is
+ *  handed back to a codec or a muxer.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public final class TrackFormat {
+
+    /* same keys as the MediaFormat KEY_* constants */
+    public static final String KEY_MIME = "mime";
+    public static final String KEY_SAMPLE_RATE = "sample-rate";
+    public static final String KEY_CHANNEL_COUNT = "channel-count";
+    public static final String KEY_DURATION = "durationUs";
+    public static final String KEY_BIT_RATE = "bitrate";
+    public static final String KEY_MAX_INPUT_SIZE = "max-input-size";
+    public static final String KEY_WIDTH = "width";
+    public static final String KEY_HEIGHT = "height";
+    public static final String KEY_COLOR_FORMAT = "color-format";
+    public static final String KEY_FRAME_RATE = "frame-rate";
+    public static final String KEY_I_FRAME_INTERVAL = "i-frame-interval";
+    public static final String KEY_ROTATION = "rotation-degrees";
+
+    /**
+     * Mime type of 16 bit PCM audio
+     */
+    public static final String MIMETYPE_AUDIO_RAW = "audio/raw";
+
+    private final HashMap<String, Object> mValues = new HashMap<String, Object>();
+
+    /* MediaFormat this format was read from, if any */
+    private Object mPlatformFormat;
+
+    public TrackFormat() {
+    }
+
+    /**
+     * Copies a format, including the MediaFormat it was read from
+     */
+    public TrackFormat(TrackFormat format) {
+        mValues.putAll(format.mValues);
+        mPlatformFormat = format.mPlatformFormat;
+    }
+
+    public static TrackFormat createAudioFormat(String mime, int sampleRate, int channelCount) {
+        TrackFormat format = new TrackFormat();
+        format.setString(KEY_MIME, mime);
+        format.setInteger(KEY_SAMPLE_RATE, sampleRate);
+        format.setInteger(KEY_CHANNEL_COUNT, channelCount);
+        return format;
+    }
+
+    public static TrackFormat createVideoFormat(String mime, int width, int height) {
+        TrackFormat format = new TrackFormat();
+        format.setString(KEY_MIME, mime);
+        format.setInteger(KEY_WIDTH, width);
+        format.setInteger(KEY_HEIGHT, height);
+        return format;
+    }
+
+    public boolean containsKey(String key) {
+        return mValues.containsKey(key);
+    }
+
+    /**
+     * @throws NullPointerException if the format has no value for the key
+     * @throws ClassCastException   if the value is not an integer
+     */
+    public int getInteger(String key) {
+        return (Integer) mValues.get(key);
+    }
+
+    /**
+     * @return the integer value of the key, or defaultValue if the format has none
+     */
+    public int getInteger(String key, int defaultValue) {
+        Object value = mValues.get(key);
+        return value != null ? (Integer) value : defaultValue;
+    }
+
+    /**
+     * @throws NullPointerException if the format has no value for the key
+     * @throws ClassCastException   if the value is not a long
+     */
+    public long getLong(String key) {
+        return (Long) mValues.get(key);
+    }
+
+    public String getString(String key) {
+        return (String) mValues.get(key);
+    }
+
+    public ByteBuffer getByteBuffer(String key) {
+        return (ByteBuffer) mValues.get(key);
+    }
+
+    public void setInteger(String key, int value) {
+        mValues.put(key, value);
+    }
+
+    public void setLong(String key, long value) {
+        mValues.put(key, value);
+    }
+
+    public void setString(String key, String value) {
+        mValues.put(key, value);
+    }
+
+    public void setByteBuffer(String key, ByteBuffer value) {
+        mValues.put(key, value);
+    }
+
+    /**
+     * @return whether the format is of an audio track
+     */
+    public boolean isAudio() {
+        String mime = getString(KEY_MIME);
+        return mime != null && mime.startsWith("audio/");
+    }
+
+    /**
+     * @return whether the format is of a video track
+     */
+    public boolean isVideo() {
+        String mime = getString(KEY_MIME);
+        return mime != null && mime.startsWith("video/");
+    }
+
+    Map<String, Object> getValues() {
+        return mValues;
+    }
+
+    Object getPlatformFormat() {
+        return mPlatformFormat;
+    }
+
+    void setPlatformFormat(Object platformFormat) {
+        mPlatformFormat = platformFormat;
+    }
+
+    @Override
+    public String toString() {
+        return mValues.toString();
+    }
+}
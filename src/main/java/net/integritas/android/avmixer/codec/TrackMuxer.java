@@ -0,0 +1,37 @@
+package net.integritas.android.avmixer.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ *  Writes encoded samples into the tracks of a media file, with the semantics of MediaMuxer:
+ *  every track is added before start(), then the samples are written until stop(). Created by
+ *  a {@link MediaBackend}.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public interface TrackMuxer {
+
+    /**
+     * @return the index of the new track
+     */
+    int addTrack(TrackFormat format);
+
+    void setOrientationHint(int degrees);
+
+    void start();
+
+    /**
+     * @param track - index of the track, as returned by addTrack()
+     * @param data  - buffer holding the sample
+     * @param info  - offset and size of the sample on the buffer, presentation time and flags
+     */
+    void writeSampleData(int track, ByteBuffer data, CodecPump.OutputBuffer info);
+
+    void stop();
+
+    void release();
+}
@@ -0,0 +1,273 @@
+package net.integritas.android.avmixer.codec;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ *  {@link TrackExtractor} of the single track of a 16 bit PCM WAV file, standing in for
+ *  MediaExtractor on the {@link JvmMediaBackend}. The samples are read in chunks of
+ *  {@link #CHUNK_FRAMES} frames, every chunk being a sync sample, in native byte order like the
+ *  output of an Android audio decoder.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class WavExtractor implements TrackExtractor {
+
+    /**
+     * Number of frames of each sample read
+     */
+    public static final int CHUNK_FRAMES = 1024;
+
+    private static final int WAVE_FORMAT_PCM = 1;
+    private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private final String mPath;
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final TrackFormat mFormat;
+    private final int mSampleRate;
+    private final int mFrameSize;
+    private final long mDataOffset;
+    private final long mFrameCount;
+    private final boolean mSwapBytes = ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN;
+
+    private boolean mSelected;
+    private long mFrame;
+    private byte[] mChunk = new byte[0];
+
+    public WavExtractor(File file) throws IOException {
+        mPath = file.getPath();
+        mFile = new RandomAccessFile(file, "r");
+        mChannel = mFile.getChannel();
+
+        try {
+            if (readTag() != 0x52494646 /* RIFF */) {
+                throw new IOException("not a WAV file: " + mPath);
+            }
+            readLittleEndianInt();
+            if (readTag() != 0x57415645 /* WAVE */) {
+                throw new IOException("not a WAV file: " + mPath);
+            }
+
+            int channelCount = 0;
+            int sampleRate = 0;
+            long dataOffset;
+            long dataSize;
+            while (true) {
+                int tag = readTag();
+                long size = readLittleEndianInt() & 0xFFFFFFFFl;
+
+                if (tag == 0x666D7420 /* fmt */) {
+                    int format = readLittleEndianShort();
+                    channelCount = readLittleEndianShort();
+                    sampleRate = readLittleEndianInt();
+                    mFile.skipBytes(6);
+                    int bits = readLittleEndianShort();
+                    if ((format != WAVE_FORMAT_PCM && format != WAVE_FORMAT_EXTENSIBLE)
+                            || bits != 16 || channelCount <= 0 || sampleRate <= 0) {
+                        throw new IOException("not a 16 bit PCM WAV file: " + mPath);
+                    }
+                    mFile.seek(mFile.getFilePointer() + size - 16 + (size & 1));
+                } else if (tag == 0x64617461 /* data */) {
+                    if (channelCount == 0) {
+                        throw new IOException("WAV data before its format: " + mPath);
+                    }
+                    /* streamed files may not have their data size set */
+                    dataOffset = mFile.getFilePointer();
+                    dataSize = Math.min(size, mFile.length() - dataOffset);
+                    break;
+                } else {
+                    mFile.seek(mFile.getFilePointer() + size + (size & 1));
+                }
+            }
+
+            mSampleRate = sampleRate;
+            mFrameSize = channelCount * 2;
+            mDataOffset = dataOffset;
+            mFrameCount = dataSize / mFrameSize;
+        } catch (IOException e) {
+            mFile.close();
+            throw e instanceof EOFException
+                    ? new IOException("truncated WAV file: " + mPath) : e;
+        }
+
+        mFormat = TrackFormat.createAudioFormat(TrackFormat.MIMETYPE_AUDIO_RAW, mSampleRate,
+                mFrameSize / 2);
+        mFormat.setLong(TrackFormat.KEY_DURATION, mFrameCount * 1000000l / mSampleRate);
+        mFormat.setInteger(TrackFormat.KEY_MAX_INPUT_SIZE, CHUNK_FRAMES * mFrameSize);
+    }
+
+    /**
+     * Writes 16 bit PCM samples as a WAV file, e.g. to feed a {@link JvmMediaBackend}
+     *
+     * @param samples - interleaved samples
+     */
+    public static void write(File file, int sampleRate, int channelCount, short[] samples,
+                             int offset, int length) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            int dataSize = length * 2;
+            out.writeInt(0x52494646);
+            out.writeInt(Integer.reverseBytes(36 + dataSize));
+            out.writeInt(0x57415645);
+            out.writeInt(0x666D7420);
+            out.writeInt(Integer.reverseBytes(16));
+            out.writeShort(Short.reverseBytes((short) WAVE_FORMAT_PCM));
+            out.writeShort(Short.reverseBytes((short) channelCount));
+            out.writeInt(Integer.reverseBytes(sampleRate));
+            out.writeInt(Integer.reverseBytes(sampleRate * channelCount * 2));
+            out.writeShort(Short.reverseBytes((short) (channelCount * 2)));
+            out.writeShort(Short.reverseBytes((short) 16));
+            out.writeInt(0x64617461);
+            out.writeInt(Integer.reverseBytes(dataSize));
+            for (int i = offset; i < offset + length; i++) {
+                out.writeShort(Short.reverseBytes(samples[i]));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    @Override
+    public int getTrackCount() {
+        return 1;
+    }
+
+    @Override
+    public TrackFormat getTrackFormat(int track) {
+        checkTrack(track);
+        return new TrackFormat(mFormat);
+    }
+
+    @Override
+    public void selectTrack(int track) {
+        checkTrack(track);
+        mSelected = true;
+    }
+
+    @Override
+    public void unselectTrack(int track) {
+        checkTrack(track);
+        mSelected = false;
+    }
+
+    @Override
+    public int readSampleData(ByteBuffer buffer, int offset) {
+        if (!hasSample()) {
+            return -1;
+        }
+
+        int size = (int) Math.min(CHUNK_FRAMES, mFrameCount - mFrame) * mFrameSize;
+        if (mChunk.length < size) {
+            mChunk = new byte[size];
+        }
+
+        try {
+            ByteBuffer chunk = ByteBuffer.wrap(mChunk, 0, size);
+            long position = mDataOffset + mFrame * mFrameSize;
+            while (chunk.hasRemaining()) {
+                if (mChannel.read(chunk, position + chunk.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("could not read " + mPath, e);
+        }
+
+        if (mSwapBytes) {
+            for (int i = 0; i < size; i += 2) {
+                byte b = mChunk[i];
+                mChunk[i] = mChunk[i + 1];
+                mChunk[i + 1] = b;
+            }
+        }
+
+        ByteBuffer destination = buffer.duplicate();
+        destination.position(offset);
+        destination.put(mChunk, 0, size);
+        return size;
+    }
+
+    @Override
+    public long getSampleTime() {
+        return hasSample() ? mFrame * 1000000l / mSampleRate : -1;
+    }
+
+    @Override
+    public int getSampleTrackIndex() {
+        return hasSample() ? 0 : -1;
+    }
+
+    @Override
+    public int getSampleFlags() {
+        return hasSample() ? SAMPLE_FLAG_SYNC : 0;
+    }
+
+    @Override
+    public boolean advance() {
+        if (!hasSample()) {
+            return false;
+        }
+
+        mFrame = Math.min(mFrame + CHUNK_FRAMES, mFrameCount);
+        return hasSample();
+    }
+
+    @Override
+    public void seekTo(long timeUs, int mode) {
+        /* every chunk is a sync sample */
+        long frame = Math.max(0, timeUs) * mSampleRate / 1000000l;
+        long chunk = frame / CHUNK_FRAMES;
+        long remainder = frame % CHUNK_FRAMES;
+        if ((mode == SEEK_TO_NEXT_SYNC && remainder > 0)
+                || (mode == SEEK_TO_CLOSEST_SYNC && remainder >= CHUNK_FRAMES / 2)) {
+            ++chunk;
+        }
+
+        mFrame = Math.min(chunk * CHUNK_FRAMES, mFrameCount);
+    }
+
+    @Override
+    public void release() {
+        try {
+            mFile.close();
+        } catch (IOException e) {
+            /* nothing left to read */
+        }
+    }
+
+    private boolean hasSample() {
+        return mSelected && mFrame < mFrameCount;
+    }
+
+    private void checkTrack(int track) {
+        if (track != 0) {
+            throw new IllegalArgumentException("no track " + track + " on " + mPath);
+        }
+    }
+
+    private int readTag() throws IOException {
+        return mFile.readInt();
+    }
+
+    private int readLittleEndianInt() throws IOException {
+        return Integer.reverseBytes(mFile.readInt());
+    }
+
+    private int readLittleEndianShort() throws IOException {
+        return Short.reverseBytes(mFile.readShort()) & 0xFFFF;
+    }
+}
@@ -19,7 +19,7 @@ import java.nio.FloatBuffer;
  *
  * @author Raphael Kohn (raphael.kohn@integritas.net)
  *
- * @version 1.1
+ * @version 1.9
  * @since 1.0
  */
 public class BitmapTextureRenderer {
@@ -81,6 +81,19 @@ public class BitmapTextureRenderer {
         Matrix.setIdentityM(mSTMatrix, 0);
         mSTMatrix[5] = -mSTMatrix[5];
         mSTMatrix[13] = 1.0f - mSTMatrix[13];
+        Matrix.setIdentityM(mMVPMatrix, 0);
+    }
+
+    /**
+     * Sets the clockwise rotation the bitmap is drawn with, in degrees. Rotating by 90 or 270
+     * degrees swaps the bitmap width and height over the frame.
+     */
+    public void setRotation(int degrees) {
+        if (degrees % 360 == 0) {
+            Matrix.setIdentityM(mMVPMatrix, 0);
+        } else {
+            Matrix.setRotateM(mMVPMatrix, 0, -degrees, 0, 0, 1.0f);
+        }
     }
 
     public void drawFrame() {
@@ -109,7 +122,6 @@ public class BitmapTextureRenderer {
         GLES20.glEnableVertexAttribArray(maTextureHandle);
         checkGlError("glEnableVertexAttribArray maTextureHandle");
 
-        Matrix.setIdentityM(mMVPMatrix, 0);
         GLES20.glUniformMatrix4fv(muMVPMatrixHandle, 1, false, mMVPMatrix, 0);
         GLES20.glUniformMatrix4fv(muSTMatrixHandle, 1, false, mSTMatrix, 0);
 
@@ -153,7 +165,7 @@ public class BitmapTextureRenderer {
         checkGlError("glBindTexture mTextureID");
 
         GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
-                GLES20.GL_NEAREST);
+                GLES20.GL_LINEAR);
         GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
                 GLES20.GL_LINEAR);
         GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
@@ -0,0 +1,194 @@
+package net.integritas.android.avmixer.util;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ *  Pool of mutable bitmaps to decode into through BitmapFactory.Options.inBitmap, so decoding
+ *  a sequence of images reuses the same memory instead of allocating a bitmap per image.
+ * </p>
+ * <p>
+ *  Bitmaps are kept by size class, the power of two just above their allocation size. From
+ *  API 19 any bitmap at least as big as the decoded image can be reused, so a request is
+ *  served from its size class or the next ones up. Older API levels only decode into a
+ *  bitmap of the very same size, decoded without subsampling.
+ * </p>
+ * <p>
+ *  The pool holds up to a maximum number of bytes; past it, the bitmaps put the longest ago
+ *  are recycled.
+ * </p>
+ *
+ * @author AlexGP (alexandre.gomes@integritas.net)
+ *
+ * @since 1.9
+ */
+public class BitmapPool {
+
+    private final long mMaxBytes;
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> mSizeClasses =
+            new TreeMap<Integer, ArrayDeque<Bitmap>>();
+    private final ArrayDeque<Bitmap> mPutOrder = new ArrayDeque<Bitmap>();
+    private long mBytes;
+    private int mHits;
+    private int mMisses;
+
+    /**
+     * @param maxBytes - most bytes of bitmaps held by the pool
+     */
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Takes a bitmap out of the pool, to be set as inBitmap of a decode
+     *
+     * @param width  - width of the decoded image
+     * @param height - height of the decoded image
+     * @param config - pixel format of the decoded image
+     * @return a bitmap the image can be decoded into, or null
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        long bytes = (long) width * height * getBytesPerPixel(config);
+        Bitmap bitmap = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                ? takeAtLeast(bytes) : takeExactly(width, height, config, bytes);
+
+        if (bitmap != null) {
+            ++mHits;
+        } else {
+            ++mMisses;
+        }
+        return bitmap;
+    }
+
+    /**
+     * Gives a bitmap back to the pool. Bitmaps which can not be decoded into are recycled.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+
+        if (mPutOrder.contains(bitmap)) {
+            return;
+        }
+
+        long bytes = getSize(bitmap);
+        if (!bitmap.isMutable() || bytes > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+
+        ArrayDeque<Bitmap> bitmaps = mSizeClasses.get(getSizeClass(bytes));
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<Bitmap>();
+            mSizeClasses.put(getSizeClass(bytes), bitmaps);
+        }
+        bitmaps.add(bitmap);
+        mPutOrder.add(bitmap);
+        mBytes += bytes;
+
+        while (mBytes > mMaxBytes) {
+            Bitmap oldest = mPutOrder.peek();
+            remove(oldest);
+            oldest.recycle();
+        }
+    }
+
+    /**
+     * Recycles every bitmap of the pool
+     */
+    public synchronized void clear() {
+        for (Bitmap bitmap : mPutOrder) {
+            bitmap.recycle();
+        }
+        mSizeClasses.clear();
+        mPutOrder.clear();
+        mBytes = 0;
+    }
+
+    /**
+     * @return the bytes of bitmaps held by the pool
+     */
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * @return the number of bitmaps taken out of the pool
+     */
+    public synchronized int getHits() {
+        return mHits;
+    }
+
+    /**
+     * @return the number of requests the pool had no bitmap for
+     */
+    public synchronized int getMisses() {
+        return mMisses;
+    }
+
+    public static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565) {
+            return 2;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+
+    private Bitmap takeAtLeast(long bytes) {
+        for (Map.Entry<Integer, ArrayDeque<Bitmap>> sizeClass
+                : mSizeClasses.tailMap(getSizeClass(bytes)).entrySet()) {
+            for (Bitmap bitmap : sizeClass.getValue()) {
+                if (getSize(bitmap) >= bytes) {
+                    remove(bitmap);
+                    return bitmap;
+                }
+            }
+        }
+        return null;
+    }
+
+    private Bitmap takeExactly(int width, int height, Bitmap.Config config, long bytes) {
+        ArrayDeque<Bitmap> bitmaps = mSizeClasses.get(getSizeClass(bytes));
+        if (bitmaps != null) {
+            for (Bitmap bitmap : bitmaps) {
+                if (bitmap.getWidth() == width && bitmap.getHeight() == height
+                        && bitmap.getConfig() == config) {
+                    remove(bitmap);
+                    return bitmap;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void remove(Bitmap bitmap) {
+        long bytes = getSize(bitmap);
+        int sizeClass = getSizeClass(bytes);
+        ArrayDeque<Bitmap> bitmaps = mSizeClasses.get(sizeClass);
+        bitmaps.remove(bitmap);
+        if (bitmaps.isEmpty()) {
+            mSizeClasses.remove(sizeClass);
+        }
+        mPutOrder.remove(bitmap);
+        mBytes -= bytes;
+    }
+
+    /**
+     * @return the power of two just above the size
+     */
+    private static int getSizeClass(long bytes) {
+        return 64 - Long.numberOfLeadingZeros(Math.max(1, bytes - 1));
+    }
+
+    private static long getSize(Bitmap bitmap) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                ? bitmap.getAllocationByteCount() : bitmap.getByteCount();
+    }
+}
@@ -0,0 +1,328 @@
+package net.integritas.android.avmixer;
+
+import net.integritas.android.avmixer.audio.LookAheadLimiter;
+import net.integritas.android.avmixer.codec.CodecPump;
+import net.integritas.android.avmixer.codec.JvmMediaBackend;
+import net.integritas.android.avmixer.codec.MemoryContainer;
+import net.integritas.android.avmixer.codec.TrackFormat;
+import net.integritas.android.avmixer.codec.WavExtractor;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AVAudioMixerTest {
+
+    private static final int SAMPLE_RATE = 48000;
+
+    @Test
+    public void tracksAreMixedEndToEnd() throws Exception {
+        File dir = createTempDir();
+        AVMixerObject mix = new AVMixerObject("mix.mp4", dir.getPath());
+        mix.addSoundComponent(new AVAudioMixerComponent(writeTone(dir, "a.wav", 1000, 48000),
+                1.0f, 0));
+        mix.addSoundComponent(new AVAudioMixerComponent(writeTone(dir, "b.wav", 2000, 24000),
+                1.0f, 0));
+
+        JvmMediaBackend backend = new JvmMediaBackend();
+        Listener listener = mix(mix, backend);
+        assertNull(listener.mError);
+        assertTrue(listener.mAudioFinished);
+
+        MemoryContainer output = backend.getContainer(mix.getTempAudioFilePath());
+        assertEquals(1, output.getTrackCount());
+        TrackFormat format = output.getTrackFormat(0);
+        assertEquals(SAMPLE_RATE, format.getInteger(TrackFormat.KEY_SAMPLE_RATE));
+        assertEquals(2, format.getInteger(TrackFormat.KEY_CHANNEL_COUNT));
+
+        /* both tracks over their common length, then the longest one alone, up to the end of
+           the last mixing window */
+        short[] pcm = output.getPcmSamples(0);
+        assertTrue(pcm.length >= 48000 * 2);
+        assertEquals(3000, pcm[2000]);
+        assertEquals(3000, pcm[24000 * 2 - 1]);
+        assertEquals(1000, pcm[24000 * 2 + 1]);
+        assertEquals(1000, pcm[48000 * 2 - 1]);
+
+        long lastUs = -1;
+        for (int i = 0; i < output.getSampleCount(0); i++) {
+            long timeUs = output.getSample(0, i).getPresentationTimeUs();
+            assertTrue(timeUs > lastUs);
+            lastUs = timeUs;
+        }
+    }
+
+    @Test
+    public void delayedTrackStartsAfterItsDelay() throws Exception {
+        File dir = createTempDir();
+        AVMixerObject mix = new AVMixerObject("mix.mp4", dir.getPath());
+        mix.addSoundComponent(new AVAudioMixerComponent(writeTone(dir, "a.wav", 1000, 9600),
+                1.0f, 0, 100));
+
+        JvmMediaBackend backend = new JvmMediaBackend();
+        assertNull(mix(mix, backend).mError);
+
+        short[] pcm = backend.getContainer(mix.getTempAudioFilePath()).getPcmSamples(0);
+        assertEquals((4800 + 9600) * 2, pcm.length);
+        assertEquals(0, pcm[4800 * 2 - 1]);
+        assertEquals(1000, pcm[4800 * 2]);
+        assertEquals(1000, pcm[pcm.length - 1]);
+    }
+
+    @Test
+    public void defaultLimiterKeepsTheLengthAndTimingOfTheMix() throws Exception {
+        File dir = createTempDir();
+        File a = writeTone(dir, "a.wav", 1000, 9600);
+        File b = writeTone(dir, "b.wav", 2000, 2400);
+        JvmMediaBackend backend = new JvmMediaBackend();
+
+        /* the same mix, under the limiter ceiling, clipped then limited */
+        short[][] mixes = new short[2][];
+        for (int i = 0; i < mixes.length; i++) {
+            AVMixerObject mix = new AVMixerObject("mix" + i + ".mp4", dir.getPath());
+            mix.addSoundComponent(new AVAudioMixerComponent(a, 1.0f, 0, 100));
+            mix.addSoundComponent(new AVAudioMixerComponent(b, 1.0f, 0, 150));
+            assertNull(mix(mix, backend, i == 0 ? null : new LookAheadLimiter()).mError);
+            mixes[i] = backend.getContainer(mix.getTempAudioFilePath()).getPcmSamples(0);
+        }
+
+        /* the limiter latency is left out at the start and flushed at the end */
+        short[] pcm = mixes[1];
+        assertEquals(mixes[0].length, pcm.length);
+        assertTrue(pcm.length >= (4800 + 9600) * 2);
+        assertEquals(0, pcm[4800 * 2 - 1]);
+        assertEquals(1000, pcm[4800 * 2]);
+        assertEquals(1000, pcm[7200 * 2 - 1]);
+        assertEquals(3000, pcm[7200 * 2]);
+        assertEquals(3000, pcm[(7200 + 2400) * 2 - 1]);
+        assertEquals(1000, pcm[(7200 + 2400) * 2]);
+        assertEquals(1000, pcm[(4800 + 9600) * 2 - 1]);
+        for (int i = 0; i < pcm.length; i++) {
+            /* under its ceiling, the limiter only delays the mix */
+            assertEquals("sample " + i, mixes[0][i], pcm[i]);
+        }
+    }
+
+    @Test
+    public void streamingMixMatchesTheBufferedMix() throws Exception {
+        File dir = createTempDir();
+        Random random = new Random(3);
+        /* tracks of different lengths, none of them a multiple of the mixing window, at
+           levels that keep the mix unclipped */
+        short[][] tracks = {
+                noise(random, 20000, 9000),
+                noise(random, 7777, 12000),
+                noise(random, 31001, 6000),
+        };
+        float[] volumes = {0.8f, 0.5f, 1.0f};
+        long[] delaysMs = {0, 50, 125};
+
+        AVMixerObject mix = new AVMixerObject("mix.mp4", dir.getPath());
+        /* ignored, as the tracks have delays of their own */
+        mix.setAudioDelay(300);
+        for (int i = 0; i < tracks.length; i++) {
+            File file = new File(dir, "track" + i + ".wav");
+            WavExtractor.write(file, SAMPLE_RATE, 2, tracks[i], 0, tracks[i].length);
+            mix.addSoundComponent(new AVAudioMixerComponent(file, volumes[i], 0, delaysMs[i]));
+        }
+        JvmMediaBackend backend = new JvmMediaBackend();
+        assertNull(mix(mix, backend).mError);
+
+        assertMatches(bufferedMix(tracks, volumes, delaysMs),
+                backend.getContainer(mix.getTempAudioFilePath()).getPcmSamples(0));
+    }
+
+    @Test
+    public void streamingMixMatchesTheBufferedMixWithTheGlobalDelay() throws Exception {
+        File dir = createTempDir();
+        Random random = new Random(5);
+        short[][] tracks = {noise(random, 15000, 10000), noise(random, 26003, 10000)};
+        float[] volumes = {0.7f, 1.0f};
+
+        AVMixerObject mix = new AVMixerObject("mix.mp4", dir.getPath());
+        mix.setAudioDelay(80);
+        for (int i = 0; i < tracks.length; i++) {
+            File file = new File(dir, "track" + i + ".wav");
+            WavExtractor.write(file, SAMPLE_RATE, 2, tracks[i], 0, tracks[i].length);
+            mix.addSoundComponent(new AVAudioMixerComponent(file, volumes[i], 0));
+        }
+        JvmMediaBackend backend = new JvmMediaBackend();
+        assertNull(mix(mix, backend).mError);
+
+        assertMatches(bufferedMix(tracks, volumes, new long[]{80, 80}),
+                backend.getContainer(mix.getTempAudioFilePath()).getPcmSamples(0));
+    }
+
+    @Test
+    public void trackIsPlayedBetweenItsStartAndEndPoints() throws Exception {
+        File dir = createTempDir();
+        AVMixerObject mix = new AVMixerObject("mix.mp4", dir.getPath());
+
+        /* half a second at 1000, then half a second at 2000 */
+        short[] samples = tone(1000, 48000);
+        Arrays.fill(samples, 24000 * 2, samples.length, (short) 2000);
+        File file = new File(dir, "a.wav");
+        WavExtractor.write(file, SAMPLE_RATE, 2, samples, 0, samples.length);
+
+        AVAudioMixerComponent audio = new AVAudioMixerComponent(file, 1.0f, 400);
+        audio.setEndAt(700);
+        mix.addSoundComponent(audio);
+
+        JvmMediaBackend backend = new JvmMediaBackend();
+        assertNull(mix(mix, backend).mError);
+
+        short[] pcm = backend.getContainer(mix.getTempAudioFilePath()).getPcmSamples(0);
+        assertEquals(14400 * 2, pcm.length);
+        assertEquals(1000, pcm[0]);
+        assertEquals(1000, pcm[4800 * 2 - 1]);
+        assertEquals(2000, pcm[4800 * 2]);
+        assertEquals(2000, pcm[pcm.length - 1]);
+    }
+
+    @Test
+    public void audioIsMuxedWithTheVideoSamples() throws Exception {
+        File dir = createTempDir();
+        AVMixerObject mix = new AVMixerObject("mix.mp4", dir.getPath());
+        JvmMediaBackend backend = new JvmMediaBackend();
+
+        /* one second of video, 10 frames */
+        MemoryContainer video = new MemoryContainer();
+        video.addTrack(TrackFormat.createVideoFormat("video/avc", 640, 360));
+        for (int i = 0; i < 10; i++) {
+            video.addSample(0, new MemoryContainer.Sample(new byte[100], i * 100000l,
+                    i == 0 ? CodecPump.BUFFER_FLAG_KEY_FRAME : 0));
+        }
+        backend.putContainer(mix.getTempVideoFilePath(), video);
+
+        /* two seconds of audio, cut at the last video frame */
+        WavExtractor.write(new File(mix.getTempAudioFilePath()), SAMPLE_RATE, 2,
+                tone(1000, 96000), 0, 96000 * 2);
+
+        Listener listener = new Listener();
+        AVAudioVideoMixer mixer = new AVAudioVideoMixer(mix, listener, true, 0);
+        mixer.setMediaBackend(backend);
+        mixer.mixAudioAndVideo();
+        assertTrue(listener.mMixFinished);
+
+        MemoryContainer output = backend.getContainer(mix.getFilePathName());
+        assertEquals(2, output.getTrackCount());
+        assertTrue(output.getTrackFormat(0).isVideo());
+        assertTrue(output.getTrackFormat(1).isAudio());
+        assertEquals(10, output.getSampleCount(0));
+
+        int audioSamples = output.getSampleCount(1);
+        assertTrue(audioSamples > 0);
+        assertTrue(output.getSample(1, audioSamples - 1).getPresentationTimeUs() < 900000l);
+    }
+
+    private static Listener mix(AVMixerObject mix, JvmMediaBackend backend) throws Exception {
+        return mix(mix, backend, null);
+    }
+
+    private static Listener mix(AVMixerObject mix, JvmMediaBackend backend,
+                                LookAheadLimiter limiter) throws Exception {
+        Listener listener = new Listener();
+        AVAudioMixer mixer = new AVAudioMixer(mix, listener);
+        mixer.setMediaBackend(backend);
+        mixer.setLimiter(limiter);
+        mixer.mixSamples();
+        return listener;
+    }
+
+    /* the mix of the buffered mixer this one replaces: every track decoded whole, delayed
+       by silence, scaled in floats and clipped after each track is added */
+    private static short[] bufferedMix(short[][] tracks, float[] volumes, long[] delaysMs) {
+        int length = 0;
+        int[] offsets = new int[tracks.length];
+        for (int i = 0; i < tracks.length; i++) {
+            offsets[i] = (int) (delaysMs[i] * SAMPLE_RATE / 1000) * 2;
+            length = Math.max(length, offsets[i] + tracks[i].length);
+        }
+        float[] mixed = new float[length];
+        for (int i = 0; i < tracks.length; i++) {
+            for (int s = 0; s < tracks[i].length; s++) {
+                int j = offsets[i] + s;
+                mixed[j] += tracks[i][s] / 32768.0f * volumes[i];
+                if (mixed[j] > 1.0f) mixed[j] = 1.0f;
+                if (mixed[j] < -1.0f) mixed[j] = -1.0f;
+            }
+        }
+        short[] pcm = new short[length];
+        for (int j = 0; j < length; j++) {
+            pcm[j] = (short) (mixed[j] * 32768.0f);
+        }
+        return pcm;
+    }
+
+    private static void assertMatches(short[] expected, short[] pcm) {
+        /* the last mixing window is padded with silence */
+        assertTrue(pcm.length >= expected.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("sample " + i, expected[i], pcm[i]);
+        }
+        for (int i = expected.length; i < pcm.length; i++) {
+            assertEquals("sample " + i, 0, pcm[i]);
+        }
+    }
+
+    private static short[] noise(Random random, int frames, int level) {
+        short[] samples = new short[frames * 2];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (random.nextInt(2 * level + 1) - level);
+        }
+        return samples;
+    }
+
+    private static File writeTone(File dir, String name, int level, int frames)
+            throws Exception {
+        File file = new File(dir, name);
+        WavExtractor.write(file, SAMPLE_RATE, 2, tone(level, frames), 0, frames * 2);
+        return file;
+    }
+
+    private static short[] tone(int level, int frames) {
+        short[] samples = new short[frames * 2];
+        Arrays.fill(samples, (short) level);
+        return samples;
+    }
+
+    private static File createTempDir() throws Exception {
+        File dir = File.createTempFile("avmixer", "");
+        dir.delete();
+        dir.mkdirs();
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    private static class Listener implements IAVInternalListener {
+
+        volatile boolean mAudioFinished;
+        volatile boolean mMixFinished;
+        volatile Throwable mError;
+
+        @Override
+        public void onVideoFinishedMixing() {
+        }
+
+        @Override
+        public void onAudioFinishedMixing() {
+            mAudioFinished = true;
+        }
+
+        @Override
+        public void onMixFinished() {
+            mMixFinished = true;
+        }
+
+        @Override
+        public void onMixingError(Throwable t) {
+            mError = t;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package net.integritas.android.avmixer;
+
+import net.integritas.android.avmixer.codec.CodecPump;
+import net.integritas.android.avmixer.codec.JvmMediaBackend;
+import net.integritas.android.avmixer.codec.MemoryContainer;
+import net.integritas.android.avmixer.codec.TrackFormat;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AVCloneTracksTest {
+
+    private static final long FRAME_US = 40000l;
+    private static final long AUDIO_FRAME_US = 20000l;
+
+    @Test
+    public void copyStartsAtTheSyncSampleBeforeTheStartTime() throws Exception {
+        JvmMediaBackend backend = new JvmMediaBackend();
+        backend.putContainer("in.mp4", createSource());
+
+        /* key frames every 10 frames, at 0, 400000 and 800000 */
+        long firstSampleUs = AVCloneTracks.cloneTrackByTime(backend, "in.mp4", "out.mp4",
+                AVCloneTracks.EXTRACTION_TYPE.VideoOnly, 500000, 0);
+        assertEquals(400000, firstSampleUs);
+
+        MemoryContainer output = backend.getContainer("out.mp4");
+        assertEquals(1, output.getTrackCount());
+        assertEquals(30 - 10, output.getSampleCount(0));
+        for (int i = 0; i < output.getSampleCount(0); i++) {
+            MemoryContainer.Sample sample = output.getSample(0, i);
+            assertEquals(i * FRAME_US, sample.getPresentationTimeUs());
+            assertEquals(10 + i, sample.getData()[0]);
+            assertEquals(i % 10 == 0 ? CodecPump.BUFFER_FLAG_KEY_FRAME : 0, sample.getFlags());
+        }
+    }
+
+    @Test
+    public void copyStopsPastTheEndTime() throws Exception {
+        JvmMediaBackend backend = new JvmMediaBackend();
+        backend.putContainer("in.mp4", createSource());
+
+        /* frame 25 is at the end time, frame 26 past it */
+        long firstSampleUs = AVCloneTracks.cloneTrackByTime(backend, "in.mp4", "out.mp4",
+                AVCloneTracks.EXTRACTION_TYPE.VideoOnly, 400000, 1000000);
+        assertEquals(400000, firstSampleUs);
+
+        MemoryContainer output = backend.getContainer("out.mp4");
+        assertEquals(26 - 10, output.getSampleCount(0));
+        assertEquals(600000, output.getSample(0, 15).getPresentationTimeUs());
+        assertEquals(25, output.getSample(0, 15).getData()[0]);
+    }
+
+    @Test
+    public void audioTrackIsCopiedAlone() throws Exception {
+        JvmMediaBackend backend = new JvmMediaBackend();
+        backend.putContainer("in.mp4", createSource());
+
+        /* every audio sample is a sync sample */
+        long firstSampleUs = AVCloneTracks.cloneTrackByTime(backend, "in.mp4", "out.m4a",
+                AVCloneTracks.EXTRACTION_TYPE.AudioOnly, 510000, 700000);
+        assertEquals(500000, firstSampleUs);
+
+        MemoryContainer output = backend.getContainer("out.m4a");
+        assertEquals(1, output.getTrackCount());
+        assertTrue(output.getTrackFormat(0).isAudio());
+        assertEquals(11, output.getSampleCount(0));
+        assertEquals(0, output.getSample(0, 0).getPresentationTimeUs());
+        assertEquals(200000, output.getSample(0, 10).getPresentationTimeUs());
+        assertEquals(35, output.getSample(0, 10).getData()[0]);
+    }
+
+    /* 30 video frames of 40ms, with a key frame every 10, and 60 audio frames of 20ms. Each
+       sample holds its index */
+    private static MemoryContainer createSource() {
+        MemoryContainer container = new MemoryContainer();
+        int video = container.addTrack(TrackFormat.createVideoFormat("video/avc", 640, 360));
+        int audio = container.addTrack(TrackFormat.createAudioFormat("audio/mp4a-latm", 48000,
+                2));
+        for (int i = 0; i < 30; i++) {
+            container.addSample(video, new MemoryContainer.Sample(new byte[]{(byte) i},
+                    i * FRAME_US, i % 10 == 0 ? CodecPump.BUFFER_FLAG_KEY_FRAME : 0));
+        }
+        for (int i = 0; i < 60; i++) {
+            container.addSample(audio, new MemoryContainer.Sample(new byte[]{(byte) i},
+                    i * AUDIO_FRAME_US, CodecPump.BUFFER_FLAG_KEY_FRAME));
+        }
+        return container;
+    }
+}
@@ -0,0 +1,67 @@
+package net.integritas.android.avmixer.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AudioTimelineTest {
+
+    @Test
+    public void delayIsCountedAtTheMixSampleRate() {
+        AudioTimeline timeline = new AudioTimeline(1);
+        timeline.place(0, 100000, 0);
+        timeline.setFormat(0, 44100, 2);
+        timeline.setMixSampleRate(48000);
+
+        assertEquals(4800 * 2, timeline.silence(0));
+        assertEquals(4000, timeline.consumeSilence(0, 4000));
+        assertEquals(2800 * 2, timeline.silence(0));
+    }
+
+    @Test
+    public void delayKeepsItsLengthWhenTheChannelCountChanges() {
+        AudioTimeline timeline = new AudioTimeline(1);
+        timeline.place(0, 100000, 0);
+        timeline.setFormat(0, 48000, 1);
+        timeline.setMixSampleRate(48000);
+
+        /* the container says mono, the decoder outputs stereo after the first window */
+        assertEquals(4800, timeline.silence(0));
+        assertEquals(1000, timeline.consumeSilence(0, 1000));
+        timeline.setFormat(0, 48000, 2);
+        assertEquals(3800 * 2, timeline.silence(0));
+
+        /* only whole frames are consumed */
+        assertEquals(2, timeline.consumeSilence(0, 3));
+        assertEquals(3799 * 2, timeline.consumeSilence(0, 10001));
+        assertEquals(0, timeline.silence(0));
+        assertEquals(0, timeline.consumeSilence(0, 1024));
+    }
+
+    @Test
+    public void headIsCutAtTheStartPoint() {
+        AudioTimeline timeline = new AudioTimeline(1);
+        timeline.place(0, 0, 500000);
+        timeline.setFormat(0, 48000, 2);
+
+        assertEquals(4800 * 2, timeline.skip(0, 400000, 9600 * 2));
+        assertEquals(2400 * 2, timeline.skip(0, 400000, 2400 * 2));
+        assertEquals(0, timeline.skip(0, 500000, 9600 * 2));
+    }
+
+    @Test
+    public void tailIsCutAtTheEndPoint() {
+        AudioTimeline timeline = new AudioTimeline(1);
+        timeline.place(0, 0, 500000, 700000);
+        timeline.setFormat(0, 48000, 2);
+
+        /* decoding starts a preroll before the start point */
+        assertEquals(400000, timeline.getSeekTimeUs(0));
+        assertEquals(4800 * 2, timeline.end(0, 600000, 9600 * 2));
+        assertEquals(0, timeline.end(0, 700000, 9600 * 2));
+        assertFalse(timeline.isPastEnd(0, 699999));
+        assertTrue(timeline.isPastEnd(0, 700000));
+    }
+}
@@ -0,0 +1,113 @@
+package net.integritas.android.avmixer.audio;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BiquadFilterTest {
+
+    static final int SAMPLE_RATE = 48000;
+    private static final int BLOCK_FRAMES = 256;
+
+    @Test
+    public void passFiltersAreDown3DbAtTheCutoff() {
+        BiquadFilter highPass = BiquadFilter.highPass(100);
+        assertEquals(-3.01, responseDb(highPass, 100), 0.05);
+        assertEquals(0.0, responseDb(highPass, 5000), 0.05);
+        /* 12dB per octave */
+        assertEquals(-40.0, responseDb(highPass, 10), 0.5);
+
+        BiquadFilter lowPass = BiquadFilter.lowPass(1000);
+        assertEquals(-3.01, responseDb(lowPass, 1000), 0.05);
+        assertEquals(0.0, responseDb(lowPass, 50), 0.05);
+        /* steeper near Nyquist, from the bilinear transform */
+        assertTrue(responseDb(lowPass, 10000) < -40.0);
+    }
+
+    @Test
+    public void peakingAndShelfFiltersReachTheirGain() {
+        BiquadFilter peaking = BiquadFilter.peaking(1000, 1.0f, 6.0f);
+        assertEquals(6.0, responseDb(peaking, 1000), 0.05);
+        assertEquals(0.0, responseDb(peaking, 50), 0.1);
+        assertEquals(0.0, responseDb(peaking, 15000), 0.1);
+
+        BiquadFilter lowShelf = BiquadFilter.lowShelf(200, -6.0f);
+        assertEquals(-6.0, responseDb(lowShelf, 20), 0.1);
+        assertEquals(-3.0, responseDb(lowShelf, 200), 0.1);
+        assertEquals(0.0, responseDb(lowShelf, 10000), 0.1);
+
+        BiquadFilter highShelf = BiquadFilter.highShelf(5000, 6.0f);
+        assertEquals(0.0, responseDb(highShelf, 100), 0.1);
+        assertEquals(3.0, responseDb(highShelf, 5000), 0.1);
+        assertEquals(6.0, responseDb(highShelf, 20000), 0.2);
+    }
+
+    @Test
+    public void decayingStateIsFlushedBeforeDenormals() {
+        BiquadFilter filter = BiquadFilter.highPass(100);
+        filter.prepare(SAMPLE_RATE, 1);
+
+        /* an impulse, then silence: the filter ringing decays towards zero */
+        float[] block = new float[BLOCK_FRAMES];
+        block[0] = 1.0f;
+        float last = 1.0f;
+        for (int b = 0; b < 200; b++) {
+            filter.process(block, BLOCK_FRAMES, 1);
+            for (float sample : block) {
+                assertTrue("denormal sample " + sample + " in block " + b,
+                        sample == 0.0f || Math.abs(sample) >= Float.MIN_NORMAL);
+            }
+            last = block[BLOCK_FRAMES - 1];
+            Arrays.fill(block, 0.0f);
+        }
+        assertEquals(0.0f, last, 0.0f);
+    }
+
+    @Test
+    public void resetClearsTheFilterState() {
+        BiquadFilter filter = BiquadFilter.lowPass(1000);
+        filter.prepare(SAMPLE_RATE, 2);
+        float[] block = new float[BLOCK_FRAMES * 2];
+        Arrays.fill(block, 0.5f);
+        filter.process(block, BLOCK_FRAMES, 2);
+
+        filter.reset();
+        Arrays.fill(block, 0.0f);
+        filter.process(block, BLOCK_FRAMES, 2);
+        for (float sample : block) {
+            assertEquals(0.0f, sample, 0.0f);
+        }
+    }
+
+    /**
+     * Steady state gain, in dB, of an effect on a sine of the given frequency, measured on the
+     * second half of one second of signal
+     */
+    static double responseDb(AudioEffect effect, double frequency) {
+        effect.prepare(SAMPLE_RATE, 1);
+        float[] block = new float[BLOCK_FRAMES];
+        double inEnergy = 0;
+        double outEnergy = 0;
+        for (int start = 0; start < SAMPLE_RATE; start += BLOCK_FRAMES) {
+            for (int f = 0; f < BLOCK_FRAMES; f++) {
+                block[f] = (float) (0.25 * Math.sin(2 * Math.PI * frequency * (start + f)
+                        / SAMPLE_RATE));
+            }
+            if (start >= SAMPLE_RATE / 2) {
+                for (int f = 0; f < BLOCK_FRAMES; f++) {
+                    inEnergy += block[f] * block[f];
+                }
+            }
+            effect.process(block, BLOCK_FRAMES, 1);
+            if (start >= SAMPLE_RATE / 2) {
+                for (int f = 0; f < BLOCK_FRAMES; f++) {
+                    outEnergy += block[f] * block[f];
+                }
+            }
+        }
+        return 10 * Math.log10(outEnergy / inEnergy);
+    }
+}
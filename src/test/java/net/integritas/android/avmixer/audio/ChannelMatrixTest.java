@@ -0,0 +1,81 @@
+package net.integritas.android.avmixer.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChannelMatrixTest {
+
+    private static final float FOLD_GAIN = (float) Math.sqrt(0.5);
+
+    @Test
+    public void monoIsCopiedToEveryChannel() {
+        ChannelMatrix matrix = ChannelMatrix.create(1, 2);
+        assertEquals(1.0f, matrix.get(0, 0), 0.0f);
+        assertEquals(1.0f, matrix.get(1, 0), 0.0f);
+        assertFalse(matrix.isIdentity());
+    }
+
+    @Test
+    public void channelsAreAveragedToMono() {
+        ChannelMatrix stereo = ChannelMatrix.create(2, 1);
+        assertEquals(0.5f, stereo.get(0, 0), 0.0f);
+        assertEquals(0.5f, stereo.get(0, 1), 0.0f);
+
+        ChannelMatrix surround = ChannelMatrix.create(6, 1);
+        for (int i = 0; i < 6; i++) {
+            assertEquals(1.0f / 6, surround.get(0, i), 0.0f);
+        }
+    }
+
+    @Test
+    public void extraChannelsAreFoldedInAtMinus3Db() {
+        /* 5.1 to stereo: L, R kept, C, LFE, Ls, Rs folded into L, R, L, R */
+        ChannelMatrix matrix = ChannelMatrix.create(6, 2);
+        assertEquals(1.0f, matrix.get(0, 0), 0.0f);
+        assertEquals(1.0f, matrix.get(1, 1), 0.0f);
+        assertEquals(0.0f, matrix.get(0, 1), 0.0f);
+        assertEquals(0.0f, matrix.get(1, 0), 0.0f);
+        for (int i = 2; i < 6; i++) {
+            assertEquals(FOLD_GAIN, matrix.get(i % 2, i), 1e-6f);
+            assertEquals(0.0f, matrix.get(1 - i % 2, i), 0.0f);
+        }
+    }
+
+    @Test
+    public void missingChannelsRepeatTheInputOnes() {
+        ChannelMatrix matrix = ChannelMatrix.create(2, 4);
+        for (int o = 0; o < 4; o++) {
+            for (int i = 0; i < 2; i++) {
+                assertEquals(o % 2 == i ? 1.0f : 0.0f, matrix.get(o, i), 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void sameLayoutIsTheIdentity() {
+        assertTrue(ChannelMatrix.create(2, 2).isIdentity());
+        assertTrue(ChannelMatrix.identity(6).isIdentity());
+        assertFalse(ChannelMatrix.identity(2).set(0, 1, 0.5f).isIdentity());
+    }
+
+    @Test
+    public void customPanIsAppliedByTheMixKernels() {
+        /* mono panned to the left at 0.8, 0.3 */
+        ChannelMatrix pan = new ChannelMatrix(1, 2).set(0, 0, 0.8f).set(1, 0, 0.3f);
+        short[][] tracks = {{10000, -20000, 0, 1000}};
+
+        for (PcmMixKernel.Type type : PcmMixKernel.Type.values()) {
+            short[] out = new short[4 * 2];
+            PcmMixKernel.create(type).mix(tracks, new int[]{4}, new ChannelMatrix[]{pan},
+                    new float[]{1.0f}, null, 1, out, 4, 2, new PcmMixKernel.Scratch());
+
+            for (int f = 0; f < 4; f++) {
+                assertEquals(type + " left " + f, tracks[0][f] * 0.8f, out[2 * f], 1.0f);
+                assertEquals(type + " right " + f, tracks[0][f] * 0.3f, out[2 * f + 1], 1.0f);
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package net.integritas.android.avmixer.audio;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GainEnvelopeTest {
+
+    private static final int SAMPLE_RATE = 48000;
+
+    @Test
+    public void emptyEnvelopeKeepsUnityGain() {
+        GainEnvelope envelope = new GainEnvelope();
+        assertEquals(1.0f, envelope.getGain(0), 0.0f);
+        assertEquals(1.0f, envelope.getConstantGain(0, 1000000), 0.0f);
+
+        float[] gains = new float[1024];
+        envelope.fill(gains, 500000, gains.length, SAMPLE_RATE);
+        for (float gain : gains) {
+            assertEquals(1.0f, gain, 0.0f);
+        }
+    }
+
+    @Test
+    public void gainIsInterpolatedBetweenBreakpoints() {
+        /* added out of order */
+        GainEnvelope envelope = new GainEnvelope()
+                .add(2000000, 0.5f).add(0, 0.5f).add(1000000, 1.5f);
+        assertEquals(3, envelope.getBreakpointCount());
+        assertEquals(1000000, envelope.getBreakpointTimeUs(1));
+
+        assertEquals(0.5f, envelope.getGain(-1000), 0.0f);
+        assertEquals(0.5f, envelope.getGain(0), 0.0f);
+        assertEquals(1.0f, envelope.getGain(500000), 1e-6f);
+        assertEquals(1.5f, envelope.getGain(1000000), 0.0f);
+        assertEquals(1.0f, envelope.getGain(1500000), 1e-6f);
+        assertEquals(0.5f, envelope.getGain(2000000), 0.0f);
+        assertEquals(0.5f, envelope.getGain(3000000), 0.0f);
+    }
+
+    @Test
+    public void breakpointsAtTheSameTimeMakeAStep() {
+        GainEnvelope envelope = new GainEnvelope().add(100000, 1.0f).add(100000, 0.2f);
+        assertEquals(1.0f, envelope.getGain(99999), 0.0f);
+        assertEquals(0.2f, envelope.getGain(100000), 0.0f);
+
+        float[] gains = new float[9600];
+        envelope.fill(gains, 0, gains.length, SAMPLE_RATE);
+        assertEquals(1.0f, gains[4799], 0.0f);
+        assertEquals(0.2f, gains[4800], 0.0f);
+    }
+
+    @Test
+    public void filledBlockFollowsTheBreakpoints() {
+        GainEnvelope envelope = new GainEnvelope()
+                .add(0, 0.0f).add(1000000, 1.0f).add(1100000, 0.25f).add(1150000, 0.25f);
+
+        /* a block crossing every segment */
+        long startUs = 950000;
+        float[] gains = new float[14400];
+        envelope.fill(gains, startUs, gains.length, SAMPLE_RATE);
+        for (int f = 0; f < gains.length; f++) {
+            long timeUs = startUs + f * 1000000l / SAMPLE_RATE;
+            assertEquals("frame " + f, envelope.getGain(timeUs), gains[f], 1e-4f);
+        }
+    }
+
+    @Test
+    public void fadesLastTheirDuration() {
+        /* 100ms fade in: silent on the first frame, full level from frame 4800 */
+        float[] gains = new float[9600];
+        GainEnvelope.fadeIn(100000).fill(gains, 0, gains.length, SAMPLE_RATE);
+        assertEquals(0.0f, gains[0], 0.0f);
+        assertEquals(0.5f, gains[2400], 1e-4f);
+        assertEquals(1.0f, gains[4800], 0.0f);
+        assertEquals(1.0f, gains[gains.length - 1], 0.0f);
+        for (int f = 1; f <= 4800; f++) {
+            assertTrue("frame " + f, gains[f] > gains[f - 1]);
+        }
+
+        /* 500ms fade out from 1s */
+        GainEnvelope fadeOut = GainEnvelope.fadeOut(1000000, 500000);
+        assertEquals(1.0f, fadeOut.getGain(0), 0.0f);
+        assertEquals(1.0f, fadeOut.getGain(1000000), 0.0f);
+        assertEquals(0.5f, fadeOut.getGain(1250000), 1e-6f);
+        assertEquals(0.0f, fadeOut.getGain(1500000), 0.0f);
+        assertEquals(0.0f, fadeOut.getGain(2000000), 0.0f);
+    }
+
+    @Test
+    public void constantGainIsFoundOnlyWithoutBreakpointChanges() {
+        GainEnvelope envelope = new GainEnvelope()
+                .add(0, 1.0f).add(100000, 1.0f).add(200000, 2.0f).add(300000, 1.0f);
+        assertEquals(1.0f, envelope.getConstantGain(0, 100000), 0.0f);
+        assertTrue(Float.isNaN(envelope.getConstantGain(50000, 150000)));
+
+        /* same gain at both ends, with a bump in between */
+        assertTrue(Float.isNaN(envelope.getConstantGain(100000, 300000)));
+        assertEquals(1.0f, envelope.getConstantGain(300000, 900000), 0.0f);
+    }
+
+    @Test
+    public void multiplyScalesTheGainsByTheEnvelope() {
+        float[] gains = new float[4800];
+        float[] scratch = new float[gains.length];
+
+        /* unity: the gains are left alone */
+        Arrays.fill(gains, 0.5f);
+        new GainEnvelope().multiply(gains, scratch, 0, gains.length, SAMPLE_RATE);
+        assertEquals(0.5f, gains[0], 0.0f);
+
+        /* constant */
+        new GainEnvelope().add(0, 2.0f).multiply(gains, scratch, 0, gains.length,
+                SAMPLE_RATE);
+        assertEquals(1.0f, gains[0], 0.0f);
+        assertEquals(1.0f, gains[gains.length - 1], 0.0f);
+
+        /* ramp */
+        GainEnvelope.fadeIn(100000).multiply(gains, scratch, 0, gains.length, SAMPLE_RATE);
+        assertEquals(0.0f, gains[0], 0.0f);
+        assertEquals(0.5f, gains[2400], 1e-4f);
+    }
+}
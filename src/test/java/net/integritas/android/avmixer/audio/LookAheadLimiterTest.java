@@ -0,0 +1,140 @@
+package net.integritas.android.avmixer.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LookAheadLimiterTest {
+
+    private static final int SAMPLE_RATE = 48000;
+    private static final int CHANNELS = 2;
+    private static final float CEILING = (float) Math.pow(10, -1 / 20.0) * Short.MAX_VALUE;
+
+    @Test
+    public void latencyIsTheLookAheadPlusTheOversamplingLag() {
+        LookAheadLimiter limiter = prepare();
+        /* 5ms at 48kHz, plus half the 8 oversampling taps, minus the current frame */
+        assertEquals(240 + 4 - 1, limiter.getLatencyFrames());
+
+        float[] in = new float[1000 * CHANNELS];
+        in[100 * CHANNELS] = 1000;
+        in[100 * CHANNELS + 1] = -1000;
+        short[] out = process(limiter, in);
+        int delayed = (100 + limiter.getLatencyFrames()) * CHANNELS;
+        assertEquals(1000, out[delayed]);
+        assertEquals(-1000, out[delayed + 1]);
+        for (int i = 0; i < out.length; i++) {
+            if (i != delayed && i != delayed + 1) {
+                assertEquals(0, out[i]);
+            }
+        }
+    }
+
+    @Test
+    public void signalUnderTheCeilingKeepsUnityGain() {
+        LookAheadLimiter limiter = prepare();
+        float[] in = sine(SAMPLE_RATE, 997, 0.5f * Short.MAX_VALUE, 0);
+        short[] out = process(limiter, in);
+
+        int latency = limiter.getLatencyFrames() * CHANNELS;
+        for (int i = latency; i < out.length; i++) {
+            assertEquals(in[i - latency], out[i], 1.0f);
+        }
+        assertEquals(1.0f, limiter.getMinGain(), 0.0f);
+        assertEquals(0, limiter.getLimitedFrames());
+    }
+
+    @Test
+    public void loudSignalStaysUnderTheCeilingFromItsFirstSample() {
+        LookAheadLimiter limiter = prepare();
+        /* 100ms of silence, then a sine twice over full scale */
+        float[] in = sine(SAMPLE_RATE / 2, 997, 2.0f * Short.MAX_VALUE, 0);
+        for (int i = 0; i < 4800 * CHANNELS; i++) {
+            in[i] = 0;
+        }
+        short[] out = process(limiter, in);
+
+        for (int i = 0; i < out.length; i++) {
+            assertTrue("sample " + i + ": " + out[i], Math.abs(out[i]) <= CEILING + 1);
+        }
+        assertTrue(limiter.getMinGain() < 0.5f);
+        assertTrue(limiter.getLimitedFrames() > 0);
+    }
+
+    @Test
+    public void peaksBetweenSamplesAreLimited() {
+        LookAheadLimiter limiter = prepare();
+        /* at a quarter of the sample rate, sampled 45 degrees off its peaks: every sample is
+           at 0.707 of the true peak, under the ceiling, while the true peak is over it */
+        float amplitude = 1.2f * Short.MAX_VALUE;
+        float[] in = sine(SAMPLE_RATE / 4, SAMPLE_RATE / 4, amplitude, Math.PI / 4);
+        assertTrue(Math.abs(in[0]) < CEILING);
+        short[] out = process(limiter, in);
+
+        int maxSample = 0;
+        for (int i = out.length / 2; i < out.length; i++) {
+            maxSample = Math.max(maxSample, Math.abs(out[i]));
+        }
+        float truePeak = maxSample / (float) Math.sin(Math.PI / 4);
+        assertTrue("true peak " + truePeak, truePeak <= CEILING * 1.01f);
+        assertTrue("true peak " + truePeak, truePeak > CEILING * 0.9f);
+    }
+
+    @Test
+    public void gainRecoversOverTheReleaseTime() {
+        LookAheadLimiter limiter = prepare();
+        /* 100ms twice over full scale, then a quiet sine */
+        float[] in = sine(SAMPLE_RATE, 997, 0.1f * Short.MAX_VALUE, 0);
+        float[] loud = sine(SAMPLE_RATE / 10, 997, 2.0f * Short.MAX_VALUE, 0);
+        System.arraycopy(loud, 0, in, 0, loud.length);
+        short[] out = process(limiter, in);
+
+        int latency = limiter.getLatencyFrames() * CHANNELS;
+        int end = loud.length + latency;
+
+        /* still lowered right after the burst */
+        float early = peakRatio(in, out, latency, end, end + 480 * CHANNELS);
+        assertTrue("gain " + early, early < 0.7f);
+
+        /* back to unity after 5 release time constants of 80ms */
+        int recovered = end + 5 * 3840 * CHANNELS;
+        float late = peakRatio(in, out, latency, recovered, recovered + 480 * CHANNELS);
+        assertEquals(1.0f, late, 0.01f);
+    }
+
+    private static LookAheadLimiter prepare() {
+        LookAheadLimiter limiter = new LookAheadLimiter();
+        limiter.prepare(SAMPLE_RATE, CHANNELS);
+        return limiter;
+    }
+
+    private static short[] process(LookAheadLimiter limiter, float[] in) {
+        short[] out = new short[in.length];
+        limiter.process(in, out, in.length / CHANNELS);
+        return out;
+    }
+
+    /* output peak over input peak of a range of the output */
+    private static float peakRatio(float[] in, short[] out, int latency, int from, int to) {
+        float inPeak = 0;
+        float outPeak = 0;
+        for (int i = from; i < to; i++) {
+            inPeak = Math.max(inPeak, Math.abs(in[i - latency]));
+            outPeak = Math.max(outPeak, Math.abs(out[i]));
+        }
+        return outPeak / inPeak;
+    }
+
+    private static float[] sine(int frames, double frequency, float amplitude, double phase) {
+        float[] samples = new float[frames * CHANNELS];
+        for (int f = 0; f < frames; f++) {
+            float value = (float) (amplitude
+                    * Math.sin(2 * Math.PI * frequency * f / SAMPLE_RATE + phase));
+            for (int c = 0; c < CHANNELS; c++) {
+                samples[f * CHANNELS + c] = value;
+            }
+        }
+        return samples;
+    }
+}
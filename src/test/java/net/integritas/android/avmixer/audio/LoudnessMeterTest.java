@@ -0,0 +1,108 @@
+package net.integritas.android.avmixer.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LoudnessMeterTest {
+
+    private static final int SAMPLE_RATE = 48000;
+
+    @Test
+    public void referenceSineReadsMinus23Lufs() {
+        /* EBU Tech 3341 case 1: 997Hz stereo sine at -23dBFS */
+        LoudnessMeter meter = new LoudnessMeter(SAMPLE_RATE, 2);
+        measure(meter, 20, -23);
+        assertEquals(-23.0f, meter.getIntegratedLoudness(), 0.1f);
+    }
+
+    @Test
+    public void referenceSineReadsTheSameAt44100() {
+        LoudnessMeter meter = new LoudnessMeter(44100, 2);
+        short[] pcm = sine(44100, 20, -33);
+        meter.process(pcm, 0, pcm.length);
+        assertEquals(-33.0f, meter.getIntegratedLoudness(), 0.1f);
+    }
+
+    @Test
+    public void blocksOverlapByThreeQuarters() {
+        LoudnessMeter meter = new LoudnessMeter(SAMPLE_RATE, 2);
+        measure(meter, 1, -23);
+        /* a 400ms block every 100ms */
+        assertEquals(7, meter.getBlockCount());
+    }
+
+    @Test
+    public void silenceHasNoLoudness() {
+        LoudnessMeter meter = new LoudnessMeter(SAMPLE_RATE, 2);
+        short[] pcm = new short[SAMPLE_RATE * 2 * 5];
+        meter.process(pcm, 0, pcm.length);
+        assertEquals(Float.NEGATIVE_INFINITY, meter.getIntegratedLoudness(), 0.0f);
+
+        /* under the absolute gate too */
+        measure(meter, 5, -80);
+        assertEquals(Float.NEGATIVE_INFINITY, meter.getIntegratedLoudness(), 0.0f);
+    }
+
+    @Test
+    public void shorterThanABlockHasNoLoudness() {
+        LoudnessMeter meter = new LoudnessMeter(SAMPLE_RATE, 2);
+        short[] pcm = sine(SAMPLE_RATE, 0.3, -23);
+        meter.process(pcm, 0, pcm.length);
+        assertEquals(0, meter.getBlockCount());
+        assertEquals(Float.NEGATIVE_INFINITY, meter.getIntegratedLoudness(), 0.0f);
+    }
+
+    @Test
+    public void quietSectionsUnderTheRelativeGateAreLeftOut() {
+        /* EBU Tech 3341 case 3: 10s at -36dBFS, 60s at -23dBFS, 10s at -36dBFS */
+        LoudnessMeter meter = new LoudnessMeter(SAMPLE_RATE, 2);
+        measure(meter, 10, -36);
+        measure(meter, 60, -23);
+        measure(meter, 10, -36);
+        assertEquals(-23.0f, meter.getIntegratedLoudness(), 0.1f);
+    }
+
+    @Test
+    public void sectionsOverTheRelativeGateAreAveraged() {
+        /* EBU Tech 3341 case 5: 20s at -26dBFS, 20.1s at -20dBFS, 20s at -26dBFS */
+        LoudnessMeter meter = new LoudnessMeter(SAMPLE_RATE, 2);
+        measure(meter, 20, -26);
+        measure(meter, 20.1, -20);
+        measure(meter, 20, -26);
+        assertEquals(-23.0f, meter.getIntegratedLoudness(), 0.1f);
+    }
+
+    @Test
+    public void chunkedInputMeasuresLikeOneBlock() {
+        short[] pcm = sine(SAMPLE_RATE, 5, -23);
+        LoudnessMeter whole = new LoudnessMeter(SAMPLE_RATE, 2);
+        whole.process(pcm, 0, pcm.length);
+
+        LoudnessMeter chunked = new LoudnessMeter(SAMPLE_RATE, 2);
+        for (int offset = 0; offset < pcm.length; offset += 2048) {
+            chunked.process(pcm, offset, Math.min(2048, pcm.length - offset));
+        }
+        assertEquals(whole.getBlockCount(), chunked.getBlockCount());
+        assertEquals(whole.getIntegratedLoudness(), chunked.getIntegratedLoudness(), 0.0f);
+    }
+
+    private static void measure(LoudnessMeter meter, double seconds, double levelDbfs) {
+        short[] pcm = sine(SAMPLE_RATE, seconds, levelDbfs);
+        meter.process(pcm, 0, pcm.length);
+    }
+
+    /* 997Hz stereo sine, with its peaks at the given level */
+    private static short[] sine(int sampleRate, double seconds, double levelDbfs) {
+        int frames = (int) Math.round(sampleRate * seconds);
+        double amplitude = Math.pow(10, levelDbfs / 20) * 32768;
+        short[] pcm = new short[frames * 2];
+        for (int f = 0; f < frames; f++) {
+            short value = (short) Math.round(amplitude * Math.sin(2 * Math.PI * 997 * f
+                    / sampleRate));
+            pcm[2 * f] = value;
+            pcm[2 * f + 1] = value;
+        }
+        return pcm;
+    }
+}
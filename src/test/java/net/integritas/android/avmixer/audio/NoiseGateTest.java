@@ -0,0 +1,93 @@
+package net.integritas.android.avmixer.audio;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class NoiseGateTest {
+
+    private static final int SAMPLE_RATE = 48000;
+    private static final float LOUD = 0.5f;
+    /* -60dBFS, under the -40dBFS threshold */
+    private static final float QUIET = 0.001f;
+    private static final float FLOOR = 1e-4f;
+
+    @Test
+    public void closedGateLowersTheSignalToItsFloor() {
+        float[] gains = gains(QUIET, SAMPLE_RATE / 10, 0, 0);
+        for (float gain : gains) {
+            assertEquals(FLOOR, gain, 1e-6f);
+        }
+    }
+
+    @Test
+    public void gateOpensOverTheAttackTime() {
+        float[] gains = gains(LOUD, SAMPLE_RATE / 10, 0, 0);
+
+        /* 1ms one pole ramp: 63% open after 48 frames, fully open after 5 time constants */
+        assertEquals(1 - Math.exp(-1.0 / 48), gains[0], 1e-4f);
+        assertEquals(1 - Math.exp(-1.0), gains[47], 1e-3f);
+        assertEquals(1.0f, gains[5 * 48], 0.01f);
+        assertEquals(1.0f, gains[gains.length - 1], 1e-5f);
+    }
+
+    @Test
+    public void gateHoldsThenClosesOverTheReleaseTime() {
+        /* 100ms loud, then quiet */
+        int loud = SAMPLE_RATE / 10;
+        float[] gains = gains(LOUD, loud, QUIET, 2 * SAMPLE_RATE);
+
+        /* held open for 50ms */
+        int hold = SAMPLE_RATE / 20;
+        for (int f = loud; f < loud + hold; f++) {
+            assertEquals("frame " + f, 1.0f, gains[f], 1e-5f);
+        }
+
+        /* 100ms one pole release to the floor */
+        int release = SAMPLE_RATE / 10;
+        assertEquals(FLOOR + (1 - FLOOR) * Math.exp(-1.0), gains[loud + hold + release - 1],
+                1e-3f);
+        assertEquals(FLOOR, gains[loud + hold + 15 * release], 1e-5f);
+    }
+
+    @Test
+    public void levelIsThePeakOfEveryChannel() {
+        NoiseGate gate = new NoiseGate(-40.0f);
+        gate.prepare(SAMPLE_RATE, 2);
+
+        /* only the right channel is over the threshold */
+        float[] block = new float[SAMPLE_RATE / 10 * 2];
+        for (int f = 0; f < block.length / 2; f++) {
+            block[2 * f] = QUIET;
+            block[2 * f + 1] = LOUD;
+        }
+        gate.process(block, block.length / 2, 2);
+        assertEquals(QUIET, block[block.length - 2], 1e-6f);
+        assertEquals(LOUD, block[block.length - 1], 1e-6f);
+    }
+
+    /* gain of the default gate on each frame of a level held for some frames, then another */
+    private static float[] gains(float first, int firstFrames, float second, int secondFrames) {
+        NoiseGate gate = new NoiseGate(-40.0f);
+        gate.prepare(SAMPLE_RATE, 1);
+
+        float[] in = new float[firstFrames + secondFrames];
+        Arrays.fill(in, 0, firstFrames, first);
+        Arrays.fill(in, firstFrames, in.length, second);
+        float[] block = in.clone();
+        for (int start = 0; start < block.length; start += 1024) {
+            int frames = Math.min(1024, block.length - start);
+            float[] part = Arrays.copyOfRange(block, start, start + frames);
+            gate.process(part, frames, 1);
+            System.arraycopy(part, 0, block, start, frames);
+        }
+
+        float[] gains = new float[in.length];
+        for (int f = 0; f < in.length; f++) {
+            gains[f] = block[f] / in[f];
+        }
+        return gains;
+    }
+}
@@ -0,0 +1,29 @@
+package net.integritas.android.avmixer.audio;
+
+import org.junit.Test;
+
+import static net.integritas.android.avmixer.audio.BiquadFilterTest.responseDb;
+import static org.junit.Assert.assertEquals;
+
+public class ParametricEqualizerTest {
+
+    @Test
+    public void bandsAreCascaded() {
+        ParametricEqualizer equalizer = new ParametricEqualizer()
+                .addBand(BiquadFilter.highPass(80))
+                .addBand(500, 2.0f, 6.0f)
+                .addBand(5000, 2.0f, -6.0f);
+        assertEquals(3, equalizer.getBands().size());
+
+        /* each band at its frequency, barely touched by the others */
+        assertEquals(6.0, responseDb(equalizer, 500), 0.1);
+        assertEquals(-6.0, responseDb(equalizer, 5000), 0.1);
+        assertEquals(0.0, responseDb(equalizer, 1600), 0.5);
+        assertEquals(-3.0, responseDb(equalizer, 80), 0.2);
+    }
+
+    @Test
+    public void equalizerWithoutBandsKeepsTheSignal() {
+        assertEquals(0.0, responseDb(new ParametricEqualizer(), 1000), 0.0);
+    }
+}
@@ -0,0 +1,113 @@
+package net.integritas.android.avmixer.audio;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PcmMixKernelTest {
+
+    private static final int FRAMES = 1024;
+    private static final int CHANNELS = 2;
+
+    @Test
+    public void kernelsMatchWithinRounding() {
+        Random random = new Random(7);
+        short[][] tracks = {
+                noise(random, FRAMES * CHANNELS, 3000),
+                noise(random, FRAMES * CHANNELS, 2000),
+                noise(random, FRAMES, 800),
+        };
+        /* the first track goes through a mid/side matrix, the second one is shorter than the
+           window, the third one is mono, phase inverted on the right. The levels keep the mix
+           unclipped */
+        int[] frames = {FRAMES, FRAMES / 2, FRAMES};
+        ChannelMatrix midSide = new ChannelMatrix(CHANNELS, CHANNELS)
+                .set(0, 0, 0.5f).set(0, 1, 0.5f).set(1, 0, 0.5f).set(1, 1, -0.5f);
+        ChannelMatrix inverted = new ChannelMatrix(1, CHANNELS).set(0, 0, 1.0f).set(1, 0, -1.0f);
+        ChannelMatrix[] matrices = {midSide, null, inverted};
+        float[] gains = {0.7f, 5.5f, 10.0f};
+        float[][] envelopes = {null, ramp(FRAMES, 0.5f, 1.5f), ramp(FRAMES, 1.2f, 0.8f)};
+
+        short[] reference = mix(PcmMixKernel.Type.FLOAT, tracks, frames, matrices, gains,
+                envelopes);
+        for (PcmMixKernel.Type type : new PcmMixKernel.Type[]{
+                PcmMixKernel.Type.SCALAR, PcmMixKernel.Type.FIXED_POINT}) {
+            short[] out = mix(type, tracks, frames, matrices, gains, envelopes);
+            for (int i = 0; i < out.length; i++) {
+                /* one unit per track of rounding, plus one for the float truncation */
+                assertTrue(type + " sample " + i + ": " + out[i] + " vs " + reference[i],
+                        Math.abs(out[i] - reference[i]) <= tracks.length + 1);
+            }
+        }
+    }
+
+    @Test
+    public void negativeCoefficientsFlipThePhaseOnEveryKernel() {
+        ChannelMatrix flip = ChannelMatrix.identity(CHANNELS).set(1, 1, -1.0f);
+        for (PcmMixKernel.Type type : PcmMixKernel.Type.values()) {
+            short[] out = new short[FRAMES * CHANNELS];
+            short[] track = new short[FRAMES * CHANNELS];
+            Arrays.fill(track, (short) 1000);
+            PcmMixKernel.create(type).mix(new short[][]{track}, new int[]{FRAMES},
+                    new ChannelMatrix[]{flip}, new float[]{1.0f}, null, 1, out, FRAMES,
+                    CHANNELS, new PcmMixKernel.Scratch());
+            assertEquals(type.toString(), 1000, out[0]);
+            assertEquals(type.toString(), -1000, out[1]);
+        }
+    }
+
+    @Test
+    public void fixedPointKeepsGainsAboveFour() {
+        short[][] tracks = {{3000, -3000, 100, -100}};
+        short[] out = mix(PcmMixKernel.Type.FIXED_POINT, tracks, new int[]{2}, null,
+                new float[]{10.0f}, null);
+        assertEquals(30000, out[0]);
+        assertEquals(-30000, out[1]);
+        assertEquals(1000, out[2]);
+        assertEquals(-1000, out[3]);
+    }
+
+    @Test
+    public void fixedPointRoundsWithoutBias() {
+        Random random = new Random(11);
+        short[][] tracks = {noise(random, FRAMES * CHANNELS, 500)};
+        float gain = 0.3f;
+        short[] out = mix(PcmMixKernel.Type.FIXED_POINT, tracks, new int[]{FRAMES}, null,
+                new float[]{gain}, null);
+
+        /* flooring each product would drift the mean half a unit down */
+        double error = 0;
+        for (int i = 0; i < out.length; i++) {
+            error += out[i] - tracks[0][i] * (double) gain;
+        }
+        assertEquals(0.0, error / out.length, 0.05);
+    }
+
+    private static short[] mix(PcmMixKernel.Type type, short[][] tracks, int[] frames,
+                               ChannelMatrix[] matrices, float[] gains, float[][] envelopes) {
+        short[] out = new short[FRAMES * CHANNELS];
+        PcmMixKernel.create(type).mix(tracks, frames, matrices, gains, envelopes,
+                tracks.length, out, FRAMES, CHANNELS, new PcmMixKernel.Scratch());
+        return out;
+    }
+
+    private static short[] noise(Random random, int samples, int amplitude) {
+        short[] noise = new short[samples];
+        for (int i = 0; i < samples; i++) {
+            noise[i] = (short) (random.nextInt(2 * amplitude + 1) - amplitude);
+        }
+        return noise;
+    }
+
+    private static float[] ramp(int frames, float from, float to) {
+        float[] ramp = new float[frames];
+        for (int f = 0; f < frames; f++) {
+            ramp[f] = from + (to - from) * f / frames;
+        }
+        return ramp;
+    }
+}
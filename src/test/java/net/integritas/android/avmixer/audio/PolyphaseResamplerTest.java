@@ -0,0 +1,147 @@
+package net.integritas.android.avmixer.audio;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PolyphaseResamplerTest {
+
+    private static final int CHANNELS = 2;
+
+    @Test
+    public void outputLengthFollowsTheRateRatio() {
+        int[][] rates = {{44100, 48000}, {48000, 44100}, {8000, 48000}, {48000, 8000}};
+        for (int[] rate : rates) {
+            for (PolyphaseResampler.Quality quality : PolyphaseResampler.Quality.values()) {
+                PolyphaseResampler resampler = new PolyphaseResampler(rate[0], rate[1],
+                        CHANNELS, quality);
+                int frames = rate[0];
+                short[] out = resample(resampler, sine(frames, 440, rate[0], 10000), frames);
+
+                /* one second in, one second out */
+                String name = rate[0] + " -> " + rate[1] + " " + quality;
+                assertEquals(name, rate[1], out.length / CHANNELS, 1);
+            }
+        }
+    }
+
+    @Test
+    public void constantSignalKeepsItsLevelOnEveryPhase() {
+        int[][] rates = {{44100, 48000}, {48000, 44100}, {8000, 48000}};
+        for (int[] rate : rates) {
+            for (PolyphaseResampler.Quality quality : PolyphaseResampler.Quality.values()) {
+                PolyphaseResampler resampler = new PolyphaseResampler(rate[0], rate[1],
+                        CHANNELS, quality);
+                short[] in = new short[rate[0] / 10 * CHANNELS];
+                Arrays.fill(in, (short) 10000);
+                short[] out = resample(resampler, in, in.length / CHANNELS);
+
+                /* past the filter ramp at both ends, the output period covers every phase */
+                int edge = (quality.taps + 1) * rate[1] / rate[0] * CHANNELS;
+                String name = rate[0] + " -> " + rate[1] + " " + quality;
+                for (int i = edge; i < out.length - edge; i++) {
+                    assertEquals(name + " sample " + i, 10000, out[i], 1);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void blocksJoinLikeOneBlock() {
+        short[] in = sine(44100, 997, 44100, 12000);
+        PolyphaseResampler whole = new PolyphaseResampler(44100, 48000, CHANNELS,
+                PolyphaseResampler.Quality.MEDIUM);
+        short[] expected = resample(whole, in, in.length / CHANNELS);
+
+        /* blocks of random sizes, some shorter than the filter */
+        Random random = new Random(1);
+        PolyphaseResampler blocks = new PolyphaseResampler(44100, 48000, CHANNELS,
+                PolyphaseResampler.Quality.MEDIUM);
+        short[] out = new short[blocks.getMaxOutputSamples(in.length)];
+        int written = 0;
+        int offset = 0;
+        while (offset < in.length) {
+            int samples = Math.min((random.nextInt(2000) + 1) * CHANNELS, in.length - offset);
+            written += blocks.process(in, offset, samples, out, written);
+            offset += samples;
+        }
+        written += blocks.flush(out, written);
+
+        assertArrayEquals(expected, Arrays.copyOf(out, written));
+    }
+
+    @Test
+    public void flushOutputsTheFrameCenteredOnTheLastInputs() {
+        for (PolyphaseResampler.Quality quality : PolyphaseResampler.Quality.values()) {
+            PolyphaseResampler resampler = new PolyphaseResampler(8000, 48000, CHANNELS,
+                    quality);
+            short[] in = sine(8000, 440, 8000, 10000);
+            short[] out = new short[resampler.getMaxOutputSamples(in.length)];
+            int processed = resampler.process(in, 0, in.length, out, 0);
+            int tail = resampler.flush(out, processed);
+
+            /* the output frames of the last half filter of input wait for the flush */
+            assertEquals(quality.toString(), quality.taps / 2 * 6, tail / CHANNELS, 6);
+            assertEquals(quality.toString(), 48000, (processed + tail) / CHANNELS);
+
+            /* the flush resets the stream */
+            assertEquals(0, resampler.flush(out, 0));
+        }
+    }
+
+    @Test
+    public void lowQualityQuantizesThePhase() {
+        /* 44100 -> 48000 needs 160 phases, the low quality has 32 */
+        int frames = 44100 / 10;
+        short[] in = sine(frames, 997, 44100, 10000);
+        float lowError = maxError(new PolyphaseResampler(44100, 48000, CHANNELS,
+                PolyphaseResampler.Quality.LOW), in, frames);
+        float highError = maxError(new PolyphaseResampler(44100, 48000, CHANNELS,
+                PolyphaseResampler.Quality.HIGH), in, frames);
+
+        /* the low quality output is taken up to 1/32 of an input frame early, which moves
+           it at most by the sine slope over that time. The high quality one is exact */
+        double slope = 10000 * 2 * Math.PI * 997 / 44100;
+        assertTrue("low quality error " + lowError, lowError < slope / 32 + 10);
+        assertTrue("low quality error " + lowError, lowError > slope / 32 / 2);
+        assertTrue("high quality error " + highError, highError < 5);
+    }
+
+    /* largest distance of the output to the sine it samples, past the filter ramps */
+    private static float maxError(PolyphaseResampler resampler, short[] in, int frames) {
+        short[] out = resample(resampler, in, frames);
+        float error = 0;
+        int edge = 64;
+        for (int f = edge; f < out.length / CHANNELS - edge; f++) {
+            double timeS = f / 48000.0;
+            double expected = 10000 * Math.sin(2 * Math.PI * 997 * timeS);
+            error = Math.max(error, (float) Math.abs(out[f * CHANNELS] - expected));
+        }
+        return error;
+    }
+
+    private static short[] resample(PolyphaseResampler resampler, short[] in, int frames) {
+        short[] out = new short[resampler.getMaxOutputSamples(frames * CHANNELS)
+                + resampler.getMaxOutputSamples(0)];
+        int written = resampler.process(in, 0, frames * CHANNELS, out, 0);
+        written += resampler.flush(out, written);
+        return Arrays.copyOf(out, written);
+    }
+
+    private static short[] sine(int frames, double frequency, int sampleRate, int amplitude) {
+        short[] samples = new short[frames * CHANNELS];
+        for (int f = 0; f < frames; f++) {
+            short value = (short) Math.round(amplitude
+                    * Math.sin(2 * Math.PI * frequency * f / sampleRate));
+            for (int c = 0; c < CHANNELS; c++) {
+                samples[f * CHANNELS + c] = value;
+            }
+        }
+        return samples;
+    }
+}
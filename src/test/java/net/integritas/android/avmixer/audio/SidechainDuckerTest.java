@@ -0,0 +1,119 @@
+package net.integritas.android.avmixer.audio;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SidechainDuckerTest {
+
+    private static final int SAMPLE_RATE = 48000;
+    private static final int BLOCK_FRAMES = 1024;
+    private static final float DEPTH = (float) Math.pow(10, -12 / 20.0);
+    /* -10dBFS, over the -40dBFS threshold */
+    private static final short VOICE = 10362;
+
+    @Test
+    public void quietVoiceLeavesTheBedAlone() {
+        SidechainDucker ducker = new SidechainDucker();
+        ducker.prepare(SAMPLE_RATE);
+
+        float[] out = new float[BLOCK_FRAMES];
+        /* silent voice, then a voice brought under the threshold by its gain */
+        assertFalse(process(ducker, (short) 0, 1.0f, out));
+        assertFalse(process(ducker, VOICE, 0.001f, out));
+        assertEquals(1.0f, out[BLOCK_FRAMES - 1], 0.0f);
+        assertEquals(1.0f, ducker.getMinGain(), 0.0f);
+    }
+
+    @Test
+    public void bedIsDuckedToTheDepthOverTheAttackTime() {
+        float[] gains = gains(2 * SAMPLE_RATE, 2 * SAMPLE_RATE);
+
+        /* 50ms one pole ramp, started as soon as the voice detector crosses the threshold */
+        assertEquals(DEPTH + (1 - DEPTH) * Math.exp(-1.0), gains[SAMPLE_RATE / 20], 0.01f);
+        assertEquals(DEPTH, gains[SAMPLE_RATE / 2], 0.001f);
+        assertEquals(DEPTH, gains[2 * SAMPLE_RATE - 1], 1e-4f);
+    }
+
+    @Test
+    public void bedComesBackAfterTheHoldAndOverTheReleaseTime() {
+        int voice = SAMPLE_RATE;
+        float[] gains = gains(voice, 6 * SAMPLE_RATE);
+
+        /* the detector falls under the threshold 50ms * ln(voice / threshold) after the voice
+           ends, then the bed is held for 250ms */
+        double thresholdFrames = 0.050 * Math.log(VOICE / (Math.pow(10, -40 / 20.0)
+                * Short.MAX_VALUE)) * SAMPLE_RATE;
+        int released = voice + (int) thresholdFrames + SAMPLE_RATE / 4;
+        int rising = voice;
+        while (gains[rising + 1] <= gains[rising]) {
+            rising++;
+        }
+        assertEquals(released, rising, 48);
+
+        /* 500ms one pole release */
+        assertEquals(1 - (1 - DEPTH) * Math.exp(-1.0), gains[rising + SAMPLE_RATE / 2], 0.01f);
+        assertEquals(1.0f, gains[gains.length - 1], 1e-4f);
+    }
+
+    @Test
+    public void idleDuckerSettlesBackToUnity() {
+        SidechainDucker ducker = new SidechainDucker();
+        ducker.prepare(SAMPLE_RATE);
+        float[] out = new float[BLOCK_FRAMES];
+        for (int b = 0; b < SAMPLE_RATE / BLOCK_FRAMES; b++) {
+            assertTrue(process(ducker, VOICE, 1.0f, out));
+        }
+        assertEquals(DEPTH, ducker.getMinGain(), 0.01f);
+
+        /* ducked until the bed gain is back to unity, within the release time constants */
+        int blocks = 0;
+        while (process(ducker, (short) 0, 1.0f, out)) {
+            assertTrue("still ducked after " + blocks + " blocks", ++blocks < 20 * SAMPLE_RATE
+                    / BLOCK_FRAMES);
+        }
+        assertTrue(blocks * BLOCK_FRAMES > SAMPLE_RATE);
+        assertFalse(process(ducker, (short) 0, 1.0f, out));
+        assertEquals(1.0f, out[0], 0.0f);
+    }
+
+    /* bed gain of each frame, under a voice held for some frames then silent */
+    private static float[] gains(int voiceFrames, int frames) {
+        SidechainDucker ducker = new SidechainDucker();
+        ducker.prepare(SAMPLE_RATE);
+
+        float[] gains = new float[frames];
+        float[] out = new float[BLOCK_FRAMES];
+        int start = 0;
+        while (start < frames) {
+            /* blocks end where the voice does */
+            int length = Math.min(BLOCK_FRAMES, (start < voiceFrames ? voiceFrames : frames)
+                    - start);
+            process(ducker, start < voiceFrames ? VOICE : 0, 1.0f, out, length);
+            System.arraycopy(out, 0, gains, start, length);
+            start += length;
+        }
+        return gains;
+    }
+
+    private static boolean process(SidechainDucker ducker, short voice, float voiceGain,
+                                   float[] out) {
+        return process(ducker, voice, voiceGain, out, out.length);
+    }
+
+    /* a stereo voice track and a mono bed track */
+    private static boolean process(SidechainDucker ducker, short voice, float voiceGain,
+                                   float[] out, int length) {
+        short[] voiceTrack = new short[length * 2];
+        Arrays.fill(voiceTrack, voice);
+        short[] bedTrack = new short[length];
+        Arrays.fill(bedTrack, (short) 20000);
+        return ducker.process(new short[][]{voiceTrack, bedTrack}, new int[]{length, length},
+                new int[]{2, 1}, new float[]{voiceGain, 1.0f}, new boolean[]{true, false}, 2,
+                out, length);
+    }
+}
@@ -0,0 +1,28 @@
+package net.integritas.android.avmixer.cache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Source files of the cache tests, whose entries are keyed by path, size and modification time
+ */
+final class CacheTestFiles {
+
+    private CacheTestFiles() {
+    }
+
+    /**
+     * @return a file of the directory holding its own name
+     */
+    static File createSource(File dir, String name) throws IOException {
+        File file = new File(dir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(name.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
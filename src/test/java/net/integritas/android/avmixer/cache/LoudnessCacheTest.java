@@ -0,0 +1,65 @@
+package net.integritas.android.avmixer.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LoudnessCacheTest {
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void storedLoudnessIsReadBack() throws Exception {
+        File dir = mFolder.getRoot();
+        File source = CacheTestFiles.createSource(dir, "a.m4a");
+        LoudnessCache cache = new LoudnessCache(new File(dir, "cache"));
+
+        assertTrue(Float.isNaN(cache.get(source)));
+        cache.put(source, -18.5f);
+
+        assertEquals(-18.5f, cache.get(source), 0.0f);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void entriesSurviveReopening() throws Exception {
+        File dir = mFolder.getRoot();
+        File source = CacheTestFiles.createSource(dir, "a.m4a");
+        new LoudnessCache(new File(dir, "cache")).put(source, Float.NEGATIVE_INFINITY);
+
+        LoudnessCache cache = new LoudnessCache(new File(dir, "cache"));
+        assertEquals(Float.NEGATIVE_INFINITY, cache.get(source), 0.0f);
+    }
+
+    @Test
+    public void modifiedFileMisses() throws Exception {
+        File dir = mFolder.getRoot();
+        File source = CacheTestFiles.createSource(dir, "a.m4a");
+        LoudnessCache cache = new LoudnessCache(new File(dir, "cache"));
+        cache.put(source, -20.0f);
+
+        source.setLastModified(source.lastModified() - 10000);
+        assertTrue(Float.isNaN(cache.get(source)));
+    }
+
+    @Test
+    public void memoryCacheWritesNoFile() throws Exception {
+        File dir = mFolder.getRoot();
+        File source = CacheTestFiles.createSource(dir, "a.m4a");
+        LoudnessCache cache = new LoudnessCache();
+        cache.put(source, -23.0f);
+
+        assertEquals(-23.0f, cache.get(source), 0.0f);
+        assertEquals(1, dir.list().length);
+
+        cache.clear();
+        assertTrue(Float.isNaN(cache.get(source)));
+    }
+}
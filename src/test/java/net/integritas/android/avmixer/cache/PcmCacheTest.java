@@ -0,0 +1,120 @@
+package net.integritas.android.avmixer.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class PcmCacheTest {
+
+    /* header + 1000 samples */
+    private static final long ENTRY_SIZE = 32 + 2000;
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void committedEntryIsMappedBack() throws Exception {
+        File dir = mFolder.getRoot();
+        File source = CacheTestFiles.createSource(dir, "a.m4a");
+        PcmCache cache = new PcmCache(new File(dir, "cache"), 1 << 20);
+
+        assertNull(cache.get(source));
+        put(cache, source, 1000, 7);
+
+        PcmCache.Entry entry = cache.get(source);
+        assertNotNull(entry);
+        assertEquals(44100, entry.getSampleRate());
+        assertEquals(2, entry.getChannelCount());
+        assertEquals(7, entry.getDecodeTimeMs());
+
+        ShortBuffer samples = entry.getSamples();
+        assertEquals(1000, samples.remaining());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals((short) (i * 31 - 1000), samples.get(i));
+        }
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(7, cache.getSavedDecodeTimeMs());
+        assertEquals(ENTRY_SIZE, cache.getSize());
+    }
+
+    @Test
+    public void modifiedFileMisses() throws Exception {
+        File dir = mFolder.getRoot();
+        File source = CacheTestFiles.createSource(dir, "a.m4a");
+        PcmCache cache = new PcmCache(new File(dir, "cache"), 1 << 20);
+        put(cache, source, 1000, 0);
+
+        source.setLastModified(source.lastModified() - 10000);
+        assertNull(cache.get(source));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() throws Exception {
+        File dir = mFolder.getRoot();
+        File a = CacheTestFiles.createSource(dir, "a.m4a");
+        File b = CacheTestFiles.createSource(dir, "b.m4a");
+        File c = CacheTestFiles.createSource(dir, "c.m4a");
+        PcmCache cache = new PcmCache(new File(dir, "cache"), 2 * ENTRY_SIZE);
+
+        assertEquals(0, put(cache, a, 1000, 0));
+        assertEquals(0, put(cache, b, 1000, 0));
+        assertNotNull(cache.get(a));
+        assertEquals(1, put(cache, c, 1000, 0));
+
+        assertNotNull(cache.get(a));
+        assertNull(cache.get(b));
+        assertNotNull(cache.get(c));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2 * ENTRY_SIZE, cache.getSize());
+    }
+
+    @Test
+    public void entriesSurviveReopening() throws Exception {
+        File dir = mFolder.getRoot();
+        File source = CacheTestFiles.createSource(dir, "a.m4a");
+        put(new PcmCache(new File(dir, "cache"), 1 << 20), source, 1000, 0);
+
+        PcmCache cache = new PcmCache(new File(dir, "cache"), 1 << 20);
+        assertEquals(ENTRY_SIZE, cache.getSize());
+        assertNotNull(cache.get(source));
+    }
+
+    @Test
+    public void abortedEntryIsDropped() throws Exception {
+        File dir = mFolder.getRoot();
+        File source = CacheTestFiles.createSource(dir, "a.m4a");
+        PcmCache cache = new PcmCache(new File(dir, "cache"), 1 << 20);
+
+        PcmCache.Writer writer = cache.edit(source, 44100, 2);
+        writer.write(ShortBuffer.wrap(new short[100]), 100);
+        writer.abort();
+
+        assertNull(cache.get(source));
+        assertEquals(0, cache.getDirectory().list().length);
+    }
+
+    private static int put(PcmCache cache, File source, int samples, long decodeTimeMs)
+            throws IOException {
+        short[] pcm = new short[samples];
+        for (int i = 0; i < samples; i++) {
+            pcm[i] = (short) (i * 31 - 1000);
+        }
+
+        PcmCache.Writer writer = cache.edit(source, 44100, 2);
+        /* written in two chunks, like decoder output */
+        writer.write(ShortBuffer.wrap(pcm, 0, samples / 2), samples / 2);
+        writer.write(ShortBuffer.wrap(pcm, samples / 2, samples - samples / 2),
+                samples - samples / 2);
+        return writer.commit(decodeTimeMs);
+    }
+}
@@ -0,0 +1,95 @@
+package net.integritas.android.avmixer.cache;
+
+import net.integritas.android.avmixer.audio.PeakPyramid;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PeakCacheTest {
+
+    /* 10 full blocks and a partial one, stereo */
+    private static final int FRAMES = PeakPyramid.BASE_FRAMES * 10 + 100;
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void storedWaveformIsReadBack() throws Exception {
+        File dir = mFolder.getRoot();
+        File source = CacheTestFiles.createSource(dir, "a.m4a");
+        PeakCache cache = new PeakCache(new File(dir, "cache"));
+
+        assertNull(cache.get(source));
+        assertTrue(!cache.contains(source));
+        cache.put(source, build());
+        assertTrue(cache.contains(source));
+
+        PeakPyramid peaks = cache.get(source);
+        assertNotNull(peaks);
+        assertEquals(44100, peaks.getSampleRate());
+        assertEquals(2, peaks.getChannelCount());
+        assertEquals(FRAMES, peaks.getFrameCount());
+        assertEquals(11, peaks.getPeakCount(0));
+        assertEquals(1, peaks.getPeakCount(peaks.getLevelCount() - 1));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        /* block b holds the ramp values b * BASE_FRAMES .. b * BASE_FRAMES + 255 */
+        for (int b = 0; b < 10; b++) {
+            assertEquals((short) -(b * PeakPyramid.BASE_FRAMES + 255), peaks.getMin(0, b));
+            assertEquals((short) (b * PeakPyramid.BASE_FRAMES + 255), peaks.getMax(0, b));
+        }
+        assertEquals((short) (FRAMES - 1), peaks.getMax(0, 10));
+        assertEquals((short) (FRAMES - 1), peaks.getMax(peaks.getLevelCount() - 1, 0));
+    }
+
+    @Test
+    public void peaksMergeTheBlocksOfEachPixel() throws Exception {
+        PeakPyramid peaks = build();
+        short[] mins = new short[5];
+        short[] maxs = new short[5];
+        /* two blocks per pixel, served by the second level */
+        peaks.getPeaks(0, 10 * PeakPyramid.BASE_FRAMES, mins, maxs, 5);
+
+        for (int p = 0; p < 5; p++) {
+            int last = (2 * p + 2) * PeakPyramid.BASE_FRAMES - 1;
+            assertEquals((short) -last, mins[p]);
+            assertEquals((short) last, maxs[p]);
+        }
+    }
+
+    @Test
+    public void modifiedFileMisses() throws Exception {
+        File dir = mFolder.getRoot();
+        File source = CacheTestFiles.createSource(dir, "a.m4a");
+        PeakCache cache = new PeakCache(new File(dir, "cache"));
+        cache.put(source, build());
+
+        source.setLastModified(source.lastModified() - 10000);
+        assertNull(cache.get(source));
+    }
+
+    /* a ramp, mirrored on the second channel */
+    private static PeakPyramid build() {
+        short[] pcm = new short[FRAMES * 2];
+        for (int f = 0; f < FRAMES; f++) {
+            pcm[2 * f] = (short) f;
+            pcm[2 * f + 1] = (short) -f;
+        }
+
+        PeakPyramid.Builder builder = new PeakPyramid.Builder(44100, 2);
+        /* added in two chunks, like decoder output */
+        builder.add(ShortBuffer.wrap(pcm, 0, 1000), 1000);
+        builder.add(ShortBuffer.wrap(pcm, 1000, pcm.length - 1000), pcm.length - 1000);
+        return builder.build();
+    }
+}
@@ -0,0 +1,153 @@
+package net.integritas.android.avmixer.codec;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CodecPumpTest {
+
+    @Test
+    public void syncCodecBuffersAreSweptInOrder() throws Exception {
+        CodecPump pump = new CodecPump();
+        FakeCodec codec = new FakeCodec(false);
+        int id = pump.add(codec);
+
+        codec.mInputs.add(3);
+        codec.mInputs.add(5);
+        codec.mOutputs.add(new CodecPump.OutputBuffer()
+                .set(CodecPump.INFO_OUTPUT_FORMAT_CHANGED, 0, 0, 0, 0));
+        codec.mOutputs.add(new CodecPump.OutputBuffer().set(1, 0, 4096, 1000, 0));
+
+        assertTrue(pump.await(0));
+        assertEquals(3, pump.pollInput(id));
+        assertEquals(5, pump.pollInput(id));
+        assertEquals(CodecPump.INFO_TRY_AGAIN_LATER, pump.pollInput(id));
+
+        CodecPump.OutputBuffer out = new CodecPump.OutputBuffer();
+        assertTrue(pump.pollOutput(id, out));
+        assertTrue(out.isFormatChange());
+        assertTrue(pump.pollOutput(id, out));
+        assertEquals(1, out.index);
+        assertEquals(4096, out.size);
+        assertEquals(1000, out.presentationTimeUs);
+        assertFalse(pump.pollOutput(id, out));
+    }
+
+    @Test
+    public void asyncCodecWakesUpAwait() throws Exception {
+        final CodecPump pump = new CodecPump();
+        final FakeCodec codec = new FakeCodec(true);
+        final int id = pump.add(codec);
+
+        Thread callbacks = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                codec.mListener.onOutputBufferAvailable(2, 0, 2048, 500,
+                        CodecPump.BUFFER_FLAG_END_OF_STREAM);
+            }
+        });
+        callbacks.start();
+
+        long start = System.nanoTime();
+        assertTrue(pump.await(5000000));
+        assertTrue((System.nanoTime() - start) / 1000000l < 4000);
+        assertEquals(1, pump.getOutputQueueDepth(id));
+
+        CodecPump.OutputBuffer out = new CodecPump.OutputBuffer();
+        assertTrue(pump.pollOutput(id, out));
+        assertEquals(2, out.index);
+        assertTrue(out.isEndOfStream());
+        assertEquals(0, pump.getOutputQueueDepth(id));
+        assertEquals(1, pump.getMaxQueueDepth(id));
+        callbacks.join();
+    }
+
+    @Test
+    public void buffersNotTakenDoNotWakeAwaitAgain() throws Exception {
+        CodecPump pump = new CodecPump();
+        FakeCodec codec = new FakeCodec(true);
+        int id = pump.add(codec);
+
+        codec.mListener.onInputBufferAvailable(0);
+        assertTrue(pump.await(1000));
+        assertFalse(pump.await(1000));
+        assertEquals(1, pump.getInputQueueDepth(id));
+    }
+
+    @Test
+    public void removedCodecIsNotPolled() throws Exception {
+        CodecPump pump = new CodecPump();
+        FakeCodec codec = new FakeCodec(false);
+        int id = pump.add(codec);
+
+        pump.remove(id);
+        codec.mInputs.add(0);
+        assertFalse(pump.await(1000));
+        assertEquals(CodecPump.INFO_TRY_AGAIN_LATER, pump.pollInput(id));
+        assertEquals(1, codec.mInputs.size());
+    }
+
+    @Test
+    public void codecErrorIsReported() throws Exception {
+        CodecPump pump = new CodecPump();
+        FakeCodec codec = new FakeCodec(true);
+        int id = pump.add(codec);
+
+        codec.mListener.onError(new RuntimeException("decoder died"));
+        try {
+            pump.pollInput(id);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("decoder died", e.getCause().getMessage());
+        }
+    }
+
+    private static final class FakeCodec implements CodecPump.Codec {
+
+        final boolean mAsync;
+        final ArrayDeque<Integer> mInputs = new ArrayDeque<Integer>();
+        final ArrayDeque<CodecPump.OutputBuffer> mOutputs =
+                new ArrayDeque<CodecPump.OutputBuffer>();
+        CodecPump.Listener mListener;
+
+        FakeCodec(boolean async) {
+            mAsync = async;
+        }
+
+        @Override
+        public boolean isAsync() {
+            return mAsync;
+        }
+
+        @Override
+        public void setListener(CodecPump.Listener listener) {
+            mListener = listener;
+        }
+
+        @Override
+        public int dequeueInputBuffer(long timeoutUs) {
+            return mInputs.isEmpty() ? CodecPump.INFO_TRY_AGAIN_LATER : mInputs.removeFirst();
+        }
+
+        @Override
+        public int dequeueOutputBuffer(CodecPump.OutputBuffer out, long timeoutUs) {
+            if (mOutputs.isEmpty()) {
+                return CodecPump.INFO_TRY_AGAIN_LATER;
+            }
+
+            CodecPump.OutputBuffer next = mOutputs.removeFirst();
+            out.set(next.index, next.offset, next.size, next.presentationTimeUs, next.flags);
+            return next.index;
+        }
+    }
+}
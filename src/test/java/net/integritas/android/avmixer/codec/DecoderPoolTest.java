@@ -0,0 +1,93 @@
+package net.integritas.android.avmixer.codec;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DecoderPoolTest {
+
+    private static final String AVC_720P = DecoderPool.getKey("video/avc", 1280, 720);
+
+    @Test
+    public void keysSeparateMimeTypesAndResolutionClasses() {
+        assertEquals(AVC_720P, DecoderPool.getKey("video/avc", 720, 1280));
+        assertEquals(AVC_720P, DecoderPool.getKey("video/avc", 960, 540));
+        assertFalse(AVC_720P.equals(DecoderPool.getKey("video/avc", 1920, 1080)));
+        assertFalse(AVC_720P.equals(DecoderPool.getKey("video/hevc", 1280, 720)));
+    }
+
+    @Test
+    public void decoderGivenBackIsReused() {
+        DecoderPool<FakeDecoder> pool = new DecoderPool<FakeDecoder>(2);
+        assertNull(pool.take(AVC_720P));
+
+        FakeDecoder decoder = new FakeDecoder();
+        pool.add(AVC_720P, decoder, 200);
+        assertTrue(pool.isInUse(AVC_720P));
+        assertNull(pool.take(AVC_720P));
+
+        pool.giveBack(decoder);
+        assertFalse(pool.isInUse(AVC_720P));
+        assertNull(pool.take(DecoderPool.getKey("video/avc", 1920, 1080)));
+        assertSame(decoder, pool.take(AVC_720P));
+        assertTrue(pool.isInUse(AVC_720P));
+
+        pool.giveBack(decoder);
+        assertSame(decoder, pool.take(AVC_720P));
+        assertEquals(2, pool.getReuses());
+        assertEquals(1, pool.getCreations());
+        assertEquals(400, pool.getSavedTimeMs());
+        assertFalse(decoder.mReleased);
+    }
+
+    @Test
+    public void idleDecodersAreBounded() {
+        DecoderPool<FakeDecoder> pool = new DecoderPool<FakeDecoder>(1);
+        FakeDecoder first = new FakeDecoder();
+        FakeDecoder second = new FakeDecoder();
+        pool.add(AVC_720P, first, 100);
+        pool.add(AVC_720P, second, 100);
+
+        pool.giveBack(first);
+        pool.giveBack(second);
+        assertTrue(first.mReleased);
+        assertFalse(second.mReleased);
+        assertSame(second, pool.take(AVC_720P));
+        assertNull(pool.take(AVC_720P));
+
+        pool.discard(second);
+        assertTrue(second.mReleased);
+        assertFalse(pool.isInUse(AVC_720P));
+    }
+
+    @Test
+    public void releaseReleasesIdleDecodersOnly() {
+        DecoderPool<FakeDecoder> pool = new DecoderPool<FakeDecoder>(2);
+        FakeDecoder idle = new FakeDecoder();
+        FakeDecoder inUse = new FakeDecoder();
+        pool.add(AVC_720P, idle, 100);
+        pool.add(AVC_720P, inUse, 100);
+        pool.giveBack(idle);
+
+        pool.release();
+        assertTrue(idle.mReleased);
+        assertFalse(inUse.mReleased);
+        assertNull(pool.take(AVC_720P));
+        assertTrue(pool.isInUse(AVC_720P));
+    }
+
+    private static class FakeDecoder extends PcmCodec {
+
+        boolean mReleased;
+
+        @Override
+        public synchronized void release() {
+            super.release();
+            mReleased = true;
+        }
+    }
+}
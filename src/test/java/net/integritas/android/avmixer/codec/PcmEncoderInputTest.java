@@ -0,0 +1,157 @@
+package net.integritas.android.avmixer.codec;
+
+import net.integritas.android.avmixer.audio.AudioClock;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PcmEncoderInputTest {
+
+    private static final int WINDOW_SAMPLES = 2048;
+
+    @Test
+    public void samplesAreWrittenInNativeOrderWholeFrames() throws Exception {
+        CodecPump pump = new CodecPump();
+        /* 1001 bytes hold 250 stereo frames */
+        FakeEncoder encoder = new FakeEncoder(3, 1001);
+        encoder.mConsume = false;
+        int id = pump.add(encoder);
+        PcmEncoderInput input = new PcmEncoderInput(pump, id, encoder, new AudioClock(1000, 2));
+
+        short[] samples = new short[600];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (i * 97 - 30000);
+        }
+
+        assertEquals(600, input.write(samples, 0, 600));
+        assertEquals(1, encoder.mQueued);
+        assertEquals(500 * 2, encoder.mLastSize);
+        assertEquals(0, encoder.mLastPresentationTimeUs);
+
+        ByteBuffer first = encoder.mBuffers[encoder.mLastIndex].duplicate()
+                .order(ByteOrder.nativeOrder());
+        for (int i = 0; i < 500; i++) {
+            assertEquals(samples[i], first.getShort(i * 2));
+        }
+
+        /* the second buffer is still being filled */
+        input.flush();
+        assertEquals(2, encoder.mQueued);
+        assertEquals(100 * 2, encoder.mLastSize);
+        assertEquals(250000, encoder.mLastPresentationTimeUs);
+
+        assertTrue(input.signalEndOfStream());
+        assertEquals(0, encoder.mLastSize);
+        assertEquals(300000, encoder.mLastPresentationTimeUs);
+        assertEquals(CodecPump.BUFFER_FLAG_END_OF_STREAM, encoder.mLastFlags);
+    }
+
+    @Test
+    public void writeStopsWhenNoInputBufferIsFree() throws Exception {
+        CodecPump pump = new CodecPump();
+        FakeEncoder encoder = new FakeEncoder(2, 400);
+        encoder.mConsume = false;
+        int id = pump.add(encoder);
+        PcmEncoderInput input = new PcmEncoderInput(pump, id, encoder, new AudioClock(1000, 1));
+
+        assertEquals(400, input.write(new short[1000], 0, 1000));
+        assertEquals(2, encoder.mQueued);
+        assertFalse(input.signalEndOfStream());
+    }
+
+    @Test
+    public void steadyStateWritesDoNotAllocate() throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        CodecPump pump = new CodecPump();
+        FakeEncoder encoder = new FakeEncoder(4, 16384);
+        int id = pump.add(encoder);
+        PcmEncoderInput input = new PcmEncoderInput(pump, id, encoder, new AudioClock(48000, 2));
+        short[] window = new short[WINDOW_SAMPLES];
+
+        /* every buffer is seen once, and the code is warmed up */
+        for (int i = 0; i < 20000; i++) {
+            input.write(window, 0, window.length);
+        }
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 1000; i++) {
+            input.write(window, 0, window.length);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        /* leaves room for the measurement itself, far below a single window copy */
+        assertTrue("allocated " + allocated + " bytes", allocated < WINDOW_SAMPLES);
+    }
+
+    /**
+     * Synchronous encoder which consumes its input buffers as soon as they are queued
+     */
+    private static final class FakeEncoder implements CodecPump.Codec, PcmEncoderInput.Buffers {
+
+        final ByteBuffer[] mBuffers;
+        final int[] mFree;
+        int mFreeCount;
+        boolean mConsume = true;
+        int mQueued;
+        int mLastIndex;
+        int mLastSize;
+        long mLastPresentationTimeUs;
+        int mLastFlags;
+
+        FakeEncoder(int buffers, int capacity) {
+            mBuffers = new ByteBuffer[buffers];
+            mFree = new int[buffers];
+            for (int i = 0; i < buffers; i++) {
+                mBuffers[i] = ByteBuffer.allocateDirect(capacity);
+                mFree[mFreeCount++] = i;
+            }
+        }
+
+        @Override
+        public boolean isAsync() {
+            return false;
+        }
+
+        @Override
+        public void setListener(CodecPump.Listener listener) {
+        }
+
+        @Override
+        public int dequeueInputBuffer(long timeoutUs) {
+            return mFreeCount > 0 ? mFree[--mFreeCount] : CodecPump.INFO_TRY_AGAIN_LATER;
+        }
+
+        @Override
+        public int dequeueOutputBuffer(CodecPump.OutputBuffer out, long timeoutUs) {
+            return CodecPump.INFO_TRY_AGAIN_LATER;
+        }
+
+        @Override
+        public ByteBuffer getInputBuffer(int index) {
+            return mBuffers[index];
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs,
+                                     int flags) {
+            ++mQueued;
+            mLastIndex = index;
+            mLastSize = size;
+            mLastPresentationTimeUs = presentationTimeUs;
+            mLastFlags = flags;
+            if (mConsume) {
+                mFree[mFreeCount++] = index;
+            }
+        }
+    }
+}